@@ -0,0 +1,47 @@
+package cnergy.bench;
+
+import cnergy.agents.OrderBook;
+import jade.core.AID;
+
+import java.util.Random;
+
+/**
+ * Book fixtures shaped like the simulated market: bids below and asks above a
+ * mid price, thinning out away from it (half-normal), quotes on a 0.1 c/kWh
+ * grid and a few hundred distinct owners.
+ */
+final class Books {
+
+    static final double MID = 0.05;      // euro/kWh
+    static final double SPREAD = 0.002;
+    static final double SIGMA = 0.01;
+    static final double GRID = 1e-4;
+    static final int OWNERS = 500;
+
+    private Books() {}
+
+    static AID[] owners() {
+        AID[] owners = new AID[OWNERS];
+        for (int i = 0; i < OWNERS; i++) owners[i] = new AID("agent"+i, AID.ISGUID);
+        return owners;
+    }
+
+    /** A resting (non-crossing) price for one side. */
+    static double passivePrice(Random rand, boolean seller) {
+        double away = SPREAD / 2 + Math.abs(rand.nextGaussian()) * SIGMA;
+        double price = seller ? MID + away : Math.max(GRID, MID - away);
+        return Math.round(price / GRID) * GRID;
+    }
+
+    static double qty(Random rand) {
+        return 1 + rand.nextInt(40); // kWh, household to small plant
+    }
+
+    /** Fill {@code book} with {@code depth} resting orders, half per side, expiring on {@code expiry(i)}. */
+    static void fill(OrderBook book, int depth, Random rand, AID[] owners, java.util.function.IntUnaryOperator expiry) {
+        for (int i = 0; i < depth; i++) {
+            boolean seller = (i & 1) == 0;
+            book.add(owners[i % owners.length], qty(rand), passivePrice(rand, seller), seller, expiry.applyAsInt(i));
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package cnergy.bench;
+
+import cnergy.agents.MarketCodec;
+import jade.lang.acl.ACLMessage;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Message content encoding / decoding, binary against the text fallback and
+ * the {@code String.split} parsing the agents used before the codec.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecBenchmark {
+
+    private final MarketCodec.Reader reader = new MarketCodec.Reader();
+    private ACLMessage binaryOrder, textOrder, binaryFill;
+    private String legacyOrder;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        binaryOrder = new ACLMessage(ACLMessage.PROPOSE);
+        MarketCodec.writeOrder(binaryOrder, 0, true, 12.5, 0.043);
+
+        legacyOrder = "qty=12.5;price=0.043;side=sell";
+        textOrder = new ACLMessage(ACLMessage.PROPOSE);
+        textOrder.setLanguage(MarketCodec.TEXT);
+        textOrder.setContent(legacyOrder);
+
+        binaryFill = new ACLMessage(ACLMessage.ACCEPT_PROPOSAL);
+        MarketCodec.writeFill(binaryFill, 42, 7, 12.5, 0.043, "household10");
+    }
+
+    @Benchmark
+    public double decodeBinaryOrder() {
+        reader.wrap(binaryOrder);
+        return reader.isSell() ? reader.qty() : reader.price();
+    }
+
+    @Benchmark
+    public double decodeTextOrder() {
+        reader.wrap(textOrder);
+        return reader.isSell() ? reader.qty() : reader.price();
+    }
+
+    @Benchmark
+    public double decodeLegacySplit() {
+        String[] tokens = legacyOrder.split(";");
+        double qty = Double.parseDouble(tokens[0].split("=")[1]);
+        double price = Double.parseDouble(tokens[1].split("=")[1]);
+        boolean sell = tokens[2].split("=")[1].equals("sell");
+        return sell ? qty : price;
+    }
+
+    @Benchmark
+    public String decodeFillName() {
+        return reader.wrap(binaryFill).name();
+    }
+
+    @Benchmark
+    public ACLMessage encodeOrder() {
+        ACLMessage msg = new ACLMessage(ACLMessage.PROPOSE);
+        MarketCodec.writeOrder(msg, 0, true, 12.5, 0.043);
+        return msg;
+    }
+}
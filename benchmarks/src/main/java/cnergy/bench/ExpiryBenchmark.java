@@ -0,0 +1,54 @@
+package cnergy.bench;
+
+import cnergy.agents.OrderBook;
+import jade.core.AID;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One broker tick of expiry at steady state: the {@code depth} resting orders
+ * are spread over the {@code expiryTicks} horizon, every tick expires one
+ * slice and the agents requote the same volume (as they do in the simulator).
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExpiryBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    int depth;
+
+    @Param({"3"})
+    int expiryTicks;
+
+    private OrderBook book;
+    private AID[] owners;
+    private Random rand;
+    private int tick;
+    private int expired;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        rand = new Random(42);
+        owners = Books.owners();
+        book = new OrderBook();
+        Books.fill(book, depth, rand, owners, i -> 1 + i % expiryTicks);
+        tick = 0;
+    }
+
+    @Benchmark
+    public int expireTick() {
+        tick++;
+        expired = 0;
+        book.expire(tick, order -> {
+            expired++;
+            book.add(order.owner, order.qty, order.price, order.seller, tick + expiryTicks);
+        });
+        return expired;
+    }
+}
@@ -0,0 +1,129 @@
+package cnergy.bench;
+
+import cnergy.agents.OrderBook;
+import jade.core.AID;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Order insertion and matching against a book of {@code depth} resting orders.
+ * Every operation leaves the book with the same number of orders and volume,
+ * so the numbers hold for that size however long the measurement runs.
+ * <pre>
+ *  addCancel  : passive insert + cancel
+ *  aggressive : crossing order that takes the best level, then the taken
+ *               volume is put back
+ *  mixed      : aggressiveShare crossing, the rest passive behind the best
+ *               level (the oldest of the last 1024 is cancelled each time)
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OrderBookBenchmark {
+
+    private static final int FAR = Integer.MAX_VALUE; // never expires in these runs
+    private static final int OPS = 1 << 16;           // pre-drawn operations, cycled
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    int depth;
+
+    @Param({"0.2"})
+    double aggressiveShare;
+
+    private OrderBook book;
+    private AID[] owners;
+    private double[] qty, price;
+    private boolean[] seller, aggressive;
+    private final long[] passive = new long[1024];    // ring of ids mixed() keeps resting
+    private int ring, op;
+    private double traded;
+    private int filled;        // resting orders the aggressor used up
+    private boolean aggressorSells;
+
+    private final OrderBook.TradeListener listener = (buy, sell, q, p) -> {
+        traded += q;
+        if ((aggressorSells ? buy : sell).isFilled()) filled++;
+    };
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random rand = new Random(42);
+        owners = Books.owners();
+        book = new OrderBook();
+        Books.fill(book, depth, rand, owners, i -> FAR);
+
+        qty = new double[OPS];
+        price = new double[OPS];
+        seller = new boolean[OPS];
+        aggressive = new boolean[OPS];
+        for (int i = 0; i < OPS; i++) {
+            seller[i] = rand.nextBoolean();
+            qty[i] = Books.qty(rand);
+            price[i] = Books.passivePrice(rand, seller[i]);
+            aggressive[i] = rand.nextDouble() < aggressiveShare;
+        }
+    }
+
+    @Benchmark
+    public OrderBook.Order addCancel() {
+        int i = next();
+        OrderBook.Order order = book.add(owners[i % owners.length], qty[i], price[i], seller[i], FAR);
+        book.cancel(order.id);
+        return order;
+    }
+
+    @Benchmark
+    public double aggressive() {
+        return take(next());
+    }
+
+    @Benchmark
+    public double mixed() {
+        int i = next();
+        if (aggressive[i]) return take(i);
+
+        // rest behind the best level, which is all take() ever reaches
+        double p = seller[i] ? Math.max(price[i], book.bestAsk().price + Books.GRID)
+                             : Math.min(price[i], book.bestBid().price - Books.GRID);
+        OrderBook.Order order = book.add(owners[i % owners.length], qty[i], p, seller[i], FAR);
+        int slot = ring++ & (passive.length - 1);
+        if (ring > passive.length) book.cancel(passive[slot]);
+        passive[slot] = order.id;
+        return order.price;
+    }
+
+    /** Cross the best opposite level with order {@code i}, then restore the volume it took. */
+    private double take(int i) {
+        boolean sell = seller[i];
+        OrderBook.Order best = sell ? book.bestBid() : book.bestAsk();
+        if (best == null) return 0;
+        double level = best.price;
+
+        traded = 0;
+        filled = 0;
+        aggressorSells = sell;
+        book.add(owners[i % owners.length], qty[i], level, sell, FAR);
+        book.match(listener);
+
+        // the aggressor may rest if it outsized the level: drop it
+        OrderBook.Order rest = sell ? book.bestAsk() : book.bestBid();
+        if (rest != null && rest.price == level) book.cancel(rest.id);
+        // put the taken liquidity back with the same number of orders
+        if (filled == 0) {
+            best.qty += traded;
+        } else {
+            for (int k = 0; k < filled; k++) book.add(owners[(i + k + 1) % owners.length], traded / filled, level, !sell, FAR);
+        }
+        return traded;
+    }
+
+    private int next() {
+        return op++ & (OPS - 1);
+    }
+}
@@ -1,17 +1,21 @@
 package cnergy;
 
-import java.util.Comparator;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
+import cnergy.metrics.History;
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
-import javafx.application.Platform;
 import javafx.beans.property.*;
+import javafx.beans.value.ChangeListener;
 import javafx.collections.*;
 import javafx.collections.transformation.SortedList;
 import javafx.geometry.*;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
-import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.layout.*;
+import javafx.scene.paint.Color;
 import javafx.scene.text.*;
 import javafx.stage.Stage;
 
@@ -62,6 +66,19 @@ public class Dashboard extends Application {
     }
 public final ObservableList<ConsumerStatus> consumers = FXCollections.observableArrayList();
 
+    // ----- BOTTOM: trend charts -------
+    // sampled once a second; each history holds a fixed number of points, however long the run
+    private static final long SAMPLE_NS = 1_000_000_000L;
+    private static final int HISTORY = 4096;
+    private final History priceHistory = new History(HISTORY);
+    private final History productionHistory = new History(HISTORY);
+    private final History socHistory = new History(HISTORY);
+    private final History backlogHistory = new History(HISTORY);
+    private TrendChart[] charts;
+    private long started, lastSample;
+    // running totals behind the charts, FX thread
+    private double lastPrice = Double.NaN, totalProduction, totalSoc, totalBacklog;
+
     // ----- CENTER: market table ------
     // Last trade
     private final Label sellerTrade = new Label("-");
@@ -95,6 +112,18 @@ public final ObservableList<ConsumerStatus> consumers = FXCollections.observable
     private final ObservableList<Order> buyOrders = FXCollections.observableArrayList();
     private final ObservableList<Order> sellOrders = FXCollections.observableArrayList();
 
+    /** One batch of order-book changes from the broker feed, applied in a single FX update. */
+    public static class BookDelta {
+        public boolean reset;                       // snapshot: replace the sender's orders
+        public long resetFrom, resetTo;             // id range [from, to) owned by the sender
+        public final List<Order> buys = new ArrayList<>();
+        public final List<Order> sells = new ArrayList<>();
+        public final Set<Long> removed = new HashSet<>();
+        // last trade of the batch
+        public String seller, buyer;
+        public double tradeQty, tradePrice;
+    }
+
     @Override
     public void start(Stage stage) {
         INSTANCE = this;
@@ -115,29 +144,28 @@ public final ObservableList<ConsumerStatus> consumers = FXCollections.observable
         TableView<ProducerStatus> prodTable = new TableView<>(producers);
         prodTable.setPrefWidth(320);
         TableColumn<ProducerStatus, String> nameCol = new TableColumn<>("Producer");
-        nameCol.setCellValueFactory(new PropertyValueFactory<>("name"));
+        nameCol.setCellValueFactory(c -> c.getValue().nameProperty());
         TableColumn<ProducerStatus, Number> socCol = new TableColumn<>("SoC (%)");
-        socCol.setCellValueFactory(new PropertyValueFactory<>("socPct"));
+        socCol.setCellValueFactory(c -> c.getValue().socPctProperty());
         TableColumn<ProducerStatus, Number> prodCol = new TableColumn<>("Offer (kWh)");
-        prodCol.setCellValueFactory(new PropertyValueFactory<>("production"));
+        prodCol.setCellValueFactory(c -> c.getValue().productionProperty());
         TableColumn<ProducerStatus, Number> faultCol = new TableColumn<>("Fault ticks");
-        faultCol.setCellValueFactory(new PropertyValueFactory<>("faultTicks"));
+        faultCol.setCellValueFactory(c -> c.getValue().faultTicksProperty());
 
         prodTable.getColumns().addAll(nameCol, socCol, prodCol, faultCol);
 
-        // faulty color styling
+        // faulty color styling; rows are recycled, so the listener moves with the item
         prodTable.setRowFactory(tv -> {
             TableRow<ProducerStatus> row = new TableRow<>();
+            ChangeListener<Number> faultStyle = (o, ov, nv) -> row.setStyle(nv.intValue() > 0 ?
+                    "-fx-background-color:rgba(255,100,100,0.5);" : "");
             row.itemProperty().addListener((obs, oldPs, newPs) -> {
+                if (oldPs != null) oldPs.faultTicksProperty().removeListener(faultStyle);
                 if (newPs == null) {
                     row.setStyle("");
                 } else {
-                    newPs.faultTicksProperty().addListener((o,ov,nv)-> {
-                        row.setStyle(nv.intValue()>0 ?
-                             "-fx-background-color:rgba(255,100,100,0.5);" : "");
-                    });
-                    row.setStyle(newPs.getTicksLeft()>0 ?
-                         "-fx-background-color:rgba(255,100,100,0.5);" : "");
+                    newPs.faultTicksProperty().addListener(faultStyle);
+                    faultStyle.changed(null, null, newPs.getTicksLeft());
                 }
             });
             return row;
@@ -154,11 +182,11 @@ public final ObservableList<ConsumerStatus> consumers = FXCollections.observable
         TableView<ConsumerStatus> consTable = new TableView<>(consumers);
         consTable.setPrefWidth(250);
         TableColumn<ConsumerStatus,String> cNameCol   = new TableColumn<>("Consumer");
-        cNameCol.setCellValueFactory(new PropertyValueFactory<>("name"));
+        cNameCol.setCellValueFactory(c -> c.getValue().nameProperty());
         TableColumn<ConsumerStatus,Number> cDemCol    = new TableColumn<>("Demand (kWh)");
-        cDemCol.setCellValueFactory(new PropertyValueFactory<>("demand"));
+        cDemCol.setCellValueFactory(c -> c.getValue().demandProperty());
         TableColumn<ConsumerStatus,Number> cBackCol   = new TableColumn<>("Backlog");
-        cBackCol.setCellValueFactory(new PropertyValueFactory<>("backlog"));
+        cBackCol.setCellValueFactory(c -> c.getValue().backlogProperty());
 
         consTable.getColumns().addAll(cNameCol, cDemCol, cBackCol);
 
@@ -198,13 +226,13 @@ public final ObservableList<ConsumerStatus> consumers = FXCollections.observable
 
         sellTable.setPlaceholder(new Label("No sell orders"));
         TableColumn<Order,Number> sellIdCol    = new TableColumn<>("ID");
-        sellIdCol.setCellValueFactory(new PropertyValueFactory<>("id"));
+        sellIdCol.setCellValueFactory(c -> c.getValue().idProperty());
         TableColumn<Order,Number> sellQtyCol   = new TableColumn<>("Qty");
-        sellQtyCol.setCellValueFactory(new PropertyValueFactory<>("qty"));
+        sellQtyCol.setCellValueFactory(c -> c.getValue().qtyProperty());
         TableColumn<Order,Number> sellPriceCol = new TableColumn<>("Price");
-        sellPriceCol.setCellValueFactory(new PropertyValueFactory<>("price"));
+        sellPriceCol.setCellValueFactory(c -> c.getValue().priceProperty());
         TableColumn<Order,String> sellOwnCol    = new TableColumn<>("Owner");
-        sellOwnCol.setCellValueFactory(new PropertyValueFactory<>("owner"));
+        sellOwnCol.setCellValueFactory(c -> c.getValue().ownerProperty());
         sellTable.getColumns().addAll(sellIdCol, sellQtyCol, sellPriceCol, sellOwnCol);
 
         // BUY side – highest price first
@@ -215,13 +243,13 @@ public final ObservableList<ConsumerStatus> consumers = FXCollections.observable
 
         buyTable.setPlaceholder(new Label("No buy orders"));
         TableColumn<Order,Number> buyIdCol    = new TableColumn<>("ID");
-        buyIdCol.setCellValueFactory(new PropertyValueFactory<>("id"));
+        buyIdCol.setCellValueFactory(c -> c.getValue().idProperty());
         TableColumn<Order,Number> buyQtyCol   = new TableColumn<>("Qty");
-        buyQtyCol.setCellValueFactory(new PropertyValueFactory<>("qty"));
+        buyQtyCol.setCellValueFactory(c -> c.getValue().qtyProperty());
         TableColumn<Order,Number> buyPriceCol = new TableColumn<>("Price");
-        buyPriceCol.setCellValueFactory(new PropertyValueFactory<>("price"));
+        buyPriceCol.setCellValueFactory(c -> c.getValue().priceProperty());
         TableColumn<Order,String> buyOwnCol    = new TableColumn<>("Owner");
-        buyOwnCol.setCellValueFactory(new PropertyValueFactory<>("owner"));
+        buyOwnCol.setCellValueFactory(c -> c.getValue().ownerProperty());
         buyTable.getColumns().addAll(buyIdCol, buyQtyCol, buyPriceCol, buyOwnCol);
 
         HBox tables = new HBox(10, new VBox(new Label("Sells"), sellTable), new VBox(new Label("Buys"), buyTable));
@@ -232,114 +260,245 @@ public final ObservableList<ConsumerStatus> consumers = FXCollections.observable
         centerPane.setAlignment(Pos.TOP_CENTER);
         centerPane.setPadding(new Insets(10));
 
+        // ----------- BOTTOM: trends ---------------
+        charts = new TrendChart[] {
+                new TrendChart("Clearing price", "%.3f €/kWh", Color.DARKORANGE, priceHistory),
+                new TrendChart("Total production", "%.1f kWh", Color.SEAGREEN, productionHistory),
+                new TrendChart("Mean battery SoC", "%.1f %%", Color.STEELBLUE, socHistory),
+                new TrendChart("Unmet backlog", "%.1f kWh", Color.FIREBRICK, backlogHistory)};
+        ChoiceBox<String> windowBox = new ChoiceBox<>(FXCollections.observableArrayList("Last 10 min", "Last hour", "Last day", "Whole run"));
+        double[] windows = {600, 3600, 86400, Double.POSITIVE_INFINITY};
+        windowBox.getSelectionModel().selectedIndexProperty().addListener((o, ov, nv) -> {
+            for (TrendChart c : charts) c.setWindow(windows[nv.intValue()]);
+        });
+        windowBox.getSelectionModel().selectLast();
+        HBox trends = new HBox(10, charts);
+        for (TrendChart c : charts) HBox.setHgrow(c, Priority.ALWAYS);
+        VBox bottomPane = new VBox(5, new HBox(10, new Label("Trends"), windowBox), trends);
+        bottomPane.setPadding(new Insets(10));
+
         // ------------- Assemble --------------------
         BorderPane root = new BorderPane();
         root.setTop(topBar);
         root.setLeft(leftPane);
         root.setCenter(centerPane);
         root.setRight(rightPane);
+        root.setBottom(bottomPane);
 
-        Scene scene = new Scene(root, 1500, 700);
+        Scene scene = new Scene(root, 1500, 900);
         stage.setScene(scene);
         stage.show();
+
+        // one pass over the update buffers per rendered frame
+        new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                drain();
+                if (started == 0) started = lastSample = now;
+                if (now - lastSample >= SAMPLE_NS) {
+                    lastSample = now;
+                    sample((now - started) / 1e9);
+                }
+                for (TrendChart c : charts) c.redraw();
+            }
+        }.start();
     }
 
     // --------- Exposed update methods -------------
+    // Called from agent threads. Nothing touches the scene here: every update
+    // lands in a buffer that the frame timer drains on the FX thread.
+
     public void updateWeather(String sunToken, String windToken, String dayToken, Integer hour) {
-        Platform.runLater(() -> weatherLabel.setText(String.format("Time %d:00 %s | Weather --> Sun: %s   Wind: %s", hour, dayToken, sunToken, windToken)));
+        latest("weather", () -> weatherLabel.setText(String.format("Time %d:00 %s | Weather --> Sun: %s   Wind: %s", hour, dayToken, sunToken, windToken)));
     }
 
     public void updateFaults(Integer ticksRemain, String victim) {
-        Platform.runLater(() -> {
-            for (ProducerStatus ps : producers) {
-                if (ps.getName().equals(victim)) {
-                    ps.faultTicksProperty().set(ticksRemain);
-                    break;
-                }
-            }
-
-            long downCount = producers.stream().filter(ps->ps.getTicksLeft()>0).count();
-            faultyLabel.setText("Faulty: " + downCount);
+        latest("fault:" + victim, () -> {
+            ProducerStatus ps = producerIndex.get(victim);
+            if (ps == null) return;
+            if ((ps.getTicksLeft() > 0) != (ticksRemain > 0)) faultyCount += ticksRemain > 0 ? 1 : -1;
+            ps.faultTicksProperty().set(ticksRemain);
+            faultyLabel.setText("Faulty: " + faultyCount);
         });
     }
 
     public void updateLastTrade(double price) {
-        Platform.runLater(() -> lastTradeLabel.setText(
-            String.format(" Current price: %.3f €/kWh", price)));
+        latest("price", () -> setLastTrade(price));
+    }
+
+    private void setLastTrade(double price) {
+        lastPrice = price;
+        lastTradeLabel.setText(String.format(" Current price: %.3f €/kWh", price));
     }
 
     public void setConsumerCount(int n) {
-        Platform.runLater(() -> consumerCount.set(n));
+        latest("consumers", () -> consumerCount.set(n));
     }
 
     public void addProducer(String name) {
-        Platform.runLater(() -> producers.add(new ProducerStatus(name)));
+        pending.add(() -> {
+            if (producerIndex.containsKey(name)) return;
+            ProducerStatus ps = new ProducerStatus(name);
+            producerIndex.put(name, ps);
+            producers.add(ps);
+        });
     }
 
     public void updateProducer(String name, double socPct, double prod, boolean inFault) {
-        Platform.runLater(() -> {
-            for (ProducerStatus ps : producers) {
-                if (ps.getName().equals(name)) {
-                    ps.socPctProperty().set(socPct);
-                    ps.productionProperty().set(prod);
-                    break;
-                }
-            }
+        latest("producer:" + name, () -> {
+            ProducerStatus ps = producerIndex.get(name);
+            if (ps == null) return;
+            totalProduction += prod - ps.getProduction();
+            totalSoc += socPct - ps.getSocPct();
+            ps.socPctProperty().set(socPct);
+            ps.productionProperty().set(prod);
         });
     }
 
     public void addConsumer(String name) {
-        Platform.runLater(() -> consumers.add(new ConsumerStatus(name)));
+        pending.add(() -> {
+            if (consumerIndex.containsKey(name)) return;
+            ConsumerStatus c = new ConsumerStatus(name);
+            consumerIndex.put(name, c);
+            consumers.add(c);
+        });
     }
 
     public void updateConsumer(String name, double demand, double backlog) {
-        Platform.runLater(() -> {
-            consumers.stream()
-                     .filter(c -> c.getName().equals(name))
-                     .findFirst()
-                     .ifPresent(c -> {
-                          c.demandProperty().set(demand);
-                          c.backlogProperty().set(backlog);
-                     });
+        latest("consumer:" + name, () -> {
+            ConsumerStatus c = consumerIndex.get(name);
+            if (c == null) return;
+            totalBacklog += backlog - c.getBacklog();
+            c.demandProperty().set(demand);
+            c.backlogProperty().set(backlog);
         });
     }
 
     public void addBuyOrder(long id, double qty, double price, String owner) {
-        Platform.runLater(() -> buyOrders.add(new Order(id,qty,price,owner)));
+        Order o = new Order(id, qty, price, owner);
+        pending.add(() -> stageAdd(o, false));
     }
 
     public void addSellOrder(long id, double qty, double price, String owner) {
-        Platform.runLater(() -> sellOrders.add(new Order(id,qty,price,owner)));
+        Order o = new Order(id, qty, price, owner);
+        pending.add(() -> stageAdd(o, true));
     }
 
     public void removeOrder(long id) {
-        Platform.runLater(() -> {
-            buyOrders.removeIf(o -> o.getId() == id);
-            sellOrders.removeIf(o -> o.getId() == id);
+        pending.add(() -> stageRemove(id));
+    }
+
+    public void applyBookDelta(BookDelta delta) {
+        pending.add(() -> {
+            if (delta.reset) {
+                for (Long id : idsIn(buyIndex, delta.resetFrom, delta.resetTo)) stageRemove(id);
+                for (Long id : idsIn(sellIndex, delta.resetFrom, delta.resetTo)) stageRemove(id);
+            }
+            for (Order o : delta.buys) stageAdd(o, false);
+            for (Order o : delta.sells) stageAdd(o, true);
+            for (Long id : delta.removed) stageRemove(id);
         });
+        if (delta.seller != null) {
+            // keyed on arrival, so the label shows whichever of trade and PRICE_TICK came last
+            latest("trade", () -> setTrade(delta.seller, delta.buyer, delta.tradeQty, delta.tradePrice));
+            updateLastTrade(delta.tradePrice);
+        }
     }
 
     public void showTrade(String seller, String buyer,
                           double qty, double price) {
-        Platform.runLater(() -> {
-            sellerTrade.setText(seller);
-            sellerTrade.setStyle("-fx-text-fill: red;  -fx-font-weight: bold;");
+        latest("trade", () -> setTrade(seller, buyer, qty, price));
+    }
 
-            buyerTrade.setText(buyer);
-            buyerTrade.setStyle("-fx-text-fill: green;-fx-font-weight: bold;");
+    private void setTrade(String seller, String buyer, double qty, double price) {
+        sellerTrade.setText(seller);
+        sellerTrade.setStyle("-fx-text-fill: red;  -fx-font-weight: bold;");
 
-            qtyTrade  .setText(String.format("%.1f kWh", qty));
-            priceTrade.setText(String.format("@ %.3f €/kWh", price));
-        });
+        buyerTrade.setText(buyer);
+        buyerTrade.setStyle("-fx-text-fill: green;-fx-font-weight: bold;");
+
+        qtyTrade  .setText(String.format("%.1f kWh", qty));
+        priceTrade.setText(String.format("@ %.3f €/kWh", price));
     }
 
     public void purgeAllOrdersFrom(String owner) {
-        Platform.runLater(() -> {
-            buyOrders.removeIf(o -> o.getOwner().equals(owner));
-            sellOrders.removeIf(o -> o.getOwner().equals(owner));
+        pending.add(() -> {
+            for (Long id : idsOf(buyIndex, owner)) stageRemove(id);
+            for (Long id : idsOf(sellIndex, owner)) stageRemove(id);
         });
     }
 
+    // --------- Frame-coalesced updates (FX thread) -------------
+    /** Structural changes, applied in arrival order. */
+    private final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+    /** Status updates by key: only the newest per key survives until the next frame. */
+    private final Map<String, Runnable> latest = new ConcurrentHashMap<>();
+
+    // indexes behind the observable lists
+    private final Map<String, ProducerStatus> producerIndex = new HashMap<>();
+    private final Map<String, ConsumerStatus> consumerIndex = new HashMap<>();
+    private final Map<Long, Order> buyIndex = new HashMap<>();
+    private final Map<Long, Order> sellIndex = new HashMap<>();
+    private int faultyCount = 0;
+
+    // this frame's net change to the book: adds not yet shown, shown orders to drop
+    private final Map<Long, Order> newBuys = new LinkedHashMap<>();
+    private final Map<Long, Order> newSells = new LinkedHashMap<>();
+    private final Set<Order> goneBuys = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Set<Order> goneSells = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private void latest(String key, Runnable update) {
+        latest.put(key, update);
+    }
+
+    /** Once per frame: apply everything buffered, then touch each order list at most twice. */
+    private void drain() {
+        Runnable r;
+        while ((r = pending.poll()) != null) r.run();
+        for (String key : latest.keySet()) {
+            r = latest.remove(key);
+            if (r != null) r.run();
+        }
+        if (!goneBuys.isEmpty()) { buyOrders.removeAll(goneBuys); goneBuys.clear(); }
+        if (!goneSells.isEmpty()) { sellOrders.removeAll(goneSells); goneSells.clear(); }
+        if (!newBuys.isEmpty()) { buyOrders.addAll(newBuys.values()); newBuys.clear(); }
+        if (!newSells.isEmpty()) { sellOrders.addAll(newSells.values()); newSells.clear(); }
+    }
+
+    /** One point per chart from the running totals; {@code time} in seconds since start. */
+    private void sample(double time) {
+        if (!Double.isNaN(lastPrice)) priceHistory.record(time, lastPrice);
+        productionHistory.record(time, totalProduction);
+        socHistory.record(time, producers.isEmpty() ? 0 : totalSoc / producers.size());
+        backlogHistory.record(time, totalBacklog);
+        for (TrendChart c : charts) c.invalidate();
+    }
+
+    private void stageAdd(Order o, boolean sell) {
+        stageRemove(o.getId()); // same id again replaces the order
+        (sell ? sellIndex : buyIndex).put(o.getId(), o);
+        (sell ? newSells : newBuys).put(o.getId(), o);
+    }
+
+    private void stageRemove(long id) {
+        Order o = buyIndex.remove(id);
+        if (o != null && newBuys.remove(id) == null) goneBuys.add(o);
+        o = sellIndex.remove(id);
+        if (o != null && newSells.remove(id) == null) goneSells.add(o);
+    }
+
+    private static List<Long> idsIn(Map<Long, Order> index, long from, long to) {
+        List<Long> ids = new ArrayList<>();
+        for (Long id : index.keySet()) if (id >= from && id < to) ids.add(id);
+        return ids;
+    }
+
+    private static List<Long> idsOf(Map<Long, Order> index, String owner) {
+        List<Long> ids = new ArrayList<>();
+        for (Order o : index.values()) if (o.getOwner().equals(owner)) ids.add(o.getId());
+        return ids;
+    }
+
     public static void main(String[] args) {
         launch(args);
     }
@@ -0,0 +1,123 @@
+package cnergy;
+
+import cnergy.metrics.History;
+import javafx.geometry.VPos;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.layout.Pane;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+import javafx.scene.text.TextAlignment;
+
+/**
+ * Line chart of one {@link History}, drawn straight onto a canvas. The points of
+ * the visible window are downsampled (LTTB) to about one per pixel column, so a
+ * redraw costs the same after a week as after a minute, and nothing is
+ * allocated per frame: the scratch arrays are sized once from the history.
+ */
+public class TrendChart extends Pane {
+    private static final double PAD_LEFT = 52, PAD_RIGHT = 8, PAD_TOP = 18, PAD_BOTTOM = 16;
+
+    private final Canvas canvas = new Canvas();
+    private final History history;
+    private final String title, format;
+    private final Color color;
+    private final double[] xs, ys, px, py;  // window points, downsampled / pixel points
+    private boolean dirty = true;
+    private double window = Double.POSITIVE_INFINITY;
+
+    /** {@code format} prints the newest value in the title, e.g. {@code "%.3f €/kWh"}. */
+    public TrendChart(String title, String format, Color color, History history) {
+        this.title = title;
+        this.format = format;
+        this.color = color;
+        this.history = history;
+        xs = new double[3 * history.capacity()];
+        ys = new double[3 * history.capacity()];
+        px = new double[3 * history.capacity()];
+        py = new double[3 * history.capacity()];
+        getChildren().add(canvas);
+        setMinSize(120, 80);
+        setPrefSize(340, 170);
+    }
+
+    /** Show the last {@code seconds} of the run; infinity for all of it. */
+    public void setWindow(double seconds) {
+        window = seconds;
+        dirty = true;
+    }
+
+    /** The history changed: redraw on the next frame. */
+    public void invalidate() {
+        dirty = true;
+    }
+
+    @Override
+    protected void layoutChildren() {
+        if (canvas.getWidth() != getWidth() || canvas.getHeight() != getHeight()) {
+            canvas.setWidth(getWidth());
+            canvas.setHeight(getHeight());
+            dirty = true;
+        }
+    }
+
+    /** Once per frame, FX thread. */
+    public void redraw() {
+        if (!dirty) return;
+        dirty = false;
+        double w = canvas.getWidth(), h = canvas.getHeight();
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+        gc.clearRect(0, 0, w, h);
+        gc.setFont(Font.font("Verdana", 11));
+        gc.setFill(Color.BLACK);
+        gc.setTextAlign(TextAlignment.LEFT);
+        gc.setTextBaseline(VPos.TOP);
+        double last = history.lastValue();
+        gc.fillText(Double.isNaN(last) ? title : title + "  " + String.format(format, last), PAD_LEFT, 2);
+
+        double plotW = w - PAD_LEFT - PAD_RIGHT, plotH = h - PAD_TOP - PAD_BOTTOM;
+        int n = history.points(history.lastTime() - window, xs, ys);
+        if (n == 0 || plotW < 2 || plotH < 2) return;
+        int m = History.lttb(xs, ys, n, (int) plotW, px, py);
+
+        double x0 = px[0], x1 = px[m - 1], y0 = py[0], y1 = py[0];
+        for (int i = 1; i < m; i++) {
+            if (py[i] < y0) y0 = py[i];
+            if (py[i] > y1) y1 = py[i];
+        }
+        if (y1 - y0 < 1e-9) { y0 -= 1; y1 += 1; }
+        double sx = x1 > x0 ? plotW / (x1 - x0) : 0, sy = plotH / (y1 - y0);
+        for (int i = 0; i < m; i++) {
+            px[i] = PAD_LEFT + (px[i] - x0) * sx;
+            py[i] = PAD_TOP + (y1 - py[i]) * sy;
+        }
+
+        gc.setStroke(Color.LIGHTGRAY);
+        gc.setLineWidth(1);
+        gc.strokeRect(PAD_LEFT, PAD_TOP, plotW, plotH);
+        gc.setFill(Color.GRAY);
+        gc.setTextAlign(TextAlignment.RIGHT);
+        gc.fillText(axis(y1), PAD_LEFT - 4, PAD_TOP - 2);
+        gc.setTextBaseline(VPos.BOTTOM);
+        gc.fillText(axis(y0), PAD_LEFT - 4, PAD_TOP + plotH + 2);
+        gc.setTextBaseline(VPos.TOP);
+        gc.fillText(elapsed(x1), PAD_LEFT + plotW, PAD_TOP + plotH + 1);
+        gc.setTextAlign(TextAlignment.LEFT);
+        gc.fillText(elapsed(x0), PAD_LEFT, PAD_TOP + plotH + 1);
+
+        gc.setStroke(color);
+        gc.setLineWidth(1.5);
+        gc.strokePolyline(px, py, m);
+    }
+
+    private static String axis(double v) {
+        return Math.abs(v) >= 1000 ? String.format("%.0f", v) : String.format("%.3g", v);
+    }
+
+    /** Run time as {@code 3d 04:05:06} or {@code 04:05:06}. */
+    private static String elapsed(double seconds) {
+        long s = (long) seconds;
+        String hms = String.format("%02d:%02d:%02d", s / 3600 % 24, s / 60 % 60, s % 60);
+        return s >= 86400 ? s / 86400 + "d " + hms : hms;
+    }
+}
@@ -0,0 +1,37 @@
+package cnergy.agents;
+
+/**
+ * Client side of broker backpressure. A broker whose inbox passes its
+ * high-water mark raises a {@code BACKPRESSURE} signal on its zone's load topic
+ * and clears it once the inbox is back under the low-water mark. While it is
+ * raised, a quoting agent only sends one tick in {@link #EVERY}; its previous
+ * quote is still resting for {@code expiryTicks}, so it stays in the market.
+ * <pre>
+ *  case "BACKPRESSURE": backpressure.update(reader.wrap(msg)); break;
+ *  ...
+ *  if (!backpressure.admit()) { model.defer(); return; }
+ * </pre>
+ */
+public final class Backpressure {
+
+    /** while overloaded, quote on one tick in this many */
+    public static final int EVERY = 3;
+
+    private boolean overloaded;
+    private int skipped;
+
+    public void update(MarketCodec.Reader load) {
+        overloaded = load.isOverloaded();
+        if (!overloaded) skipped = 0;
+    }
+
+    /** Whether this tick's quote may go out; call once per tick. */
+    public boolean admit() {
+        if (!overloaded) return true;
+        if (++skipped < EVERY) return false;
+        skipped = 0;
+        return true;
+    }
+
+    public boolean isOverloaded() { return overloaded; }
+}
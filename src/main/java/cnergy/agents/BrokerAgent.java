@@ -1,221 +1,467 @@
 package cnergy.agents;
 
+import cnergy.log.EventLog;
+import cnergy.log.LogEvent;
+import cnergy.log.Logger;
+import cnergy.metrics.Counter;
+import cnergy.metrics.Gauge;
+import cnergy.metrics.Histogram;
+import cnergy.metrics.Metrics;
 import jade.core.Agent;
 import jade.core.AID;
 import jade.core.behaviours.CyclicBehaviour;
 import jade.core.behaviours.TickerBehaviour;
-import jade.domain.DFService;
-import jade.domain.FIPAAgentManagement.DFAgentDescription;
-import jade.domain.FIPAAgentManagement.ServiceDescription;
 import jade.lang.acl.ACLMessage;
 
+import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
 public class BrokerAgent extends Agent {
 
     // ------------------------ Parameters ------------------------
     private int expiryTicks = 3;
     private boolean DebuggingMode = true; // Debug Mode
+    private boolean batchAuction = false; // clear once per tick at a uniform price
+    private long feedPeriod = 1000; // ms between market-data deltas to the GUI
+    private String zone = MarketDirectory.DEFAULT_ZONE; // market zone cleared by this shard
+    private int shard = 0; // shard number, keeps order ids unique across brokers
+    private double linkCapacity = 0; // kWh per tick offered to other shards (0 = isolated zone)
+    private String journalPath = ""; // order/trade journal file (empty = off)
+    private int highWater = 10000; // inbox length that raises BACKPRESSURE (0 = never)
     // ------------------------- Internal state ------------------------
-    private static class Order {
-        long   id;            // order id
-        AID    owner;
-        double qty;
-        double price;
-        boolean seller;
-        int expiry;
-        Order(long Id, AID o, double q, double p, boolean sell, int exp) {id=Id; owner=o; qty=q; price=p; seller=sell; expiry=exp;}
-    }
-    
-    // priority queues
-    private final PriorityQueue<Order> bids = new PriorityQueue<>(
-        (a,b) -> {
-            int c = Double.compare(b.price, a.price); // priority based on price
-            return c != 0 ? c : Long.compare(a.id, b.id); // If same prices, compare based on id (which is older)
-        }
-    );
-    private final PriorityQueue<Order> asks = new PriorityQueue<>(
-        (a,b) -> {
-            int c = Double.compare(a.price, b.price);
-            return c != 0 ? c : Long.compare(a.id, b.id); 
-        }
-    );
-
-    // order tracking
-    private AtomicLong SEQ = new AtomicLong();
-    private final Map<Long, Order> orderBook = new HashMap<>();
+    private OrderBook book;
+    private final MarketCodec.Reader reader = new MarketCodec.Reader();
+    private MarketDataFeed feed;
+    private Logger log;
+    private TradeJournal journal; // null when journaling is off
     private double lastPrice = 0.06;
+    private boolean priceChanged = false; // a trade since the last PRICE_TICK
+    private AID priceTopic; // null without the TopicManagement service
+    private AID loadTopic;  // BACKPRESSURE signals, null without the TopicManagement service
+    private boolean overloaded = false;
+    // bulk inbox drain: at most DRAIN messages per pass, stale quotes conflated away
+    private static final int DRAIN = 4096;
+    private final ACLMessage[] inbox = new ACLMessage[DRAIN];
+    private final Set<AID> quotedBuy = new HashSet<>(), quotedSell = new HashSet<>();
+    private final Consumer<ACLMessage> rejectQuote = this::rejectQuote;
     private int tick = 0;
+    // cross-shard: residual quantity reserved here and offered on a peer shard, by export id
+    private final Map<Long, Export> exports = new HashMap<>();
+    private final Set<AID> peers = new HashSet<>();
+    private final List<AID> peerList = new ArrayList<>();
+    private List<AID> brokers; // directory snapshot peers were taken from
+    private long exportSeq = 0;
+    private int peerTurn = 0;
+    // metrics, group = agent name
+    private Counter ordersIn, fills, expiries, cancels, trades, conflated;
+    private Gauge bidOrders, askOrders, bidLevels, askLevels, queue, overload;
+    private Histogram matchLatency; // ns from booking to each fill of the order
+
+    private static final class Export {
+        final OrderBook.Order order; // local order the quantity was taken from, held until this settles
+        double qty;                  // still open on the peer
+        boolean detached;            // whole order exported -> it left the local book
+        Export(OrderBook.Order order, double qty) { this.order = order; this.qty = qty; }
+    }
 
     @Override
     protected void setup() {
-        register("broker");
         Object[] args = getArguments();
         if (args != null && args.length > 0) {
             expiryTicks = Integer.parseInt(args[0].toString());
-            DebuggingMode = Boolean.parseBoolean(args[0].toString());
+            if (args.length > 1) DebuggingMode = Boolean.parseBoolean(args[1].toString());
+            if (args.length > 2) batchAuction = Boolean.parseBoolean(args[2].toString());
+            if (args.length > 3) feedPeriod = Long.parseLong(args[3].toString());
+            if (args.length > 4) zone = args[4].toString();
+            if (args.length > 5) shard = Integer.parseInt(args[5].toString());
+            if (args.length > 6) linkCapacity = Double.parseDouble(args[6].toString());
+            if (args.length > 7) journalPath = args[7].toString();
+            if (args.length > 8) highWater = Integer.parseInt(args[8].toString());
+        }
+        log = EventLog.logger(getLocalName(), DebuggingMode);
+        book = new OrderBook(shard);
+        feed = new MarketDataFeed(shard);
+        if (!journalPath.isEmpty()) {
+            try {
+                journal = new TradeJournal(journalPath);
+            } catch (IOException e) {
+                System.err.printf("%s >> cannot open journal %s: %s%n", getLocalName(), journalPath, e.getMessage());
+            }
         }
-        System.out.printf("- [%s] (operator) up! %n", getLocalName());
+        String group = getLocalName();
+        ordersIn = Metrics.counter(group, "orders");
+        fills = Metrics.counter(group, "fills");
+        expiries = Metrics.counter(group, "expiries");
+        cancels = Metrics.counter(group, "cancels");
+        trades = Metrics.counter(group, "trades");
+        conflated = Metrics.counter(group, "conflated");
+        overload = Metrics.gauge(group, "overloaded");
+        bidOrders = Metrics.gauge(group, "bid.orders");
+        askOrders = Metrics.gauge(group, "ask.orders");
+        bidLevels = Metrics.gauge(group, "bid.levels");
+        askLevels = Metrics.gauge(group, "ask.levels");
+        matchLatency = Metrics.histogram(group, "match.latency");
+        queue = Metrics.queue(getLocalName());
+        MarketDirectory.registerBroker(this, zone);
+        priceTopic = MarketDirectory.priceTopic(this, zone);
+        loadTopic = MarketDirectory.loadTopic(this, zone);
+        System.out.printf("- [%s] (operator) up! {zone: %s | expiryTicks: %d | mode: %s | linkCapacity: %.1f}%n", getLocalName(), zone, expiryTicks, batchAuction ? "batch auction" : "continuous", linkCapacity);
 
-        // Message collector
+        // Message collector: the inbox is drained in bulk, newest quote per owner wins
         addBehaviour(new CyclicBehaviour(this) {
             public void action() {
-                ACLMessage msg = receive();
-                if (msg == null) { block(); return;}
-                if (msg.getPerformative() == ACLMessage.PROPOSE) {
-                    addOrder(msg);
-                    match();
+                int n = drain();
+                if (n == 0) { block(); return; }
+                for (int i = 0; i < n; i++) {
+                    ACLMessage msg = inbox[i];
+                    inbox[i] = null;
+                    if (msg != null) dispatch(msg);
                 }
+                checkLoad();
+            }
+        });
+
+        // Market-data feed: one delta per period instead of one message per event
+        addBehaviour(new TickerBehaviour(this, feedPeriod) {
+            public void onTick() {
+                publishFeed();
             }
         });
     
-        addBehaviour(new TickerBehaviour(this, 1000) {
+        addBehaviour(new StepBehaviour(this, 1000, Clock.BROKER) {
             public void onTick() {
                 tick++;
+                if (journal != null) journal.tick(tick);
+                if (batchAuction) clear();
                 expireOrder();
+                if (linkCapacity > 0) exportResidual();
+                publishPrice();
+                sampleDepth();
             }
         });
     }
 
+    @Override
+    protected void takeDown() {
+        DirectoryCache.release(this);
+        if (journal == null) return;
+        try {
+            journal.close();
+        } catch (IOException e) {
+            System.err.printf("%s >> closing journal %s: %s%n", getLocalName(), journalPath, e.getMessage());
+        }
+    }
+
+    private void dispatch(ACLMessage msg) {
+        switch (msg.getPerformative()) {
+            case ACLMessage.PROPOSE:
+                addOrder(msg);
+                if (!batchAuction) match(); // batch mode waits for the end of the tick
+                break;
+            case ACLMessage.CANCEL: cancelOrder(msg); break;
+            // outcome of quantity exported to a peer shard
+            case ACLMessage.ACCEPT_PROPOSAL: onPeerFill(msg); break;
+            case ACLMessage.REJECT_PROPOSAL: onPeerReject(msg); break;
+            case ACLMessage.REQUEST:
+                if (MarketDataFeed.SNAPSHOT_REQUEST.equals(msg.getOntology())) sendSnapshot(msg);
+                break;
+        }
+    }
+
+    // ------- inbox / backpressure ---------
+    /**
+     * Move up to {@link #DRAIN} queued messages into {@code inbox} and conflate
+     * them: of the plain quotes (no client id, no amend, not a batch) an owner
+     * sent on one side, only the newest is kept. A quote only holds what its
+     * owner has to trade on top of what it carried over, so each dropped one is
+     * answered with a REJECT and carried over like an expired order. Returns
+     * the number of slots filled, dropped messages included as nulls.
+     */
+    private int drain() {
+        int n = 0;
+        ACLMessage msg;
+        while (n < DRAIN && (msg = receive(Clock.OTHERS)) != null) inbox[n++] = msg;
+        if (n > 1) conflated.add(conflate(inbox, n, reader, quotedBuy, quotedSell, rejectQuote));
+        return n;
+    }
+
+    /**
+     * Null out superseded plain quotes among the first {@code n} messages,
+     * handing each one to {@code onDrop}; returns how many.
+     */
+    static int conflate(ACLMessage[] inbox, int n, MarketCodec.Reader reader, Set<AID> quotedBuy, Set<AID> quotedSell,
+                        Consumer<ACLMessage> onDrop) {
+        quotedBuy.clear();
+        quotedSell.clear();
+        int dropped = 0;
+        for (int i = n - 1; i >= 0; i--) { // newest first
+            ACLMessage msg = inbox[i];
+            if (msg == null || msg.getPerformative() != ACLMessage.PROPOSE) continue;
+            reader.wrap(msg);
+            if (reader.isBatch() || reader.id() != 0 || reader.replaces() != 0) continue;
+            if (!(reader.isSell() ? quotedSell : quotedBuy).add(msg.getSender())) {
+                inbox[i] = null;
+                onDrop.accept(msg);
+                dropped++;
+            }
+        }
+        return dropped;
+    }
+
+    /**
+     * Raise BACKPRESSURE when the inbox reaches the high-water mark and clear it
+     * at half of it; the signal goes out on changes only.
+     */
+    private void checkLoad() {
+        if (highWater <= 0) return;
+        int queued = getCurQueueSize();
+        if (overloaded ? queued > highWater / 2 : queued < highWater) return;
+        overloaded = !overloaded;
+        overload.set(overloaded ? 1 : 0);
+        log.event(LogEvent.BACKPRESSURE).b(overloaded).l(queued).end();
+        if (loadTopic == null) return;
+        ACLMessage load = new ACLMessage(ACLMessage.INFORM);
+        load.setOntology("BACKPRESSURE");
+        MarketCodec.writeLoad(load, overloaded, queued);
+        load.addReceiver(loadTopic);
+        send(load);
+    }
+
     // ------- add / cancel orders ---------
     private void addOrder(ACLMessage msg) {
-        String content = msg.getContent();
-        String [] tokens = content.split(";");
-
-        double qty = Double.parseDouble(tokens[0].split("=")[1]);
-        double price = Double.parseDouble(tokens[1].split("=")[1]);
-        boolean seller = content.contains("side=sell");
+        reader.wrap(msg);
+        AID owner = msg.getSender();
+        boolean seller = reader.isSell();
+        long now = System.nanoTime();
+        if (reader.isBatch()) { // a population's orders, one per member
+            for (int k = 0; k < reader.count(); k++) addOrder(owner, reader.id(k), reader.qty(k), reader.price(k), seller, now);
+            return;
+        }
+        long replaces = reader.replaces();
+        if (replaces != 0) dropOrder(owner, replaces); // amend: cancel/replace in one message
+        addOrder(owner, reader.id(), reader.qty(), reader.price(), seller, now);
+    }
 
-        long id = SEQ.incrementAndGet();
+    private void addOrder(AID owner, long clientId, double qty, double price, boolean seller, long now) {
         int expiry = tick + expiryTicks;
+        OrderBook.Order order = book.add(owner, clientId, qty, price, seller, expiry);
+        order.created = now;
+        ordersIn.inc();
+        long id = order.id;
+        if (journal != null) journal.order(TradeJournal.NEW, order);
 
-        Order order = new Order(id, msg.getSender(), qty, price, seller, expiry);
-        orderBook.put(id, order);
-        if (seller) {
-            asks.add(order);
-        } else {
-            bids.add(order);
-        }
+        // --- record for the GUI feed ---
+        feed.add(id, seller, qty, price, owner.getLocalName());
 
-        // --- forward to GUI (safe) ---
-        ACLMessage gui = new ACLMessage(ACLMessage.INFORM);   // create new message
-        gui.addReceiver(new AID("gui", AID.ISLOCALNAME));
-        gui.setOntology("ORDER");
-        gui.setContent(String.format(
-            "id=%d;side=%s;qty=%s;price=%s;from=%s",
-            id,
-            seller ? "sell" : "buy",
-            qty,                         // always a number, never “Infinity”
-            price,
-            msg.getSender().getLocalName()));
-        send(gui);
+        if (log.on(LogEvent.NEW_ORDER)) log.event(LogEvent.NEW_ORDER).s(seller ? "SELL":"BUY").l(id).d(qty).d(price).s(owner.getLocalName()).end();
+    }
+
+    private void cancelOrder(ACLMessage msg) {
+        long clientId = reader.wrap(msg).id();
+        dropOrder(msg.getSender(), clientId);
+    }
 
-        if(DebuggingMode) System.out.printf("%s >> NEW %s ORDER id=%d %.1f @ %.3f from %s %n", getLocalName(), seller ? "SELL":"BUY", id, qty, price, msg.getSender().getLocalName());
+    /** Remove an order by its owner's id; a no-op once it is filled or expired. */
+    private void dropOrder(AID owner, long clientId) {
+        OrderBook.Order order = book.cancel(owner, clientId);
+        if (order == null) return;
+        cancels.inc();
+        if (journal != null) journal.order(TradeJournal.CANCEL, order);
+        feed.remove(order.id);
+        if (log.on(LogEvent.ORDER_CANCELLED)) log.event(LogEvent.ORDER_CANCELLED).s(owner.getLocalName()).l(order.id).end();
     }
 
     private void expireOrder() {
-        Iterator<Order> it = orderBook.values().iterator();
-        while (it.hasNext()) {
-            Order order = it.next();
-            if (order.expiry <= tick) {
-                ACLMessage rej = new ACLMessage(ACLMessage.REJECT_PROPOSAL);
-                rej.addReceiver(order.owner);
-                rej.setOntology("ORDER");
-                rej.setContent("id="+order.id);
-                send(rej);
-
-                it.remove();
-                if (order.seller) {asks.remove(order);}
-                else {bids.remove(order);}
-                
-                // notify the GUI so it can drop the row 
-                ACLMessage gui = new ACLMessage(ACLMessage.INFORM);
-                gui.addReceiver(new AID("gui", AID.ISLOCALNAME));
-                gui.setOntology("ORDER_REMOVE");
-                gui.setContent("id=" + order.id);
-                send(gui);
-
-                if(DebuggingMode) System.out.printf("%s >> ORDER EXPIRED -> %s - id=%d %n",getLocalName(), order.owner.getLocalName(), order.id);
-            }
-        }
+        book.expire(tick, order -> {
+            expiries.inc();
+            if (journal != null) journal.order(TradeJournal.EXPIRE, order);
+            sendReject(order);
+
+            // notify the GUI so it can drop the row 
+            feed.remove(order.id);
+
+            if (log.on(LogEvent.ORDER_EXPIRED)) log.event(LogEvent.ORDER_EXPIRED).s(order.owner.getLocalName()).l(order.id).end();
+        });
     }
 
     // ---------- matching engine -----------
     private void match() {
-        while (!bids.isEmpty() && !asks.isEmpty() && bids.peek().price >= asks.peek().price) {
-            Order buy = bids.peek();
-            Order sell = asks.peek();
-            double qty = Math.min(buy.qty, sell.qty);
-            lastPrice = sell.price;
-
-            // send messages to participants
-            sendFill(sell, qty, lastPrice, buy.owner);
-            sendFill(buy, qty, lastPrice, sell.owner);
-            System.out.printf("%s >> TRADE %s <--> %s %.1f @ %.3f%n", getLocalName(), buy.owner.getLocalName(), sell.owner.getLocalName(), qty, lastPrice);
-            // trade log for GUI
-            ACLMessage log = new ACLMessage(ACLMessage.INFORM);
-            log.addReceiver(new AID("gui", AID.ISLOCALNAME));
-            log.setOntology("TRADE_LOG");
-            log.setContent("seller="+sell.owner.getLocalName()+";buyer="+buy.owner.getLocalName()+";qty="+qty+";price="+lastPrice);
-            send(log);
-
-            // update order book
-            buy.qty -= qty;
-            sell.qty -= qty;
-            if(buy.qty <= 1e-6) {
-                bids.poll(); 
-                orderBook.remove(buy.id);
-
-                ACLMessage msg = new ACLMessage(ACLMessage.INFORM);
-                msg.addReceiver(new AID("gui", AID.ISLOCALNAME));
-                msg.setOntology("ORDER_REMOVE");
-                msg.setContent("id="+buy.id);
-                send(msg);
-            } // poll, removes the front element
-
-            if(sell.qty <= 1e-6) {
-                asks.poll(); 
-                orderBook.remove(sell.id);
-
-                ACLMessage msg = new ACLMessage(ACLMessage.INFORM);
-                msg.addReceiver(new AID("gui", AID.ISLOCALNAME));
-                msg.setOntology("ORDER_REMOVE");
-                msg.setContent("id="+sell.id);
-                send(msg);
-            }
+        book.match(this::onTrade);
+    }
+
+    /** Uniform-price call auction over everything collected during the tick. */
+    private void clear() {
+        book.auction(this::onTrade);
+    }
+
+    private void onTrade(OrderBook.Order buy, OrderBook.Order sell, double qty, double price) {
+        lastPrice = price;
+        priceChanged = true;
+        trades.inc();
+        long now = System.nanoTime();
+        if (buy.created != 0) matchLatency.record(now - buy.created);
+        if (sell.created != 0) matchLatency.record(now - sell.created);
+        if (journal != null) journal.trade(buy, sell, qty, price);
+
+        // send messages to participants
+        sendFill(sell, qty, lastPrice, buy.owner);
+        sendFill(buy, qty, lastPrice, sell.owner);
+        if (log.on(LogEvent.TRADE)) log.event(LogEvent.TRADE).s(buy.owner.getLocalName()).s(sell.owner.getLocalName()).d(qty).d(lastPrice).end();
+        // trade log for GUI
+        feed.trade(sell.owner.getLocalName(), buy.owner.getLocalName(), qty, lastPrice);
+
+        // filled orders leave the book
+        if (buy.isFilled()) feed.remove(buy.id);
+        if (sell.isFilled()) feed.remove(sell.id);
+    }
+
+    // ---------- cross-shard ----------
+    /**
+     * Offer the best unmatched bid and ask, up to the link capacity, to the next
+     * peer shard in turn. The quantity is reserved here until the peer fills or
+     * rejects it; orders imported from a peer are never re-exported.
+     */
+    private void exportResidual() {
+        List<AID> found = MarketDirectory.brokers(this);
+        if (found != brokers) { // shards joined or left
+            brokers = found;
+            peers.clear();
+            peerList.clear();
+            for (AID aid : found) if (!aid.equals(getAID()) && peers.add(aid)) peerList.add(aid);
+        }
+        if (peerList.isEmpty()) return;
+        AID peer = peerList.get(peerTurn++ % peerList.size());
+        export(book.bestAsk(), peer);
+        export(book.bestBid(), peer);
+    }
+
+    private void export(OrderBook.Order order, AID peer) {
+        if (order == null || peers.contains(order.owner)) return;
+        double qty = Math.min(order.qty, linkCapacity);
+        Export e = new Export(order, qty);
+        order.qty -= qty;
+        if (order.isFilled()) {
+            book.cancel(order.id);
+            feed.remove(order.id);
+            e.detached = true;
+        } else {
+            order.holds++; // no expiry REJECT while the peer may still fill
+            requote(order);
         }
-        broadcastPrice();
+        long id = ++exportSeq;
+        exports.put(id, e);
+
+        ACLMessage msg = new ACLMessage(ACLMessage.PROPOSE);
+        msg.addReceiver(peer);
+        msg.setOntology("ORDER");
+        MarketCodec.writeOrder(msg, id, order.seller, qty, order.price);
+        send(msg);
+        if (log.on(LogEvent.ORDER_EXPORTED)) log.event(LogEvent.ORDER_EXPORTED).s(order.seller ? "SELL":"BUY").l(order.id).d(qty).d(order.price).s(peer.getLocalName()).end();
+    }
+
+    /** A peer traded exported quantity: pass the fill on to the order's owner. */
+    private void onPeerFill(ACLMessage msg) {
+        reader.wrap(msg);
+        Export e = exports.get(reader.clientId());
+        if (e == null) return;
+        double qty = reader.qty();
+        sendFill(e.order, qty, reader.price(), new AID(reader.name(), AID.ISLOCALNAME));
+        e.qty -= qty;
+        if (e.qty <= OrderBook.EPS) {
+            exports.remove(reader.clientId());
+            if (!e.detached) e.order.holds--;
+        }
+    }
+
+    /** Exported quantity expired on the peer: put it back, or reject it to the owner if the order is gone. */
+    private void onPeerReject(ACLMessage msg) {
+        Export e = exports.remove(reader.wrap(msg).clientId());
+        if (e == null) return;
+        if (!e.detached) e.order.holds--;
+        if (book.get(e.order.id) != null) {
+            e.order.qty += e.qty;
+            requote(e.order);
+        } else { // exported whole, or the rest was filled here
+            sendReject(e.order);
+        }
+    }
+
+    /** The resting quantity of {@code order} changed outside a trade: replace its row in the feed. */
+    private void requote(OrderBook.Order order) {
+        feed.remove(order.id);
+        feed.add(order.id, order.seller, order.qty, order.price, order.owner.getLocalName());
     }
 
     // --------- messages ----------
-    private void sendFill(Order order, double qty, double price, AID from){
+    private void publishFeed() {
+        if (feed.isEmpty()) return;
+        ACLMessage delta = new ACLMessage(ACLMessage.INFORM);
+        delta.addReceiver(new AID("gui", AID.ISLOCALNAME));
+        feed.flush(delta);
+        send(delta);
+    }
+
+    /** Full book for a receiver that detected a gap in the delta sequence. */
+    private void sendSnapshot(ACLMessage request) {
+        publishFeed(); // pending events belong to the delta stream
+        book.forEach(o -> feed.add(o.id, o.seller, o.qty, o.price, o.owner.getLocalName()));
+        ACLMessage snapshot = new ACLMessage(ACLMessage.INFORM);
+        snapshot.addReceiver(request.getSender());
+        feed.flushSnapshot(snapshot);
+        send(snapshot);
+    }
+
+    private void sendReject(OrderBook.Order order) {
+        ACLMessage rej = new ACLMessage(ACLMessage.REJECT_PROPOSAL);
+        rej.addReceiver(order.owner);
+        rej.setOntology("ORDER");
+        MarketCodec.writeReject(rej, order.id, order.clientId);
+        send(rej);
+    }
+
+    /** A quote conflated away never reached the book: reject it to its owner. */
+    private void rejectQuote(ACLMessage quote) {
+        ACLMessage rej = new ACLMessage(ACLMessage.REJECT_PROPOSAL);
+        rej.addReceiver(quote.getSender());
+        rej.setOntology("ORDER");
+        MarketCodec.writeReject(rej, 0, 0);
+        send(rej);
+    }
+
+    private void sendFill(OrderBook.Order order, double qty, double price, AID from){
+        fills.inc();
+        if (journal != null) journal.fill(order, qty, price, from);
         ACLMessage msg = new ACLMessage(ACLMessage.ACCEPT_PROPOSAL);
         msg.addReceiver(order.owner);
         msg.setOntology("ORDER");
-        msg.setContent("id="+order.id+";qty="+qty+";price="+price+";from="+from.getLocalName());
+        MarketCodec.writeFill(msg, order.id, order.clientId, qty, price, from.getLocalName());
         send(msg);
-        if(DebuggingMode) System.out.printf("%s >> SENDING FILL to %s id=%d %.1f @ %.3f from %s%n", getLocalName(), order.owner.getLocalName(), order.id, qty, price, from.getLocalName());
+        if (log.on(LogEvent.FILL_SENT)) log.event(LogEvent.FILL_SENT).s(order.owner.getLocalName()).l(order.id).d(qty).d(price).s(from.getLocalName()).end();
     }
 
-    private void broadcastPrice() {
-        ACLMessage price=new ACLMessage(ACLMessage.INFORM);
+    /** Book depth and inbox length, once per tick. */
+    private void sampleDepth() {
+        bidOrders.set(book.orders(false));
+        askOrders.set(book.orders(true));
+        bidLevels.set(book.levels(false));
+        askLevels.set(book.levels(true));
+        queue.set(getCurQueueSize());
+    }
+
+    /**
+     * Latest clearing price to the zone's price topic, at most once per tick:
+     * intermediate prices are conflated, and the subscribers are fanned out by
+     * the platform, so the broker sends one message however many listen.
+     */
+    private void publishPrice() {
+        if (!priceChanged || priceTopic == null) return;
+        priceChanged = false;
+        ACLMessage price = new ACLMessage(ACLMessage.INFORM);
         price.setOntology("PRICE_TICK");
-        price.setContent("price="+lastPrice);
-        price.addReceiver(getAMS());
+        MarketCodec.writePrice(price, lastPrice);
+        price.addReceiver(priceTopic);
         send(price);
-        System.out.printf("$$ CURRENT PRICE: %.3f%n", lastPrice); 
+        log.event(LogEvent.CLEARING_PRICE).d(lastPrice).end();
     }
-
-    // --------- utils -----------
-    private void register(String type) {
-        try {
-            DFAgentDescription dfd = new DFAgentDescription();
-            dfd.setName(getAID());
-            ServiceDescription sd = new ServiceDescription();
-            sd.setType(type);
-            sd.setName("energy-market");
-            dfd.addServices(sd);
-            DFService.register(this, dfd);
-        } catch (Exception e) { e.printStackTrace(); }
-    }
-}
\ No newline at end of file
+}
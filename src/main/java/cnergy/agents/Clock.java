@@ -0,0 +1,85 @@
+package cnergy.agents;
+
+import jade.core.AID;
+import jade.core.Agent;
+import jade.lang.acl.MessageTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+
+/**
+ * The global step of a clocked run, and the run's seed.
+ * <p>
+ * In a clocked run ({@code -Dcnergy.clock=true}, or {@code "clock": true} in the
+ * scenario) no agent keeps its own time. A {@link ClockAgent} advances one step
+ * at a time. A step stands for one 1000 ms tick of an unclocked run, or one
+ * simulated hour. Each step runs in the same phases as the {@code SimEngine}:
+ * weather, faults, market orders, then the broker tick. The clock tells the
+ * agents of a phase to act, and the next phase starts once all of them have
+ * acknowledged. {@link StepBehaviour} is the agent side.
+ * <p>
+ * The clock's messages travel in their own conversation. An agent with a
+ * {@link StepBehaviour} must not take them from its queue: a catch-all
+ * {@code receive()} should use {@link #OTHERS} as its template. It also leaves
+ * the {@link DirectoryCache} notifications alone, since any agent that looks a
+ * broker up may end up applying them.
+ * <p>
+ * Every agent's randomness comes from {@link #random}, a {@link SplittableRandom}
+ * seeded from the run's seed ({@code -Dcnergy.seed}, set by {@code Main} from the
+ * scenario) and the agent's name. The streams do not depend on start order or
+ * timing.
+ */
+public final class Clock {
+
+    public static final String CONVERSATION = "cnergy-clock";
+    /** Everything except the clock's steps and DF notifications. */
+    public static final MessageTemplate OTHERS = MessageTemplate.and(DirectoryCache.OTHERS, MessageTemplate.not(MessageTemplate.MatchConversationId(CONVERSATION)));
+    /** Local name of the {@link ClockAgent}. */
+    public static final String NAME = "clock";
+    /** Ticker time one step stands for. */
+    public static final long STEP_MS = 1000;
+
+    // phases of a step, in order
+    public static final int WEATHER = 0, FAULT = 1, MARKET = 2, BROKER = 3, PHASES = 4;
+    static final String STEP = "STEP";   // + phase: clock -> agents, content = step
+    static final String DONE = "DONE";   // + phase: agent -> clock, content = step
+    static final long DEFAULT_SEED = 42; // the scenario default
+
+    private Clock() {}
+
+    /** Whether agents step on a {@link ClockAgent} instead of their own tickers. */
+    public static boolean enabled() {
+        return Boolean.getBoolean("cnergy.clock");
+    }
+
+    public static long seed() {
+        return Long.getLong("cnergy.seed", DEFAULT_SEED);
+    }
+
+    public static AID clock() {
+        return new AID(NAME, AID.ISLOCALNAME);
+    }
+
+    /** {@code agent}'s own random stream. */
+    public static SplittableRandom random(Agent agent) {
+        return new SplittableRandom(stream(seed(), agent.getLocalName()));
+    }
+
+    /** Seed of the stream named {@code name}: the run seed mixed (SplitMix64) with a 64-bit hash of the name. */
+    static long stream(long seed, String name) {
+        long h = 0xCBF29CE484222325L; // FNV-1a
+        for (byte b : name.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001B3L;
+        }
+        long z = seed + h * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /** Clock messages of {@code phase}: {@code STEP} to the agents, {@code DONE} back. */
+    static MessageTemplate steps(int phase) {
+        return MessageTemplate.and(MessageTemplate.MatchConversationId(CONVERSATION), MessageTemplate.MatchOntology(STEP + phase));
+    }
+}
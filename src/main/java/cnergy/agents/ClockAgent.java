@@ -0,0 +1,160 @@
+package cnergy.agents;
+
+import cnergy.log.EventLog;
+import cnergy.log.LogEvent;
+import cnergy.log.Logger;
+import cnergy.metrics.Counter;
+import cnergy.metrics.Metrics;
+import jade.core.AID;
+import jade.core.Agent;
+import jade.core.behaviours.CyclicBehaviour;
+import jade.lang.acl.ACLMessage;
+import jade.lang.acl.MessageTemplate;
+
+import java.util.*;
+
+/**
+ * Advances the global step of a clocked run (see {@link Clock}).
+ * <p>
+ * Agents join with one {@code SUBSCRIBE} per phase, sent by their
+ * {@link StepBehaviour}. The clock starts once {@code expected} agents have
+ * joined, or, with {@code expected = 0}, once nobody has joined for
+ * {@code quietMs}. Then, step after step and phase after phase, it sends
+ * {@code STEP<phase>} to the phase's agents and waits for every
+ * {@code DONE<phase>}. A phase nobody joined is skipped. An agent that has not
+ * answered after {@code timeoutMs} is counted as late, and the clock moves on
+ * without it. With {@code stepMs > 0} a step takes at least that long, which
+ * keeps a clocked run watchable. Otherwise it runs as fast as the slowest
+ * agent allows.
+ */
+public class ClockAgent extends Agent {
+    // ------------------------ Parameters ------------------------
+    private int expected = 0;       // joins to wait for (0 = until quietMs without one)
+    private long stepMs = 0;        // minimum wall time per step
+    private long steps = 0;         // steps to run (0 = until shut down)
+    private long timeoutMs = 10000; // longest wait for one phase
+    private long quietMs = 2000;
+
+    // ------------------------- Internal state ------------------------
+    private final List<Set<AID>> members = new ArrayList<>();
+    private final ACLMessage[] stepMsgs = new ACLMessage[Clock.PHASES];
+    private int joined = 0;
+    private long lastJoin;
+    private boolean running = false, finished = false;
+    private long step = 0;
+    private int phase = -1;
+    private String content;          // step number of the pending phase, as sent
+    private int waiting;             // DONEs still due for the pending phase
+    private long phaseStart, stepStart, nextStep, runStart;
+    private Logger log;
+    private Counter stepCount, lateCount;
+
+    @Override
+    protected void setup() {
+        Object[] args = getArguments();
+        if (args != null && args.length > 0) {
+            expected = Integer.parseInt(args[0].toString());
+            if (args.length > 1) stepMs = Long.parseLong(args[1].toString());
+            if (args.length > 2) steps = Long.parseLong(args[2].toString());
+            if (args.length > 3) timeoutMs = Long.parseLong(args[3].toString());
+        }
+        for (int p = 0; p < Clock.PHASES; p++) members.add(new LinkedHashSet<>());
+        log = EventLog.logger(getLocalName(), false);
+        stepCount = Metrics.counter("clock", "steps");
+        lateCount = Metrics.counter("clock", "late");
+        lastJoin = System.currentTimeMillis();
+        System.out.printf("- [%s] (clock) up! {expected: %d | stepMs: %d | steps: %d | timeoutMs: %d | seed: %d}%n", getLocalName(), expected, stepMs, steps, timeoutMs, Clock.seed());
+
+        final MessageTemplate clockMsgs = MessageTemplate.MatchConversationId(Clock.CONVERSATION);
+        addBehaviour(new CyclicBehaviour(this) {
+            @Override
+            public void action() {
+                ACLMessage msg;
+                while ((msg = receive(clockMsgs)) != null) {
+                    if (msg.getPerformative() == ACLMessage.SUBSCRIBE) onJoin(msg);
+                    else if (msg.getPerformative() == ACLMessage.INFORM) onDone(msg);
+                }
+                long wait = advance(System.currentTimeMillis());
+                if (wait > 0) block(wait);
+                else block();
+            }
+        });
+    }
+
+    private void onJoin(ACLMessage msg) {
+        int p = msg.getOntology().charAt(Clock.STEP.length()) - '0';
+        if (p < 0 || p >= Clock.PHASES || !members.get(p).add(msg.getSender())) return;
+        joined++;
+        lastJoin = System.currentTimeMillis();
+        stepMsgs[p] = null; // receivers changed
+        if (running) log.event(LogEvent.CLOCK_LATE_JOIN).s(msg.getSender().getLocalName()).l(step).end();
+    }
+
+    private void onDone(ACLMessage msg) {
+        if (phase < 0 || !(Clock.DONE + phase).equals(msg.getOntology()) || !content.equals(msg.getContent())) return; // stale
+        waiting--;
+    }
+
+    /** Move the run on as far as it can go now; returns the ms to wait at most, or -1 to wait for a message. */
+    private long advance(long now) {
+        if (finished) return -1;
+        if (!running) {
+            if (joined == 0 || (expected > 0 ? joined < expected : now - lastJoin < quietMs)) {
+                return expected > 0 || joined == 0 ? -1 : Math.max(1, lastJoin + quietMs - now);
+            }
+            running = true;
+            runStart = nextStep = now;
+            System.out.printf("- [%s] starting: %d joins%n", getLocalName(), joined);
+        }
+        if (phase >= 0) {
+            if (waiting <= 0) {
+                phase = next(phase + 1);
+            } else if (now - phaseStart >= timeoutMs) {
+                lateCount.add(waiting);
+                log.event(LogEvent.CLOCK_LATE).l(step).l(phase).l(waiting).end();
+                phase = next(phase + 1);
+            } else {
+                return phaseStart + timeoutMs - now;
+            }
+            if (phase >= 0) { send(phase, now); return timeoutMs; }
+            stepCount.add(1);
+            log.event(LogEvent.CLOCK_STEP).l(step).l(now - stepStart).end();
+            if (steps > 0 && step >= steps) {
+                finished = true;
+                double secs = (now - runStart) / 1000.0;
+                System.out.printf("- [%s] %d steps in %.1f s (%.1f steps/s)%n", getLocalName(), step, secs, step / Math.max(secs, 1e-3));
+                return -1;
+            }
+        }
+        if (now < nextStep) return nextStep - now;
+        step++;
+        stepStart = now;
+        nextStep = now + stepMs;
+        phase = next(0);
+        if (phase < 0) return -1; // nobody joined any phase
+        send(phase, now);
+        return timeoutMs;
+    }
+
+    /** First phase at or after {@code p} with members, or -1. */
+    private int next(int p) {
+        for (; p < Clock.PHASES; p++) if (!members.get(p).isEmpty()) return p;
+        return -1;
+    }
+
+    private void send(int p, long now) {
+        ACLMessage msg = stepMsgs[p];
+        if (msg == null) {
+            msg = new ACLMessage(ACLMessage.INFORM);
+            msg.setConversationId(Clock.CONVERSATION);
+            msg.setOntology(Clock.STEP + p);
+            for (AID aid : members.get(p)) msg.addReceiver(aid);
+            stepMsgs[p] = msg;
+        }
+        content = Long.toString(step);
+        msg.setContent(content);
+        waiting = members.get(p).size();
+        phaseStart = now;
+        send(msg);
+    }
+}
@@ -1,9 +1,15 @@
 package cnergy.agents;
 
+import cnergy.log.EventLog;
+import cnergy.log.LogEvent;
+import cnergy.log.Logger;
+import cnergy.metrics.Gauge;
+import cnergy.metrics.Metrics;
+import cnergy.metrics.Sum;
+import cnergy.sim.ConsumerModel;
 import jade.core.AID;
 import jade.core.Agent;
 import jade.core.behaviours.CyclicBehaviour;
-import jade.core.behaviours.TickerBehaviour;
 import jade.domain.DFService;
 import jade.domain.FIPAAgentManagement.DFAgentDescription;
 import jade.domain.FIPAAgentManagement.ServiceDescription;
@@ -20,13 +26,16 @@ public class ConsumerAgent extends Agent{
     };
     private double multFactor = 1;
     private boolean DebuggingMode = false; // Debug mode
+    private String zone = MarketDirectory.DEFAULT_ZONE; // market zone -> broker shard
 
     // --------------------- internal state ------------------------
-    private int tick = 0;
-    private double backlog = 0; // unmet demand carried forward
-    private double openQty = 0;
-    private double demand = 0;
-    private int hour = 0;
+    private ConsumerModel model;
+    private final MarketCodec.Reader reader = new MarketCodec.Reader();
+    private final Backpressure backpressure = new Backpressure();
+    private Logger log;
+    private Gauge queue;
+    private Sum backlog; // unmet demand of every consumer in the JVM
+    private double reportedBacklog = 0;
 
     @Override
     protected void setup() {
@@ -39,87 +48,90 @@ public class ConsumerAgent extends Agent{
             hourlyLoad = (double[]) args[3];
             multFactor = Double.parseDouble(args[4].toString());
             DebuggingMode = Boolean.parseBoolean(args[5].toString());
+            if (args.length > 6) zone = args[6].toString();
         }
+        log = EventLog.logger(getLocalName(), DebuggingMode);
         System.out.printf("- [%s] (consumer) up! {margin: %.2f | alpha: %.2f | utilityCap: %.2f | hourlyLoad: %s | multFactor: %.1f }%n", getLocalName(), margin, alpha, utilityCap, java.util.Arrays.toString(hourlyLoad), multFactor);
+        model = new ConsumerModel(margin, alpha, utilityCap, hourlyLoad, multFactor);
+        MarketDirectory.subscribeLoad(this, zone); // BACKPRESSURE from the zone's broker
+        queue = Metrics.queue(getLocalName());
+        backlog = Metrics.sum("consumers", "backlog");
 
         // --------------------- Receive messages and update internal state -----------------------
         addBehaviour(new CyclicBehaviour(this) {
             @Override
             public void action() {
-                ACLMessage msg = receive();
+                ACLMessage msg = receive(Clock.OTHERS);
                 if (msg == null) { block(); return; }
                 switch (msg.getPerformative()) {
                     case ACLMessage.ACCEPT_PROPOSAL: {onFill(msg, false);} break;
                     case ACLMessage.REJECT_PROPOSAL: {onReject(msg);} break;
+                    case ACLMessage.INFORM: if ("BACKPRESSURE".equals(msg.getOntology())) backpressure.update(reader.wrap(msg)); break;
                 }
             }
         });
 
         // ------------------------ Hourly consumption and bid ------------------------------
-        addBehaviour(new TickerBehaviour(this, 1000) {
+        addBehaviour(new StepBehaviour(this, 1000, Clock.MARKET) {
             @Override
             protected void onTick() {
-                tick++;
-                hour = tick%24;
-
+                queue.set(getCurQueueSize());
                 // calculate demand
-                demand = hourlyLoad[hour]*multFactor + backlog;
-                if (demand<1e-6) return;
+                double demand = model.demand();
+                if (demand == 0) return;
+                if (!backpressure.admit()) { model.defer(); reportBacklog(); return; } // broker overloaded: carry the demand over
 
                 // calculate price
-                double price = utilityCap - margin;
-                price = Math.min(utilityCap, Math.max(0, price));
+                double price = model.bidPrice();
 
                 // send order
-                openQty = demand;
                 ACLMessage order = new ACLMessage(ACLMessage.PROPOSE);
-                order.addReceiver(new AID("broker", AID.ISLOCALNAME));
+                order.addReceiver(MarketDirectory.broker(myAgent, zone));
                 order.setOntology("ORDER");
-                order.setContent("qty="+openQty+";price="+price+";side=buy");
+                MarketCodec.writeOrder(order, 0, false, demand, price);
                 send(order);
 
                 // notify gui agent
                 ACLMessage gui = new ACLMessage(ACLMessage.INFORM);
                 gui.addReceiver(new AID("gui", AID.ISLOCALNAME));
                 gui.setOntology("CONSUMER_STATUS");
-                gui.setContent(String.format("name="+getLocalName()+";demand="+demand+";backlog="+backlog));
+                MarketCodec.writeConsumerStatus(gui, getLocalName(), demand, model.backlog());
                 send(gui);
 
-                if(DebuggingMode) System.out.printf("%s >> BUY ORDER qty=%.1f kWh @ %.3f%n", getLocalName(), openQty, price);
+                log.event(LogEvent.BUY_ORDER).d(demand).d(price).end();
             }
         });
     }
 
+    @Override
+    protected void takeDown() {
+        DirectoryCache.release(this);
+    }
+
     // ---------------------------- FUNCTIONS -------------------------------------
     private void onFill(ACLMessage msg, boolean seller) {
-        String content = msg.getContent();
-        String [] tokens = content.split(";");
-
-        long id = Long.parseLong(tokens[0].split("=")[1]);
-        double qty = Double.parseDouble(tokens[1].split("=")[1]);
-        double price = Double.parseDouble(tokens[2].split("=")[1]);
-        String from = tokens[3].split("=")[1];
-
-        openQty -= qty;
-        backlog = Math.max(0, backlog - qty);
-        if(openQty < 1e-6) {openQty = 0;}
-
-        margin += alpha; // increase margin -> decrease price
-        margin = Math.max(0.005, margin);
-        if(DebuggingMode) System.out.printf("%s >> FILL order id=%d %.1f kWh @ %.3f from %s | backlog %.1f | new margin %.3f%n", getLocalName(), id, qty, price, from, backlog, margin);
+        reader.wrap(msg);
+        long id = reader.id();
+        double qty = reader.qty();
+        double price = reader.price();
+
+        model.onFill(qty, price);
+        reportBacklog();
+        if (log.on(LogEvent.CONSUMER_FILLED)) log.event(LogEvent.CONSUMER_FILLED).l(id).d(qty).d(price).s(reader.name()).d(model.backlog()).d(model.margin()).end();
     }
 
     private void onReject(ACLMessage msg) {
-        String content = msg.getContent();
-        String[] tokens = content.split(";");
-        long id = Long.parseLong(tokens[0].split("=")[1]);
-
-        backlog = openQty;
-        openQty=0;
+        long id = reader.wrap(msg).id();
+        model.onReject();
+        reportBacklog();
+        log.event(LogEvent.CONSUMER_REJECTED).l(id).d(model.backlog()).d(model.margin()).end();
+    }
 
-        margin -= alpha; // reduce margin -> increase price 
-        margin = Math.min(0.001, margin);
-        if(DebuggingMode) System.out.printf("%s >> REJECTED id=%d | backlog %.1f | margin %.3f%n", getLocalName(), id, backlog, margin);
+    /** Pass this consumer's backlog change on to the shared total. */
+    private void reportBacklog() {
+        double now = model.backlog();
+        backlog.add(now - reportedBacklog);
+        reportedBacklog = now;
     }
 
     private void register(String type) {
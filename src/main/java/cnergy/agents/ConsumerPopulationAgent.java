@@ -0,0 +1,188 @@
+package cnergy.agents;
+
+import cnergy.log.EventLog;
+import cnergy.log.LogEvent;
+import cnergy.log.Logger;
+import cnergy.metrics.Gauge;
+import cnergy.metrics.Metrics;
+import cnergy.metrics.Sum;
+import cnergy.sim.ConsumerPopulation;
+import jade.core.AID;
+import jade.core.Agent;
+import jade.core.behaviours.CyclicBehaviour;
+import jade.domain.DFService;
+import jade.domain.FIPAAgentManagement.DFAgentDescription;
+import jade.domain.FIPAAgentManagement.ServiceDescription;
+import jade.lang.acl.ACLMessage;
+
+import java.util.SplittableRandom;
+
+/**
+ * Many consumers behind one agent: the same demand and bidding rules as
+ * {@link ConsumerAgent}, held in a {@link ConsumerPopulation} and stepped in one
+ * loop per tick. The bids go to the broker as {@link MarketCodec#ORDERS}
+ * batches; every order's client id carries the index of its consumer, so fills
+ * and rejects land on the right one.
+ */
+public class ConsumerPopulationAgent extends Agent {
+    /** orders per ORDERS message */
+    public static final int BATCH = 4096;
+
+    // ------------------------ parameters ------------------------
+    private int count = 1000;
+    private double margin = 0.005; // initial margin
+    private double alpha = 0.003; // learning rate
+    private double utilityCap = 0.12; // max euros/kWh willing to pay
+    private double[][] profiles = {{
+        1,1,1,1,1,1, 2,3,3,2,2,2,
+        2,2,2,2,3,5, 5,4,3,2,1,1
+    }};
+    private double[] multFactors = {1};
+    private boolean DebuggingMode = false; // Debug mode
+    private String zone = MarketDirectory.DEFAULT_ZONE; // market zone -> broker shard
+    private double multSpread = 0; // each consumer's multFactor drawn within +/- this fraction
+
+    // --------------------- internal state ------------------------
+    private ConsumerPopulation population;
+    private int[] who;
+    private long[] ids;
+    private double[] qty, price;
+    private int tick = 0;
+    private final MarketCodec.Reader reader = new MarketCodec.Reader();
+    private final Backpressure backpressure = new Backpressure();
+    private Logger log;
+    private Gauge queue;
+    private Sum backlog; // unmet demand of every consumer in the JVM
+
+    @Override
+    protected void setup() {
+        register("consumer");
+        Object[] args = getArguments();
+        if (args != null && args.length > 0) {
+            count = Integer.parseInt(args[0].toString());
+            margin = Double.parseDouble(args[1].toString());
+            alpha = Double.parseDouble(args[2].toString());
+            utilityCap = Double.parseDouble(args[3].toString());
+            profiles = profiles(args[4]);
+            multFactors = args[5] instanceof double[] ? (double[]) args[5] : new double[]{Double.parseDouble(args[5].toString())};
+            DebuggingMode = Boolean.parseBoolean(args[6].toString());
+            if (args.length > 7) zone = args[7].toString();
+            if (args.length > 8) multSpread = Double.parseDouble(args[8].toString());
+        }
+        log = EventLog.logger(getLocalName(), DebuggingMode);
+        System.out.printf("- [%s] (consumer population) up! {count: %d | margin: %.2f | alpha: %.2f | utilityCap: %.2f | profiles: %d | multFactors: %d | spread: %.2f }%n", getLocalName(), count, margin, alpha, utilityCap, profiles.length, multFactors.length, multSpread);
+        population = new ConsumerPopulation(count, margin, alpha, utilityCap, profiles, multFactors);
+        if (multSpread > 0) {
+            SplittableRandom rand = Clock.random(this);
+            for (int i = 0; i < count; i++) {
+                population.setMult(i, multFactors[i % multFactors.length] * (1 + multSpread * (2 * rand.nextDouble() - 1)));
+            }
+        }
+        MarketDirectory.subscribeLoad(this, zone); // BACKPRESSURE from the zone's broker
+        queue = Metrics.queue(getLocalName());
+        backlog = Metrics.sum("consumers", "backlog");
+        who = new int[count];
+        ids = new long[count];
+        qty = new double[count];
+        price = new double[count];
+
+        // --------------------- Receive messages and update internal state -----------------------
+        addBehaviour(new CyclicBehaviour(this) {
+            @Override
+            public void action() {
+                ACLMessage msg = receive(Clock.OTHERS);
+                if (msg == null) { block(); return; }
+                switch (msg.getPerformative()) {
+                    case ACLMessage.ACCEPT_PROPOSAL: onFill(msg); break;
+                    case ACLMessage.REJECT_PROPOSAL: onReject(msg); break;
+                    case ACLMessage.INFORM: if ("BACKPRESSURE".equals(msg.getOntology())) backpressure.update(reader.wrap(msg)); break;
+                }
+            }
+        });
+
+        // ------------------------ Hourly consumption and bids ------------------------------
+        addBehaviour(new StepBehaviour(this, 1000, Clock.MARKET) {
+            @Override
+            protected void onTick() {
+                queue.set(getCurQueueSize());
+                tick++;
+                int bids = population.step(who, qty, price);
+                if (bids > 0 && !backpressure.admit()) {
+                    backlog.add(population.defer(who, bids)); // broker overloaded: carry the demand over
+                    bids = 0;
+                }
+                for (int k = 0; k < bids; k++) ids[k] = MarketCodec.memberId(tick, who[k]);
+
+                // send orders
+                AID broker = MarketDirectory.broker(myAgent, zone);
+                for (int from = 0; from < bids; from += BATCH) {
+                    ACLMessage orders = new ACLMessage(ACLMessage.PROPOSE);
+                    orders.addReceiver(broker);
+                    orders.setOntology("ORDER");
+                    MarketCodec.writeOrders(orders, false, ids, qty, price, from, Math.min(bids, from + BATCH));
+                    send(orders);
+                }
+
+                // notify gui agent: the population as one consumer
+                ACLMessage gui = new ACLMessage(ACLMessage.INFORM);
+                gui.addReceiver(new AID("gui", AID.ISLOCALNAME));
+                gui.setOntology("CONSUMER_STATUS");
+                MarketCodec.writeConsumerStatus(gui, getLocalName(), population.totalDemand(), population.totalBacklog());
+                send(gui);
+
+                log.event(LogEvent.POPULATION_ORDERS).l(bids).d(population.totalDemand()).d(population.totalBacklog()).end();
+            }
+        });
+    }
+
+    @Override
+    protected void takeDown() {
+        DirectoryCache.release(this);
+    }
+
+    // ---------------------------- FUNCTIONS -------------------------------------
+    private void onFill(ACLMessage msg) {
+        reader.wrap(msg);
+        int i = MarketCodec.member(reader.clientId(), count);
+        if (i < 0) return;
+        double qty = reader.qty();
+        double price = reader.price();
+
+        double before = population.backlog(i);
+        population.onFill(i, qty);
+        backlog.add(population.backlog(i) - before);
+        if (log.on(LogEvent.CONSUMER_FILLED)) log.event(LogEvent.CONSUMER_FILLED).l(reader.id()).d(qty).d(price).s(reader.name()).d(population.backlog(i)).d(population.margin(i)).end();
+    }
+
+    private void onReject(ACLMessage msg) {
+        reader.wrap(msg);
+        int i = MarketCodec.member(reader.clientId(), count);
+        if (i < 0) return;
+        double before = population.backlog(i);
+        population.onReject(i);
+        backlog.add(population.backlog(i) - before);
+        log.event(LogEvent.CONSUMER_REJECTED).l(reader.id()).d(population.backlog(i)).d(population.margin(i)).end();
+    }
+
+    /** One profile ({@code double[]}) or several ({@code double[][]}, or an array of {@code double[]} from a scenario). */
+    private static double[][] profiles(Object arg) {
+        if (arg instanceof double[]) return new double[][]{(double[]) arg};
+        if (arg instanceof double[][]) return (double[][]) arg;
+        Object[] list = (Object[]) arg;
+        double[][] p = new double[list.length][];
+        for (int k = 0; k < list.length; k++) p[k] = (double[]) list[k];
+        return p;
+    }
+
+    private void register(String type) {
+        try {
+            DFAgentDescription dfd = new DFAgentDescription();
+            dfd.setName(getAID());
+            ServiceDescription sd  = new ServiceDescription();
+            sd.setType(type);
+            sd.setName("energy-market");
+            dfd.addServices(sd);
+            DFService.register(this, dfd);
+        } catch (Exception e) { e.printStackTrace(); }
+    }
+}
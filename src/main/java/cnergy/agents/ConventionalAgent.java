@@ -1,9 +1,14 @@
 package cnergy.agents;
 
+import cnergy.log.EventLog;
+import cnergy.log.LogEvent;
+import cnergy.log.Logger;
+import cnergy.metrics.Gauge;
+import cnergy.metrics.Metrics;
+import cnergy.sim.ConventionalModel;
 import jade.core.AID;
 import jade.core.Agent;
 import jade.core.behaviours.CyclicBehaviour;
-import jade.core.behaviours.TickerBehaviour;
 import jade.domain.DFService;
 import jade.domain.FIPAAgentManagement.DFAgentDescription;
 import jade.domain.FIPAAgentManagement.ServiceDescription;
@@ -13,10 +18,13 @@ public class ConventionalAgent extends Agent {
     // ------------------------ Parameters ------------------------
     private double margin = 0.05;
     private boolean DebuggingMode = false;
+    private String zone = MarketDirectory.DEFAULT_ZONE; // market zone -> broker shard
     // ------------------------- Internal state ------------------------
-    private double lastPrice = 0.06;
-    private double faultDuration = 0.0;
-    private boolean isFaulty = false;
+    private ConventionalModel model;
+    private final MarketCodec.Reader reader = new MarketCodec.Reader();
+    private final Backpressure backpressure = new Backpressure();
+    private Logger log;
+    private Gauge queue;
 
     @Override
     protected void setup() {
@@ -25,14 +33,20 @@ public class ConventionalAgent extends Agent {
         if (args != null && args.length > 0) {
             margin = Double.parseDouble(args[0].toString());
             DebuggingMode = Boolean.parseBoolean(args[1].toString());
+            if (args.length > 2) zone = args[2].toString();
         }
+        log = EventLog.logger(getLocalName(), DebuggingMode);
         System.out.printf("- [%s] (conventional) up! %n", getLocalName());
+        MarketDirectory.subscribePrice(this, zone); // PRICE_TICK from the zone's broker
+        MarketDirectory.subscribeLoad(this, zone);  // BACKPRESSURE from the zone's broker
+        model = new ConventionalModel(margin);
+        queue = Metrics.queue(getLocalName());
 
         // --------------------- message handling -----------------------
         addBehaviour(new CyclicBehaviour(this) {
             @Override
             public void action() {
-                ACLMessage msg = receive();
+                ACLMessage msg = receive(Clock.OTHERS);
                 if (msg == null) {block(); return;}
                 switch(msg.getPerformative()) {
                     case ACLMessage.ACCEPT_PROPOSAL: onFill(msg); break;
@@ -42,52 +56,49 @@ public class ConventionalAgent extends Agent {
         });
 
         // ------------------------ hourly cicle ------------------------------
-        addBehaviour(new TickerBehaviour(this, 1000) {
+        addBehaviour(new StepBehaviour(this, 1000, Clock.MARKET) {
             @Override
             protected void onTick() {
-                if (isFaulty) {
-                    if (faultDuration > 0) {
-                        faultDuration -= 1;
-                        if(DebuggingMode) System.out.printf("%s >> Faulty... %.2f seconds remaining%n", getLocalName(), faultDuration);
+                queue.set(getCurQueueSize());
+                if (model.isFaulty()) {
+                    if (model.countDownFault()) {
+                        log.event(LogEvent.FAULTY).d(model.faultRemaining()).end();
                         return;
-                    } else {
-                        isFaulty = false;
-                        if(DebuggingMode) System.out.printf("%s >> Recovered!%n", getLocalName());
                     }
+                    log.event(LogEvent.RECOVERED).end();
                 }
 
+                if (!backpressure.admit()) return; // broker overloaded: the resting quote stays
                 // calculate price
-                double price = lastPrice + margin;
+                double price = model.askPrice();
                 
                 // send order
                 ACLMessage order = new ACLMessage(ACLMessage.PROPOSE);
-                order.addReceiver(new AID("broker", AID.ISLOCALNAME));
+                order.addReceiver(MarketDirectory.broker(myAgent, zone));
                 order.setOntology("ORDER");
-                order.setContent("qty="+Double.POSITIVE_INFINITY+";price="+price+";side=sell");
+                MarketCodec.writeOrder(order, 0, true, Double.POSITIVE_INFINITY, price);
                 send(order);
-                if(DebuggingMode) System.out.printf("%s >> SELL ORDER <inf> kWh @ %.3f%n", getLocalName(), price);
+                log.event(LogEvent.SELL_ORDER).d(Double.POSITIVE_INFINITY).d(price).end();
 
                 ACLMessage gui = new ACLMessage(ACLMessage.INFORM);
                 gui.addReceiver(new AID("gui", AID.ISLOCALNAME));
                 gui.setOntology("PRODUCER_STATUS");
-                gui.setContent("name="+getLocalName()
-                        +";prod="+Double.POSITIVE_INFINITY
-                        +";fault="+isFaulty);
+                MarketCodec.writeProducerStatus(gui, getLocalName(), Double.NaN, Double.POSITIVE_INFINITY, model.isFaulty()); // no battery
                 send(gui);
             }
         });
     }
 
+    @Override
+    protected void takeDown() {
+        DirectoryCache.release(this);
+    }
+
     // ------------- functions --------------------
     private void onFill(ACLMessage msg) {
-        String content = msg.getContent();
-        String [] tokens = content.split(";");
-        long id = Long.parseLong(tokens[0].split("=")[1]);
-
-        double qty = Double.parseDouble(tokens[1].split("=")[1]);
-        double price = Double.parseDouble(tokens[2].split("=")[1]);
-        String from = tokens[3].split("=")[1];
-        if(DebuggingMode) System.out.printf("%s >> FILLED order id=%d %.1f kWh @ %.3f (backup) from %s%n", getLocalName(), id, qty, price, from);
+        reader.wrap(msg);
+        model.onFill(reader.qty(), reader.price());
+        if (log.on(LogEvent.BACKUP_FILLED)) log.event(LogEvent.BACKUP_FILLED).l(reader.id()).d(reader.qty()).d(reader.price()).s(reader.name()).end();
     }
 
     private void onInform(ACLMessage msg) {
@@ -97,16 +108,19 @@ public class ConventionalAgent extends Agent {
         switch (msg.getOntology()) {
             case "PRICE_TICK":
                 // Update last clearing price                
-                content = msg.getContent();
-                lastPrice = Double.parseDouble(content.split("=")[1]);
-                if(DebuggingMode) System.out.printf("%s >> Price tick: %.2f%n", getLocalName(), lastPrice);
+                double price = reader.wrap(msg).price();
+                model.setLastPrice(price);
+                log.event(LogEvent.PRICE_TICK).d(price).end();
+                break;
+            case "BACKPRESSURE":
+                backpressure.update(reader.wrap(msg));
                 break;
             case "FAULT":
                 content = msg.getContent();
                 tokens = content.split(";");
-                faultDuration = Double.parseDouble(tokens[0].split("=")[1]);
-                isFaulty = true;
-                if(DebuggingMode) System.out.printf("%s >> Fault occured | duration: %.2f%n", getLocalName(), faultDuration);
+                double faultDuration = Double.parseDouble(tokens[0].split("=")[1]);
+                model.fault(faultDuration);
+                log.event(LogEvent.FAULT_OCCURRED).d(faultDuration).end();
                 break;
         }
     }
@@ -0,0 +1,164 @@
+package cnergy.agents;
+
+import jade.core.AID;
+import jade.core.Agent;
+import jade.core.behaviours.CyclicBehaviour;
+import jade.domain.DFService;
+import jade.domain.FIPAAgentManagement.DFAgentDescription;
+import jade.domain.FIPAAgentManagement.Property;
+import jade.domain.FIPAAgentManagement.ServiceDescription;
+import jade.lang.acl.ACLMessage;
+import jade.lang.acl.MessageTemplate;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local copy of the DF, indexed by service type and kept current by DF
+ * subscriptions instead of searches.
+ * <p>
+ * The first agent to {@link #watch} a type subscribes to it, once per JVM, and
+ * applies the DF's notifications (joins, leaves, changes) in a behaviour of its
+ * own. Every agent then reads {@link #agents} and {@link #properties} as
+ * immutable snapshots: no round trip to the DF and no lock. They are empty until
+ * the DF's first notification for the type arrives.
+ * <p>
+ * The subscription lives as long as the agent that made it, which may be any
+ * market participant. Its {@code takeDown()} calls {@link #release}, which drops
+ * the types it was keeping, and the next {@code watch} of one of them subscribes
+ * again through its caller. An agent that reads a type for longer than one
+ * behaviour run therefore watches it again before reading; when the type is
+ * watched already, that is one map lookup.
+ * <p>
+ * The watching agent must not consume the notifications itself: a catch-all
+ * {@code receive()} in that agent should use {@link #OTHERS} as its template.
+ */
+public final class DirectoryCache {
+
+    public static final String CONVERSATION = "cnergy-df-cache";
+    /** Everything except DF notifications. */
+    public static final MessageTemplate OTHERS = MessageTemplate.not(MessageTemplate.MatchConversationId(CONVERSATION));
+    private static final MessageTemplate NOTIFICATIONS = MessageTemplate.MatchConversationId(CONVERSATION);
+
+    private static final Map<String, Members> types = new ConcurrentHashMap<>();
+    private static final Set<AID> listeners = ConcurrentHashMap.newKeySet(); // agents applying notifications
+    private static final AtomicLong versions = new AtomicLong(); // never repeats, even across re-subscriptions
+
+    private static final class Members {
+        final AID owner;            // agent whose subscription keeps this type current
+        final ACLMessage subscription;
+        private final Map<AID, Map<String, String>> members = new LinkedHashMap<>();
+        volatile List<AID> snapshot = Collections.emptyList();
+        volatile Map<AID, Map<String, String>> properties = Collections.emptyMap();
+        volatile long version = versions.incrementAndGet();
+
+        Members(AID owner, ACLMessage subscription) {
+            this.owner = owner;
+            this.subscription = subscription;
+        }
+
+        /** {@code props} = the service's properties, null = not registered. */
+        synchronized void put(AID aid, Map<String, String> props) {
+            boolean changed = props == null ? members.remove(aid) != null : !props.equals(members.put(aid, props));
+            if (!changed) return;
+            snapshot = Collections.unmodifiableList(new ArrayList<>(members.keySet()));
+            properties = Collections.unmodifiableMap(new LinkedHashMap<>(members));
+            version = versions.incrementAndGet();
+        }
+    }
+
+    private DirectoryCache() {}
+
+    /** Keep {@code types} cached; subscribes (through {@code agent}) to those nobody watches yet. */
+    public static void watch(Agent agent, String... types) {
+        for (String type : types) watch(agent, type);
+    }
+
+    /** Keep {@code type} cached; subscribes through {@code agent} if nobody watches it yet. */
+    public static void watch(Agent agent, String type) {
+        if (types.containsKey(type)) return;
+        DFAgentDescription template = new DFAgentDescription();
+        ServiceDescription sd = new ServiceDescription();
+        sd.setType(type);
+        template.addServices(sd);
+        ACLMessage sub = DFService.createSubscriptionMessage(agent, agent.getDefaultDF(), template, null);
+        sub.setConversationId(CONVERSATION);
+        if (types.putIfAbsent(type, new Members(agent.getAID(), sub)) != null) return;
+        if (listeners.add(agent.getAID())) agent.addBehaviour(new Listener(agent));
+        agent.send(sub);
+    }
+
+    /**
+     * {@code agent} is going away: cancel its subscriptions and forget the types
+     * it kept current, so that the next {@link #watch} subscribes again.
+     */
+    public static void release(Agent agent) {
+        AID aid = agent.getAID();
+        if (!listeners.remove(aid)) return;
+        for (Iterator<Members> it = types.values().iterator(); it.hasNext(); ) {
+            Members m = it.next();
+            if (!m.owner.equals(aid)) continue;
+            it.remove();
+            agent.send(DFService.createCancelMessage(agent, agent.getDefaultDF(), m.subscription));
+        }
+    }
+
+    /** Agents currently registered under {@code type}; empty if it is not watched. */
+    public static List<AID> agents(String type) {
+        Members m = types.get(type);
+        return m == null ? Collections.<AID>emptyList() : m.snapshot;
+    }
+
+    /** The service properties of every agent registered under {@code type}; empty if it is not watched. */
+    public static Map<AID, Map<String, String>> properties(String type) {
+        Members m = types.get(type);
+        return m == null ? Collections.<AID, Map<String, String>>emptyMap() : m.properties;
+    }
+
+    /** Changes with every change to {@code type}, so pollers can tell when to look again. */
+    public static long version(String type) {
+        Members m = types.get(type);
+        return m == null ? 0 : m.version;
+    }
+
+    /**
+     * Apply one DF notification about {@code aid}: it is now registered under
+     * exactly the types of {@code services}, with their properties (none =
+     * deregistered).
+     */
+    static void update(AID aid, Map<String, Map<String, String>> services) {
+        for (Map.Entry<String, Members> e : types.entrySet()) {
+            e.getValue().put(aid, services.get(e.getKey()));
+        }
+    }
+
+    private static final class Listener extends CyclicBehaviour {
+        Listener(Agent agent) {
+            super(agent);
+        }
+
+        @Override
+        public void action() {
+            ACLMessage msg = myAgent.receive(NOTIFICATIONS);
+            if (msg == null) { block(); return; }
+            if (msg.getPerformative() != ACLMessage.INFORM) return; // AGREE / REFUSE of the subscription
+            try {
+                for (DFAgentDescription dfd : DFService.decodeNotification(msg.getContent())) {
+                    Map<String, Map<String, String>> services = new HashMap<>();
+                    Iterator<?> it = dfd.getAllServices();
+                    while (it.hasNext()) {
+                        ServiceDescription sd = (ServiceDescription) it.next();
+                        Map<String, String> props = services.computeIfAbsent(sd.getType(), t -> new HashMap<>());
+                        Iterator<?> p = sd.getAllProperties();
+                        while (p.hasNext()) {
+                            Property prop = (Property) p.next();
+                            props.put(prop.getName(), String.valueOf(prop.getValue()));
+                        }
+                    }
+                    update(dfd.getName(), services);
+                }
+            } catch (Exception e) { e.printStackTrace(); }
+        }
+    }
+}
@@ -1,11 +1,10 @@
 package cnergy.agents;
 
+import cnergy.log.EventLog;
+import cnergy.log.LogEvent;
+import cnergy.log.Logger;
 import jade.core.AID;
 import jade.core.Agent;
-import jade.core.behaviours.TickerBehaviour;
-import jade.domain.DFService;
-import jade.domain.FIPAAgentManagement.DFAgentDescription;
-import jade.domain.FIPAAgentManagement.ServiceDescription;
 import jade.lang.acl.ACLMessage;
 
 import java.util.*;
@@ -18,7 +17,8 @@ public class FaultAgent extends Agent {
     private boolean DebuggingMode = false;
 
     // ------------------------- Internal state ------------------------
-    private final Random rand = new Random();
+    private SplittableRandom rand;
+    private Logger log;
 
     @Override
     protected void setup() {
@@ -29,14 +29,18 @@ public class FaultAgent extends Agent {
             faultDuration = Integer.parseInt(args[2].toString());
             DebuggingMode = Boolean.parseBoolean(args[3].toString());
         }
+        log = EventLog.logger(getLocalName(), DebuggingMode);
+        rand = Clock.random(this);
         System.out.printf("- [%s] (fault) up! {periodFault: %d | targets: %s | faultDuration: %d}%n", getLocalName(), periodFault, Arrays.toString(targets), faultDuration);
+        DirectoryCache.watch(this, targets);
 
-        addBehaviour(new TickerBehaviour(this, 1000*periodFault) {
+        addBehaviour(new StepBehaviour(this, 1000*periodFault, Clock.FAULT) {
             protected void onTick() {
                 List<AID> producers = new ArrayList<>();
                 for (String target : targets) {
-                    List<AID> agents = search(target);
-                    /*DEBUF*/ if(DebuggingMode == true) {System.out.printf("FaultAgent found %d solar producers%n", agents.size());}
+                    DirectoryCache.watch(myAgent, target);
+                    List<AID> agents = DirectoryCache.agents(target);
+                    log.event(LogEvent.FAULT_TARGETS).l(agents.size()).s(target).end();
 
                     if (agents.isEmpty()) { continue; }
                     producers.addAll(agents);
@@ -49,7 +53,7 @@ public class FaultAgent extends Agent {
                 msg.setContent("outage="+faultDuration);
                 msg.addReceiver(victim);
                 send(msg);
-                /*DEBUG*/ if (DebuggingMode == true) { System.out.printf("%s - Fault injected on %s for %d ticks%n", getLocalName(), victim.getLocalName(), faultDuration); }
+                if (log.on(LogEvent.FAULT_INJECTED)) log.event(LogEvent.FAULT_INJECTED).s(victim.getLocalName()).l(faultDuration).end();
 
                 ACLMessage g = new ACLMessage(ACLMessage.INFORM);
                 g.addReceiver(new AID("gui", AID.ISLOCALNAME));
@@ -60,16 +64,8 @@ public class FaultAgent extends Agent {
             });
     }
 
-    private List<AID> search(String type) {
-        List<AID> res = new ArrayList<>();
-        try {
-            DFAgentDescription template = new DFAgentDescription();
-            ServiceDescription sd = new ServiceDescription();
-            sd.setType(type);
-            template.addServices(sd);
-            DFAgentDescription[] r = DFService.search(this, template);
-            for (DFAgentDescription d : r) res.add(d.getName());
-        } catch (Exception e) { e.printStackTrace(); }
-        return res;
+    @Override
+    protected void takeDown() {
+        DirectoryCache.release(this);
     }
 }
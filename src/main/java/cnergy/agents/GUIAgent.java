@@ -6,9 +6,6 @@ import jade.core.AID;
 import jade.core.Agent;
 import jade.core.behaviours.CyclicBehaviour;
 import jade.core.behaviours.TickerBehaviour;
-import jade.domain.DFService;
-import jade.domain.FIPAAgentManagement.DFAgentDescription;
-import jade.domain.FIPAAgentManagement.ServiceDescription;
 import jade.lang.acl.ACLMessage;
 
 import java.util.*;
@@ -16,11 +13,20 @@ import java.util.*;
 public class GUIAgent extends Agent {
     // Keep track of fault tickers
     private final Map<String, Integer> faultMap = new HashMap<>();
+    // participants from the DF cache, re-read when a type's version moves
+    private static final String[] PRODUCER_TYPES = {"solar-producer", "wind-producer", "conventional-producer"};
+    private static final String CONSUMER_TYPE = "consumer";
+    private final Set<AID> shown = new HashSet<>();
+    private final Map<String, Long> seenVersion = new HashMap<>();
+    private final Set<String> priceZones = new HashSet<>(); // price topics joined
 
     @Override
     protected void setup() {
         // 1) Launch the JavaFX dashboard in its own thread
         new Thread(() -> Application.launch(Dashboard.class)).start();
+        DirectoryCache.watch(this, PRODUCER_TYPES);
+        DirectoryCache.watch(this, CONSUMER_TYPE);
+        MarketDirectory.zones(this); // start following the broker shards
 
         // 2) Wait briefly for Dashboard.INSTANCE to appear
         addBehaviour(new TickerBehaviour(this, 200) {
@@ -29,9 +35,14 @@ public class GUIAgent extends Agent {
             protected void onTick() {
                 ticks++;
                 if (Dashboard.INSTANCE != null || ticks > 20) {
-                    // Once up, populate producers & consumers
-                    discoverProducers();
-                    discoverConsumers();
+                    // Once up, populate producers & consumers, then follow joins
+                    syncParticipants();
+                    addBehaviour(new TickerBehaviour(myAgent, 1000) {
+                        @Override
+                        protected void onTick() {
+                            syncParticipants();
+                        }
+                    });
                     this.stop();
                     // start listening to updates
                     addBehaviour(new DashboardListener());
@@ -60,61 +71,61 @@ public class GUIAgent extends Agent {
 
     }
 
-    private void discoverProducers() {
-        String[] types = {
-            "solar-producer",
-            "wind-producer",
-            "conventional-producer"
-        };
-        for (String t : types) {
-            try {
-                DFAgentDescription template = new DFAgentDescription();
-                ServiceDescription sd = new ServiceDescription();
-                sd.setType(t);
-                template.addServices(sd);
-                DFAgentDescription[] result = DFService.search(this, template);
-                for (DFAgentDescription dfd : result) {
-                    String name = dfd.getName().getLocalName();
-                    Dashboard.INSTANCE.addProducer(name);
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        }
+    @Override
+    protected void takeDown() {
+        DirectoryCache.release(this);
     }
 
-    private void discoverConsumers() {
-        try {
-            DFAgentDescription template = new DFAgentDescription();
-            ServiceDescription sd = new ServiceDescription();
-            sd.setType("consumer");
-            template.addServices(sd);
-            DFAgentDescription[] result = DFService.search(this, template);
-            Dashboard.INSTANCE.setConsumerCount(result.length);
-            for (DFAgentDescription dfd : result) {
-                String localName = dfd.getName().getLocalName();
-                Dashboard.INSTANCE.addConsumer(localName);
+    /** Add producers, consumers and price topics of zones that joined since the last call. */
+    private void syncParticipants() {
+        for (String zone : MarketDirectory.zones(this)) {
+            if (priceZones.add(zone)) MarketDirectory.subscribePrice(this, zone);
+        }
+        if (Dashboard.INSTANCE == null) return;
+        for (String type : PRODUCER_TYPES) {
+            if (!changed(type)) continue;
+            for (AID aid : DirectoryCache.agents(type)) {
+                if (shown.add(aid)) Dashboard.INSTANCE.addProducer(aid.getLocalName());
+            }
+        }
+        if (changed(CONSUMER_TYPE)) {
+            List<AID> consumers = DirectoryCache.agents(CONSUMER_TYPE);
+            Dashboard.INSTANCE.setConsumerCount(consumers.size());
+            for (AID aid : consumers) {
+                if (shown.add(aid)) Dashboard.INSTANCE.addConsumer(aid.getLocalName());
             }
-        } catch (Exception e) {
-            e.printStackTrace();
         }
     }
 
-    private class DashboardListener extends CyclicBehaviour {
+    private boolean changed(String type) {
+        DirectoryCache.watch(this, type);
+        long version = DirectoryCache.version(type);
+        Long seen = seenVersion.put(type, version);
+        return seen == null || seen != version;
+    }
+
+    private class DashboardListener extends CyclicBehaviour implements MarketDataFeed.Handler {
+        private final MarketCodec.Reader reader = new MarketCodec.Reader();
+        private Dashboard.BookDelta delta;
+        private AID sender;
+        // per broker shard: last delta seen / snapshot requested
+        private final Map<Integer, Long> lastSeq = new HashMap<>();
+        private final Set<Integer> awaitingSnapshot = new HashSet<>();
+
         @Override
         public void action() {
-            ACLMessage msg = receive();
+            ACLMessage msg = receive(DirectoryCache.OTHERS); // DF notifications feed the cache
             if (msg == null) {
                 block();
                 return;
             }
             String ont = msg.getOntology();
-            String content = msg.getContent();
-            String [] tokens = content.split(";");
+            String [] tokens;
 
             switch (ont) {
                 case "WEATHER":
                     // content -> ("SUN="+solarToken+";WIND="+windToken+";TIME="+timeToken+";hour="+hour)
+                    tokens = msg.getContent().split(";");
                     String sunToken = tokens[0].split("=")[1];
                     String windToken = tokens[1].split("=")[1];
                     String dayToken = tokens[2].split("=")[1];
@@ -124,6 +135,7 @@ public class GUIAgent extends Agent {
 
                 case "FAULT":
                     // content -> ("outage="+faultDuration+";victim="+victim)
+                    tokens = msg.getContent().split(";");
                     Integer duration = Integer.parseInt(tokens[0].split("=")[1]);
                     String victim = tokens[1].split("=")[1];
                     faultMap.put(victim, duration);
@@ -131,70 +143,71 @@ public class GUIAgent extends Agent {
                     break;
 
                 case "PRICE_TICK":
-                    // content "price=0.042"
-                    double p = Double.parseDouble(content.split("=")[1]);
-                    Dashboard.INSTANCE.updateLastTrade(p);
+                    Dashboard.INSTANCE.updateLastTrade(reader.wrap(msg).price());
                     break;
 
-                case "ORDER":
-                    // new order from producer/consumer
-                    // producers send side=sell, consumers side=buy
-                    // content "id=7;side=sell;qty=20.0;price=0.040"
-                    String[] tok = content.split(";");
-                    long   id   = Long.parseLong(tok[0].split("=")[1]);
-                    String side = tok[1].split("=")[1];
-                    double qty  = Double.parseDouble(tok[2].split("=")[1]);
-                    double pr   = Double.parseDouble(tok[3].split("=")[1]);
-                    String owner=  tok[4].split("=")[1];
-                    if (side.equals("sell")) {
-                        Dashboard.INSTANCE.addSellOrder(id, qty, pr, owner);
-                    } else {
-                        Dashboard.INSTANCE.addBuyOrder(id, qty, pr, owner);
-                    }
+                case MarketDataFeed.ONTOLOGY:
+                    // adds, removes and trades of one broker period, applied in one pass
+                    delta = new Dashboard.BookDelta();
+                    sender = msg.getSender();
+                    MarketDataFeed.read(msg, this);
+                    Dashboard.INSTANCE.applyBookDelta(delta);
                     break;
 
                 case "PRODUCER_STATUS":
                     try {
-                        Map<String,String> kv = new HashMap<>();
-                        for (String t : content.split(";")) {          // key=value
-                            String[] kvp = t.split("=", 2);
-                            if (kvp.length == 2) kv.put(kvp[0], kvp[1]);
-                        }
-                        String  name   = kv.get("name");
-                        double  socPct = Double.parseDouble(kv.getOrDefault("soc",  "0"));
-                        double  prod   = Double.parseDouble(kv.getOrDefault("prod", "0"));
-                        boolean fault  = Boolean.parseBoolean(kv.getOrDefault("fault","false"));
-                    
-                        Dashboard.INSTANCE.updateProducer(name, socPct, prod, fault);
+                        reader.wrap(msg);
+                        double socPct = Double.isNaN(reader.soc()) ? 0 : reader.soc(); // no battery
+                        Dashboard.INSTANCE.updateProducer(reader.name(), socPct, reader.prod(), reader.isFault());
                     } catch (Exception ex) {
-                        System.err.println("GUI-Agent ignored bad PRODUCER_STATUS: " + content);
+                        System.err.println("GUI-Agent ignored bad PRODUCER_STATUS from " + msg.getSender().getLocalName());
                     }
                     break;
 
                 case "CONSUMER_STATUS":
-                    // content: name=<name>;demand=<d>;backlog=<b>
-                    String cname   = tokens[0].split("=")[1];
-                    double cdemand = Double.parseDouble(tokens[1].split("=")[1]);
-                    double cback   = Double.parseDouble(tokens[2].split("=")[1]);
-                    Dashboard.INSTANCE.updateConsumer(cname, cdemand, cback);
-                    break;
-
-                case "ORDER_REMOVE":
-                    long rid = Long.parseLong(content.split("=")[1]);
-                    Dashboard.INSTANCE.removeOrder(rid);
+                    reader.wrap(msg);
+                    Dashboard.INSTANCE.updateConsumer(reader.name(), reader.demand(), reader.backlog());
                     break;
+            }
+        }
 
-                case "TRADE_LOG":
-                    // content: "seller=wind;buyer=consumer;qty=1.0;price=0.040"
-                    String[] seg = content.split(";");
-                    String seller = seg[0].split("=")[1];
-                    String buyer = seg[1].split("=")[1];
-                    double amount = Double.parseDouble(seg[2].split("=")[1]);
-                    double price = Double.parseDouble(seg[3].split("=")[1]);
-                    Dashboard.INSTANCE.showTrade(seller, buyer, amount, price);
-                    Dashboard.INSTANCE.updateLastTrade(price);
-                    break;
+        // ---------- market-data feed ----------
+        @Override
+        public void onDelta(int shard, long seq, boolean snapshot) {
+            long last = lastSeq.getOrDefault(shard, 0L);
+            if (snapshot) {
+                // replace only the orders of that shard
+                delta.reset = true;
+                delta.resetFrom = (long) shard << OrderBook.SHARD_BITS;
+                delta.resetTo = (long) (shard + 1) << OrderBook.SHARD_BITS;
+                awaitingSnapshot.remove(shard);
+            } else if (seq != last + 1 && !awaitingSnapshot.contains(shard)) {
+                System.err.printf("GUI-Agent missed %d market-data deltas from %s, requesting snapshot%n", seq - last - 1, sender.getLocalName());
+                ACLMessage req = new ACLMessage(ACLMessage.REQUEST);
+                req.addReceiver(sender);
+                req.setOntology(MarketDataFeed.SNAPSHOT_REQUEST);
+                send(req);
+                awaitingSnapshot.add(shard);
             }
+            lastSeq.put(shard, seq);
+        }
+
+        @Override
+        public void onAdd(long id, boolean sell, double qty, double price, String owner) {
+            (sell ? delta.sells : delta.buys).add(new Dashboard.Order(id, qty, price, owner));
+        }
+
+        @Override
+        public void onRemove(long id) {
+            delta.removed.add(id);
+        }
+
+        @Override
+        public void onTrade(String seller, String buyer, double qty, double price) {
+            delta.seller = seller;
+            delta.buyer = buyer;
+            delta.tradeQty = qty;
+            delta.tradePrice = price;
         }
     }
 }
@@ -0,0 +1,130 @@
+package cnergy.agents;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.util.concurrent.*;
+
+/**
+ * Writer of fixed-size records into memory-mapped segments, shared by the
+ * {@link TradeJournal} and the {@link TelemetryLog}.
+ * <p>
+ * A record is a handful of stores into the mapped buffer: no syscall, no lock,
+ * no allocation. Once the current segment is half full, the next one is mapped
+ * on a background thread, so moving to it does not stall the writer. Where the
+ * segments live (regions of one file, or one file each) and what their header
+ * holds is up to {@link Segments}.
+ */
+final class MappedRecords implements Closeable {
+
+    /** Where the segments come from. Called on the background thread, except for {@link #close}. */
+    interface Segments {
+        /** Map segment {@code index} of {@code size} bytes, write its header and position it on the first record. */
+        MappedByteBuffer open(int index, int size) throws IOException;
+
+        /** Segment {@code index} is full and will not be written again. */
+        default void full(int index) {}
+
+        /**
+         * The writer is closing: segment {@code index} holds {@code length} bytes.
+         * {@code unused} is a segment mapped ahead and never written, or -1.
+         */
+        void close(int index, int length, int unused) throws IOException;
+    }
+
+    private final int record;
+    private final int segment;
+    private final Segments segments;
+    private final String what;
+    private final ExecutorService mapper;
+    private MappedByteBuffer buf;
+    private int index;
+    private Future<MappedByteBuffer> next;
+    private long records;
+
+    /** Records of {@code record} bytes in segments of {@code segment} bytes, a whole number of records. */
+    MappedRecords(String what, int record, int segment, Segments segments) throws IOException {
+        this.what = what;
+        this.record = record;
+        this.segment = segment;
+        this.segments = segments;
+        mapper = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "cnergy-" + what);
+            t.setDaemon(true);
+            return t;
+        });
+        buf = segments.open(0, segment);
+    }
+
+    /** The segment being written; re-read after {@link #room}, which may replace it. */
+    MappedByteBuffer buf() {
+        return buf;
+    }
+
+    /** Index of the segment being written. */
+    int segment() {
+        return index;
+    }
+
+    /** Records committed so far. */
+    long records() {
+        return records;
+    }
+
+    /**
+     * Make room for {@code n} records in the current segment, moving to the next
+     * one if they would not fit. Returns true if it moved.
+     */
+    boolean room(int n) {
+        boolean moved = false;
+        int at = buf.position();
+        if (at + n * record > segment) {
+            roll();
+            at = buf.position();
+            moved = true;
+        }
+        if (next == null && at >= segment / 2) {
+            final int ahead = index + 1;
+            next = mapper.submit(() -> segments.open(ahead, segment));
+        }
+        return moved;
+    }
+
+    /**
+     * Close the record at {@code at}, whose other fields are already written.
+     * The type byte goes last: a record cut short by a crash reads as the end.
+     */
+    void commit(int at, byte type) {
+        buf.put(at, type);
+        buf.position(at + record);
+        records++;
+    }
+
+    private void roll() {
+        final int done = index;
+        try {
+            buf = next != null ? next.get() : segments.open(done + 1, segment);
+            next = null;
+        } catch (IOException | ExecutionException e) {
+            throw new IllegalStateException(what + " segment " + (done + 1), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted mapping a " + what + " segment", e);
+        }
+        index = done + 1;
+        mapper.execute(() -> segments.full(done));
+    }
+
+    /** Flush to disk and let the segments trim what was not written. */
+    @Override
+    public void close() throws IOException {
+        mapper.shutdown();
+        try {
+            mapper.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        buf.force();
+        segments.close(index, buf.position(), next != null && next.isDone() ? index + 1 : -1);
+    }
+}
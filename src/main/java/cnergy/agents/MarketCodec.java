@@ -0,0 +1,368 @@
+package cnergy.agents;
+
+import jade.lang.acl.ACLMessage;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Shared encoder / decoder for the market messages (orders, order batches,
+ * amends, cancels, fills, rejects, producer / consumer status, price ticks,
+ * backpressure). Order-book events for the GUI travel batched in
+ * {@link MarketDataFeed}.
+ * <p>
+ * By default the content is a fixed binary record carried as the ACL byte
+ * sequence content, tagged with the {@link #BINARY} language:
+ * <pre>
+ *  offset  type    field
+ *  0       byte    kind     (ORDER, FILL, ...)
+ *  1       byte    flags    (SELL, FAULT, OVERLOAD)
+ *  2       long    id       order id (for ORDER: the client's own id, 0 = none)
+ *  10      long    ref      client order id echoed back by the broker (0 = none);
+ *                           for ORDER: the client id it replaces (amend, 0 = none)
+ *  18      double  a        qty | soc | demand | queued
+ *  26      double  b        price | prod | backlog
+ *  34      short   n + n bytes     name (from / status name)
+ * </pre>
+ * except {@link #ORDERS}, a batch of orders on one side for the same owner:
+ * <pre>
+ *  0       byte    kind     ORDERS
+ *  1       byte    flags    (SELL)
+ *  2       int     count
+ *  6+24k   long    id       client id of order k (never 0: fills are matched on it)
+ *  14+24k  double  qty
+ *  22+24k  double  price
+ * </pre>
+ * Decoding reads straight out of the byte array, so it allocates nothing; the
+ * names are only turned into Strings when asked for. Encoding allocates only the
+ * payload array handed to JADE, sized exactly: a name's UTF-8 length is counted
+ * before it is written.
+ * <p>
+ * Run with {@code -Dcnergy.codec=text} to fall back to the readable
+ * {@code key=value;...} format ({@link #TEXT} language) for debugging. Receivers
+ * pick the decoder from the message language, so both formats can coexist.
+ */
+public final class MarketCodec {
+
+    public static final String BINARY = "cnergy-binary";
+    public static final String TEXT = "cnergy-text";
+    /** content language used by senders */
+    public static final boolean USE_TEXT = "text".equalsIgnoreCase(System.getProperty("cnergy.codec"));
+
+    // ------------------------- record kinds ------------------------
+    public static final byte ORDER = 1;            // client -> broker
+    public static final byte FILL = 2;             // broker -> client
+    public static final byte REJECT = 3;           // broker -> client
+    public static final byte PRODUCER_STATUS = 4;  // producer -> gui
+    public static final byte CONSUMER_STATUS = 5;  // consumer -> gui
+    public static final byte PRICE = 6;            // broker -> market
+    public static final byte CANCEL = 7;           // client -> broker
+    public static final byte ORDERS = 8;           // client -> broker, batch
+    public static final byte LOAD = 9;             // broker -> market, backpressure
+
+    // ------------------------- flags ------------------------
+    public static final int SELL = 1;
+    public static final int FAULT = 2;
+    public static final int OVERLOAD = 4;
+
+    static final int HEADER = 34;
+    static final int BATCH_HEADER = 6;
+    static final int BATCH_ENTRY = 24;
+
+    private MarketCodec() {}
+
+    // ------------------------- batch client ids ------------------------
+    /**
+     * Client id of member {@code index} of a population or fleet for its order of
+     * {@code tick}: unique per tick and member, with the index in the low half.
+     */
+    public static long memberId(int tick, int index) {
+        return ((long) tick << 32) | (index + 1);
+    }
+
+    /** Member index of a {@link #memberId}, -1 for ids outside {@code [0, count)}. */
+    public static int member(long clientId, int count) {
+        int i = (int) clientId - 1;
+        return i >= 0 && i < count ? i : -1;
+    }
+
+    // ------------------------- encoders ------------------------
+    public static void writeOrder(ACLMessage msg, long clientId, boolean sell, double qty, double price) {
+        write(msg, ORDER, sell ? SELL : 0, clientId, 0, qty, price, null);
+    }
+
+    /**
+     * Orders {@code from} (inclusive) to {@code to} (exclusive) of the arrays in
+     * one message; the broker books each one as if it had come alone.
+     */
+    public static void writeOrders(ACLMessage msg, boolean sell, long[] clientIds, double[] qty, double[] price, int from, int to) {
+        int count = to - from;
+        if (USE_TEXT) {
+            StringBuilder sb = new StringBuilder("side=").append(sell ? "sell" : "buy").append(";orders=");
+            for (int k = from; k < to; k++) {
+                if (k > from) sb.append(',');
+                sb.append(clientIds[k]).append(':').append(qty[k]).append(':').append(price[k]);
+            }
+            msg.setLanguage(TEXT);
+            msg.setContent(sb.toString());
+            return;
+        }
+        byte[] buf = new byte[BATCH_HEADER + count * BATCH_ENTRY];
+        buf[0] = ORDERS;
+        buf[1] = (byte) (sell ? SELL : 0);
+        putInt(buf, 2, count);
+        for (int k = 0, off = BATCH_HEADER; k < count; k++, off += BATCH_ENTRY) {
+            putLong(buf, off, clientIds[from + k]);
+            putLong(buf, off + 8, Double.doubleToRawLongBits(qty[from + k]));
+            putLong(buf, off + 16, Double.doubleToRawLongBits(price[from + k]));
+        }
+        msg.setLanguage(BINARY);
+        msg.setByteSequenceContent(buf);
+    }
+
+    /** Cancel/replace: the new order {@code clientId} takes the place of {@code replaces}. */
+    public static void writeAmend(ACLMessage msg, long clientId, long replaces, boolean sell, double qty, double price) {
+        write(msg, ORDER, sell ? SELL : 0, clientId, replaces, qty, price, null);
+    }
+
+    public static void writeCancel(ACLMessage msg, long clientId) {
+        write(msg, CANCEL, 0, clientId, 0, 0, 0, null);
+    }
+
+    public static void writeFill(ACLMessage msg, long id, long clientId, double qty, double price, String from) {
+        write(msg, FILL, 0, id, clientId, qty, price, from);
+    }
+
+    public static void writeReject(ACLMessage msg, long id, long clientId) {
+        write(msg, REJECT, 0, id, clientId, 0, 0, null);
+    }
+
+    /** {@code socPct} may be NaN for producers without a battery. */
+    public static void writeProducerStatus(ACLMessage msg, String name, double socPct, double prod, boolean fault) {
+        write(msg, PRODUCER_STATUS, fault ? FAULT : 0, 0, 0, socPct, prod, name);
+    }
+
+    public static void writeConsumerStatus(ACLMessage msg, String name, double demand, double backlog) {
+        write(msg, CONSUMER_STATUS, 0, 0, 0, demand, backlog, name);
+    }
+
+    public static void writePrice(ACLMessage msg, double price) {
+        write(msg, PRICE, 0, 0, 0, 0, price, null);
+    }
+
+    /** Broker inbox state: {@code overloaded} until it is back under its low-water mark. */
+    public static void writeLoad(ACLMessage msg, boolean overloaded, int queued) {
+        write(msg, LOAD, overloaded ? OVERLOAD : 0, 0, 0, queued, 0, null);
+    }
+
+    private static void write(ACLMessage msg, byte kind, int flags, long id, long ref, double a, double b, String name) {
+        if (USE_TEXT) {
+            msg.setLanguage(TEXT);
+            msg.setContent(text(kind, flags, id, ref, a, b, name));
+            return;
+        }
+        byte[] buf = new byte[HEADER + 2 + utf8Length(name)];
+        buf[0] = kind;
+        buf[1] = (byte) flags;
+        putLong(buf, 2, id);
+        putLong(buf, 10, ref);
+        putLong(buf, 18, Double.doubleToRawLongBits(a));
+        putLong(buf, 26, Double.doubleToRawLongBits(b));
+        putName(buf, HEADER, name);
+        msg.setLanguage(BINARY);
+        msg.setByteSequenceContent(buf);
+    }
+
+    /** The legacy {@code key=value;...} layout of every kind. */
+    private static String text(byte kind, int flags, long id, long ref, double a, double b, String name) {
+        String side = (flags & SELL) != 0 ? "sell" : "buy";
+        String cid = ref != 0 ? ";cid="+ref : "";
+        switch (kind) {
+            case ORDER:           return (id != 0 ? "id="+id+";" : "")+(ref != 0 ? "replaces="+ref+";" : "")+"qty="+a+";price="+b+";side="+side;
+            case CANCEL:          return "id="+id;
+            case FILL:            return "id="+id+";qty="+a+";price="+b+";from="+name+cid;
+            case REJECT:          return "id="+id+cid;
+            case PRODUCER_STATUS: return "name="+name+(Double.isNaN(a) ? "" : ";soc="+a)+";prod="+b+";fault="+((flags & FAULT) != 0);
+            case CONSUMER_STATUS: return "name="+name+";demand="+a+";backlog="+b;
+            case PRICE:           return "price="+b;
+            case LOAD:            return "overload="+((flags & OVERLOAD) != 0)+";queued="+(long) a;
+            default: throw new IllegalArgumentException("unknown kind "+kind);
+        }
+    }
+
+    // ------------------------- decoder ------------------------
+    /**
+     * Reusable flyweight over one received message; keep one per agent and
+     * {@link #wrap} every message into it.
+     */
+    public static final class Reader {
+        private byte[] buf;       // binary content, null for text
+        private int flags;
+        private long id, ref;
+        private double a, b;
+        private String name;      // text name
+        private int count = -1;   // orders in a batch, -1 for a single record
+        private long[] batchIds;  // text batch
+        private double[] batchQty, batchPrice;
+
+        public Reader wrap(ACLMessage msg) {
+            if (BINARY.equals(msg.getLanguage())) {
+                buf = msg.getByteSequenceContent();
+                flags = buf[1];
+                if (buf[0] == ORDERS) {
+                    count = getInt(buf, 2);
+                    id = ref = 0; a = b = 0;
+                    return this;
+                }
+                count = -1;
+                id = getLong(buf, 2);
+                ref = getLong(buf, 10);
+                a = Double.longBitsToDouble(getLong(buf, 18));
+                b = Double.longBitsToDouble(getLong(buf, 26));
+            } else {
+                parseText(msg.getContent());
+            }
+            return this;
+        }
+
+        public long id()         { return id; }
+        public long clientId()   { return ref; }
+        /** ORDER only: client id of the order this one replaces (0 = plain new order) */
+        public long replaces()   { return ref; }
+        public boolean isSell()  { return (flags & SELL) != 0; }
+        public boolean isFault() { return (flags & FAULT) != 0; }
+        public boolean isOverloaded() { return (flags & OVERLOAD) != 0; }
+        public int queued()      { return (int) a; }
+        public double qty()      { return a; }
+        public double price()    { return b; }
+        public double soc()      { return a; }
+        public double prod()     { return b; }
+        public double demand()   { return a; }
+        public double backlog()  { return b; }
+
+        /** ORDERS batch: true, and the orders are read with {@link #count} and the indexed getters */
+        public boolean isBatch() { return count >= 0; }
+        public int count()       { return count; }
+        public long id(int k)       { return buf == null ? batchIds[k] : getLong(buf, BATCH_HEADER + k * BATCH_ENTRY); }
+        public double qty(int k)    { return buf == null ? batchQty[k] : Double.longBitsToDouble(getLong(buf, BATCH_HEADER + k * BATCH_ENTRY + 8)); }
+        public double price(int k)  { return buf == null ? batchPrice[k] : Double.longBitsToDouble(getLong(buf, BATCH_HEADER + k * BATCH_ENTRY + 16)); }
+
+        /** fill counterparty / status name */
+        public String name() { return buf == null ? name : getName(buf, HEADER); }
+
+        private void parseText(String content) {
+            buf = null; flags = 0; id = ref = 0; a = b = 0; name = null; count = -1;
+            if (content == null) return;
+            boolean soc = false;
+            for (String token : content.split(";")) {
+                int eq = token.indexOf('=');
+                if (eq < 0) continue;
+                String key = token.substring(0, eq);
+                String value = token.substring(eq + 1);
+                switch (key) {
+                    case "id":      id = Long.parseLong(value); break;
+                    case "cid":
+                    case "replaces": ref = Long.parseLong(value); break;
+                    case "side":    if (value.equals("sell")) flags |= SELL; break;
+                    case "fault":   if (Boolean.parseBoolean(value)) flags |= FAULT; break;
+                    case "overload": if (Boolean.parseBoolean(value)) flags |= OVERLOAD; break;
+                    case "soc":     soc = true; a = Double.parseDouble(value); break;
+                    case "qty":
+                    case "demand":
+                    case "queued":  a = Double.parseDouble(value); break;
+                    case "price":
+                    case "prod":
+                    case "backlog": b = Double.parseDouble(value); break;
+                    case "name":
+                    case "from":    name = value; break;
+                    case "orders":  parseOrders(value); break;
+                }
+            }
+            if (content.startsWith("name=") && !soc) a = Double.NaN; // status without battery
+        }
+
+        private void parseOrders(String value) {
+            String[] orders = value.isEmpty() ? new String[0] : value.split(",");
+            count = orders.length;
+            batchIds = new long[count];
+            batchQty = new double[count];
+            batchPrice = new double[count];
+            for (int k = 0; k < count; k++) {
+                String[] f = orders[k].split(":");
+                batchIds[k] = Long.parseLong(f[0]);
+                batchQty[k] = Double.parseDouble(f[1]);
+                batchPrice[k] = Double.parseDouble(f[2]);
+            }
+        }
+    }
+
+    // ------------------------- byte helpers ------------------------
+    private static void putLong(byte[] buf, int off, long v) {
+        for (int i = 7; i >= 0; i--) { buf[off + i] = (byte) v; v >>>= 8; }
+    }
+
+    private static long getLong(byte[] buf, int off) {
+        long v = 0;
+        for (int i = 0; i < 8; i++) v = (v << 8) | (buf[off + i] & 0xff);
+        return v;
+    }
+
+    private static void putInt(byte[] buf, int off, int v) {
+        for (int i = 3; i >= 0; i--) { buf[off + i] = (byte) v; v >>>= 8; }
+    }
+
+    private static int getInt(byte[] buf, int off) {
+        return ((buf[off] & 0xff) << 24) | ((buf[off + 1] & 0xff) << 16) | ((buf[off + 2] & 0xff) << 8) | (buf[off + 3] & 0xff);
+    }
+
+    private static int getShort(byte[] buf, int off) {
+        return ((buf[off] & 0xff) << 8) | (buf[off + 1] & 0xff);
+    }
+
+    /** Bytes {@link #putName} writes for {@code name}, length prefix excluded. */
+    private static int utf8Length(String name) {
+        if (name == null) return 0;
+        int len = 0;
+        for (int i = 0; i < name.length(); ) {
+            int cp = name.codePointAt(i);
+            i += Character.charCount(cp);
+            len += cp < 0x80 ? 1 : cp < 0x800 ? 2 : Character.isSurrogate((char) cp) ? 1 : cp < 0x10000 ? 3 : 4;
+        }
+        return len;
+    }
+
+    /** UTF-8 by code point; a lone surrogate becomes '?', as in {@link String#getBytes}. */
+    private static void putName(byte[] buf, int off, String name) {
+        int pos = off + 2;
+        if (name != null) {
+            for (int i = 0; i < name.length(); ) {
+                int cp = name.codePointAt(i);
+                i += Character.charCount(cp);
+                if (cp < 0x80) {
+                    buf[pos++] = (byte) cp;
+                } else if (cp < 0x800) {
+                    buf[pos++] = (byte) (0xc0 | cp >>> 6);
+                    buf[pos++] = (byte) (0x80 | cp & 0x3f);
+                } else if (Character.isSurrogate((char) cp)) {
+                    buf[pos++] = '?';
+                } else if (cp < 0x10000) {
+                    buf[pos++] = (byte) (0xe0 | cp >>> 12);
+                    buf[pos++] = (byte) (0x80 | cp >>> 6 & 0x3f);
+                    buf[pos++] = (byte) (0x80 | cp & 0x3f);
+                } else {
+                    buf[pos++] = (byte) (0xf0 | cp >>> 18);
+                    buf[pos++] = (byte) (0x80 | cp >>> 12 & 0x3f);
+                    buf[pos++] = (byte) (0x80 | cp >>> 6 & 0x3f);
+                    buf[pos++] = (byte) (0x80 | cp & 0x3f);
+                }
+            }
+        }
+        int len = pos - off - 2;
+        buf[off] = (byte) (len >>> 8);
+        buf[off + 1] = (byte) len;
+    }
+
+    private static String getName(byte[] buf, int off) {
+        int len = getShort(buf, off);
+        return len == 0 ? null : new String(buf, off + 2, len, StandardCharsets.UTF_8);
+    }
+}
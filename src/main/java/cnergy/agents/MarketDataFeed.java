@@ -0,0 +1,244 @@
+package cnergy.agents;
+
+import jade.lang.acl.ACLMessage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Batched market-data stream from the broker to the GUI.
+ * <p>
+ * The broker records every new resting order, removal and trade into one
+ * reusable buffer and {@link #flush}es it as a single {@code BOOK_DELTA} message
+ * per period, instead of one {@code ACLMessage} per event. Every delta carries a
+ * sequence number so the receiver can spot a gap and ask for a snapshot; a
+ * snapshot is a delta flagged as such that holds the whole book. With several
+ * broker shards each one runs its own sequence, tagged with the shard number.
+ * <pre>
+ *  header : int shard | long seq | byte snapshot | int count
+ *  ADD    : byte 1 | long id | byte sell | double qty | double price | short n + owner
+ *  REMOVE : byte 2 | long id
+ *  TRADE  : byte 3 | double qty | double price | short n + seller | short n + buyer
+ * </pre>
+ * With {@code -Dcnergy.codec=text} the same events are written one per line as
+ * {@code key=value;...} text.
+ */
+public class MarketDataFeed {
+
+    public static final String ONTOLOGY = "BOOK_DELTA";
+    public static final String SNAPSHOT_REQUEST = "BOOK_SNAPSHOT";
+
+    private static final byte ADD = 1, REMOVE = 2, TRADE = 3;
+    private static final int HEADER = 17;
+
+    /** Receiver side callbacks: {@code onDelta} first, then the events in recording order. */
+    public interface Handler {
+        void onDelta(int shard, long seq, boolean snapshot);
+        void onAdd(long id, boolean sell, double qty, double price, String owner);
+        void onRemove(long id);
+        void onTrade(String seller, String buyer, double qty, double price);
+    }
+
+    // ------------------------- writer ------------------------
+    private byte[] buf = new byte[4096];
+    private int pos = HEADER;
+    private int count = 0;
+    private final StringBuilder text = new StringBuilder();
+    private long seq = 0;
+    private final int shard;
+
+    public MarketDataFeed() { this(0); }
+
+    public MarketDataFeed(int shard) { this.shard = shard; }
+
+    public void add(long id, boolean sell, double qty, double price, String owner) {
+        count++;
+        if (MarketCodec.USE_TEXT) {
+            text.append("add;id=").append(id).append(";side=").append(sell ? "sell" : "buy")
+                .append(";qty=").append(qty).append(";price=").append(price).append(";from=").append(owner).append('\n');
+            return;
+        }
+        ensure(1 + 8 + 1 + 16 + 2 + owner.length() * 3);
+        buf[pos++] = ADD;
+        putLong(id);
+        buf[pos++] = (byte) (sell ? 1 : 0);
+        putLong(Double.doubleToRawLongBits(qty));
+        putLong(Double.doubleToRawLongBits(price));
+        putName(owner);
+    }
+
+    public void remove(long id) {
+        count++;
+        if (MarketCodec.USE_TEXT) {
+            text.append("remove;id=").append(id).append('\n');
+            return;
+        }
+        ensure(1 + 8);
+        buf[pos++] = REMOVE;
+        putLong(id);
+    }
+
+    public void trade(String seller, String buyer, double qty, double price) {
+        count++;
+        if (MarketCodec.USE_TEXT) {
+            text.append("trade;seller=").append(seller).append(";buyer=").append(buyer)
+                .append(";qty=").append(qty).append(";price=").append(price).append('\n');
+            return;
+        }
+        ensure(1 + 16 + 4 + (seller.length() + buyer.length()) * 3);
+        buf[pos++] = TRADE;
+        putLong(Double.doubleToRawLongBits(qty));
+        putLong(Double.doubleToRawLongBits(price));
+        putName(seller);
+        putName(buyer);
+    }
+
+    public boolean isEmpty() { return count == 0; }
+
+    /** Move the recorded events into {@code msg} as the next delta and reset the buffer. */
+    public void flush(ACLMessage msg) {
+        write(msg, ++seq, false);
+    }
+
+    /**
+     * Write the recorded events as a snapshot tagged with the current sequence
+     * number; the caller records the whole book first.
+     */
+    public void flushSnapshot(ACLMessage msg) {
+        write(msg, seq, true);
+    }
+
+    private void write(ACLMessage msg, long number, boolean snapshot) {
+        msg.setOntology(ONTOLOGY);
+        if (MarketCodec.USE_TEXT) {
+            msg.setLanguage(MarketCodec.TEXT);
+            msg.setContent("shard="+shard+";seq="+number+";snapshot="+snapshot+";count="+count+"\n"+text);
+            text.setLength(0);
+        } else {
+            int end = pos;
+            pos = 0;
+            putInt(shard);
+            putLong(number);
+            buf[pos++] = (byte) (snapshot ? 1 : 0);
+            putInt(count);
+            msg.setLanguage(MarketCodec.BINARY);
+            msg.setByteSequenceContent(Arrays.copyOf(buf, end));
+            pos = HEADER;
+        }
+        count = 0;
+    }
+
+    // ------------------------- reader ------------------------
+    /** Replay one delta into {@code handler}. */
+    public static void read(ACLMessage msg, Handler handler) {
+        if (!MarketCodec.BINARY.equals(msg.getLanguage())) { readText(msg.getContent(), handler); return; }
+
+        byte[] b = msg.getByteSequenceContent();
+        handler.onDelta(getInt(b, 0), getLong(b, 4), b[12] != 0);
+        int count = getInt(b, 13);
+        int p = HEADER;
+        for (int i = 0; i < count; i++) {
+            switch (b[p++]) {
+                case ADD: {
+                    long id = getLong(b, p);
+                    boolean sell = b[p + 8] != 0;
+                    double qty = Double.longBitsToDouble(getLong(b, p + 9));
+                    double price = Double.longBitsToDouble(getLong(b, p + 17));
+                    p += 25;
+                    String owner = getName(b, p);
+                    p += 2 + nameLength(b, p);
+                    handler.onAdd(id, sell, qty, price, owner);
+                    break;
+                }
+                case REMOVE:
+                    handler.onRemove(getLong(b, p));
+                    p += 8;
+                    break;
+                case TRADE: {
+                    double qty = Double.longBitsToDouble(getLong(b, p));
+                    double price = Double.longBitsToDouble(getLong(b, p + 8));
+                    p += 16;
+                    String seller = getName(b, p);
+                    p += 2 + nameLength(b, p);
+                    String buyer = getName(b, p);
+                    p += 2 + nameLength(b, p);
+                    handler.onTrade(seller, buyer, qty, price);
+                    break;
+                }
+                default:
+                    throw new IllegalArgumentException("corrupt "+ONTOLOGY+" message");
+            }
+        }
+    }
+
+    private static void readText(String content, Handler handler) {
+        String[] lines = content.split("\n");
+        for (String line : lines) {
+            Map<String, String> kv = new HashMap<>();
+            String[] tokens = line.split(";");
+            for (String t : tokens) {
+                String[] pair = t.split("=", 2);
+                if (pair.length == 2) kv.put(pair[0], pair[1]);
+            }
+            switch (tokens[0]) {
+                case "add":
+                    handler.onAdd(Long.parseLong(kv.get("id")), "sell".equals(kv.get("side")),
+                            Double.parseDouble(kv.get("qty")), Double.parseDouble(kv.get("price")), kv.get("from"));
+                    break;
+                case "remove":
+                    handler.onRemove(Long.parseLong(kv.get("id")));
+                    break;
+                case "trade":
+                    handler.onTrade(kv.get("seller"), kv.get("buyer"), Double.parseDouble(kv.get("qty")), Double.parseDouble(kv.get("price")));
+                    break;
+                default: // header line
+                    handler.onDelta(Integer.parseInt(kv.get("shard")), Long.parseLong(kv.get("seq")), Boolean.parseBoolean(kv.get("snapshot")));
+            }
+        }
+    }
+
+    // ------------------------- byte helpers ------------------------
+    private void ensure(int n) {
+        if (pos + n > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+    }
+
+    private void putLong(long v) {
+        for (int i = 7; i >= 0; i--) { buf[pos + i] = (byte) v; v >>>= 8; }
+        pos += 8;
+    }
+
+    private void putInt(int v) {
+        for (int i = 3; i >= 0; i--) { buf[pos + i] = (byte) v; v >>>= 8; }
+        pos += 4;
+    }
+
+    private void putName(String name) {
+        byte[] enc = name.getBytes(StandardCharsets.UTF_8);
+        buf[pos++] = (byte) (enc.length >>> 8);
+        buf[pos++] = (byte) enc.length;
+        System.arraycopy(enc, 0, buf, pos, enc.length);
+        pos += enc.length;
+    }
+
+    private static long getLong(byte[] b, int off) {
+        long v = 0;
+        for (int i = 0; i < 8; i++) v = (v << 8) | (b[off + i] & 0xff);
+        return v;
+    }
+
+    private static int getInt(byte[] b, int off) {
+        int v = 0;
+        for (int i = 0; i < 4; i++) v = (v << 8) | (b[off + i] & 0xff);
+        return v;
+    }
+
+    private static int nameLength(byte[] b, int off) {
+        return ((b[off] & 0xff) << 8) | (b[off + 1] & 0xff);
+    }
+
+    private static String getName(byte[] b, int off) {
+        return new String(b, off + 2, nameLength(b, off), StandardCharsets.UTF_8);
+    }
+}
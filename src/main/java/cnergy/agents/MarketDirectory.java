@@ -0,0 +1,132 @@
+package cnergy.agents;
+
+import jade.core.AID;
+import jade.core.Agent;
+import jade.core.ServiceException;
+import jade.core.messaging.TopicManagementHelper;
+import jade.domain.DFService;
+import jade.domain.FIPAAgentManagement.DFAgentDescription;
+import jade.domain.FIPAAgentManagement.Property;
+import jade.domain.FIPAAgentManagement.ServiceDescription;
+
+import java.util.*;
+
+/**
+ * Broker shard discovery through the DF.
+ * <p>
+ * Every {@link BrokerAgent} clears one zone and registers a {@code broker}
+ * service carrying a {@code zone} property. Market participants look their shard
+ * up by zone instead of addressing a fixed local name. Lookups never search the
+ * DF: each one watches the broker type through {@link DirectoryCache}, and the
+ * zone index is rebuilt from the cache when a shard joins or leaves.
+ * <p>
+ * Clearing prices are published on one topic per zone ({@code price-<zone>})
+ * through JADE's TopicManagement service, which the platform must load; a
+ * broker that falls behind raises and clears backpressure on {@code load-<zone>}.
+ * A weather replay publishes each recorded site on {@code weather-<site>}, and
+ * producers listen to the site named after their zone.
+ */
+public final class MarketDirectory {
+
+    public static final String BROKER_TYPE = "broker";
+    public static final String ZONE = "zone";
+    public static final String DEFAULT_ZONE = "default";
+    public static final String PRICE_TOPIC = "price-";
+    public static final String LOAD_TOPIC = "load-";
+    public static final String WEATHER_TOPIC = "weather-";
+
+    private static volatile Map<String, AID> byZone = Collections.emptyMap();
+    private static volatile long byZoneVersion = -1; // cache version byZone was built from
+
+    private MarketDirectory() {}
+
+    /** The broker clearing {@code zone}; the plain local name "broker" until the cache knows a shard for it. */
+    public static AID broker(Agent agent, String zone) {
+        AID aid = brokersByZone(agent).get(zone);
+        return aid != null ? aid : new AID("broker", AID.ISLOCALNAME);
+    }
+
+    /** Every broker shard, in any zone: an immutable snapshot that changes identity when the shards do. */
+    public static List<AID> brokers(Agent agent) {
+        DirectoryCache.watch(agent, BROKER_TYPE);
+        return DirectoryCache.agents(BROKER_TYPE);
+    }
+
+    public static void registerBroker(Agent agent, String zone) {
+        try {
+            DFAgentDescription dfd = new DFAgentDescription();
+            dfd.setName(agent.getAID());
+            ServiceDescription sd = new ServiceDescription();
+            sd.setType(BROKER_TYPE);
+            sd.setName("energy-market");
+            sd.addProperties(new Property(ZONE, zone));
+            dfd.addServices(sd);
+            DFService.register(agent, dfd);
+        } catch (Exception e) { e.printStackTrace(); }
+    }
+
+    /** Zones with a registered broker. */
+    public static Set<String> zones(Agent agent) {
+        return new TreeSet<>(brokersByZone(agent).keySet());
+    }
+
+    private static Map<String, AID> brokersByZone(Agent agent) {
+        DirectoryCache.watch(agent, BROKER_TYPE);
+        long version = DirectoryCache.version(BROKER_TYPE);
+        if (version == byZoneVersion) return byZone;
+        synchronized (MarketDirectory.class) {
+            if (version != byZoneVersion) {
+                Map<String, AID> index = new HashMap<>();
+                for (Map.Entry<AID, Map<String, String>> e : DirectoryCache.properties(BROKER_TYPE).entrySet()) {
+                    String zone = e.getValue().get(ZONE);
+                    if (zone != null) index.putIfAbsent(zone, e.getKey());
+                }
+                byZone = Collections.unmodifiableMap(index);
+                byZoneVersion = version;
+            }
+            return byZone;
+        }
+    }
+
+    /** The clearing-price topic of {@code zone}, or null when the TopicManagement service is not loaded. */
+    public static AID priceTopic(Agent agent, String zone) {
+        return topic(agent, PRICE_TOPIC + zone, false, "price ticks");
+    }
+
+    /** Receive the PRICE_TICKs of {@code zone}; false when the TopicManagement service is not loaded. */
+    public static boolean subscribePrice(Agent agent, String zone) {
+        return topic(agent, PRICE_TOPIC + zone, true, "price ticks") != null;
+    }
+
+    /** The backpressure topic of {@code zone}, or null when the TopicManagement service is not loaded. */
+    public static AID loadTopic(Agent agent, String zone) {
+        return topic(agent, LOAD_TOPIC + zone, false, "backpressure");
+    }
+
+    /** Receive the BACKPRESSURE signals of {@code zone}'s broker; false when the TopicManagement service is not loaded. */
+    public static boolean subscribeLoad(Agent agent, String zone) {
+        return topic(agent, LOAD_TOPIC + zone, true, "backpressure") != null;
+    }
+
+    /** The replayed weather of {@code site}, or null when the TopicManagement service is not loaded. */
+    public static AID weatherTopic(Agent agent, String site) {
+        return topic(agent, WEATHER_TOPIC + site, false, "weather replay");
+    }
+
+    /** Receive the replayed WEATHER of the site named {@code zone}; false when the TopicManagement service is not loaded. */
+    public static boolean subscribeWeather(Agent agent, String zone) {
+        return topic(agent, WEATHER_TOPIC + zone, true, "weather replay") != null;
+    }
+
+    private static AID topic(Agent agent, String name, boolean subscribe, String feature) {
+        try {
+            TopicManagementHelper topics = (TopicManagementHelper) agent.getHelper(TopicManagementHelper.SERVICE_NAME);
+            AID topic = topics.createTopic(name);
+            if (subscribe) topics.register(topic);
+            return topic;
+        } catch (ServiceException e) {
+            System.err.printf("%s >> no TopicManagement service, %s disabled%n", agent.getLocalName(), feature);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package cnergy.agents;
+
+import jade.core.AID;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Price-level limit order book used by the {@link BrokerAgent}.
+ * <p>
+ * Prices are bucketed on a fixed-point tick ladder ({@link #TICK_SIZE}); every
+ * level keeps its orders in arrival (FIFO) order, so walking the best level
+ * head-first gives the same price-time priority as the old priority queues.
+ * Orders are linked intrusively into their level and indexed by id, and by
+ * (owner, client id) when the owner numbers its orders, which makes cancel /
+ * amend / expire O(1) and best bid / ask lookups O(1).
+ * <p>
+ * Expiry runs off a hashed timing wheel keyed by {@code Order.expiry}: each tick
+ * only visits the slot of that tick, so its cost follows the number of orders
+ * that actually expire, not the size of the book.
+ */
+public class OrderBook {
+
+    /** price ladder resolution (euro/kWh) */
+    public static final double TICK_SIZE = 1e-6;
+    /** quantities below this are treated as fully filled */
+    public static final double EPS = 1e-6;
+    /** order ids of shard {@code n} start at {@code n << SHARD_BITS}, unique across brokers */
+    public static final int SHARD_BITS = 40;
+
+    // ------------------------- Orders ------------------------
+    public static class Order {
+        public final long    id;      // broker order id
+        public final AID     owner;
+        public final long    clientId; // owner's own order id, echoed in fills (0 = none)
+        public double        qty;     // remaining quantity
+        public final double  price;
+        public final boolean seller;
+        public int           expiry;  // tick at which the order expires
+        public long          created; // System.nanoTime() at booking, set by the broker (0 = unknown)
+        public int           holds;   // unsettled claims on it (quantity offered elsewhere); > 0 = does not expire
+
+        // intrusive FIFO links inside the price level
+        private Level level;
+        private Order prev, next;
+        // intrusive links inside the expiry wheel slot
+        private int slot = -1;
+        private Order expPrev, expNext;
+
+        Order(long id, AID owner, long clientId, double qty, double price, boolean seller, int expiry) {
+            this.id = id; this.owner = owner; this.clientId = clientId; this.qty = qty; this.price = price; this.seller = seller; this.expiry = expiry;
+        }
+
+        public boolean isFilled() { return qty <= EPS; }
+    }
+
+    /** Called for every execution, after both quantities have been reduced. */
+    public interface TradeListener {
+        void onTrade(Order buy, Order sell, double qty, double price);
+    }
+
+    // ------------------------- Price levels ------------------------
+    private static final class Level {
+        final long ticks;
+        Order head, tail;
+        int count;
+        Level(long ticks) { this.ticks = ticks; }
+    }
+
+    private final TreeMap<Long, Level> bids = new TreeMap<>(Collections.reverseOrder()); // highest price first
+    private final TreeMap<Long, Level> asks = new TreeMap<>();                           // lowest price first
+    private Level bestBid, bestAsk; // cached heads of the two ladders
+    private int bidOrders, askOrders;
+
+    private final Map<Long, Order> index = new HashMap<>();
+    private final Map<AID, Map<Long, Order>> byClient = new HashMap<>(); // owner -> client id -> order
+    private long seq;
+
+    // ------------------------- Expiry wheel ------------------------
+    private static final int WHEEL_SLOTS = 64; // power of two, > expiry horizon keeps every visit useful
+    private final Order[] wheel = new Order[WHEEL_SLOTS];
+    private int expiredUpTo = 0; // last tick handed to expire()
+
+    public OrderBook() { this(0); }
+
+    /** Book of broker shard {@code shard}; its ids never collide with another shard's. */
+    public OrderBook(int shard) {
+        seq = (long) shard << SHARD_BITS;
+    }
+
+    // ------------------------- add / cancel ------------------------
+    public Order add(AID owner, double qty, double price, boolean seller, int expiry) {
+        return add(owner, 0, qty, price, seller, expiry);
+    }
+
+    public Order add(AID owner, long clientId, double qty, double price, boolean seller, int expiry) {
+        Order order = new Order(++seq, owner, clientId, qty, price, seller, expiry);
+        index.put(order.id, order);
+        if (clientId != 0) byClient.computeIfAbsent(owner, k -> new HashMap<>()).put(clientId, order);
+
+        long ticks = toTicks(price);
+        TreeMap<Long, Level> side = seller ? asks : bids;
+        Level level = side.get(ticks);
+        if (level == null) {
+            level = new Level(ticks);
+            side.put(ticks, level);
+            if (seller) { if (bestAsk == null || ticks < bestAsk.ticks) bestAsk = level; }
+            else        { if (bestBid == null || ticks > bestBid.ticks) bestBid = level; }
+        }
+        // append to the tail -> older orders stay in front
+        order.level = level;
+        order.prev = level.tail;
+        if (level.tail != null) level.tail.next = order; else level.head = order;
+        level.tail = order;
+        level.count++;
+        if (seller) askOrders++; else bidOrders++;
+
+        schedule(order);
+        return order;
+    }
+
+    /** Remove a resting order. Returns the order or {@code null} if it is no longer in the book. */
+    public Order cancel(long id) {
+        Order order = index.remove(id);
+        if (order != null) { unlink(order); unschedule(order); unindex(order); }
+        return order;
+    }
+
+    /** Cancel by the owner's own id. Returns the order or {@code null} if it is no longer in the book. */
+    public Order cancel(AID owner, long clientId) {
+        Order order = get(owner, clientId);
+        return order == null ? null : cancel(order.id);
+    }
+
+    /**
+     * Atomic cancel/replace: drop the owner's order {@code oldClientId} (if it is
+     * still resting) and add the replacement. The replacement joins the back of
+     * its price level, like any new order.
+     */
+    public Order amend(AID owner, long oldClientId, long clientId, double qty, double price, boolean seller, int expiry) {
+        cancel(owner, oldClientId);
+        return add(owner, clientId, qty, price, seller, expiry);
+    }
+
+    public Order get(long id) { return index.get(id); }
+
+    public Order get(AID owner, long clientId) {
+        Map<Long, Order> orders = byClient.get(owner);
+        return orders == null ? null : orders.get(clientId);
+    }
+
+    /**
+     * Remove every order with {@code expiry <= tick}, handing each one to
+     * {@code onExpire}. An order that still has {@code holds} stays and is looked
+     * at again on the next tick.
+     */
+    public void expire(int tick, Consumer<Order> onExpire) {
+        // visit each slot between the last call and now at most once
+        int from = Math.max(expiredUpTo + 1, tick - WHEEL_SLOTS + 1);
+        for (int t = from; t <= tick; t++) {
+            Order order = wheel[t & (WHEEL_SLOTS - 1)];
+            while (order != null) {
+                Order next = order.expNext;
+                if (order.expiry <= tick && order.holds > 0) {
+                    unschedule(order);
+                    order.expiry = tick + 1;
+                    schedule(order);
+                } else if (order.expiry <= tick) { // later laps of the wheel stay put
+                    cancel(order.id);
+                    onExpire.accept(order);
+                }
+                order = next;
+            }
+        }
+        expiredUpTo = Math.max(expiredUpTo, tick);
+    }
+
+    // ------------------------- matching ------------------------
+    /** Continuous price-time matching; every trade executes at the resting ask price. */
+    public void match(TradeListener listener) {
+        cross(listener, Double.NaN);
+    }
+
+    /**
+     * Call auction: clear everything that crosses at one uniform price and
+     * return it ({@code NaN} when nothing crosses). Fills are still allocated in
+     * price-time priority.
+     */
+    public double auction(TradeListener listener) {
+        double price = clearingPrice();
+        if (!Double.isNaN(price)) cross(listener, price);
+        return price;
+    }
+
+    /**
+     * Uniform clearing price where the aggregated demand curve (bids, highest
+     * first) meets the supply curve (asks, lowest first): the ask price of the
+     * last unit that still crosses. Every crossing bid is at or above it and every
+     * crossing ask at or below it. The book is not modified.
+     */
+    public double clearingPrice() {
+        Iterator<Level> bl = bids.values().iterator();
+        Iterator<Level> al = asks.values().iterator();
+        Order buy = bl.hasNext() ? bl.next().head : null;
+        Order sell = al.hasNext() ? al.next().head : null;
+        double buyLeft = buy == null ? 0 : buy.qty;
+        double sellLeft = sell == null ? 0 : sell.qty;
+        double price = Double.NaN;
+
+        while (buy != null && sell != null && buy.price >= sell.price) {
+            double qty = Math.min(buyLeft, sellLeft);
+            buyLeft -= qty;
+            sellLeft -= qty;
+            price = sell.price;
+            if (buyLeft <= EPS) {
+                buy = buy.next != null ? buy.next : (bl.hasNext() ? bl.next().head : null);
+                buyLeft = buy == null ? 0 : buy.qty;
+            }
+            if (sellLeft <= EPS) {
+                sell = sell.next != null ? sell.next : (al.hasNext() ? al.next().head : null);
+                sellLeft = sell == null ? 0 : sell.qty;
+            }
+        }
+        return price;
+    }
+
+    /** Execute while the book crosses; a {@code NaN} price means "trade at the ask". */
+    private void cross(TradeListener listener, double uniformPrice) {
+        while (bestBid != null && bestAsk != null && bestBid.head.price >= bestAsk.head.price) {
+            Order buy = bestBid.head;
+            Order sell = bestAsk.head;
+            double qty = Math.min(buy.qty, sell.qty);
+            buy.qty -= qty;
+            sell.qty -= qty;
+            listener.onTrade(buy, sell, qty, Double.isNaN(uniformPrice) ? sell.price : uniformPrice);
+
+            if (buy.isFilled()) cancel(buy.id);
+            if (sell.isFilled()) cancel(sell.id);
+        }
+    }
+
+    // ------------------------- queries ------------------------
+    public Order bestBid() { return bestBid == null ? null : bestBid.head; }
+    public Order bestAsk() { return bestAsk == null ? null : bestAsk.head; }
+    public int size() { return index.size(); }
+    public void forEach(Consumer<Order> action) { index.values().forEach(action); }
+    public int levels(boolean seller) { return seller ? asks.size() : bids.size(); }
+    /** Resting orders on one side. */
+    public int orders(boolean seller) { return seller ? askOrders : bidOrders; }
+
+    // ------------------------- internals ------------------------
+    private void unlink(Order order) {
+        Level level = order.level;
+        if (order.prev != null) order.prev.next = order.next; else level.head = order.next;
+        if (order.next != null) order.next.prev = order.prev; else level.tail = order.prev;
+        order.prev = order.next = null;
+        order.level = null;
+        if (order.seller) askOrders--; else bidOrders--;
+        if (--level.count > 0) return;
+
+        // level emptied -> drop it and refresh the cached best
+        if (order.seller) {
+            asks.remove(level.ticks);
+            if (level == bestAsk) { Map.Entry<Long, Level> e = asks.firstEntry(); bestAsk = e == null ? null : e.getValue(); }
+        } else {
+            bids.remove(level.ticks);
+            if (level == bestBid) { Map.Entry<Long, Level> e = bids.firstEntry(); bestBid = e == null ? null : e.getValue(); }
+        }
+    }
+
+    private void unindex(Order order) {
+        if (order.clientId == 0) return;
+        Map<Long, Order> orders = byClient.get(order.owner);
+        if (orders != null) orders.remove(order.clientId); // owner maps stay, requoting agents reuse them
+    }
+
+    private void schedule(Order order) {
+        // already past due -> picked up by the next expire() call
+        int due = Math.max(order.expiry, expiredUpTo + 1);
+        int slot = due & (WHEEL_SLOTS - 1);
+        order.slot = slot;
+        order.expPrev = null;
+        order.expNext = wheel[slot];
+        if (wheel[slot] != null) wheel[slot].expPrev = order;
+        wheel[slot] = order;
+    }
+
+    private void unschedule(Order order) {
+        if (order.slot < 0) return;
+        if (order.expPrev != null) order.expPrev.expNext = order.expNext; else wheel[order.slot] = order.expNext;
+        if (order.expNext != null) order.expNext.expPrev = order.expPrev;
+        order.expPrev = order.expNext = null;
+        order.slot = -1;
+    }
+
+    static long toTicks(double price) {
+        return Math.round(price / TICK_SIZE);
+    }
+}
@@ -0,0 +1,218 @@
+package cnergy.agents;
+
+import cnergy.log.EventLog;
+import cnergy.log.LogEvent;
+import cnergy.log.Logger;
+import cnergy.metrics.Gauge;
+import cnergy.metrics.Metrics;
+import cnergy.metrics.Sum;
+import cnergy.sim.RenewableFleet;
+import cnergy.sim.RenewableModel;
+import jade.core.AID;
+import jade.core.Agent;
+import jade.core.behaviours.CyclicBehaviour;
+import jade.domain.DFService;
+import jade.domain.FIPAAgentManagement.DFAgentDescription;
+import jade.domain.FIPAAgentManagement.ServiceDescription;
+import jade.lang.acl.ACLMessage;
+
+import java.util.SplittableRandom;
+
+/**
+ * Many solar or wind plants behind one agent: the rules of {@link SolarAgent} /
+ * {@link WindAgent}, held in a {@link RenewableFleet} and stepped in one loop
+ * per tick. Offers go to the broker as {@link MarketCodec#ORDERS} batches whose
+ * client ids carry the plant index, so every fill and reject reaches its plant.
+ * A FAULT sent to the fleet takes down one plant, drawn at random.
+ */
+public class RenewableFleetAgent extends Agent {
+    /** orders per ORDERS message */
+    public static final int BATCH = 4096;
+
+    // ------------------------ Parameters ------------------------
+    private RenewableModel.Source source = RenewableModel.Source.SOLAR;
+    private int count = 1000;
+    private double[] capacity = {50.0}; // kW, one value or a [min, max] range drawn per plant
+    private double[] battCapacity = {100};
+    private double coeffHigh = 1.0; // SUNNY / WINDY
+    private double coeffLow = 0.4;  // CLOUDY / CALM
+    private double[] baseCost = {0.035}; // euro/kWh
+    private double margin = 0.005; // Initial margin
+    private double alpha = 0.003; // learning rate
+    private boolean DebuggingMode = false; // Debug mode
+    private String zone = MarketDirectory.DEFAULT_ZONE; // market zone -> broker shard
+
+    // ------------------------- Internal state ------------------------
+    private RenewableFleet fleet;
+    private int[] who;
+    private long[] ids;
+    private double[] qty, price;
+    private int tick = 0;
+    private SplittableRandom rand;
+    private final MarketCodec.Reader reader = new MarketCodec.Reader();
+    private final Backpressure backpressure = new Backpressure();
+    private Logger log;
+    private Gauge queue;
+    private Sum curtailed; // energy lost to full batteries, per source
+
+    @Override
+    protected void setup() {
+        Object[] args = getArguments();
+        if (args != null && args.length > 0) {
+            source = RenewableModel.Source.valueOf(args[0].toString().toUpperCase());
+            count = Integer.parseInt(args[1].toString());
+            capacity = range(args[2]);
+            battCapacity = range(args[3]);
+            coeffHigh = Double.parseDouble(args[4].toString());
+            coeffLow = Double.parseDouble(args[5].toString());
+            baseCost = range(args[6]);
+            margin = Double.parseDouble(args[7].toString());
+            alpha = Double.parseDouble(args[8].toString());
+            DebuggingMode = Boolean.parseBoolean(args[9].toString());
+            if (args.length > 10) zone = args[10].toString();
+        }
+        register(source == RenewableModel.Source.SOLAR ? "solar-producer" : "wind-producer");
+        log = EventLog.logger(getLocalName(), DebuggingMode);
+        System.out.printf("- [%s]  UP - %s fleet {count: %d | capacity: %s | battCapacity: %s | baseCost: %s | margin: %.2f | alpha: %.2f | coeffHigh: %.2f | coeffLow: %.2f}%n", getLocalName(), source, count, java.util.Arrays.toString(capacity), java.util.Arrays.toString(battCapacity), java.util.Arrays.toString(baseCost), margin, alpha, coeffHigh, coeffLow);
+        MarketDirectory.subscribePrice(this, zone); // PRICE_TICK from the zone's broker
+        MarketDirectory.subscribeLoad(this, zone);  // BACKPRESSURE from the zone's broker
+        MarketDirectory.subscribeWeather(this, zone); // replayed WEATHER for the zone's site
+
+        rand = Clock.random(this);
+        fleet = new RenewableFleet(source, count, coeffHigh, coeffLow, margin, alpha);
+        for (int i = 0; i < count; i++) fleet.setPlant(i, draw(capacity), draw(battCapacity), draw(baseCost));
+        queue = Metrics.queue(getLocalName());
+        curtailed = Metrics.sum("producers", source.name().toLowerCase() + ".curtailed");
+        who = new int[count];
+        ids = new long[count];
+        qty = new double[count];
+        price = new double[count];
+
+        // --------------------- message handling -----------------------
+        addBehaviour(new CyclicBehaviour(this) {
+            @Override
+            public void action() {
+                ACLMessage msg = receive(Clock.OTHERS);
+                if (msg == null) { block(); return; }
+                switch (msg.getPerformative()) {
+                    case ACLMessage.INFORM: onInform(msg); break;
+                    case ACLMessage.ACCEPT_PROPOSAL: onFill(msg); break;
+                    case ACLMessage.REJECT_PROPOSAL: onReject(msg); break;
+                }
+            }
+        });
+
+        // ------------------------ hourly cycle ------------------------------
+        addBehaviour(new StepBehaviour(this, 1000, Clock.MARKET) {
+            @Override
+            protected void onTick() {
+                queue.set(getCurQueueSize());
+                tick++;
+                int offers = fleet.step(who, qty, price);
+                curtailed.add(fleet.totalCurtailed());
+                if (offers > 0 && !backpressure.admit()) {
+                    fleet.defer(who, offers); // broker overloaded: keep the energy in the batteries
+                    offers = 0;
+                }
+                for (int k = 0; k < offers; k++) ids[k] = MarketCodec.memberId(tick, who[k]);
+
+                // send orders
+                AID broker = MarketDirectory.broker(myAgent, zone);
+                for (int from = 0; from < offers; from += BATCH) {
+                    ACLMessage orders = new ACLMessage(ACLMessage.PROPOSE);
+                    orders.addReceiver(broker);
+                    orders.setOntology("ORDER");
+                    MarketCodec.writeOrders(orders, true, ids, qty, price, from, Math.min(offers, from + BATCH));
+                    send(orders);
+                }
+                log.event(LogEvent.FLEET_OFFERS).l(offers).d(fleet.totalProduction()).l(fleet.faultyCount()).end();
+
+                // notify gui agent: the fleet as one producer
+                ACLMessage gui = new ACLMessage(ACLMessage.INFORM);
+                gui.addReceiver(new AID("gui", AID.ISLOCALNAME));
+                gui.setOntology("PRODUCER_STATUS");
+                MarketCodec.writeProducerStatus(gui, getLocalName(), fleet.socPct(), fleet.totalProduction(), fleet.faultyCount() > 0);
+                send(gui);
+            }
+        });
+    }
+
+    @Override
+    protected void takeDown() {
+        DirectoryCache.release(this);
+    }
+
+    // ---------------------------- FUNCTIONS -------------------------------------
+    private void onInform(ACLMessage msg) {
+        String[] tokens;
+
+        switch (msg.getOntology()) {
+            case "WEATHER":
+                // content -> SUN=..;WIND=..;TIME=..;hour=..[;PV=..;WP=..]
+                tokens = msg.getContent().split(";");
+                boolean solar = source == RenewableModel.Source.SOLAR;
+                String weatherToken = tokens[solar ? 0 : 1].split("=")[1];
+                String timeToken = tokens[2].split("=")[1];
+                if (tokens.length > 5) fleet.setWeather(Double.parseDouble(tokens[solar ? 4 : 5].split("=")[1]), "DAY".equals(timeToken)); // replayed
+                else fleet.setWeather(solar ? "SUNNY".equals(weatherToken) : "WINDY".equals(weatherToken), "DAY".equals(timeToken));
+                log.event(LogEvent.WEATHER_UPDATE).s(weatherToken).s(timeToken).end();
+                break;
+            case "PRICE_TICK":
+                double price = reader.wrap(msg).price();
+                fleet.setLastPrice(price);
+                log.event(LogEvent.PRICE_TICK).d(price).end();
+                break;
+            case "BACKPRESSURE":
+                backpressure.update(reader.wrap(msg));
+                break;
+            case "FAULT":
+                tokens = msg.getContent().split(";");
+                double faultDuration = Double.parseDouble(tokens[0].split("=")[1]);
+                fleet.fault(rand.nextInt(count), faultDuration);
+                log.event(LogEvent.FAULT_OCCURRED).d(faultDuration).end();
+                break;
+        }
+    }
+
+    private void onFill(ACLMessage msg) {
+        reader.wrap(msg);
+        int i = MarketCodec.member(reader.clientId(), count);
+        if (i < 0) return;
+        double qty = reader.qty();
+        double price = reader.price();
+
+        fleet.onFill(i, qty);
+        if (log.on(LogEvent.PRODUCER_FILLED)) log.event(LogEvent.PRODUCER_FILLED).l(reader.id()).d(qty).d(price).s(reader.name()).d(fleet.margin(i)).end();
+    }
+
+    private void onReject(ACLMessage msg) {
+        reader.wrap(msg);
+        int i = MarketCodec.member(reader.clientId(), count);
+        if (i < 0) return;
+        fleet.onReject(i);
+        log.event(LogEvent.PRODUCER_REJECTED).l(reader.id()).d(fleet.soc(i)).d(fleet.socPct()).end();
+    }
+
+    // -------- utilities ----------
+    /** A number, or a {@code [min, max]} range. */
+    private static double[] range(Object arg) {
+        return arg instanceof double[] ? (double[]) arg : new double[]{Double.parseDouble(arg.toString())};
+    }
+
+    private double draw(double[] range) {
+        return range.length == 1 ? range[0] : range[0] + rand.nextDouble() * (range[1] - range[0]);
+    }
+
+    /** Register this agent under a market service-type */
+    private void register(String type) {
+        try {
+            DFAgentDescription dfd = new DFAgentDescription();
+            dfd.setName(getAID());
+            ServiceDescription sd = new ServiceDescription();
+            sd.setType(type);
+            sd.setName("energy-market");
+            dfd.addServices(sd);
+            DFService.register(this, dfd);
+        } catch (Exception e) { e.printStackTrace(); }
+    }
+}
@@ -1,8 +1,14 @@
 package cnergy.agents;
 
+import cnergy.log.EventLog;
+import cnergy.log.LogEvent;
+import cnergy.log.Logger;
+import cnergy.metrics.Gauge;
+import cnergy.metrics.Metrics;
+import cnergy.metrics.Sum;
+import cnergy.sim.RenewableModel;
 import jade.core.Agent;
 import jade.core.behaviours.CyclicBehaviour;
-import jade.core.behaviours.TickerBehaviour;
 import jade.domain.DFService;
 import jade.domain.FIPAAgentManagement.DFAgentDescription;
 import jade.domain.FIPAAgentManagement.ServiceDescription;
@@ -23,16 +29,15 @@ public class SolarAgent extends Agent {
     private double alpha = 0.003; // learning rate
 
     private boolean DebuggingMode = false; // Debug mode
+    private String zone = MarketDirectory.DEFAULT_ZONE; // market zone -> broker shard
     
     // ------------------------- Internal state ------------------------
-    private double production = 0.0; 
-    private double lastClearingPrice = 0.0;
-    private String solarToken = "";
-    private String timeToken = "";
-    private double faultDuration = 0.0;
-    private double soc = 0.0;
-    private boolean isFaulty = false;
-    private double openQty = 0; 
+    private RenewableModel model;
+    private final MarketCodec.Reader reader = new MarketCodec.Reader();
+    private final Backpressure backpressure = new Backpressure();
+    private Logger log;
+    private Gauge queue;
+    private Sum curtailed; // energy lost to full batteries, every solar producer
 
     @Override
     protected void setup() {
@@ -48,14 +53,23 @@ public class SolarAgent extends Agent {
             margin = Double.parseDouble(args[6].toString());
             alpha = Double.parseDouble(args[7].toString());
             DebuggingMode = Boolean.parseBoolean(args[8].toString());
+            if (args.length > 9) zone = args[9].toString();
         }
+        log = EventLog.logger(getLocalName(), DebuggingMode);
         System.out.printf("- [%s]  UP - {capacity: %.2f | hasBattery: %b | battCapacity: %.2f | baseCost: %.2f | margin: %.2f | alpha: %.2f | coeffSunny: %.2f | coeffCloudy: %.2f}%n", getLocalName(), capacity, hasBattery, battCapacity, baseCost, margin, alpha, coeffSunny, coeffCloudy);
+        MarketDirectory.subscribePrice(this, zone); // PRICE_TICK from the zone's broker
+        MarketDirectory.subscribeWeather(this, zone); // replayed WEATHER for the zone's site
+        MarketDirectory.subscribeLoad(this, zone);  // BACKPRESSURE from the zone's broker
+        model = new RenewableModel(RenewableModel.Source.SOLAR, capacity, battCapacity, coeffSunny, coeffCloudy, baseCost, margin, alpha);
+
+        queue = Metrics.queue(getLocalName());
+        curtailed = Metrics.sum("producers", "solar.curtailed");
 
         // --------------------- message handling -----------------------
         addBehaviour(new CyclicBehaviour(this) {
             @Override
             public void action() {
-                ACLMessage msg = receive();
+                ACLMessage msg = receive(Clock.OTHERS);
                 if (msg == null) { block(); return; }
                 switch (msg.getPerformative()) {
                     case ACLMessage.INFORM: onInform(msg); break;
@@ -66,116 +80,95 @@ public class SolarAgent extends Agent {
         });
 
         // ------------------------ hourly cicle ------------------------------
-        addBehaviour(new TickerBehaviour(this, 1000) {
+        addBehaviour(new StepBehaviour(this, 1000, Clock.MARKET) {
             @Override
             protected void onTick() {
+                queue.set(getCurQueueSize());
                 // fault Handling
-                if (isFaulty) {
-                    if (faultDuration > 0) {
-                        faultDuration -= 1;
-                        if(DebuggingMode) System.out.printf("%s >> Faulty... %.2f seconds remaining%n", getLocalName(), faultDuration);
+                if (model.isFaulty()) {
+                    if (model.countDownFault()) {
+                        log.event(LogEvent.FAULTY).d(model.faultRemaining()).end();
                         return;
-                    } else {
-                        isFaulty = false;
-                        if(DebuggingMode) System.out.printf("%s >> Recovered!%n", getLocalName());
                     }
+                    log.event(LogEvent.RECOVERED).end();
                 }
 
                 // produce energy
-                if (timeToken.equals("DAY")) {
-                    double factor = "SUNNY".equals(solarToken) ? coeffSunny : coeffCloudy;
-                    production = capacity * factor;
-                    production = Math.min(production, battCapacity - soc);
-                    if(DebuggingMode) System.out.printf("%s >> Generating.. %.2f kWh %n", getLocalName(), production);
-                } else {production = 0;}
-
-                // calculate price
-                double available = production + soc;
-                if (available < 1e-6) {return;} // nothing to sell
-                double price = baseCost + margin;
-                // price = Math.max(price, lastClearingPrice - 0.02); // avoid undercutting the market
-                
+                double available = model.produce();
+                curtailed.add(model.curtailed());
+                log.event(LogEvent.GENERATING).d(model.production()).end();
+                if (available == 0) {return;} // nothing to sell
+                if (!backpressure.admit()) { model.defer(); return; } // broker overloaded: keep the energy
+                double price = model.askPrice();
+
                 // send order
-                openQty = available;
                 ACLMessage order = new ACLMessage(ACLMessage.PROPOSE);
-                order.addReceiver(new AID("broker", AID.ISLOCALNAME));
+                order.addReceiver(MarketDirectory.broker(myAgent, zone));
                 order.setOntology("ORDER");
-                order.setContent("qty="+available+";price="+price+";side=sell");
+                MarketCodec.writeOrder(order, 0, true, available, price);
                 send(order);
-                if(DebuggingMode) System.out.printf("%s >> SELL ORDER qty=%.2f kWh @ %.3f%n", getLocalName(), available, price);
+                log.event(LogEvent.SELL_ORDER).d(available).d(price).end();
 
                 ACLMessage gui = new ACLMessage(ACLMessage.INFORM);
                 gui.addReceiver(new AID("gui", AID.ISLOCALNAME));
                 gui.setOntology("PRODUCER_STATUS");
-                gui.setContent("name="+getLocalName()+";soc="+soc/battCapacity*100+";prod="+production+";fault="+isFaulty);
+                MarketCodec.writeProducerStatus(gui, getLocalName(), model.socPct(), model.production(), model.isFaulty());
                 send(gui);
 
             }
         });
     }
 
+    @Override
+    protected void takeDown() {
+        DirectoryCache.release(this);
+    }
+
     // ---------------------------- FUNCTIONS -------------------------------------
     private void onInform(ACLMessage msg) {
-        String content = "";
-        String [] tokens = null;
+        String[] tokens;
 
         switch (msg.getOntology()) {
             case "WEATHER":
-                // Update weather
-                content = msg.getContent();
-                tokens = content.split(";");
-                solarToken = tokens[0].split("=")[1];
-                timeToken = tokens[2].split("=")[1];
-                if(DebuggingMode) System.out.printf("%s >> Weather update: %s | %s%n", getLocalName(), solarToken, timeToken);
+                // content -> SUN=..;WIND=..;TIME=..;hour=..[;PV=..;WP=..]
+                tokens = msg.getContent().split(";");
+                String solarToken = tokens[0].split("=")[1];
+                String timeToken = tokens[2].split("=")[1];
+                if (tokens.length > 5) model.setWeather(Double.parseDouble(tokens[4].split("=")[1]), "DAY".equals(timeToken)); // replayed
+                else model.setWeather("SUNNY".equals(solarToken), "DAY".equals(timeToken));
+                log.event(LogEvent.WEATHER_UPDATE).s(solarToken).s(timeToken).end();
                 break;
             case "PRICE_TICK":
-                // Update last clearing price                
-                content = msg.getContent();
-                lastClearingPrice = Double.parseDouble(content.split("=")[1]);
-                if(DebuggingMode) System.out.printf("%s >> Price tick: %.2f%n", getLocalName(), lastClearingPrice);
+                double price = reader.wrap(msg).price();
+                model.setLastPrice(price);
+                log.event(LogEvent.PRICE_TICK).d(price).end();
+                break;
+            case "BACKPRESSURE":
+                backpressure.update(reader.wrap(msg));
                 break;
             case "FAULT":
-                content = msg.getContent();
-                tokens = content.split(";");
-                faultDuration = Double.parseDouble(tokens[0].split("=")[1]);
-                isFaulty = true;
-                if(DebuggingMode) System.out.printf("%s >> Fault occured | duration: %.2f%n", getLocalName(), faultDuration);
+                tokens = msg.getContent().split(";");
+                double faultDuration = Double.parseDouble(tokens[0].split("=")[1]);
+                model.fault(faultDuration);
+                log.event(LogEvent.FAULT_OCCURRED).d(faultDuration).end();
                 break;
         }
     }
 
     private void onFill(ACLMessage msg, boolean seller) {
-        String content = msg.getContent();
-        String [] tokens = content.split(";");
-
-        long id = Long.parseLong(tokens[0].split("=")[1]);
-        double qty = Double.parseDouble(tokens[1].split("=")[1]);
-        double price = Double.parseDouble(tokens[2].split("=")[1]);
-        String from = tokens[3].split("=")[1];
-
-        openQty -= qty;
-        if(openQty <= 1e-6) {openQty = 0;}
-        
-        // Remove energy taken from batteries 
-        soc -= qty - production; 
-        soc = Math.max(0, Math.min(soc, battCapacity));
-        
-        margin += alpha;
-        margin = Math.min(margin, 0.1);
-        if(DebuggingMode) System.out.printf("%s >> FILLED order id=%d %.1f kWh @ %.3f from %s | new margin %.3f%n", getLocalName(), id, qty, price, from, margin);
+        reader.wrap(msg);
+        long id = reader.id();
+        double qty = reader.qty();
+        double price = reader.price();
+
+        model.onFill(qty, price);
+        if (log.on(LogEvent.PRODUCER_FILLED)) log.event(LogEvent.PRODUCER_FILLED).l(id).d(qty).d(price).s(reader.name()).d(model.margin()).end();
     }
 
     private void onReject(ACLMessage msg) {
-        String content = msg.getContent();
-        String[] tokens = content.split(";");
-        
-        long id = Long.parseLong(tokens[0].split("=")[1]);
-        soc = Math.min(battCapacity, soc + openQty);
-        openQty=0;
-
-        margin -= alpha;
-        margin = Math.max(-0.02, margin);
-        if(DebuggingMode) System.out.printf("%s >> REJECTED id=%d -> energy returned to battery (SoC=%.0f %.1f%%)%n", getLocalName(), id, soc, soc/battCapacity*100);
+        long id = reader.wrap(msg).id();
+        model.onReject();
+        log.event(LogEvent.PRODUCER_REJECTED).l(id).d(model.soc()).d(model.socPct()).end();
     }
 
     // -------- utilities ----------
@@ -0,0 +1,92 @@
+package cnergy.agents;
+
+import jade.core.Agent;
+import jade.core.behaviours.CyclicBehaviour;
+import jade.lang.acl.ACLMessage;
+import jade.lang.acl.MessageTemplate;
+
+/**
+ * An agent's periodic work, run either on wall time or on the steps of a
+ * {@link ClockAgent}.
+ * <p>
+ * Unclocked, the default, it is a ticker: {@link #onTick} runs every
+ * {@code period} ms. In a clocked run ({@link Clock#enabled}) it registers with
+ * the clock for its {@code phase}. It then runs {@link #onTick} on every
+ * {@code period / }{@link Clock#STEP_MS}-th step and acknowledges each step, so
+ * the clock moves on as soon as the slowest agent is done. Before acting on a
+ * step, it lets the agent's other behaviours take the messages already queued,
+ * such as the price, weather and fills of the phase before.
+ */
+public abstract class StepBehaviour extends CyclicBehaviour {
+    /** passes a step waits for the rest of the queue to be taken */
+    private static final int SETTLE = 64;
+
+    private final long period;   // ms, unclocked
+    private final int phase;
+    private final long every;    // steps, clocked
+    private final boolean clocked = Clock.enabled();
+    private final MessageTemplate steps;
+    private long wakeup;
+    private ACLMessage step;     // received, not yet acted on
+    private int settle;
+    private int ticks;
+
+    public StepBehaviour(Agent agent, long period, int phase) {
+        super(agent);
+        this.period = period;
+        this.phase = phase;
+        every = Math.max(1, Math.round((double) period / Clock.STEP_MS));
+        steps = Clock.steps(phase);
+    }
+
+    /** One period's work. */
+    protected abstract void onTick();
+
+    /** Ticks run so far. */
+    public int getTickCount() {
+        return ticks;
+    }
+
+    @Override
+    public void onStart() {
+        if (!clocked) {
+            wakeup = System.currentTimeMillis() + period;
+            return;
+        }
+        ACLMessage join = new ACLMessage(ACLMessage.SUBSCRIBE);
+        join.addReceiver(Clock.clock());
+        join.setConversationId(Clock.CONVERSATION);
+        join.setOntology(Clock.STEP + phase);
+        myAgent.send(join);
+    }
+
+    @Override
+    public void action() {
+        if (!clocked) {
+            long now = System.currentTimeMillis();
+            if (now < wakeup) { block(wakeup - now); return; }
+            wakeup = now + period;
+            ticks++;
+            onTick();
+            return;
+        }
+        if (step == null) {
+            step = myAgent.receive(steps);
+            if (step == null) { block(); return; }
+            settle = 0;
+        }
+        if (myAgent.getCurQueueSize() > 0 && settle++ < SETTLE) return; // stay runnable, the others go first
+
+        long n = Long.parseLong(step.getContent());
+        if (n % every == 0) {
+            ticks++;
+            onTick();
+        }
+        ACLMessage done = step.createReply();
+        done.setPerformative(ACLMessage.INFORM);
+        done.setOntology(Clock.DONE + phase);
+        done.setContent(step.getContent());
+        myAgent.send(done);
+        step = null;
+    }
+}
@@ -0,0 +1,351 @@
+package cnergy.agents;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Rolling binary record of the market telemetry a GUI would show: producer and
+ * consumer status, order-book adds and removes, trades, price ticks, weather
+ * and faults. Written by {@link TelemetrySinkAgent} in headless runs.
+ * <p>
+ * Like the {@link TradeJournal}, records have a fixed layout and are stored
+ * straight into memory-mapped segments ({@link MappedRecords}), here one file
+ * of {@code segment} bytes each. When a file is full, writing moves to the next
+ * one ({@code telemetry-00001.bin}, ...), mapped ahead of time. Every file
+ * starts with a header and repeats the names it uses, so it can be read on its
+ * own. With {@code keep > 0} only the newest {@code keep} files are kept.
+ * <pre>
+ *  header : int MAGIC | int VERSION | int RECORD | int file index, padded to one record
+ *
+ *  offset  0 byte   type
+ *          1 byte   flags
+ *          4 int    name     name index, or -1
+ *          8 long   time     epoch millis
+ *         16 long   id
+ *         24 double a
+ *         32 double b
+ *
+ *  PRODUCER  name = producer  flags 1 = fault               a = SoC %      b = production
+ *  CONSUMER  name = consumer                                a = demand     b = backlog
+ *  ORDER     name = owner     flags 1 = sell   id = order   a = qty        b = price
+ *  REMOVE                                      id = order
+ *  TRADE     name = seller                     id = buyer   a = qty        b = price
+ *  PRICE     name = broker                                  a = price
+ *  WEATHER   flags 1 = day, 2 = sunny, 4 = windy  id = hour a = PV share   b = wind share (NaN unless replayed)
+ *  FAULT     name = victim                                  a = duration
+ *  NAME      int 4 = name index, byte 16 = length, bytes 17.. = UTF-8 name
+ * </pre>
+ * The end of the data is the first all-zero record or the end of the last file.
+ */
+public final class TelemetryLog implements Closeable {
+
+    public static final byte NAME = 1, PRODUCER = 2, CONSUMER = 3, ORDER = 4, REMOVE = 5, TRADE = 6,
+            PRICE = 7, WEATHER = 8, FAULT = 9;
+    public static final int RECORD = 40;
+    public static final int SEGMENT = 64 << 20;
+    static final int MAGIC = 0x434E544C; // "CNTL"
+    static final int VERSION = 1;
+    static final String PREFIX = "telemetry-", SUFFIX = ".bin";
+    private static final int MAX_NAME = RECORD - 17;
+
+    private final File dir;
+    private final Map<Integer, RandomAccessFile> writing = new ConcurrentHashMap<>(); // open files, by index
+    private final MappedRecords out;
+    private final Map<String, Integer> names = new HashMap<>(); // of the current file
+
+    public TelemetryLog(String dir) throws IOException {
+        this(dir, SEGMENT, 0);
+    }
+
+    /** Telemetry in {@code dir}, replacing any earlier run there; files of {@code segment} bytes, newest {@code keep} kept (0 = all). */
+    public TelemetryLog(String dir, int segment, int keep) throws IOException {
+        this.dir = new File(dir);
+        if (!this.dir.isDirectory() && !this.dir.mkdirs()) throw new IOException("cannot create " + dir);
+        for (File old : files(this.dir)) old.delete();
+        out = new MappedRecords("telemetry", RECORD, Math.max(4, segment / RECORD) * RECORD, new MappedRecords.Segments() {
+            @Override
+            public MappedByteBuffer open(int index, int size) throws IOException {
+                RandomAccessFile file = new RandomAccessFile(new File(TelemetryLog.this.dir, fileName(index)), "rw");
+                file.setLength(0);
+                writing.put(index, file);
+                MappedByteBuffer b = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+                b.order(ByteOrder.LITTLE_ENDIAN);
+                b.putInt(MAGIC).putInt(VERSION).putInt(RECORD).putInt(index);
+                b.position(RECORD);
+                return b;
+            }
+
+            @Override
+            public void full(int index) {
+                closeFile(index);
+                int expired = keep > 0 ? index + 1 - keep : -1;
+                if (expired >= 0) new File(TelemetryLog.this.dir, fileName(expired)).delete();
+            }
+
+            @Override
+            public void close(int index, int length, int unused) throws IOException {
+                if (unused >= 0) {
+                    closeFile(unused);
+                    new File(TelemetryLog.this.dir, fileName(unused)).delete();
+                }
+                RandomAccessFile file = writing.remove(index);
+                try {
+                    file.getChannel().truncate(length);
+                } catch (IOException e) {
+                    // still mapped on some platforms: the zero record marks the end anyway
+                } finally {
+                    file.close();
+                }
+            }
+        });
+    }
+
+    private void closeFile(int index) {
+        RandomAccessFile file = writing.remove(index);
+        if (file == null) return;
+        try { file.close(); } catch (IOException ignored) {}
+    }
+
+    static String fileName(int index) {
+        return String.format("%s%05d%s", PREFIX, index, SUFFIX);
+    }
+
+    /** Telemetry files in {@code dir}, oldest first. */
+    static List<File> files(File dir) {
+        File[] found = dir.listFiles((d, n) -> n.startsWith(PREFIX) && n.endsWith(SUFFIX));
+        List<File> files = found == null ? new ArrayList<>() : new ArrayList<>(Arrays.asList(found));
+        Collections.sort(files);
+        return files;
+    }
+
+    // ------------------------ records ------------------------
+    public void producer(String name, double socPct, double production, boolean fault) {
+        room(1 + unnamed(name));
+        append(PRODUCER, fault ? 1 : 0, name(name), 0, socPct, production);
+    }
+
+    public void consumer(String name, double demand, double backlog) {
+        room(1 + unnamed(name));
+        append(CONSUMER, 0, name(name), 0, demand, backlog);
+    }
+
+    public void order(long id, boolean sell, double qty, double price, String owner) {
+        room(1 + unnamed(owner));
+        append(ORDER, sell ? 1 : 0, name(owner), id, qty, price);
+    }
+
+    public void remove(long id) {
+        room(1);
+        append(REMOVE, 0, -1, id, 0, 0);
+    }
+
+    public void trade(String seller, String buyer, double qty, double price) {
+        room(1 + unnamed(seller) + unnamed(buyer));
+        int s = name(seller);
+        append(TRADE, 0, s, name(buyer), qty, price);
+    }
+
+    public void price(String broker, double price) {
+        room(1 + unnamed(broker));
+        append(PRICE, 0, name(broker), 0, price, 0);
+    }
+
+    public void weather(int hour, boolean day, boolean sunny, boolean windy, double pv, double wp) {
+        room(1);
+        append(WEATHER, (day ? 1 : 0) | (sunny ? 2 : 0) | (windy ? 4 : 0), -1, hour, pv, wp);
+    }
+
+    public void fault(String victim, double duration) {
+        room(1 + unnamed(victim));
+        append(FAULT, 0, name(victim), 0, duration, 0);
+    }
+
+    /** Records written, names included. */
+    public long records() {
+        return out.records();
+    }
+
+    /** Index of the file being written. */
+    public int file() {
+        return out.segment();
+    }
+
+    /** 1 if {@code name} still needs a NAME record in this file. */
+    private int unnamed(String name) {
+        return names.containsKey(name) ? 0 : 1;
+    }
+
+    private int name(String name) {
+        Integer index = names.get(name);
+        if (index != null) return index;
+        MappedByteBuffer buf = out.buf();
+        int at = buf.position();
+        int i = names.size();
+        names.put(name, i);
+        byte[] utf = name.getBytes(StandardCharsets.UTF_8);
+        int len = Math.min(utf.length, MAX_NAME);
+        buf.putInt(at + 4, i);
+        buf.put(at + 16, (byte) len);
+        for (int k = 0; k < len; k++) buf.put(at + 17 + k, utf[k]);
+        commit(at, NAME, 0);
+        return i;
+    }
+
+    private void append(byte type, int flags, int name, long id, double a, double b) {
+        MappedByteBuffer buf = out.buf();
+        int at = buf.position();
+        buf.putInt(at + 4, name);
+        buf.putLong(at + 8, System.currentTimeMillis());
+        buf.putLong(at + 16, id);
+        buf.putDouble(at + 24, a);
+        buf.putDouble(at + 32, b);
+        commit(at, type, flags);
+    }
+
+    private void commit(int at, byte type, int flags) {
+        out.buf().put(at + 1, (byte) flags);
+        out.commit(at, type);
+    }
+
+    /**
+     * Make room for a record and the names it may introduce, moving to the next
+     * file first if they would not fit: names resolve within one file.
+     */
+    private void room(int n) {
+        if (out.room(n)) names.clear();
+    }
+
+    /** Flush to disk and trim the last file to what was written. */
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    // ------------------------ Reading ------------------------
+
+    /**
+     * Sequential reader over the telemetry files of a directory, a flyweight
+     * over each mapped file in turn: call {@link #next()} and read the current
+     * record through the accessors. NAME records are consumed internally.
+     */
+    public static final class Reader implements Closeable {
+        private final Iterator<File> files;
+        private RandomAccessFile file;
+        private MappedByteBuffer buf;
+        private int at;
+        private final List<String> names = new ArrayList<>();
+
+        public Reader(String dir) throws IOException {
+            files = files(new File(dir)).iterator();
+            if (!files.hasNext()) throw new IOException("no telemetry in " + dir);
+        }
+
+        private boolean open() throws IOException {
+            if (file != null) file.close();
+            file = null;
+            names.clear();
+            while (files.hasNext()) {
+                File f = files.next();
+                file = new RandomAccessFile(f, "r");
+                long length = file.length();
+                buf = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+                buf.order(ByteOrder.LITTLE_ENDIAN);
+                if (length < RECORD || buf.getInt(0) != MAGIC) throw new IOException(f + " is not a telemetry file");
+                if (buf.getInt(4) != VERSION || buf.getInt(8) != RECORD) throw new IOException(f + ": unsupported telemetry version");
+                at = 0;
+                return true;
+            }
+            return false;
+        }
+
+        /** Advance to the next record; false at the end of the last file. */
+        public boolean next() throws IOException {
+            if (file == null && !open()) return false;
+            while (true) {
+                at += RECORD;
+                byte type = at + RECORD > buf.limit() ? 0 : buf.get(at);
+                if (type == 0) {
+                    if (!open()) return false;
+                    continue;
+                }
+                if (type != NAME) return true;
+                int len = buf.get(at + 16);
+                byte[] utf = new byte[len];
+                for (int k = 0; k < len; k++) utf[k] = buf.get(at + 17 + k);
+                names.add(new String(utf, StandardCharsets.UTF_8));
+            }
+        }
+
+        public byte type()      { return buf.get(at); }
+        public int flags()      { return buf.get(at + 1); }
+        public int nameIndex()  { return buf.getInt(at + 4); }
+        public long time()      { return buf.getLong(at + 8); }
+        public long id()        { return buf.getLong(at + 16); }
+        public double a()       { return buf.getDouble(at + 24); }
+        public double b()       { return buf.getDouble(at + 32); }
+        public String name()    { int i = nameIndex(); return i < 0 ? null : names.get(i); }
+        /** TRADE: the buyer. */
+        public String other()   { return names.get((int) id()); }
+
+        @Override
+        public void close() throws IOException {
+            if (file != null) file.close();
+        }
+    }
+
+    static String typeName(byte type) {
+        switch (type) {
+            case PRODUCER: return "PRODUCER";
+            case CONSUMER: return "CONSUMER";
+            case ORDER: return "ORDER";
+            case REMOVE: return "REMOVE";
+            case TRADE: return "TRADE";
+            case PRICE: return "PRICE";
+            case WEATHER: return "WEATHER";
+            case FAULT: return "FAULT";
+            default: return "?" + type;
+        }
+    }
+
+    /** Print a telemetry directory as text: {@code java cnergy.agents.TelemetryLog telemetry [--count]}. */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: TelemetryLog <directory> [--count]");
+            return;
+        }
+        boolean countOnly = args.length > 1 && args[1].equals("--count");
+        long start = System.nanoTime();
+        long[] counts = new long[FAULT + 1];
+        try (Reader r = new Reader(args[0])) {
+            while (r.next()) {
+                counts[r.type()]++;
+                if (countOnly) continue;
+                switch (r.type()) {
+                    case TRADE:
+                        System.out.printf("%d TRADE %s --> %s %.1f @ %.3f%n", r.time(), r.name(), r.other(), r.a(), r.b());
+                        break;
+                    case ORDER:
+                        System.out.printf("%d ORDER %s id=%d %.1f @ %.3f %s%n", r.time(), (r.flags() & 1) != 0 ? "SELL" : "BUY", r.id(), r.a(), r.b(), r.name());
+                        break;
+                    case REMOVE:
+                        System.out.printf("%d REMOVE id=%d%n", r.time(), r.id());
+                        break;
+                    default:
+                        System.out.printf("%d %s %s %d %.3f %.3f flags=%d%n", r.time(), typeName(r.type()), r.name(), r.id(), r.a(), r.b(), r.flags());
+                }
+            }
+        }
+        double secs = (System.nanoTime() - start) / 1e9;
+        StringBuilder summary = new StringBuilder();
+        for (byte t = PRODUCER; t <= FAULT; t++) summary.append(typeName(t)).append('=').append(counts[t]).append(' ');
+        System.err.printf("%sread in %.3f s%n", summary, secs);
+    }
+}
@@ -0,0 +1,135 @@
+package cnergy.agents;
+
+import jade.core.Agent;
+import jade.core.behaviours.CyclicBehaviour;
+import jade.core.behaviours.TickerBehaviour;
+import jade.lang.acl.ACLMessage;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Headless stand-in for the {@link GUIAgent}: started under the GUI's local
+ * name ("gui"), it receives the same producer, consumer, market-data, price,
+ * weather and fault messages and appends them to a {@link TelemetryLog}
+ * instead of drawing them. No JavaFX: past decoding, a message costs a few
+ * stores into a mapped file.
+ */
+public class TelemetrySinkAgent extends Agent {
+    // ------------------------ Parameters ------------------------
+    private String dir = "telemetry";
+    private int segmentMb = TelemetryLog.SEGMENT >> 20;
+    private int keep = 0; // newest files kept, 0 = all
+
+    // ------------------------- Internal state ------------------------
+    private TelemetryLog telemetry;
+    private final MarketCodec.Reader reader = new MarketCodec.Reader();
+    private final Set<String> zones = new HashSet<>(); // price topics joined
+
+    @Override
+    protected void setup() {
+        Object[] args = getArguments();
+        if (args != null && args.length > 0) {
+            dir = args[0].toString();
+            if (args.length > 1) segmentMb = Integer.parseInt(args[1].toString());
+            if (args.length > 2) keep = Integer.parseInt(args[2].toString());
+        }
+        try {
+            telemetry = new TelemetryLog(dir, segmentMb << 20, keep);
+        } catch (IOException e) {
+            System.err.printf("%s >> telemetry disabled, cannot write %s: %s%n", getLocalName(), dir, e.getMessage());
+        }
+        MarketDirectory.zones(this); // start following the broker shards
+        System.out.printf("- [%s] (telemetry sink) up! {dir: %s | segment: %d MB | keep: %d}%n", getLocalName(), dir, segmentMb, keep);
+
+        addBehaviour(new CyclicBehaviour(this) {
+            private final Feed feed = new Feed();
+
+            @Override
+            public void action() {
+                ACLMessage msg = receive(DirectoryCache.OTHERS);
+                if (msg == null) { block(); return; }
+                for (; msg != null; msg = receive(DirectoryCache.OTHERS)) {
+                    if (telemetry != null && msg.getPerformative() == ACLMessage.INFORM && msg.getOntology() != null) record(msg, feed);
+                }
+            }
+        });
+
+        // brokers may register after the sink: join the price topic of every zone that shows up
+        addBehaviour(new TickerBehaviour(this, 5000) {
+            @Override
+            protected void onTick() {
+                for (String zone : MarketDirectory.zones(myAgent)) {
+                    if (zones.add(zone)) MarketDirectory.subscribePrice(myAgent, zone);
+                }
+            }
+        });
+    }
+
+    @Override
+    protected void takeDown() {
+        DirectoryCache.release(this);
+        if (telemetry == null) return;
+        try {
+            telemetry.close();
+        } catch (IOException e) {
+            System.err.printf("%s >> closing telemetry %s: %s%n", getLocalName(), dir, e.getMessage());
+        }
+    }
+
+    private void record(ACLMessage msg, Feed feed) {
+        String[] tokens;
+        switch (msg.getOntology()) {
+            case "PRODUCER_STATUS":
+                reader.wrap(msg);
+                telemetry.producer(reader.name(), reader.soc(), reader.prod(), reader.isFault());
+                break;
+            case "CONSUMER_STATUS":
+                reader.wrap(msg);
+                telemetry.consumer(reader.name(), reader.demand(), reader.backlog());
+                break;
+            case MarketDataFeed.ONTOLOGY:
+                MarketDataFeed.read(msg, feed);
+                break;
+            case "PRICE_TICK":
+                telemetry.price(msg.getSender().getLocalName(), reader.wrap(msg).price());
+                break;
+            case "WEATHER":
+                // content -> SUN=..;WIND=..;TIME=..;hour=..[;PV=..;WP=..]
+                tokens = msg.getContent().split(";");
+                boolean replayed = tokens.length > 5;
+                telemetry.weather(Integer.parseInt(tokens[3].split("=")[1]), "DAY".equals(tokens[2].split("=")[1]),
+                        "SUNNY".equals(tokens[0].split("=")[1]), "WINDY".equals(tokens[1].split("=")[1]),
+                        replayed ? Double.parseDouble(tokens[4].split("=")[1]) : Double.NaN,
+                        replayed ? Double.parseDouble(tokens[5].split("=")[1]) : Double.NaN);
+                break;
+            case "FAULT":
+                // content -> outage=..;victim=..
+                tokens = msg.getContent().split(";");
+                if (tokens.length > 1) telemetry.fault(tokens[1].split("=")[1], Double.parseDouble(tokens[0].split("=")[1]));
+                break;
+        }
+    }
+
+    /** Order-book adds, removes and trades of every broker shard. */
+    private final class Feed implements MarketDataFeed.Handler {
+        @Override
+        public void onDelta(int shard, long seq, boolean snapshot) {}
+
+        @Override
+        public void onAdd(long id, boolean sell, double qty, double price, String owner) {
+            telemetry.order(id, sell, qty, price, owner);
+        }
+
+        @Override
+        public void onRemove(long id) {
+            telemetry.remove(id);
+        }
+
+        @Override
+        public void onTrade(String seller, String buyer, double qty, double price) {
+            telemetry.trade(seller, buyer, qty, price);
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package cnergy.agents;
+
+import jade.core.AID;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only journal of the broker's order events and trades.
+ * <p>
+ * Records have a fixed 64-byte layout and are written straight into a
+ * memory-mapped file ({@link MappedRecords}), so appending costs the matching
+ * thread a handful of stores. The file grows in segments, regions of the one
+ * file. Pages reach the disk through the OS, so a crashed run keeps everything
+ * it journaled.
+ * <pre>
+ *  header : int MAGIC | int VERSION | int RECORD, padded to one record
+ *
+ *  offset  0 byte   type     NAME | NEW | CANCEL | EXPIRE | FILL | TRADE
+ *          1 byte   side     1 = sell
+ *          4 int    tick     broker tick
+ *          8 long   time     epoch millis
+ *         16 long   id       book order id        (TRADE: buy order id)
+ *         24 long   ref      owner's client id    (TRADE: sell order id)
+ *         32 double qty      open qty (NEW/CANCEL/EXPIRE), traded qty (FILL/TRADE)
+ *         40 double price
+ *         48 int    owner    name index           (TRADE: buyer)
+ *         52 int    other    counterparty, or -1  (TRADE: seller)
+ *
+ *  NAME   : int 8 = name index, byte 16 = length, bytes 17.. = UTF-8 name
+ * </pre>
+ * Agent names are journaled once, as a NAME record before their first use.
+ * The end of the journal is the first all-zero record.
+ */
+public final class TradeJournal implements Closeable {
+
+    public static final byte NAME = 1, NEW = 2, CANCEL = 3, EXPIRE = 4, FILL = 5, TRADE = 6;
+    public static final int RECORD = 64;
+    static final int MAGIC = 0x434E4A4C; // "CNJL"
+    static final int VERSION = 1;
+    static final int SEGMENT = 64 << 20;
+    private static final int MAX_NAME = RECORD - 17;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final MappedRecords out;
+    private final Map<AID, Integer> names = new HashMap<>();
+    private int tick;
+
+    public TradeJournal(String path) throws IOException {
+        this(path, SEGMENT);
+    }
+
+    TradeJournal(String path, int segment) throws IOException {
+        file = new RandomAccessFile(path, "rw");
+        file.setLength(0);
+        channel = file.getChannel();
+        final int size = segment / RECORD * RECORD;
+        out = new MappedRecords("journal", RECORD, size, new MappedRecords.Segments() {
+            @Override
+            public MappedByteBuffer open(int index, int size) throws IOException {
+                MappedByteBuffer b = channel.map(FileChannel.MapMode.READ_WRITE, (long) index * size, size);
+                b.order(ByteOrder.LITTLE_ENDIAN);
+                if (index == 0) {
+                    b.putInt(MAGIC).putInt(VERSION).putInt(RECORD);
+                    b.position(RECORD);
+                }
+                return b;
+            }
+
+            @Override
+            public void close(int index, int length, int unused) throws IOException {
+                try {
+                    channel.truncate((long) index * size + length);
+                } catch (IOException e) {
+                    // still mapped on some platforms: the zero record marks the end anyway
+                } finally {
+                    channel.close();
+                    file.close();
+                }
+            }
+        });
+    }
+
+    /** Stamp the following records with the broker's tick. */
+    public void tick(int tick) {
+        this.tick = tick;
+    }
+
+    /** NEW, CANCEL or EXPIRE of a resting order, with its open quantity. */
+    public void order(byte type, OrderBook.Order order) {
+        int owner = name(order.owner);
+        append(type, order.seller, order.id, order.clientId, order.qty, order.price, owner, -1);
+    }
+
+    /** One side of a trade, or a fill relayed from a peer shard. */
+    public void fill(OrderBook.Order order, double qty, double price, AID counterparty) {
+        int owner = name(order.owner);
+        int other = name(counterparty);
+        append(FILL, order.seller, order.id, order.clientId, qty, price, owner, other);
+    }
+
+    public void trade(OrderBook.Order buy, OrderBook.Order sell, double qty, double price) {
+        int buyer = name(buy.owner);
+        int seller = name(sell.owner);
+        append(TRADE, false, buy.id, sell.id, qty, price, buyer, seller);
+    }
+
+    /** Records written, names included. */
+    public long records() {
+        return out.records();
+    }
+
+    private int name(AID aid) {
+        Integer index = names.get(aid);
+        if (index != null) return index;
+        int i = names.size();
+        names.put(aid, i);
+        byte[] utf = aid.getLocalName().getBytes(StandardCharsets.UTF_8);
+        int len = Math.min(utf.length, MAX_NAME);
+        out.room(1);
+        MappedByteBuffer buf = out.buf();
+        int at = buf.position();
+        buf.putInt(at + 8, i);
+        buf.put(at + 16, (byte) len);
+        for (int k = 0; k < len; k++) buf.put(at + 17 + k, utf[k]);
+        commit(at, NAME, false);
+        return i;
+    }
+
+    private void append(byte type, boolean sell, long id, long ref, double qty, double price, int owner, int other) {
+        out.room(1);
+        MappedByteBuffer buf = out.buf();
+        int at = buf.position();
+        buf.putLong(at + 8, System.currentTimeMillis());
+        buf.putLong(at + 16, id);
+        buf.putLong(at + 24, ref);
+        buf.putDouble(at + 32, qty);
+        buf.putDouble(at + 40, price);
+        buf.putInt(at + 48, owner);
+        buf.putInt(at + 52, other);
+        commit(at, type, sell);
+    }
+
+    private void commit(int at, byte type, boolean sell) {
+        MappedByteBuffer buf = out.buf();
+        buf.putInt(at + 4, tick);
+        buf.put(at + 1, (byte) (sell ? 1 : 0));
+        out.commit(at, type);
+    }
+
+    /** Flush to disk and trim the file to what was written. */
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    // ------------------------ Replay ------------------------
+
+    /**
+     * Sequential reader over a journal, a flyweight over the mapped file: call
+     * {@link #next()} and read the current record through the accessors. NAME
+     * records are consumed internally.
+     */
+    public static final class Reader implements Closeable {
+        private final RandomAccessFile file;
+        private final FileChannel channel;
+        private final long length;
+        private final long chunk;
+        private MappedByteBuffer buf;
+        private long base;
+        private int at = -RECORD;
+        private final List<String> names = new ArrayList<>();
+
+        public Reader(String path) throws IOException {
+            this(path, 1 << 30);
+        }
+
+        Reader(String path, int chunk) throws IOException {
+            file = new RandomAccessFile(path, "r");
+            channel = file.getChannel();
+            length = channel.size();
+            this.chunk = chunk / RECORD * RECORD;
+            buf = map(0);
+            if (length < RECORD || buf.getInt(0) != MAGIC) throw new IOException(path + " is not a trade journal");
+            if (buf.getInt(4) != VERSION || buf.getInt(8) != RECORD) throw new IOException(path + ": unsupported journal version");
+            at = 0;
+        }
+
+        private MappedByteBuffer map(long offset) throws IOException {
+            MappedByteBuffer b = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(chunk, length - offset));
+            b.order(ByteOrder.LITTLE_ENDIAN);
+            return b;
+        }
+
+        /** Advance to the next order or trade record; false at the end of the journal. */
+        public boolean next() throws IOException {
+            while (true) {
+                at += RECORD;
+                if (base + at + RECORD > length) return false;
+                if (at + RECORD > buf.limit()) {
+                    base += at;
+                    at = 0;
+                    buf = map(base);
+                }
+                byte type = buf.get(at);
+                if (type == 0) return false;
+                if (type != NAME) return true;
+                int len = buf.get(at + 16);
+                byte[] utf = new byte[len];
+                for (int k = 0; k < len; k++) utf[k] = buf.get(at + 17 + k);
+                names.add(new String(utf, StandardCharsets.UTF_8));
+            }
+        }
+
+        public byte type()      { return buf.get(at); }
+        public boolean isSell() { return buf.get(at + 1) != 0; }
+        public int tick()       { return buf.getInt(at + 4); }
+        public long time()      { return buf.getLong(at + 8); }
+        public long id()        { return buf.getLong(at + 16); }
+        public long ref()       { return buf.getLong(at + 24); }
+        public double qty()     { return buf.getDouble(at + 32); }
+        public double price()   { return buf.getDouble(at + 40); }
+        public int ownerIndex() { return buf.getInt(at + 48); }
+        public int otherIndex() { return buf.getInt(at + 52); }
+        public String owner()   { return names.get(ownerIndex()); }
+        public String other()   { int i = otherIndex(); return i < 0 ? null : names.get(i); }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+            file.close();
+        }
+    }
+
+    static String typeName(byte type) {
+        switch (type) {
+            case NEW: return "NEW";
+            case CANCEL: return "CANCEL";
+            case EXPIRE: return "EXPIRE";
+            case FILL: return "FILL";
+            case TRADE: return "TRADE";
+            default: return "?" + type;
+        }
+    }
+
+    /** Print a journal as text: {@code java cnergy.agents.TradeJournal broker.journal [--count]}. */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: TradeJournal <journal> [--count]");
+            return;
+        }
+        boolean countOnly = args.length > 1 && args[1].equals("--count");
+        long start = System.nanoTime();
+        long n = 0;
+        double volume = 0;
+        try (Reader r = new Reader(args[0])) {
+            while (r.next()) {
+                n++;
+                if (r.type() == TRADE) volume += r.qty();
+                if (countOnly) continue;
+                if (r.type() == TRADE) {
+                    System.out.printf("%d %d TRADE %s <--> %s %.1f @ %.3f%n", r.tick(), r.time(), r.owner(), r.other(), r.qty(), r.price());
+                } else {
+                    System.out.printf("%d %d %s %s id=%d ref=%d %.1f @ %.3f %s%s%n", r.tick(), r.time(), typeName(r.type()),
+                            r.isSell() ? "SELL" : "BUY", r.id(), r.ref(), r.qty(), r.price(), r.owner(),
+                            r.other() == null ? "" : " <- " + r.other());
+                }
+            }
+        }
+        double secs = (System.nanoTime() - start) / 1e9;
+        System.err.printf("%d records, %.1f kWh traded, read in %.3f s%n", n, volume, secs);
+    }
+}
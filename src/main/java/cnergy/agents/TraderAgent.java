@@ -1,8 +1,12 @@
 package cnergy.agents;
 
+import cnergy.log.EventLog;
+import cnergy.log.LogEvent;
+import cnergy.log.Logger;
+import cnergy.metrics.Gauge;
+import cnergy.metrics.Metrics;
 import jade.core.Agent;
 import jade.core.behaviours.CyclicBehaviour;
-import jade.core.behaviours.TickerBehaviour;
 import jade.domain.DFService;
 import jade.domain.FIPAAgentManagement.DFAgentDescription;
 import jade.domain.FIPAAgentManagement.ServiceDescription;
@@ -17,6 +21,7 @@ public class TraderAgent extends Agent {
     private double posLimit = 50;
     private double orderSize = 10;
     private boolean DebuggingMode = false;
+    private String zone = MarketDirectory.DEFAULT_ZONE; // market zone -> broker shard
 
     // -------- internal state -----------
     private double lastPrice = 0.06;
@@ -25,6 +30,10 @@ public class TraderAgent extends Agent {
     private AtomicLong SEQ = new AtomicLong();
     private long bidId = -1;
     private long askId = -1;
+    private final MarketCodec.Reader reader = new MarketCodec.Reader();
+    private final Backpressure backpressure = new Backpressure();
+    private Logger log;
+    private Gauge queue;
 
     @Override
     protected void setup() {
@@ -35,79 +44,97 @@ public class TraderAgent extends Agent {
             posLimit = Double.parseDouble(args[1].toString());
             orderSize = Double.parseDouble(args[2].toString());
             DebuggingMode = Boolean.parseBoolean(args[3].toString());
+            if (args.length > 4) zone = args[4].toString();
         }
+        log = EventLog.logger(getLocalName(), DebuggingMode);
         System.out.printf("- [%s] UP - {margin: %.2f | posLimit: %.2f | orderSize: %.2f}%n", getLocalName(), margin, posLimit, orderSize);
+        MarketDirectory.subscribePrice(this, zone); // PRICE_TICK from the zone's broker
+        MarketDirectory.subscribeLoad(this, zone);  // BACKPRESSURE from the zone's broker
+        queue = Metrics.queue(getLocalName());
 
     // --------- message handling ----------
         addBehaviour(new CyclicBehaviour(this) {
             public void action() {
-                ACLMessage msg = receive();
+                ACLMessage msg = receive(Clock.OTHERS);
                 if (msg == null) {block(); return;}
                 switch(msg.getPerformative()) {
                     case ACLMessage.ACCEPT_PROPOSAL: onFill(msg); break;
+                    case ACLMessage.REJECT_PROPOSAL: onReject(msg); break;
                     case ACLMessage.INFORM: onInform(msg); break;
                 }
             }    
         });
 
     // --------- hourly cicle -----------
-        addBehaviour(new TickerBehaviour(this, 1000) {
+        addBehaviour(new StepBehaviour(this, 1000, Clock.MARKET) {
             public void onTick() {
-                // 1. cancel stale orders
-                cancel(bidId); cancel(askId); bidId=askId=-1;
-
-                // 2. place orders
+                queue.set(getCurQueueSize());
+                if (!backpressure.admit()) return; // broker overloaded: the resting quotes stay
+                // requote: one amend replaces the stale order, a cancel when over the limit
                 if (position < posLimit) {
                     double bid = Math.max(0, lastPrice - margin);
-                    bidId = sendOrder("buy", orderSize, bid);
-                    if(DebuggingMode) System.out.printf("%s >> BID id=%d %.1f @ %.3f%n", getLocalName(), bidId, orderSize, bid);
+                    bidId = sendOrder("buy", orderSize, bid, bidId);
+                    log.event(LogEvent.TRADER_BID).l(bidId).d(orderSize).d(bid).end();
+                } else {
+                    cancel(bidId); bidId = -1;
                 }
+                cancel(askId); askId = -1;
             }
         });
     }
 
+    @Override
+    protected void takeDown() {
+        DirectoryCache.release(this);
+    }
+
     // -------- function -----------
-    private long sendOrder(String side, double qty, double price) {
-        Long id = SEQ.incrementAndGet();
+    /** New order, or an amend of {@code replaces} when that order is still live. */
+    private long sendOrder(String side, double qty, double price, long replaces) {
+        long id = SEQ.incrementAndGet();
         ACLMessage msg = new ACLMessage(ACLMessage.PROPOSE);
-        msg.addReceiver(new AID("broker", AID.ISLOCALNAME));
+        msg.addReceiver(MarketDirectory.broker(this, zone));
         msg.setOntology("ORDER");
-        msg.setContent("id="+id+";side="+side+";qty="+qty+";price="+price);
+        MarketCodec.writeAmend(msg, id, replaces == -1 ? 0 : replaces, side.equals("sell"), qty, price);
         send(msg);
 
-        if(DebuggingMode) System.out.printf("%s >> %s ORDER id=%d qty=%.2f kWh @ %.3f%n", getLocalName(), side == "seller" ? "SELL" : "BUY", id, qty, price);
+        log.event(LogEvent.TRADER_ORDER).s(side.equals("sell") ? "SELL" : "BUY").l(id).d(qty).d(price).end();
         return id;
     }
 
     private void cancel(long id){
         if(id == -1) return;
         ACLMessage msg = new ACLMessage(ACLMessage.CANCEL);
-        msg.addReceiver(new AID("broker",AID.ISLOCALNAME));
+        msg.addReceiver(MarketDirectory.broker(this, zone));
         msg.setOntology("ORDER");
-        msg.setContent("id="+id);
+        MarketCodec.writeCancel(msg, id);
         send(msg);
     }
 
     private void onFill(ACLMessage msg){
-        String content = msg.getContent();
-        String [] tokens = content.split(";");
-
-        long id = Long.parseLong(tokens[0].split("=")[1]);
-        double qty = Double.parseDouble(tokens[1].split("=")[1]);
-        double price= Double.parseDouble(tokens[2].split("=")[1]);
-        String from = tokens[3].split("=")[1];
+        reader.wrap(msg);
+        long id = reader.clientId(); // our own id, echoed by the broker
+        double qty = reader.qty();
+        double price= reader.price();
         boolean isBuy = (id==bidId);
         if(isBuy) position += qty; else position -= qty;
-        if(DebuggingMode) System.out.printf("%s >> FILL %s %.1f @ %.4f from %s | inv=%.1f%n", getLocalName(), isBuy?"BUY":"SELL", qty, price, from, position);
+        if (log.on(LogEvent.TRADER_FILLED)) log.event(LogEvent.TRADER_FILLED).s(isBuy?"BUY":"SELL").d(qty).d(price).s(reader.name()).d(position).end();
 
         margin = Math.max(0.002, margin);
     }
 
+    private void onReject(ACLMessage msg) {
+        long id = reader.wrap(msg).clientId();
+        if (id == bidId) bidId = -1; // expired -> next quote is a fresh order
+        if (id == askId) askId = -1;
+    }
+
     private void onInform(ACLMessage msg) {
         if (msg.getOntology().equals("PRICE_TICK")) {
-            String content = msg.getContent();
-            lastPrice = Double.parseDouble(content.split("=")[1]);
-            if(DebuggingMode) System.out.printf("%s >> Price tick: %.2f%n", getLocalName(), lastPrice);
+            lastPrice = reader.wrap(msg).price();
+            log.event(LogEvent.PRICE_TICK).d(lastPrice).end();
+        } else if (msg.getOntology().equals("BACKPRESSURE")) {
+            backpressure.update(reader.wrap(msg));
         }
     }
     
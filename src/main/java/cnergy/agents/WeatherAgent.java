@@ -1,24 +1,38 @@
 package cnergy.agents;
 
+import cnergy.log.EventLog;
+import cnergy.log.LogEvent;
+import cnergy.log.Logger;
+import cnergy.sim.RenewableModel;
+import cnergy.sim.WeatherModel;
+import cnergy.sim.WeatherSeries;
 import jade.core.Agent;
-import jade.core.behaviours.TickerBehaviour;
-import jade.domain.DFService;
-import jade.domain.FIPAAgentManagement.DFAgentDescription;
-import jade.domain.FIPAAgentManagement.ServiceDescription;
 import jade.lang.acl.ACLMessage;
 import jade.core.AID;
 
+import java.io.IOException;
 import java.util.*;
 
+/**
+ * Random SUNNY/CLOUDY and WINDY/CALM draws sent to every producer, or, given a
+ * {@link WeatherSeries} file, a replay of recorded weather: every site of the
+ * file goes to its own {@code weather-<site>} topic, with the share of capacity
+ * solar ({@code PV}) and wind ({@code WP}) plants produce. The first site also
+ * stands in for the default zone unless the file has a site of that name.
+ */
 public class WeatherAgent extends Agent {
     // ------------------------ Parameters ------------------------
     private int period = 3;
     private double solarProb = 0.5;
     private double windProb = 0.5;
     private boolean DebuggingMode = true; //Debug mode
+    private String replay = ""; // weather series file, empty = random draws
 
-    private final Random rand = new Random();
-    private int tick = 0;
+    private WeatherModel model;
+    private WeatherSeries series;
+    private WeatherModel[] sites;
+    private AID[] topics;
+    private Logger log;
     @Override
     protected void setup() {
         Object[] args = getArguments();
@@ -27,41 +41,88 @@ public class WeatherAgent extends Agent {
             solarProb = Double.parseDouble(args[1].toString());
             windProb = Double.parseDouble(args[2].toString());
             DebuggingMode = Boolean.parseBoolean(args[3].toString());
+            if (args.length > 4) replay = args[4].toString();
         }
-        System.out.printf("- [%s] (weather) up! {period: %d | solarProb: %.2f | windProb: %.2f} %n", getLocalName(), period, solarProb, windProb);
+        log = EventLog.logger(getLocalName(), DebuggingMode);
+        if (!replay.isEmpty()) {
+            try {
+                series = new WeatherSeries(replay);
+            } catch (IOException e) {
+                System.err.printf("%s >> weather replay %s unavailable, drawing at random: %s%n", getLocalName(), replay, e.getMessage());
+            }
+        }
+        if (series != null) {
+            System.out.printf("- [%s] (weather) up! {period: %d | replay: %s | sites: %d | hours: %d} %n", getLocalName(), period, replay, series.sites(), series.hours());
+            sites = new WeatherModel[series.sites()];
+            topics = new AID[series.sites()];
+            for (int s = 0; s < sites.length; s++) {
+                sites[s] = new WeatherModel(period, series, s);
+                topics[s] = MarketDirectory.weatherTopic(this, series.site(s));
+            }
+            model = sites[0];
+        } else {
+            System.out.printf("- [%s] (weather) up! {period: %d | solarProb: %.2f | windProb: %.2f} %n", getLocalName(), period, solarProb, windProb);
+            model = new WeatherModel(period, solarProb, windProb, Clock.random(this)::nextDouble);
+            DirectoryCache.watch(this, "solar-producer", "wind-producer");
+        }
+        final AID defaultTopic = series != null && series.site(MarketDirectory.DEFAULT_ZONE) < 0
+                ? MarketDirectory.weatherTopic(this, MarketDirectory.DEFAULT_ZONE) : null;
 
-        addBehaviour(new TickerBehaviour(this, 1000*period) { // every 3 seconds
+        addBehaviour(new StepBehaviour(this, 1000*period, Clock.WEATHER) { // every period hours
             @Override
             protected void onTick() {
-                tick = tick + 3;
-                int hour = tick % 24;
+                if (series != null) {
+                    for (int s = 0; s < sites.length; s++) {
+                        WeatherModel site = sites[s];
+                        site.step();
+                        log.event(LogEvent.WEATHER_REPLAY).l(site.tick()).s(series.site(s)).d(site.irradiance()).d(site.windSpeed()).d(site.temperature()).end();
+                        if (topics[s] == null) continue;
+                        ACLMessage msg = weather(site);
+                        msg.addReceiver(topics[s]);
+                        if (s == 0 && defaultTopic != null) msg.addReceiver(defaultTopic);
+                        send(msg);
+                    }
+                } else {
+                    model.step();
+                }
+                int hour = model.hour();
 
-                String timeToken = (hour >= 7 && hour <= 21) ? "DAY" : "NIGHT";
-                String solarToken = rand.nextDouble() < solarProb ? "SUNNY" : "CLOUDY";
-                String windToken = rand.nextDouble() < windProb ? "WINDY" : "CALM";
-                /*DEBUG*/ if (DebuggingMode == true) {System.out.printf("Weather Update: Tick %d | Time: %d:00 '%s' | Sun: %s | Wind: %s%n", tick, hour, timeToken, solarToken, windToken);}
+                String timeToken = model.timeToken();
+                String solarToken = model.solarToken();
+                String windToken = model.windToken();
+                log.event(LogEvent.WEATHER).l(model.tick()).l(hour).s(timeToken).s(solarToken).s(windToken).end();
 
-                ACLMessage msg = new ACLMessage(ACLMessage.INFORM);
-                msg.setOntology("WEATHER");
-                msg.setContent("SUN="+solarToken+";WIND="+windToken+";TIME="+timeToken+";hour="+hour);
-                search("solar-producer").forEach(msg::addReceiver);
-                search("wind-producer").forEach(msg::addReceiver);
+                ACLMessage msg = weather(model);
+                if (series == null) {
+                    DirectoryCache.watch(myAgent, "solar-producer", "wind-producer");
+                    DirectoryCache.agents("solar-producer").forEach(msg::addReceiver);
+                    DirectoryCache.agents("wind-producer").forEach(msg::addReceiver);
+                }
                 msg.addReceiver(new AID("gui", AID.ISLOCALNAME));
                 send(msg);
             }
         });
     }
-    private List<AID> search(String type) {
-        List<AID> res = new ArrayList<>();
+
+    @Override
+    protected void takeDown() {
+        DirectoryCache.release(this);
+        if (series == null) return;
         try {
-            DFAgentDescription template = new DFAgentDescription();
-            ServiceDescription sd = new ServiceDescription();
-            sd.setType(type);
-            template.addServices(sd);
-            DFAgentDescription[] r = DFService.search(this, template);
-            for (DFAgentDescription d : r) res.add(d.getName());
-        } catch (Exception e) { e.printStackTrace(); }
-        return res;
+            series.close();
+        } catch (IOException e) {
+            System.err.printf("%s >> closing weather replay %s: %s%n", getLocalName(), replay, e.getMessage());
+        }
     }
 
-}
\ No newline at end of file
+    private static ACLMessage weather(WeatherModel model) {
+        ACLMessage msg = new ACLMessage(ACLMessage.INFORM);
+        msg.setOntology("WEATHER");
+        String content = "SUN="+model.solarToken()+";WIND="+model.windToken()+";TIME="+model.timeToken()+";hour="+model.hour();
+        if (model.isReplay()) {
+            content += ";PV="+model.output(RenewableModel.Source.SOLAR)+";WP="+model.output(RenewableModel.Source.WIND);
+        }
+        msg.setContent(content);
+        return msg;
+    }
+}
@@ -0,0 +1,363 @@
+package cnergy.log;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous event log shared by every agent in the JVM.
+ * <p>
+ * Agents record {@link LogEvent}s with their raw arguments into a preallocated
+ * ring of slots; a single daemon thread ("cnergy-log") drains the ring and does
+ * the formatting and I/O, so agent threads never touch a stream or build a
+ * string. When the ring is full the event is dropped and counted instead of
+ * blocking the caller.
+ * <pre>
+ *  Logger log = EventLog.logger(getLocalName(), DebuggingMode);
+ *  if (log.on(LogEvent.TRADE))
+ *      log.event(LogEvent.TRADE).s(buyer).s(seller).d(qty).d(price).end();
+ * </pre>
+ * Configuration (system properties, all optional):
+ * <pre>
+ *  cnergy.log.level                ERROR | WARN | INFO | DEBUG  (default INFO)
+ *  cnergy.log.level.&lt;agent&gt;        level of one agent, overrides its debug flag
+ *  cnergy.log.categories           comma list, e.g. TRADE,PRICE (default all)
+ *  cnergy.log.categories.&lt;agent&gt;   categories of one agent
+ *  cnergy.log.format               text | binary                (default text)
+ *  cnergy.log.file                 output file                  (default stdout)
+ *  cnergy.log.buffer               ring slots, power of two     (default 65536)
+ * </pre>
+ * Binary files start with a self-describing header (event names and formats)
+ * and are turned back into text with {@code java cnergy.log.EventLog file.bin}.
+ */
+public final class EventLog {
+
+    public enum Level { ERROR, WARN, INFO, DEBUG }
+
+    public enum Category { ORDER, FILL, TRADE, PRICE, WEATHER, FAULT, STATE }
+
+    static final String PREFIX = "cnergy.log.";
+    static final int MAX_ARGS = 8;
+    static final int MAGIC = 0x434E4C47; // "CNLG"
+
+    // ------------------------ Ring ------------------------
+    static final class Slot {
+        volatile long seq;   // == position: free for it, == position+1: published
+        LogEvent event;
+        String agent;
+        long time;
+        final long[] longs = new long[MAX_ARGS];
+        final double[] doubles = new double[MAX_ARGS];
+        final String[] strings = new String[MAX_ARGS];
+        int nl, nd, ns;
+    }
+
+    private final Slot[] ring;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile long drained;      // written by the drain thread only
+    private final Sink sink;
+    private final Thread drainer;
+    private volatile boolean running = true;
+
+    private static volatile EventLog instance;
+
+    EventLog(int capacity, Sink sink, boolean start) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        ring = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            ring[i] = new Slot();
+            ring[i].seq = i;
+        }
+        mask = size - 1;
+        this.sink = sink;
+        drainer = new Thread(this::drainLoop, "cnergy-log");
+        drainer.setDaemon(true);
+        if (start) drainer.start();
+    }
+
+    /** The JVM-wide log, created from the system properties on first use. */
+    public static EventLog get() {
+        EventLog log = instance;
+        if (log == null) {
+            synchronized (EventLog.class) {
+                log = instance;
+                if (log == null) {
+                    log = new EventLog(Integer.getInteger(PREFIX + "buffer", 1 << 16), openSink(), true);
+                    Runtime.getRuntime().addShutdownHook(new Thread(log::close, "cnergy-log-flush"));
+                    instance = log;
+                }
+            }
+        }
+        return log;
+    }
+
+    /**
+     * Logger for one agent. {@code debug} is the agent's DebuggingMode flag: it
+     * raises the agent to DEBUG unless {@code cnergy.log.level.<agent>} says otherwise.
+     */
+    public static Logger logger(String agent, boolean debug) {
+        return new Logger(get(), agent, levelFor(agent, debug), categoriesFor(agent));
+    }
+
+    static Level levelFor(String agent, boolean debug) {
+        String own = System.getProperty(PREFIX + "level." + agent);
+        if (own != null) return Level.valueOf(own.trim().toUpperCase(Locale.ROOT));
+        if (debug) return Level.DEBUG;
+        return Level.valueOf(System.getProperty(PREFIX + "level", "INFO").trim().toUpperCase(Locale.ROOT));
+    }
+
+    static EnumSet<Category> categoriesFor(String agent) {
+        String list = System.getProperty(PREFIX + "categories." + agent, System.getProperty(PREFIX + "categories"));
+        if (list == null || list.trim().isEmpty()) return EnumSet.allOf(Category.class);
+        EnumSet<Category> set = EnumSet.noneOf(Category.class);
+        for (String c : list.split(",")) {
+            if (!c.trim().isEmpty()) set.add(Category.valueOf(c.trim().toUpperCase(Locale.ROOT)));
+        }
+        return set;
+    }
+
+    /** Events lost because the ring was full. */
+    public long dropped() {
+        return dropped.get();
+    }
+
+    // ------------------------ Producers ------------------------
+
+    /** Claim the slot for the next position, or null (and count a drop) when the ring is full. */
+    Slot claim() {
+        while (true) {
+            long pos = claimed.get();
+            Slot slot = ring[(int) (pos & mask)];
+            long seq = slot.seq;
+            if (seq == pos) {
+                if (claimed.compareAndSet(pos, pos + 1)) {
+                    slot.nl = slot.nd = slot.ns = 0;
+                    return slot;
+                }
+            } else if (seq < pos) {
+                dropped.incrementAndGet();
+                return null;
+            }
+            // else another producer took pos: retry with the next one
+        }
+    }
+
+    /** Hand a filled slot to the drain thread. */
+    static void publish(Slot slot) {
+        slot.seq = slot.seq + 1;
+    }
+
+    // ------------------------ Drain ------------------------
+
+    private void drainLoop() {
+        while (running) {
+            if (drainAvailable() == 0) LockSupport.parkNanos(200_000L);
+        }
+        drainAvailable();
+    }
+
+    /** Write everything published so far, in order; returns the number of events written. */
+    int drainAvailable() {
+        int count = 0;
+        long pos = drained;
+        while (true) {
+            Slot slot = ring[(int) (pos & mask)];
+            if (slot.seq != pos + 1) break;
+            try {
+                sink.write(slot);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("cnergy-log: " + e);
+            }
+            slot.event = null;
+            slot.agent = null;
+            Arrays.fill(slot.strings, 0, slot.ns, null);
+            slot.seq = pos + ring.length; // free for the next lap
+            drained = ++pos;
+            count++;
+        }
+        if (count > 0) sink.flush();
+        return count;
+    }
+
+    /** Block until everything recorded before the call has been written. */
+    public void flush() {
+        long target = claimed.get();
+        while (drained < target && drainer.isAlive()) LockSupport.parkNanos(100_000L);
+    }
+
+    /** Drain what is left, flush and stop the drain thread. */
+    public void close() {
+        flush();
+        running = false;
+        try {
+            drainer.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sink.close();
+    }
+
+    // ------------------------ Sinks ------------------------
+
+    interface Sink {
+        void write(Slot slot) throws IOException;
+        void flush();
+        void close();
+    }
+
+    private static Sink openSink() {
+        String file = System.getProperty(PREFIX + "file");
+        boolean binary = "binary".equalsIgnoreCase(System.getProperty(PREFIX + "format", "text"));
+        try {
+            OutputStream out = file == null ? new FileOutputStream(FileDescriptor.out) : new FileOutputStream(file);
+            out = new BufferedOutputStream(out, 1 << 16);
+            return binary ? new BinarySink(out) : new TextSink(new PrintStream(out, false, "UTF-8"));
+        } catch (IOException e) {
+            System.err.println("cnergy-log: cannot open " + file + " (" + e + "), logging to stdout");
+            return new TextSink(System.out);
+        }
+    }
+
+    /** "agent >> message" lines, as the agents used to print them. */
+    static final class TextSink implements Sink {
+        private final PrintStream out;
+
+        TextSink(PrintStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(Slot slot) {
+            out.print(slot.agent);
+            out.print(" >> ");
+            out.println(format(slot.event.format, slot.event.args, slot.longs, slot.doubles, slot.strings));
+        }
+
+        @Override
+        public void flush() {
+            out.flush();
+        }
+
+        @Override
+        public void close() {
+            out.flush();
+        }
+    }
+
+    /**
+     * int MAGIC | short events | events x (UTF name, UTF format), then per record
+     * long time | short event | UTF agent | arguments in format order.
+     */
+    static final class BinarySink implements Sink {
+        private final DataOutputStream out;
+
+        BinarySink(OutputStream out) throws IOException {
+            this.out = new DataOutputStream(out);
+            LogEvent[] events = LogEvent.values();
+            this.out.writeInt(MAGIC);
+            this.out.writeShort(events.length);
+            for (LogEvent e : events) {
+                this.out.writeUTF(e.name());
+                this.out.writeUTF(e.format);
+            }
+        }
+
+        @Override
+        public void write(Slot slot) throws IOException {
+            out.writeLong(slot.time);
+            out.writeShort(slot.event.ordinal());
+            out.writeUTF(slot.agent);
+            int l = 0, d = 0, s = 0;
+            for (char kind : slot.event.args) {
+                switch (kind) {
+                    case 'd': out.writeDouble(slot.doubles[d++]); break;
+                    case 's': out.writeUTF(slot.strings[s] == null ? "null" : slot.strings[s]); s++; break;
+                    default:  out.writeLong(slot.longs[l++]); break;
+                }
+            }
+        }
+
+        @Override
+        public void flush() {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                System.err.println("cnergy-log: " + e);
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                System.err.println("cnergy-log: " + e);
+            }
+        }
+    }
+
+    static String format(String format, char[] kinds, long[] longs, double[] doubles, String[] strings) {
+        Object[] values = new Object[kinds.length];
+        int l = 0, d = 0, s = 0;
+        for (int i = 0; i < kinds.length; i++) {
+            switch (kinds[i]) {
+                case 'l': values[i] = longs[l++]; break;
+                case 'b': values[i] = longs[l++] != 0; break;
+                case 'd': values[i] = doubles[d++]; break;
+                default:  values[i] = strings[s++]; break;
+            }
+        }
+        return String.format(Locale.ROOT, format, values);
+    }
+
+    /** Decode a binary log back to "time agent >> message" lines. */
+    public static void decode(InputStream input, PrintStream out) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+        if (in.readInt() != MAGIC) throw new IOException("not a cnergy event log");
+        int count = in.readUnsignedShort();
+        String[] formats = new String[count];
+        char[][] kinds = new char[count][];
+        for (int i = 0; i < count; i++) {
+            in.readUTF();
+            formats[i] = in.readUTF();
+            kinds[i] = LogEvent.argKinds(formats[i]);
+        }
+        long[] longs = new long[MAX_ARGS];
+        double[] doubles = new double[MAX_ARGS];
+        String[] strings = new String[MAX_ARGS];
+        while (true) {
+            long time;
+            try {
+                time = in.readLong();
+            } catch (EOFException end) {
+                break;
+            }
+            int event = in.readUnsignedShort();
+            String agent = in.readUTF();
+            int l = 0, d = 0, s = 0;
+            for (char kind : kinds[event]) {
+                switch (kind) {
+                    case 'd': doubles[d++] = in.readDouble(); break;
+                    case 's': strings[s++] = in.readUTF(); break;
+                    default:  longs[l++] = in.readLong(); break;
+                }
+            }
+            out.println(time + " " + agent + " >> " + format(formats[event], kinds[event], longs, doubles, strings));
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: EventLog <binary log>");
+            return;
+        }
+        try (InputStream in = new FileInputStream(args[0])) {
+            decode(in, System.out);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package cnergy.log;
+
+import cnergy.log.EventLog.Category;
+import cnergy.log.EventLog.Level;
+
+/**
+ * Every event the agents log, with its level, category and printf-style text.
+ * Arguments are recorded unformatted, in format order: {@code %d}/{@code %b} as
+ * longs, {@code %f} as doubles, {@code %s} as strings.
+ */
+public enum LogEvent {
+    // ------------------------- broker ------------------------
+    NEW_ORDER        (Level.DEBUG, Category.ORDER,   "NEW %s ORDER id=%d %.1f @ %.3f from %s"),
+    ORDER_CANCELLED  (Level.DEBUG, Category.ORDER,   "ORDER CANCELLED -> %s - id=%d"),
+    ORDER_EXPIRED    (Level.DEBUG, Category.ORDER,   "ORDER EXPIRED -> %s - id=%d"),
+    ORDER_EXPORTED   (Level.DEBUG, Category.ORDER,   "EXPORT %s id=%d %.1f @ %.3f -> %s"),
+    FILL_SENT        (Level.DEBUG, Category.FILL,    "SENDING FILL to %s id=%d %.1f @ %.3f from %s"),
+    TRADE            (Level.INFO,  Category.TRADE,   "TRADE %s <--> %s %.1f @ %.3f"),
+    CLEARING_PRICE   (Level.INFO,  Category.PRICE,   "$$ CURRENT PRICE: %.3f"),
+    BACKPRESSURE     (Level.WARN,  Category.STATE,   "BACKPRESSURE %b, %d messages queued"),
+
+    // ------------------------- producers ------------------------
+    FAULTY           (Level.DEBUG, Category.FAULT,   "Faulty... %.2f seconds remaining"),
+    RECOVERED        (Level.DEBUG, Category.FAULT,   "Recovered!"),
+    FAULT_OCCURRED   (Level.DEBUG, Category.FAULT,   "Fault occurred | duration: %.2f"),
+    GENERATING       (Level.DEBUG, Category.STATE,   "Generating.. %.2f kWh"),
+    SELL_ORDER       (Level.DEBUG, Category.ORDER,   "SELL ORDER qty=%.2f kWh @ %.3f"),
+    FLEET_OFFERS     (Level.DEBUG, Category.ORDER,   "SELL ORDERS from %d plants, production %.1f kWh | %d faulty"),
+    WEATHER_UPDATE   (Level.DEBUG, Category.WEATHER, "Weather update: %s | %s"),
+    PRICE_TICK       (Level.DEBUG, Category.PRICE,   "Price tick: %.2f"),
+    PRODUCER_FILLED  (Level.DEBUG, Category.FILL,    "FILLED order id=%d %.1f kWh @ %.3f from %s | new margin %.3f"),
+    PRODUCER_REJECTED(Level.DEBUG, Category.ORDER,   "REJECTED id=%d -> energy returned to battery (SoC=%.1f %.1f%%)"),
+    BACKUP_FILLED    (Level.DEBUG, Category.FILL,    "FILLED order id=%d %.1f kWh @ %.3f (backup) from %s"),
+
+    // ------------------------- consumers / traders ------------------------
+    BUY_ORDER        (Level.DEBUG, Category.ORDER,   "BUY ORDER qty=%.1f kWh @ %.3f"),
+    CONSUMER_FILLED  (Level.DEBUG, Category.FILL,    "FILL order id=%d %.1f kWh @ %.3f from %s | backlog %.1f | new margin %.3f"),
+    CONSUMER_REJECTED(Level.DEBUG, Category.ORDER,   "REJECTED id=%d | backlog %.1f | margin %.3f"),
+    POPULATION_ORDERS(Level.DEBUG, Category.ORDER,   "BUY ORDERS from %d consumers, demand %.1f kWh | backlog %.1f"),
+    TRADER_BID       (Level.DEBUG, Category.ORDER,   "BID id=%d %.1f @ %.3f"),
+    TRADER_ORDER     (Level.DEBUG, Category.ORDER,   "%s ORDER id=%d qty=%.2f kWh @ %.3f"),
+    TRADER_FILLED    (Level.DEBUG, Category.FILL,    "FILL %s %.1f @ %.4f from %s | inv=%.1f"),
+
+    // ------------------------- environment ------------------------
+    WEATHER          (Level.DEBUG, Category.WEATHER, "Weather Update: Tick %d | Time: %d:00 '%s' | Sun: %s | Wind: %s"),
+    WEATHER_REPLAY   (Level.DEBUG, Category.WEATHER, "Weather replay: Tick %d | %s | %.0f W/m2 | %.1f m/s | %.1f C"),
+    FAULT_TARGETS    (Level.DEBUG, Category.FAULT,   "found %d %s"),
+    FAULT_INJECTED   (Level.DEBUG, Category.FAULT,   "Fault injected on %s for %d ticks"),
+    CLOCK_STEP       (Level.DEBUG, Category.STATE,   "STEP %d done in %d ms"),
+    CLOCK_LATE       (Level.WARN,  Category.STATE,   "STEP %d phase %d: %d agents late, moving on"),
+    CLOCK_LATE_JOIN  (Level.WARN,  Category.STATE,   "%s joined at step %d, its clock is behind");
+
+    public final Level level;
+    public final Category category;
+    public final String format;
+    /** argument kinds in format order: 'l' long, 'b' boolean (as long), 'd' double, 's' string */
+    final char[] args;
+
+    LogEvent(Level level, Category category, String format) {
+        this.level = level;
+        this.category = category;
+        this.format = format;
+        this.args = argKinds(format);
+    }
+
+    static char[] argKinds(String format) {
+        StringBuilder kinds = new StringBuilder();
+        for (int i = 0; i < format.length(); i++) {
+            if (format.charAt(i) != '%') continue;
+            int j = i + 1;
+            while (j < format.length() && !Character.isLetter(format.charAt(j)) && format.charAt(j) != '%') j++;
+            if (j == format.length()) break;
+            switch (format.charAt(j)) {
+                case 'd': case 'x': kinds.append('l'); break;
+                case 'b':           kinds.append('b'); break;
+                case 'f': case 'e': kinds.append('d'); break;
+                case 's':           kinds.append('s'); break;
+                default: break; // %% and %n take no argument
+            }
+            i = j;
+        }
+        return kinds.toString().toCharArray();
+    }
+}
@@ -0,0 +1,88 @@
+package cnergy.log;
+
+import cnergy.log.EventLog.Category;
+import cnergy.log.EventLog.Level;
+
+import java.util.EnumSet;
+
+/**
+ * One agent's handle on the {@link EventLog}. Not thread safe: each agent
+ * keeps its own, used from its behaviours.
+ * <p>
+ * {@link #event} returns a record to chain the arguments onto, in the order
+ * the event's format expects them, closed by {@link Record#end()}. Disabled
+ * events (and events dropped on a full ring) get a record that ignores
+ * everything, so only arguments that allocate need an {@link #on} guard.
+ */
+public final class Logger {
+
+    private final EventLog log;
+    private final String agent;
+    private final Level level;
+    private final EnumSet<Category> categories;
+    private final Record record = new Record();
+
+    Logger(EventLog log, String agent, Level level, EnumSet<Category> categories) {
+        this.log = log;
+        this.agent = agent;
+        this.level = level;
+        this.categories = categories;
+    }
+
+    public boolean on(LogEvent event) {
+        return event.level.compareTo(level) <= 0 && categories.contains(event.category);
+    }
+
+    public Record event(LogEvent event) {
+        if (!on(event)) return NOOP;
+        EventLog.Slot slot = log.claim();
+        if (slot == null) return NOOP;
+        slot.event = event;
+        slot.agent = agent;
+        slot.time = System.currentTimeMillis();
+        record.slot = slot;
+        return record;
+    }
+
+    public Level level() {
+        return level;
+    }
+
+    public static class Record {
+        EventLog.Slot slot;
+
+        public Record s(String value) {
+            slot.strings[slot.ns++] = value;
+            return this;
+        }
+
+        public Record l(long value) {
+            slot.longs[slot.nl++] = value;
+            return this;
+        }
+
+        public Record b(boolean value) {
+            slot.longs[slot.nl++] = value ? 1 : 0;
+            return this;
+        }
+
+        public Record d(double value) {
+            slot.doubles[slot.nd++] = value;
+            return this;
+        }
+
+        public void end() {
+            EventLog.Slot done = slot;
+            slot = null;
+            EventLog.publish(done);
+        }
+    }
+
+    private static final Record NOOP = new Record() {
+        @Override public Record s(String value) { return this; }
+        @Override public Record l(long value) { return this; }
+        @Override public Record b(boolean value) { return this; }
+        @Override public Record d(double value) { return this; }
+        @Override public void end() {}
+    };
+}
@@ -0,0 +1,33 @@
+package cnergy.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monotonic event count, with its rate per second over the last sampling
+ * interval. Increments are striped ({@link LongAdder}), so agent threads never
+ * contend on one word.
+ */
+public final class Counter implements Metric {
+
+    private final LongAdder count = new LongAdder();
+    private long last;              // sampler thread only
+    private volatile double rate;
+
+    public void inc()         { count.increment(); }
+    public void add(long n)   { count.add(n); }
+    public long count()       { return count.sum(); }
+    public double rate()      { return rate; }
+
+    @Override
+    public void sample(double seconds) {
+        long now = count.sum();
+        rate = (now - last) / seconds;
+        last = now;
+    }
+
+    @Override
+    public void report(Values out) {
+        out.value("", count());
+        out.value(".rate", rate);
+    }
+}
@@ -0,0 +1,18 @@
+package cnergy.metrics;
+
+/** Last value set by its owner, e.g. a book depth or a queue length. */
+public final class Gauge implements Metric {
+
+    private volatile double value;
+
+    public void set(double value) { this.value = value; }
+    public double get()           { return value; }
+
+    @Override
+    public void sample(double seconds) {}
+
+    @Override
+    public void report(Values out) {
+        out.value("", value);
+    }
+}
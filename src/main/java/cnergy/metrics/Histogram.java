@@ -0,0 +1,98 @@
+package cnergy.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of non-negative long values (latencies in ns, queue lengths) in
+ * log-linear buckets: exact below 16, then 8 buckets per power of two, so a
+ * quantile is off by at most 1/16 of its value. Recording is one array
+ * increment plus a max update: no lock and no allocation.
+ * <p>
+ * Quantiles are reported per sampling interval (the counts recorded since the
+ * previous {@link #sample}); {@code .max} is the largest value ever recorded.
+ */
+public final class Histogram implements Metric {
+
+    static final int LINEAR = 16;
+    static final int SUB_BITS = 3;
+    static final int SUB = 1 << SUB_BITS;
+    static final int BUCKETS = LINEAR + (63 - 4) * SUB;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong max = new AtomicLong();
+    // interval snapshot, sampler thread only
+    private final long[] last = new long[BUCKETS];
+    private final long[] delta = new long[BUCKETS];
+    private volatile double n, mean, p50, p90, p99;
+
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts.incrementAndGet(bucket(value));
+        long m = max.get();
+        while (value > m && !max.compareAndSet(m, value)) m = max.get();
+    }
+
+    public long max() { return max.get(); }
+
+    static int bucket(long v) {
+        if (v < LINEAR) return (int) v;
+        int e = 63 - Long.numberOfLeadingZeros(v); // >= 4
+        int sub = (int) (v >>> (e - SUB_BITS)) & (SUB - 1);
+        return LINEAR + (e - 4) * SUB + sub;
+    }
+
+    /** Lowest value of bucket {@code b}. */
+    static long low(int b) {
+        if (b < LINEAR) return b;
+        int e = 4 + (b - LINEAR) / SUB;
+        int sub = (b - LINEAR) % SUB;
+        return (long) (SUB + sub) << (e - SUB_BITS);
+    }
+
+    /** Middle of bucket {@code b}. */
+    static double mid(int b) {
+        if (b < LINEAR) return b;
+        long lo = low(b);
+        return lo + ((double) (1L << (4 + (b - LINEAR) / SUB - SUB_BITS)) - 1) / 2;
+    }
+
+    @Override
+    public void sample(double seconds) {
+        long total = 0;
+        double sum = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            long c = counts.get(b);
+            delta[b] = c - last[b];
+            last[b] = c;
+            total += delta[b];
+            sum += delta[b] * mid(b);
+        }
+        n = total;
+        mean = total == 0 ? 0 : sum / total;
+        p50 = quantile(delta, total, 0.50);
+        p90 = quantile(delta, total, 0.90);
+        p99 = quantile(delta, total, 0.99);
+    }
+
+    static double quantile(long[] counts, long total, double q) {
+        if (total == 0) return 0;
+        long rank = (long) Math.ceil(q * total);
+        long seen = 0;
+        for (int b = 0; b < counts.length; b++) {
+            seen += counts[b];
+            if (seen >= rank) return mid(b);
+        }
+        return mid(counts.length - 1);
+    }
+
+    @Override
+    public void report(Values out) {
+        out.value(".count", n);
+        out.value(".mean", mean);
+        out.value(".p50", p50);
+        out.value(".p90", p90);
+        out.value(".p99", p99);
+        out.value(".max", max());
+    }
+}
@@ -0,0 +1,169 @@
+package cnergy.metrics;
+
+/**
+ * Time series of one sampled value in fixed memory, however long the run: the
+ * backing store of the dashboard's trend charts.
+ * <p>
+ * Two tiers of {@code capacity} slots each, in primitive arrays allocated once:
+ * <ul>
+ * <li>the newest {@code capacity} samples, raw, in a ring;</li>
+ * <li>the whole run in buckets of {@code span} samples, each keeping its lowest
+ * and highest sample. When the buckets are full, neighbours are merged pairwise
+ * and {@code span} doubles, so the run always fits and spikes are never averaged
+ * away.</li>
+ * </ul>
+ * Not thread-safe: one thread records and reads.
+ */
+public final class History {
+
+    private final int capacity;
+    // newest samples, ring
+    private final double[] t, v;
+    private int head, size;
+    // whole run: per bucket the time and value of its low and its high
+    private final double[] loT, loV, hiT, hiV;
+    private int buckets;
+    private long span = 1;              // samples per closed bucket
+    private long open;                  // samples in the bucket being filled
+    private double openLoT, openLoV, openHiT, openHiV;
+    private long samples;
+
+    public History(int capacity) {
+        this.capacity = Math.max(2, capacity & ~1);
+        t = new double[this.capacity];
+        v = new double[this.capacity];
+        loT = new double[this.capacity];
+        loV = new double[this.capacity];
+        hiT = new double[this.capacity];
+        hiV = new double[this.capacity];
+    }
+
+    /** Add the value at {@code time}; times must not decrease. */
+    public void record(double time, double value) {
+        t[head] = time;
+        v[head] = value;
+        head = head + 1 == capacity ? 0 : head + 1;
+        if (size < capacity) size++;
+        samples++;
+
+        if (open == 0 || value < openLoV) { openLoT = time; openLoV = value; }
+        if (open == 0 || value > openHiV) { openHiT = time; openHiV = value; }
+        if (++open == span) {
+            loT[buckets] = openLoT; loV[buckets] = openLoV;
+            hiT[buckets] = openHiT; hiV[buckets] = openHiV;
+            open = 0;
+            if (++buckets == capacity) compact();
+        }
+    }
+
+    /** Merge bucket pairs: half the buckets, each twice as wide. */
+    private void compact() {
+        for (int i = 0; i < capacity / 2; i++) {
+            int a = 2 * i, b = a + 1;
+            int lo = loV[b] < loV[a] ? b : a;
+            int hi = hiV[b] > hiV[a] ? b : a;
+            loT[i] = loT[lo]; loV[i] = loV[lo];
+            hiT[i] = hiT[hi]; hiV[i] = hiV[hi];
+        }
+        buckets = capacity / 2;
+        span *= 2;
+    }
+
+    public int capacity()   { return capacity; }
+    public long samples()   { return samples; }
+    /** Samples per bucket of the whole-run tier. */
+    public long span()      { return span; }
+
+    public double lastTime()  { return size == 0 ? Double.NaN : t[head == 0 ? capacity - 1 : head - 1]; }
+    public double lastValue() { return size == 0 ? Double.NaN : v[head == 0 ? capacity - 1 : head - 1]; }
+
+    /**
+     * Copy the points at or after {@code from}, oldest first, into {@code xs}
+     * and {@code ys} (at least {@code 3 * capacity} long): bucket lows and highs
+     * in time order up to where the raw samples begin, then the raw samples.
+     * Returns the number of points.
+     */
+    public int points(double from, double[] xs, double[] ys) {
+        if (size == 0) return 0;
+        int oldest = size < capacity ? 0 : head;
+        double raw = t[oldest];
+        int n = 0;
+        for (int b = 0; b <= buckets; b++) {
+            double lt, lv, ht, hv;
+            if (b < buckets) {
+                lt = loT[b]; lv = loV[b]; ht = hiT[b]; hv = hiV[b];
+            } else {
+                if (open == 0) break;
+                lt = openLoT; lv = openLoV; ht = openHiT; hv = openHiV;
+            }
+            if (Math.max(lt, ht) >= raw) break;
+            if (Math.max(lt, ht) < from) continue;
+            if (lt == ht) {
+                n = point(xs, ys, n, lt, lv, from);
+            } else if (lt < ht) {
+                n = point(xs, ys, n, lt, lv, from);
+                n = point(xs, ys, n, ht, hv, from);
+            } else {
+                n = point(xs, ys, n, ht, hv, from);
+                n = point(xs, ys, n, lt, lv, from);
+            }
+        }
+        for (int k = 0, i = oldest; k < size; k++, i = i + 1 == capacity ? 0 : i + 1) {
+            n = point(xs, ys, n, t[i], v[i], from);
+        }
+        return n;
+    }
+
+    private static int point(double[] xs, double[] ys, int n, double x, double y, double from) {
+        if (x < from) return n;
+        xs[n] = x;
+        ys[n] = y;
+        return n + 1;
+    }
+
+    /**
+     * Largest-Triangle-Three-Buckets downsampling of the first {@code n} points
+     * to at most {@code threshold}: keeps the first and last point and, from
+     * each bucket in between, the point spanning the largest triangle with its
+     * neighbours, which keeps the visual shape of the line. Writes into
+     * {@code ox}/{@code oy} (may not alias the input) and returns the count.
+     */
+    public static int lttb(double[] xs, double[] ys, int n, int threshold, double[] ox, double[] oy) {
+        if (n <= Math.max(threshold, 2)) {
+            System.arraycopy(xs, 0, ox, 0, n);
+            System.arraycopy(ys, 0, oy, 0, n);
+            return n;
+        }
+        if (threshold < 3) {
+            ox[0] = xs[0]; oy[0] = ys[0];
+            ox[1] = xs[n - 1]; oy[1] = ys[n - 1];
+            return 2;
+        }
+        double every = (double) (n - 2) / (threshold - 2);
+        int a = 0, m = 0;
+        ox[m] = xs[0]; oy[m++] = ys[0];
+        for (int i = 0; i < threshold - 2; i++) {
+            // average of the next bucket, the third corner
+            int nextStart = (int) ((i + 1) * every) + 1;
+            int nextEnd = Math.min((int) ((i + 2) * every) + 1, n);
+            double avgX = 0, avgY = 0;
+            for (int j = nextStart; j < nextEnd; j++) { avgX += xs[j]; avgY += ys[j]; }
+            int len = nextEnd - nextStart;
+            if (len > 0) { avgX /= len; avgY /= len; }
+            else { avgX = xs[n - 1]; avgY = ys[n - 1]; }
+
+            int start = (int) (i * every) + 1;
+            int end = (int) ((i + 1) * every) + 1;
+            double best = -1;
+            int pick = start;
+            for (int j = start; j < end; j++) {
+                double area = Math.abs((xs[a] - avgX) * (ys[j] - ys[a]) - (xs[a] - xs[j]) * (avgY - ys[a]));
+                if (area > best) { best = area; pick = j; }
+            }
+            ox[m] = xs[pick]; oy[m++] = ys[pick];
+            a = pick;
+        }
+        ox[m] = xs[n - 1]; oy[m++] = ys[n - 1];
+        return m;
+    }
+}
@@ -0,0 +1,18 @@
+package cnergy.metrics;
+
+/**
+ * Something the {@link Metrics} registry samples: it reports one or more named
+ * values, each under the metric's name plus a suffix ("" for the main value).
+ */
+public interface Metric {
+
+    interface Values {
+        void value(String suffix, double value);
+    }
+
+    /** Close the sampling interval of {@code seconds}; called by the sampler thread only. */
+    void sample(double seconds);
+
+    /** Report the values as of the last {@link #sample}, or now for plain readings. */
+    void report(Values out);
+}
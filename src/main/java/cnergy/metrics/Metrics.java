@@ -0,0 +1,213 @@
+package cnergy.metrics;
+
+import javax.management.*;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * JVM-wide registry of market metrics, grouped by owner ({@code broker},
+ * {@code broker-north}, {@code consumers}, {@code queue}, ...).
+ * <p>
+ * Every group is one JMX MBean, {@code cnergy:type=Metrics,group=<group>}, with
+ * one read-only attribute per reported value ({@code orders}, {@code orders.rate},
+ * {@code match.latency.p99}, ...). A daemon thread ("cnergy-metrics") closes a
+ * sampling interval every period, which updates rates and histogram quantiles,
+ * and optionally appends every value to a CSV file as
+ * {@code time_ms,group,metric,value} rows.
+ * <pre>
+ *  Counter fills = Metrics.counter("broker", "fills");
+ *  fills.inc();
+ * </pre>
+ * Metrics are created once, at setup, and then updated lock-free from any
+ * thread. Configuration (system properties, all optional):
+ * <pre>
+ *  cnergy.metrics.jmx              register the MBeans          (default true)
+ *  cnergy.metrics.csv              CSV file                     (default none)
+ *  cnergy.metrics.period           sampling interval in ms      (default 1000)
+ * </pre>
+ */
+public final class Metrics {
+
+    static final String PREFIX = "cnergy.metrics.";
+    public static final String DOMAIN = "cnergy";
+
+    private static final boolean JMX = !"false".equalsIgnoreCase(System.getProperty(PREFIX + "jmx"));
+    private static final long PERIOD = Long.getLong(PREFIX + "period", 1000);
+    private static final Map<String, Group> groups = new ConcurrentSkipListMap<>();
+    private static volatile ScheduledExecutorService sampler;
+    private static Writer csv;       // sampler thread only
+    private static long lastSample;  // sampler thread only
+
+    private Metrics() {}
+
+    // ------------------------ registration ------------------------
+    public static Counter counter(String group, String name)     { return get(group, name, Counter::new, Counter.class); }
+    public static Gauge gauge(String group, String name)         { return get(group, name, Gauge::new, Gauge.class); }
+    public static Sum sum(String group, String name)             { return get(group, name, Sum::new, Sum.class); }
+    public static Histogram histogram(String group, String name) { return get(group, name, Histogram::new, Histogram.class); }
+
+    /** The queue-length gauge of one agent, in the {@code queue} group. */
+    public static Gauge queue(String agent) {
+        return gauge("queue", agent);
+    }
+
+    private static <M extends Metric> M get(String group, String name, Supplier<M> create, Class<M> type) {
+        Group g = groups.get(group);
+        if (g == null) {
+            Group fresh = new Group(group);
+            g = groups.putIfAbsent(group, fresh);
+            if (g == null) { g = fresh; g.register(); }
+        }
+        Metric m = g.metrics.computeIfAbsent(name, k -> create.get());
+        if (!type.isInstance(m)) throw new IllegalArgumentException(group + "." + name + " is a " + m.getClass().getSimpleName());
+        startSampler();
+        return type.cast(m);
+    }
+
+    /** Current values of one group, as its MBean reports them. */
+    public static Map<String, Double> values(String group) {
+        Group g = groups.get(group);
+        Map<String, Double> values = new LinkedHashMap<>();
+        if (g != null) g.report((name, value) -> values.put(name, value));
+        return values;
+    }
+
+    // ------------------------ sampling ------------------------
+    private static void startSampler() {
+        if (sampler != null) return;
+        synchronized (Metrics.class) {
+            if (sampler != null) return;
+            ScheduledExecutorService s = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "cnergy-metrics");
+                t.setDaemon(true);
+                return t;
+            });
+            lastSample = System.nanoTime();
+            s.scheduleAtFixedRate(Metrics::sample, PERIOD, PERIOD, TimeUnit.MILLISECONDS);
+            Runtime.getRuntime().addShutdownHook(new Thread(Metrics::closeCsv, "cnergy-metrics-flush"));
+            sampler = s;
+        }
+    }
+
+    /** Close one sampling interval for every metric and append it to the CSV file. */
+    static synchronized void sample() {
+        long now = System.nanoTime();
+        double seconds = Math.max(1e-9, (now - lastSample) / 1e9);
+        lastSample = now;
+        for (Group g : groups.values()) {
+            for (Metric m : g.metrics.values()) m.sample(seconds);
+        }
+        try {
+            writeCsv(System.currentTimeMillis());
+        } catch (IOException e) {
+            System.err.printf("metrics >> CSV dump disabled: %s%n", e.getMessage());
+            closeCsv();
+            System.clearProperty(PREFIX + "csv");
+        }
+    }
+
+    private static void writeCsv(long time) throws IOException {
+        String file = System.getProperty(PREFIX + "csv");
+        if (file == null || file.isEmpty()) return;
+        if (csv == null) {
+            csv = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), 1 << 16);
+            csv.write("time_ms,group,metric,value\n");
+        }
+        final Writer out = csv;
+        final IOException[] failed = new IOException[1];
+        StringBuilder row = new StringBuilder(64);
+        for (Group g : groups.values()) {
+            g.report((name, value) -> {
+                row.setLength(0);
+                row.append(time).append(',').append(g.name).append(',').append(name).append(',').append(value).append('\n');
+                try { out.write(row.toString()); } catch (IOException e) { failed[0] = e; }
+            });
+        }
+        if (failed[0] != null) throw failed[0];
+        out.flush();
+    }
+
+    private static synchronized void closeCsv() {
+        if (csv == null) return;
+        try { csv.close(); } catch (IOException ignored) {}
+        csv = null;
+    }
+
+    // ------------------------ groups / JMX ------------------------
+    private static final class Group implements DynamicMBean {
+        final String name;
+        final Map<String, Metric> metrics = new ConcurrentSkipListMap<>();
+
+        Group(String name) {
+            this.name = name;
+        }
+
+        void register() {
+            if (!JMX) return;
+            try {
+                ObjectName id = new ObjectName(DOMAIN + ":type=Metrics,group=" + (name.matches("[\\w.-]+") ? name : ObjectName.quote(name)));
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                if (server.isRegistered(id)) server.unregisterMBean(id);
+                server.registerMBean(this, id);
+            } catch (JMException e) {
+                System.err.printf("metrics >> no MBean for group %s: %s%n", name, e.getMessage());
+            }
+        }
+
+        void report(Metric.Values out) {
+            for (Map.Entry<String, Metric> e : metrics.entrySet()) {
+                String metric = e.getKey();
+                e.getValue().report((suffix, value) -> out.value(metric + suffix, value));
+            }
+        }
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Double v = values(name).get(attribute);
+            if (v == null) throw new AttributeNotFoundException(attribute);
+            return v;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Double> values = values(name);
+            AttributeList list = new AttributeList();
+            for (String a : attributes) {
+                Double v = values.get(a);
+                if (v != null) list.add(new Attribute(a, v));
+            }
+            return list;
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attrs = new ArrayList<>();
+            for (String a : values(name).keySet()) {
+                attrs.add(new MBeanAttributeInfo(a, "double", a, true, false, false));
+            }
+            return new MBeanInfo(Group.class.getName(), "cnergy metrics: " + name,
+                    attrs.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String action, Object[] params, String[] signature) throws MBeanException {
+            throw new MBeanException(new UnsupportedOperationException(action));
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package cnergy.metrics;
+
+/**
+ * Mergeable quantile sketch of double values with a relative error bound: a
+ * value lands in log-spaced bucket {@code ceil(log_gamma |v|)}, with
+ * {@code gamma = (1 + a) / (1 - a)}, so every reported quantile is within
+ * {@code a} of the true one, relative to its size. Values of magnitude below
+ * {@link #MIN_VALUE} count as zero.
+ * <p>
+ * Memory grows with the range of the values (about 1150 buckets per power of
+ * 1000 at 1 %), never with their number, and merging two sketches adds their
+ * bucket counts, so per-thread sketches combine exactly in any order. Not
+ * thread-safe: one sketch per thread, merged when the threads are done.
+ */
+public final class QuantileSketch {
+
+    public static final double MIN_VALUE = 1e-9;
+
+    private final double accuracy, gamma, logGamma;
+    private final Store positive = new Store(), negative = new Store();
+    private long zero, count;
+    private double sum, min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+
+    public QuantileSketch() {
+        this(0.01);
+    }
+
+    /** Quantiles within {@code accuracy} (e.g. 0.01 = 1 %) of the exact ones. */
+    public QuantileSketch(double accuracy) {
+        if (!(accuracy > 0 && accuracy < 1)) throw new IllegalArgumentException("accuracy " + accuracy);
+        this.accuracy = accuracy;
+        gamma = (1 + accuracy) / (1 - accuracy);
+        logGamma = Math.log(gamma);
+    }
+
+    public void add(double v) {
+        if (Double.isNaN(v)) return;
+        if (v > MIN_VALUE) positive.add(index(v), 1);
+        else if (v < -MIN_VALUE) negative.add(index(-v), 1);
+        else zero++;
+        count++;
+        sum += v;
+        if (v < min) min = v;
+        if (v > max) max = v;
+    }
+
+    /** Add everything {@code other} holds; both must have the same accuracy. */
+    public void merge(QuantileSketch other) {
+        if (other.accuracy != accuracy) throw new IllegalArgumentException("accuracy " + other.accuracy + " != " + accuracy);
+        positive.merge(other.positive);
+        negative.merge(other.negative);
+        zero += other.zero;
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    public long count()  { return count; }
+    public double mean() { return count == 0 ? Double.NaN : sum / count; }
+    public double min()  { return count == 0 ? Double.NaN : min; }
+    public double max()  { return count == 0 ? Double.NaN : max; }
+
+    /** Value at quantile {@code q} in [0, 1]; NaN when empty. */
+    public double quantile(double q) {
+        if (count == 0) return Double.NaN;
+        if (q <= 0) return min;
+        if (q >= 1) return max;
+        long rank = (long) Math.floor(q * (count - 1));
+        double v;
+        if (rank < negative.total) {
+            v = -value(negative.indexAtRank(negative.total - 1 - rank));
+        } else if (rank < negative.total + zero) {
+            v = 0;
+        } else {
+            v = value(positive.indexAtRank(rank - negative.total - zero));
+        }
+        return Math.max(min, Math.min(max, v));
+    }
+
+    private int index(double magnitude) {
+        return (int) Math.ceil(Math.log(magnitude) / logGamma);
+    }
+
+    /** Middle of bucket {@code i}, within {@code accuracy} of every value in it. */
+    private double value(int i) {
+        return 2 * Math.pow(gamma, i) / (gamma + 1);
+    }
+
+    /** Counts of a contiguous range of bucket indexes, grown on demand. */
+    private static final class Store {
+        long[] counts = new long[0];
+        int offset;   // bucket index of counts[0]
+        long total;
+
+        void add(int index, long n) {
+            if (counts.length == 0) {
+                counts = new long[64];
+                offset = index - 32;
+            }
+            if (index < offset || index >= offset + counts.length) grow(index);
+            counts[index - offset] += n;
+            total += n;
+        }
+
+        private void grow(int index) {
+            int lo = Math.min(offset, index), hi = Math.max(offset + counts.length, index + 1);
+            int size = Math.max(2 * counts.length, hi - lo);
+            int newOffset = index < offset ? hi - size : lo;
+            long[] grown = new long[size];
+            System.arraycopy(counts, 0, grown, offset - newOffset, counts.length);
+            counts = grown;
+            offset = newOffset;
+        }
+
+        void merge(Store other) {
+            for (int k = 0; k < other.counts.length; k++) {
+                if (other.counts[k] != 0) add(other.offset + k, other.counts[k]);
+            }
+        }
+
+        /** Bucket index holding the value of 0-based rank {@code rank}, smallest first. */
+        int indexAtRank(long rank) {
+            long seen = 0;
+            for (int k = 0; k < counts.length; k++) {
+                seen += counts[k];
+                if (seen > rank) return offset + k;
+            }
+            return offset + counts.length - 1;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package cnergy.metrics;
+
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * Running total that many agents add to, e.g. the backlog of every consumer
+ * (each one adds its change) or curtailed energy; reported with its change per
+ * second over the last sampling interval.
+ */
+public final class Sum implements Metric {
+
+    private final DoubleAdder total = new DoubleAdder();
+    private double last;            // sampler thread only
+    private volatile double rate;
+
+    public void add(double delta) { total.add(delta); }
+    public double get()           { return total.sum(); }
+    public double rate()          { return rate; }
+
+    @Override
+    public void sample(double seconds) {
+        double now = total.sum();
+        rate = (now - last) / seconds;
+        last = now;
+    }
+
+    @Override
+    public void report(Values out) {
+        out.value("", get());
+        out.value(".rate", rate);
+    }
+}
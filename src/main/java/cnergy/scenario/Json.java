@@ -0,0 +1,158 @@
+package cnergy.scenario;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough JSON for scenario files: objects become {@code LinkedHashMap}s
+ * (key order kept), arrays {@code ArrayList}s, integral numbers {@code Long},
+ * other numbers {@code Double}. {@code //} line comments are allowed.
+ */
+final class Json {
+
+    private final String text;
+    private int pos;
+
+    private Json(String text) {
+        this.text = text;
+    }
+
+    static Object parse(String text) {
+        Json json = new Json(text);
+        Object value = json.value();
+        json.skip();
+        if (json.pos != text.length()) throw json.error("trailing content");
+        return value;
+    }
+
+    private Object value() {
+        skip();
+        if (pos >= text.length()) throw error("unexpected end");
+        char c = text.charAt(pos);
+        switch (c) {
+            case '{': return object();
+            case '[': return array();
+            case '"': return string();
+            case 't': return literal("true", Boolean.TRUE);
+            case 'f': return literal("false", Boolean.FALSE);
+            case 'n': return literal("null", null);
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) return number();
+                throw error("unexpected '" + c + "'");
+        }
+    }
+
+    private Map<String, Object> object() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        pos++; // {
+        skip();
+        if (peek() == '}') { pos++; return map; }
+        while (true) {
+            skip();
+            if (peek() != '"') throw error("expected a key");
+            String key = string();
+            skip();
+            expect(':');
+            map.put(key, value());
+            skip();
+            if (peek() == ',') { pos++; continue; }
+            expect('}');
+            return map;
+        }
+    }
+
+    private List<Object> array() {
+        List<Object> list = new ArrayList<>();
+        pos++; // [
+        skip();
+        if (peek() == ']') { pos++; return list; }
+        while (true) {
+            list.add(value());
+            skip();
+            if (peek() == ',') { pos++; continue; }
+            expect(']');
+            return list;
+        }
+    }
+
+    private String string() {
+        StringBuilder sb = new StringBuilder();
+        pos++; // "
+        while (pos < text.length()) {
+            char c = text.charAt(pos++);
+            if (c == '"') return sb.toString();
+            if (c != '\\') { sb.append(c); continue; }
+            if (pos >= text.length()) break;
+            char e = text.charAt(pos++);
+            switch (e) {
+                case 'n': sb.append('\n'); break;
+                case 't': sb.append('\t'); break;
+                case 'r': sb.append('\r'); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'u':
+                    if (pos + 4 > text.length()) throw error("bad \\u escape");
+                    sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                    pos += 4;
+                    break;
+                default: sb.append(e); // \" \\ \/
+            }
+        }
+        throw error("unterminated string");
+    }
+
+    private Object number() {
+        int start = pos;
+        boolean integral = true;
+        if (peek() == '-') pos++;
+        while (pos < text.length()) {
+            char c = text.charAt(pos);
+            if (c >= '0' && c <= '9') { pos++; continue; }
+            if (c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') { integral = false; pos++; continue; }
+            break;
+        }
+        String n = text.substring(start, pos);
+        try {
+            return integral ? (Object) Long.parseLong(n) : (Object) Double.parseDouble(n);
+        } catch (NumberFormatException e) {
+            throw error("bad number " + n);
+        }
+    }
+
+    private Object literal(String word, Object value) {
+        if (!text.startsWith(word, pos)) throw error("unexpected token");
+        pos += word.length();
+        return value;
+    }
+
+    /** Skip whitespace and // comments. */
+    private void skip() {
+        while (pos < text.length()) {
+            char c = text.charAt(pos);
+            if (Character.isWhitespace(c)) { pos++; continue; }
+            if (c == '/' && text.startsWith("//", pos)) {
+                int nl = text.indexOf('\n', pos);
+                pos = nl < 0 ? text.length() : nl + 1;
+                continue;
+            }
+            break;
+        }
+    }
+
+    private char peek() {
+        return pos < text.length() ? text.charAt(pos) : '\0';
+    }
+
+    private void expect(char c) {
+        if (peek() != c) throw error("expected '" + c + "'");
+        pos++;
+    }
+
+    private IllegalArgumentException error(String what) {
+        int line = 1;
+        for (int i = 0; i < pos && i < text.length(); i++) if (text.charAt(i) == '\n') line++;
+        return new IllegalArgumentException("scenario JSON, line " + line + ": " + what);
+    }
+}
@@ -0,0 +1,331 @@
+package cnergy.scenario;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * A simulation setup read from JSON: platform options, zones, containers and
+ * the agent groups to start, in order.
+ * <pre>
+ * {
+ *   "name": "default", "seed": 42,    // -Dcnergy.seed overrides; also seeds every agent's random stream
+ *   "clock": false,                    // agents step on a ClockAgent instead of their own tickers
+ *   "rma": true,                       // JADE management GUI
+ *   "headless": false,                 // no GUI, Sniffer or RMA; telemetry to files instead
+ *   "telemetry": "telemetry",          // directory for the headless telemetry files
+ *   "containers": 4,                   // local agent containers next to the main one
+ *   "zones": ["default", "north"],
+ *   "agents": [
+ *     {"name": "broker", "class": "cnergy.agents.BrokerAgent", "perZone": true, "container": "zone",
+ *      "args": [3, false, false, 1000, "$zone", "$shard", 0, ""]},
+ *     {"name": "solar", "class": "cnergy.agents.SolarAgent", "count": 5000, "container": "spread",
+ *      "args": [{"uniform": [15, 35]}, true, 100.0, 1.0, 0.4, 0.035, 0.005, 0.005, false, "$zone"]}
+ *   ]
+ * }
+ * </pre>
+ * Argument values:
+ * <ul>
+ *   <li>numbers, booleans, strings as given; integral numbers become {@code Integer}</li>
+ *   <li>arrays of numbers become {@code double[]}, arrays of strings {@code String[]}</li>
+ *   <li>{@code $name}, {@code $i} (1-based index), {@code $zone}, {@code $shard} inside strings</li>
+ *   <li>one-key objects draw a value per agent: {@code {"uniform": [lo, hi]}},
+ *       {@code {"normal": [mean, sd]}} or {@code [mean, sd, min, max]},
+ *       {@code {"int": [lo, hi]}} (inclusive), {@code {"choice": [v1, v2, ...]}},
+ *       {@code {"bool": p}}</li>
+ * </ul>
+ * Placement ({@code container}): {@code main}, {@code spread} (round robin over
+ * the extra containers), {@code zone} (one container per zone after the first)
+ * or a container name. A group without {@code count} is a single agent named
+ * {@code name}; with a count its agents are {@code name1..nameN}; a
+ * {@code perZone} group has one agent per zone, {@code name} then
+ * {@code name-<zone>}. Agents are assigned zones round robin.
+ * <p>
+ * A headless scenario ({@code "headless": true}, or {@code -Dcnergy.headless=true}
+ * for any scenario) drops the RMA, the Sniffer and the GUI agent. A
+ * {@code TelemetrySinkAgent} takes the GUI agent's place and name, or is
+ * started first when the scenario has none. {@code -Dcnergy.telemetry=<dir>}
+ * overrides the telemetry directory.
+ * <p>
+ * A clocked scenario ({@code "clock": true}, or {@code -Dcnergy.clock=true})
+ * starts a {@code ClockAgent} first, unless it has one. That clock waits until
+ * every market agent has joined before it runs the first step.
+ */
+public final class Scenario {
+
+    public static final String MAIN = "main";
+    public static final String GUI = "gui";
+    static final String SINK = "cnergy.agents.TelemetrySinkAgent";
+    static final String CLOCK = "cnergy.agents.ClockAgent";
+    /** Agents of this package that keep wall time in a clocked run. */
+    static final Set<String> UNCLOCKED = new HashSet<>(Arrays.asList("cnergy.agents.GUIAgent", SINK, CLOCK));
+    /** Agents a headless run leaves out. */
+    static final Set<String> UI_CLASSES = new HashSet<>(Arrays.asList(
+            "cnergy.agents.GUIAgent", "jade.tools.sniffer.Sniffer", "jade.tools.rma.rma"));
+
+    public final String name;
+    public final long seed;
+    public final boolean rma;
+    public final boolean headless;
+    public final boolean clock;
+    public final String telemetry;
+    public final int containers;
+    public final List<String> zones;
+    public final List<Group> groups;
+
+    public static final class Group {
+        public final String name;
+        public final String className;
+        public final int count;
+        public final boolean perZone;
+        public final String container;
+        final List<Object> args;
+
+        Group(Map<String, Object> spec) {
+            name = string(spec, "name", null);
+            className = string(spec, "class", null);
+            if (name == null || className == null) throw new IllegalArgumentException("agent group needs a name and a class: " + spec);
+            count = (int) number(spec, "count", 1);
+            perZone = Boolean.TRUE.equals(spec.get("perZone"));
+            container = string(spec, "container", MAIN);
+            Object a = spec.get("args");
+            args = a == null ? null : list(a, name + ".args");
+        }
+
+        /** Number of agents this group starts. */
+        public int size(Scenario s) {
+            return perZone ? s.zones.size() : count;
+        }
+    }
+
+    /** One agent, fully resolved. */
+    public static final class AgentSpec {
+        public final String name;
+        public final String className;
+        public final Object[] args;
+        public final String container;
+
+        AgentSpec(String name, String className, Object[] args, String container) {
+            this.name = name;
+            this.className = className;
+            this.args = args;
+            this.container = container;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Scenario(Map<String, Object> root) {
+        name = string(root, "name", "scenario");
+        seed = Long.getLong("cnergy.seed", number(root, "seed", 42));
+        clock = Boolean.TRUE.equals(root.get("clock")) || Boolean.getBoolean("cnergy.clock");
+        headless = Boolean.TRUE.equals(root.get("headless")) || Boolean.getBoolean("cnergy.headless");
+        rma = !headless && !Boolean.FALSE.equals(root.get("rma"));
+        telemetry = System.getProperty("cnergy.telemetry", string(root, "telemetry", "telemetry"));
+        containers = (int) number(root, "containers", 0);
+        List<String> z = new ArrayList<>();
+        Object zs = root.get("zones");
+        if (zs == null) z.add("default");
+        else for (Object o : list(zs, "zones")) z.add(String.valueOf(o));
+        zones = Collections.unmodifiableList(z);
+        List<Group> g = new ArrayList<>();
+        for (Object o : list(root.get("agents"), "agents")) {
+            if (!(o instanceof Map)) throw new IllegalArgumentException("agents: expected objects, got " + o);
+            Group group = new Group((Map<String, Object>) o);
+            if (headless && UI_CLASSES.contains(group.className)) {
+                if (GUI.equals(group.name)) g.add(sink());
+                continue;
+            }
+            g.add(group);
+        }
+        if (headless && !containsGui(g)) g.add(0, sink());
+        if (clock && !containsClass(g, CLOCK)) g.add(0, clock(g));
+        groups = Collections.unmodifiableList(g);
+    }
+
+    /** A clock that starts once all of the stepped agents among {@code groups} have joined. */
+    private Group clock(List<Group> groups) {
+        int stepped = 0;
+        for (Group g : groups) {
+            if (g.className.startsWith("cnergy.agents.") && !UNCLOCKED.contains(g.className)) stepped += g.perZone ? zones.size() : g.count;
+        }
+        Map<String, Object> spec = new HashMap<>();
+        spec.put("name", "clock");
+        spec.put("class", CLOCK);
+        spec.put("args", new ArrayList<Object>(Collections.singletonList(stepped)));
+        return new Group(spec);
+    }
+
+    private static boolean containsClass(List<Group> groups, String className) {
+        for (Group g : groups) if (className.equals(g.className)) return true;
+        return false;
+    }
+
+    /** The telemetry sink, under the GUI's name so every status message reaches it. */
+    private Group sink() {
+        Map<String, Object> spec = new HashMap<>();
+        spec.put("name", GUI);
+        spec.put("class", SINK);
+        spec.put("args", new ArrayList<Object>(Collections.singletonList(telemetry)));
+        return new Group(spec);
+    }
+
+    private static boolean containsGui(List<Group> groups) {
+        for (Group g : groups) if (GUI.equals(g.name)) return true;
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static Scenario parse(String json) {
+        Object root = Json.parse(json);
+        if (!(root instanceof Map)) throw new IllegalArgumentException("scenario JSON must be an object");
+        return new Scenario((Map<String, Object>) root);
+    }
+
+    public static Scenario load(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        for (int n; (n = in.read(buf)) > 0; ) bytes.write(buf, 0, n);
+        return parse(new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    /** A scenario file, or one bundled under {@code /scenarios} ("large" finds scenarios/large.json). */
+    public static Scenario load(String pathOrName) throws IOException {
+        File file = new File(pathOrName);
+        if (file.isFile()) {
+            try (InputStream in = new FileInputStream(file)) { return load(in); }
+        }
+        String resource = "/scenarios/" + (pathOrName.endsWith(".json") ? pathOrName : pathOrName + ".json");
+        InputStream in = Scenario.class.getResourceAsStream(resource);
+        if (in == null) throw new FileNotFoundException(pathOrName + " (no such file or bundled scenario)");
+        try { return load(in); } finally { in.close(); }
+    }
+
+    /** Names of the extra containers: the workers, then one per zone after the first. */
+    public List<String> containerNames() {
+        List<String> names = new ArrayList<>();
+        for (int i = 1; i <= containers; i++) names.add("worker-" + i);
+        for (int z = 1; z < zones.size(); z++) names.add("zone-" + zones.get(z));
+        return names;
+    }
+
+    public int size() {
+        int n = 0;
+        for (Group g : groups) n += g.size(this);
+        return n;
+    }
+
+    /** The agents of group {@code index}; draws are reproducible for a given seed. */
+    public List<AgentSpec> expand(int index) {
+        Group g = groups.get(index);
+        Random rand = new Random(seed * 31 + index);
+        List<AgentSpec> specs = new ArrayList<>(g.size(this));
+        for (int i = 1; i <= g.size(this); i++) {
+            int z = g.perZone ? i - 1 : i % zones.size();
+            String agent = g.perZone ? (z == 0 ? g.name : g.name + "-" + zones.get(z))
+                                     : (g.count == 1 ? g.name : g.name + i);
+            Object[] args = null;
+            if (g.args != null) {
+                args = new Object[g.args.size()];
+                for (int k = 0; k < args.length; k++) args[k] = resolve(g.args.get(k), agent, i, z, rand);
+            }
+            specs.add(new AgentSpec(agent, g.className, args, place(g, i, z)));
+        }
+        return specs;
+    }
+
+    private String place(Group g, int i, int z) {
+        switch (g.container) {
+            case "spread": return containers == 0 ? MAIN : "worker-" + (1 + (i - 1) % containers);
+            case "zone":   return z == 0 ? MAIN : "zone-" + zones.get(z);
+            default:       return g.container;
+        }
+    }
+
+    // ------------------------ argument values ------------------------
+    @SuppressWarnings("unchecked")
+    private Object resolve(Object v, String agent, int i, int z, Random rand) {
+        if (v instanceof Long) {
+            long n = (Long) v;
+            return n == (int) n ? (Object) (int) n : (Object) n;
+        }
+        if (v instanceof String) {
+            String s = (String) v;
+            if (s.indexOf('$') < 0) return s;
+            return s.replace("$name", agent).replace("$zone", zones.get(z))
+                    .replace("$shard", String.valueOf(z)).replace("$i", String.valueOf(i));
+        }
+        if (v instanceof List) {
+            List<Object> list = (List<Object>) v;
+            Object[] out = new Object[list.size()];
+            boolean numbers = true, strings = true;
+            for (int k = 0; k < out.length; k++) {
+                out[k] = resolve(list.get(k), agent, i, z, rand);
+                numbers &= out[k] instanceof Number;
+                strings &= out[k] instanceof String;
+            }
+            if (numbers && out.length > 0) {
+                double[] d = new double[out.length];
+                for (int k = 0; k < d.length; k++) d[k] = ((Number) out[k]).doubleValue();
+                return d;
+            }
+            if (strings && out.length > 0) return Arrays.copyOf(out, out.length, String[].class);
+            return out;
+        }
+        if (v instanceof Map) return draw((Map<String, Object>) v, agent, i, z, rand);
+        return v; // Double, Boolean, null
+    }
+
+    private Object draw(Map<String, Object> dist, String agent, int i, int z, Random rand) {
+        if (dist.size() != 1) throw new IllegalArgumentException("distribution must have exactly one key: " + dist);
+        Map.Entry<String, Object> e = dist.entrySet().iterator().next();
+        switch (e.getKey()) {
+            case "uniform": {
+                double[] p = params(e.getValue(), 2, e.getKey());
+                return p[0] + rand.nextDouble() * (p[1] - p[0]);
+            }
+            case "normal": {
+                double[] p = params(e.getValue(), 2, e.getKey());
+                double x = p[0] + rand.nextGaussian() * p[1];
+                if (p.length > 2) x = Math.max(p[2], x);
+                if (p.length > 3) x = Math.min(p[3], x);
+                return x;
+            }
+            case "int": {
+                double[] p = params(e.getValue(), 2, e.getKey());
+                return (int) p[0] + rand.nextInt((int) p[1] - (int) p[0] + 1);
+            }
+            case "choice": {
+                List<Object> options = list(e.getValue(), "choice");
+                return resolve(options.get(rand.nextInt(options.size())), agent, i, z, rand);
+            }
+            case "bool":
+                return rand.nextDouble() < ((Number) e.getValue()).doubleValue();
+            default:
+                throw new IllegalArgumentException("unknown distribution '" + e.getKey() + "'");
+        }
+    }
+
+    private static double[] params(Object v, int min, String what) {
+        List<Object> list = list(v, what);
+        if (list.size() < min) throw new IllegalArgumentException(what + ": expected at least " + min + " numbers");
+        double[] p = new double[list.size()];
+        for (int k = 0; k < p.length; k++) p[k] = ((Number) list.get(k)).doubleValue();
+        return p;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> list(Object v, String what) {
+        if (!(v instanceof List)) throw new IllegalArgumentException(what + ": expected an array");
+        return (List<Object>) v;
+    }
+
+    private static String string(Map<String, Object> m, String key, String def) {
+        Object v = m.get(key);
+        return v == null ? def : v.toString();
+    }
+
+    private static long number(Map<String, Object> m, String key, long def) {
+        Object v = m.get(key);
+        return v == null ? def : ((Number) v).longValue();
+    }
+}
@@ -0,0 +1,87 @@
+package cnergy.scenario;
+
+import jade.core.Profile;
+import jade.core.ProfileImpl;
+import jade.core.Runtime;
+import jade.wrapper.ContainerController;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Starts a {@link Scenario} on a running platform. Groups start in file order,
+ * each one finished before the next begins (brokers before the agents that
+ * trade with them). Within a group, every container gets its own launcher
+ * thread, so populations spread over several containers are created in
+ * parallel.
+ */
+public final class ScenarioLauncher {
+
+    private final Runtime runtime;
+    private final String services;
+    private final Map<String, ContainerController> containers = new LinkedHashMap<>();
+
+    public ScenarioLauncher(Runtime runtime, ContainerController main, String services) {
+        this.runtime = runtime;
+        this.services = services;
+        containers.put(Scenario.MAIN, main);
+    }
+
+    /** Create the scenario's containers and agents; returns the number of agents started. */
+    public int launch(Scenario scenario) throws Exception {
+        long start = System.nanoTime();
+        for (String name : scenario.containerNames()) container(name);
+        System.out.printf("Scenario '%s': %d agents on %d containers%n", scenario.name, scenario.size(), containers.size());
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, containers.size()), r -> {
+            Thread t = new Thread(r, "cnergy-launcher");
+            t.setDaemon(true);
+            return t;
+        });
+        int total = 0;
+        try {
+            for (int g = 0; g < scenario.groups.size(); g++) {
+                long t0 = System.nanoTime();
+                List<Scenario.AgentSpec> specs = scenario.expand(g);
+                Map<String, List<Scenario.AgentSpec>> byContainer = new LinkedHashMap<>();
+                for (Scenario.AgentSpec spec : specs) {
+                    byContainer.computeIfAbsent(spec.container, k -> new ArrayList<>()).add(spec);
+                }
+                List<Future<?>> done = new ArrayList<>();
+                for (Map.Entry<String, List<Scenario.AgentSpec>> e : byContainer.entrySet()) {
+                    ContainerController cc = container(e.getKey());
+                    List<Scenario.AgentSpec> batch = e.getValue();
+                    done.add(pool.submit(() -> {
+                        for (Scenario.AgentSpec spec : batch) {
+                            cc.createNewAgent(spec.name, spec.className, spec.args).start();
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> f : done) f.get();
+                total += specs.size();
+                double secs = (System.nanoTime() - t0) / 1e9;
+                System.out.printf("- %-14s %7d agents in %6.2f s (%.0f/s)%n",
+                        scenario.groups.get(g).name, specs.size(), secs, specs.size() / Math.max(secs, 1e-9));
+            }
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } finally {
+            pool.shutdown();
+        }
+        double secs = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Scenario '%s' ready: %d agents in %.2f s (%.0f agents/s)%n", scenario.name, total, secs, total / Math.max(secs, 1e-9));
+        return total;
+    }
+
+    private ContainerController container(String name) {
+        ContainerController cc = containers.get(name);
+        if (cc != null) return cc;
+        Profile p = new ProfileImpl();
+        p.setParameter(Profile.CONTAINER_NAME, name);
+        if (services != null) p.setParameter(Profile.SERVICES, services);
+        cc = runtime.createAgentContainer(p);
+        containers.put(name, cc);
+        return cc;
+    }
+}
@@ -0,0 +1,76 @@
+package cnergy.sim;
+
+/**
+ * Hourly demand and bidding logic of a consumer, without any messaging; used
+ * by {@link cnergy.agents.ConsumerAgent} and the {@link SimEngine}.
+ */
+public class ConsumerModel implements Participant {
+
+    // ------------------------ Parameters ------------------------
+    private final double alpha;       // learning rate
+    private final double utilityCap;  // max euros/kWh willing to pay
+    private final double[] hourlyLoad;
+    private final double multFactor;
+
+    // --------------------- Internal state ------------------------
+    private double margin;
+    private int tick = 0;
+    private int hour = 0;
+    private double backlog = 0; // unmet demand carried forward
+    private double openQty = 0;
+    private double demand = 0;
+
+    public ConsumerModel(double margin, double alpha, double utilityCap, double[] hourlyLoad, double multFactor) {
+        this.margin = margin;
+        this.alpha = alpha;
+        this.utilityCap = utilityCap;
+        this.hourlyLoad = hourlyLoad;
+        this.multFactor = multFactor;
+    }
+
+    /** Advance one hour and return the quantity to bid for, 0 when nothing is needed. */
+    public double demand() {
+        tick++;
+        hour = tick % 24;
+
+        demand = hourlyLoad[hour] * multFactor + backlog;
+        if (demand < 1e-6) return 0;
+        openQty = demand;
+        return demand;
+    }
+
+    public double bidPrice() {
+        double price = utilityCap - margin;
+        return Math.min(utilityCap, Math.max(0, price));
+    }
+
+    @Override
+    public void onFill(double qty, double price) {
+        openQty -= qty;
+        backlog = Math.max(0, backlog - qty);
+        if (openQty < 1e-6) openQty = 0;
+
+        margin += alpha; // increase margin -> decrease price
+        margin = Math.max(0.005, margin);
+    }
+
+    @Override
+    public void onReject() {
+        backlog = openQty;
+        openQty = 0;
+
+        margin -= alpha; // reduce margin -> increase price
+        margin = Math.min(0.001, margin);
+    }
+
+    /** Skip this hour's bid (broker backpressure): its demand joins the backlog, the margin stays. */
+    public void defer() {
+        backlog = demand;
+    }
+
+    public int hour()          { return hour; }
+    public double lastDemand() { return demand; }
+    public double backlog()    { return backlog; }
+    public double openQty()    { return openQty; }
+    public double margin()     { return margin; }
+}
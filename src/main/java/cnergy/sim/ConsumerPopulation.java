@@ -0,0 +1,135 @@
+package cnergy.sim;
+
+/**
+ * {@link ConsumerModel} for many consumers at once, kept as parallel primitive
+ * arrays (one slot per consumer) instead of one object each; used by
+ * {@link cnergy.agents.ConsumerPopulationAgent}.
+ * <p>
+ * Consumer {@code i} follows exactly the rules of a {@code ConsumerModel} with
+ * its own margin, multiplier and load profile; {@link #step} advances all of
+ * them in one pass and lists the ones that bid. Load profiles are shared: they
+ * live side by side in one flat array of 24 values each, and every consumer
+ * only stores the index of its profile.
+ */
+public class ConsumerPopulation {
+
+    public static final int HOURS = 24;
+
+    // ------------------------ Parameters ------------------------
+    private final double alpha;       // learning rate
+    private final double utilityCap;  // max euros/kWh willing to pay
+    private final double[] load;      // profile p, hour h -> load[p * HOURS + h]
+    private final int n;
+
+    // --------------------- Internal state ------------------------
+    private final double[] margin;
+    private final double[] backlog;  // unmet demand carried forward
+    private final double[] openQty;
+    private final double[] mult;     // demand multiplier
+    private final int[] profile;     // profile index
+    private int tick = 0;
+    private int hour = 0;
+    private double totalDemand = 0;
+    private double totalBacklog = 0;
+
+    /**
+     * {@code n} consumers; consumer {@code i} starts with {@code margin}, the
+     * multiplier {@code mult[i % mult.length]} and the profile
+     * {@code i % profiles.length}.
+     */
+    public ConsumerPopulation(int n, double margin, double alpha, double utilityCap, double[][] profiles, double[] mult) {
+        if (profiles.length == 0 || mult.length == 0) throw new IllegalArgumentException("need at least one profile and multiplier");
+        this.n = n;
+        this.alpha = alpha;
+        this.utilityCap = utilityCap;
+        this.load = new double[profiles.length * HOURS];
+        for (int p = 0; p < profiles.length; p++) {
+            if (profiles[p].length != HOURS) throw new IllegalArgumentException("profile " + p + ": expected " + HOURS + " hourly values");
+            System.arraycopy(profiles[p], 0, load, p * HOURS, HOURS);
+        }
+        this.margin = new double[n];
+        this.backlog = new double[n];
+        this.openQty = new double[n];
+        this.mult = new double[n];
+        this.profile = new int[n];
+        for (int i = 0; i < n; i++) {
+            this.margin[i] = margin;
+            this.mult[i] = mult[i % mult.length];
+            this.profile[i] = i % profiles.length;
+        }
+    }
+
+    /**
+     * Advance every consumer one hour. The consumers that bid are written to the
+     * front of {@code who}, with their quantity and limit price at the same
+     * position of {@code qty} and {@code price} (each at least {@link #size}
+     * long); returns how many there are.
+     */
+    public int step(int[] who, double[] qty, double[] price) {
+        tick++;
+        hour = tick % HOURS;
+        final double[] load = this.load, margin = this.margin, backlog = this.backlog, openQty = this.openQty, mult = this.mult;
+        final int[] profile = this.profile;
+        final double cap = utilityCap;
+        int k = 0;
+        double sumDemand = 0, sumBacklog = 0;
+        for (int i = 0; i < n; i++) {
+            double b = backlog[i];
+            double d = load[profile[i] * HOURS + hour] * mult[i] + b;
+            sumDemand += d;
+            sumBacklog += b;
+            if (d < 1e-6) continue;
+            openQty[i] = d;
+            who[k] = i;
+            qty[k] = d;
+            price[k] = Math.min(cap, Math.max(0, cap - margin[i]));
+            k++;
+        }
+        totalDemand = sumDemand;
+        totalBacklog = sumBacklog;
+        return k;
+    }
+
+    public void onFill(int i, double qty) {
+        openQty[i] -= qty;
+        backlog[i] = Math.max(0, backlog[i] - qty);
+        if (openQty[i] < 1e-6) openQty[i] = 0;
+
+        margin[i] = Math.max(0.005, margin[i] + alpha); // increase margin -> decrease price
+    }
+
+    public void onReject(int i) {
+        backlog[i] = openQty[i];
+        openQty[i] = 0;
+
+        margin[i] = Math.min(0.001, margin[i] - alpha); // reduce margin -> increase price
+    }
+
+    /**
+     * Skip the bids of the last step (broker backpressure): the {@code k}
+     * bidders in {@code who} carry their demand over. Returns the backlog added.
+     */
+    public double defer(int[] who, int k) {
+        double added = 0;
+        for (int j = 0; j < k; j++) {
+            int i = who[j];
+            added += openQty[i] - backlog[i];
+            backlog[i] = openQty[i];
+        }
+        return added;
+    }
+
+    /** Give consumer {@code i} its own demand multiplier. */
+    public void setMult(int i, double mult) { this.mult[i] = mult; }
+
+    public int size()                { return n; }
+    public int hour()                { return hour; }
+    public double margin(int i)      { return margin[i]; }
+    public double backlog(int i)     { return backlog[i]; }
+    public double openQty(int i)     { return openQty[i]; }
+    public int profile(int i)        { return profile[i]; }
+    /** Demand of the whole population at the last step, backlog included. */
+    public double totalDemand()      { return totalDemand; }
+    /** Backlog carried into the last step. */
+    public double totalBacklog()     { return totalBacklog; }
+}
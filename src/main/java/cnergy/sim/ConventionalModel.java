@@ -0,0 +1,50 @@
+package cnergy.sim;
+
+/**
+ * Backup generator: unlimited supply priced at the last clearing price plus a
+ * fixed margin, unless it is down after a fault. Used by
+ * {@link cnergy.agents.ConventionalAgent} and the {@link SimEngine}.
+ */
+public class ConventionalModel implements Participant {
+
+    // ------------------------ Parameters ------------------------
+    private final double margin;
+    // ------------------------- Internal state ------------------------
+    private double lastPrice = 0.06;
+    private double faultDuration = 0.0;
+    private boolean isFaulty = false;
+    private double delivered = 0; // kWh sold so far
+
+    public ConventionalModel(double margin) {
+        this.margin = margin;
+    }
+
+    public void setLastPrice(double price) { lastPrice = price; }
+
+    public void fault(double duration) {
+        faultDuration = duration;
+        isFaulty = true;
+    }
+
+    /** Count one faulty hour down; {@code false} once the generator has recovered. */
+    public boolean countDownFault() {
+        if (faultDuration > 0) {
+            faultDuration -= 1;
+            return true;
+        }
+        isFaulty = false;
+        return false;
+    }
+
+    public double askPrice() { return lastPrice + margin; }
+
+    @Override
+    public void onFill(double qty, double price) { delivered += qty; }
+
+    @Override
+    public void onReject() {}
+
+    public boolean isFaulty()      { return isFaulty; }
+    public double faultRemaining() { return faultDuration; }
+    public double delivered()      { return delivered; }
+}
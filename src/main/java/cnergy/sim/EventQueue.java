@@ -0,0 +1,67 @@
+package cnergy.sim;
+
+import java.util.PriorityQueue;
+
+/**
+ * Discrete-event queue on a virtual clock. Events run in (time, phase,
+ * insertion) order, so a run is fully deterministic, and the clock jumps
+ * straight to the next event instead of waiting on the wall clock.
+ */
+public class EventQueue {
+
+    private static final class Event implements Comparable<Event> {
+        final long time;
+        final int phase;   // ordering of events that share a time
+        final long seq;    // then first scheduled, first run
+        final Runnable action;
+
+        Event(long time, int phase, long seq, Runnable action) {
+            this.time = time; this.phase = phase; this.seq = seq; this.action = action;
+        }
+
+        @Override
+        public int compareTo(Event o) {
+            if (time != o.time) return Long.compare(time, o.time);
+            if (phase != o.phase) return Integer.compare(phase, o.phase);
+            return Long.compare(seq, o.seq);
+        }
+    }
+
+    private final PriorityQueue<Event> queue = new PriorityQueue<>();
+    private long now = 0;
+    private long seq = 0;
+
+    public long now() { return now; }
+
+    public boolean isEmpty() { return queue.isEmpty(); }
+
+    public void schedule(long time, int phase, Runnable action) {
+        if (time < now) throw new IllegalArgumentException("event at "+time+" is in the past (now "+now+")");
+        queue.add(new Event(time, phase, seq++, action));
+    }
+
+    /** Run {@code action} at {@code first} and then every {@code period} ticks. */
+    public void every(long first, long period, int phase, Runnable action) {
+        if (period <= 0) throw new IllegalArgumentException("period must be positive: "+period);
+        schedule(first, phase, new Runnable() {
+            @Override
+            public void run() {
+                action.run();
+                schedule(now + period, phase, this);
+            }
+        });
+    }
+
+    /** Run every event due at or before {@code end}; returns how many ran. */
+    public long runUntil(long end) {
+        long ran = 0;
+        while (!queue.isEmpty() && queue.peek().time <= end) {
+            Event e = queue.poll();
+            now = e.time;
+            e.action.run();
+            ran++;
+        }
+        now = Math.max(now, end);
+        return ran;
+    }
+}
@@ -0,0 +1,148 @@
+package cnergy.sim;
+
+import cnergy.metrics.QuantileSketch;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongFunction;
+
+/**
+ * Many independent, seeded runs of one scenario in parallel. Every run gets its
+ * own {@link SimEngine}, built by the scenario factory from a seed derived from
+ * the study's base seed and the run's index, so a study depends only on its base
+ * seed, not on the number of threads or the order runs finish in.
+ * <p>
+ * The run range is split in halves on a {@link ForkJoinPool} down to single
+ * runs. A run is reduced to a {@link Summary} as soon as it ends, and summaries
+ * merge pairwise on the way back up: the whole study holds one engine and one
+ * summary per thread, never the results of every run.
+ */
+public class MonteCarlo {
+
+    private final LongFunction<SimEngine> scenario;
+    private final int hours;
+    private final long seed;
+    private final AtomicInteger done = new AtomicInteger();
+
+    /** Runs of {@code hours} hours of the engines {@code scenario} builds from a seed. */
+    public MonteCarlo(LongFunction<SimEngine> scenario, int hours, long seed) {
+        this.scenario = scenario;
+        this.hours = hours;
+        this.seed = seed;
+    }
+
+    /** Merged statistics of a set of runs. */
+    public static final class Summary {
+        public int runs;
+        public long trades;
+        public final QuantileSketch price = new QuantileSketch();       // every hour's clearing price
+        public final QuantileSketch meanPrice = new QuantileSketch();   // per run
+        public final QuantileSketch unmet = new QuantileSketch();       // per run: consumer backlog at the end, kWh
+        public final QuantileSketch renewable = new QuantileSketch();   // per run: share of energy sold by solar / wind
+
+        void add(SimEngine.Result r) {
+            runs++;
+            trades += r.trades;
+            for (double p : r.price) price.add(p);
+            meanPrice.add(r.meanPrice());
+            unmet.add(r.backlog);
+            renewable.add(r.renewableShare());
+        }
+
+        Summary merge(Summary other) {
+            runs += other.runs;
+            trades += other.trades;
+            price.merge(other.price);
+            meanPrice.merge(other.meanPrice);
+            unmet.merge(other.unmet);
+            renewable.merge(other.renewable);
+            return this;
+        }
+    }
+
+    /** Seed of run {@code run}: the base seed, mixed (SplitMix64) with the index. */
+    static long seed(long base, int run) {
+        long z = base + (run + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /** Runs 0..{@code runs}-1 on {@code pool}. */
+    public Summary run(int runs, ForkJoinPool pool) {
+        done.set(0);
+        return pool.invoke(new Runs(0, runs));
+    }
+
+    /** Runs finished so far in the current study; safe to poll from another thread. */
+    public int done() {
+        return done.get();
+    }
+
+    private final class Runs extends RecursiveTask<Summary> {
+        private final int from, to;
+
+        Runs(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Summary compute() {
+            if (to - from <= 1) {
+                Summary s = new Summary();
+                if (to > from) {
+                    s.add(scenario.apply(seed(seed, from)).run(hours));
+                    done.incrementAndGet();
+                }
+                return s;
+            }
+            int mid = (from + to) >>> 1;
+            Runs left = new Runs(from, mid);
+            left.fork();
+            Summary right = new Runs(mid, to).compute();
+            return left.join().merge(right);
+        }
+    }
+
+    // ------------------------- command line ------------------------
+    /** {@code MonteCarlo [runs] [hours] [seed] [threads]} - a study of the default scenario. */
+    public static void main(String[] args) {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int hours = args.length > 1 ? Integer.parseInt(args[1]) : 24 * 30;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+        MonteCarlo study = new MonteCarlo(SimEngine::defaultScenario, hours, seed);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long start = System.nanoTime();
+        Thread progress = new Thread(() -> {
+            try {
+                while (true) {
+                    Thread.sleep(2000);
+                    System.err.printf("%d/%d runs, %.0f s%n", study.done(), runs, (System.nanoTime() - start) / 1e9);
+                }
+            } catch (InterruptedException e) {
+                // study over
+            }
+        }, "cnergy-montecarlo");
+        progress.setDaemon(true);
+        progress.start();
+        Summary s = study.run(runs, pool);
+        progress.interrupt();
+        pool.shutdown();
+
+        System.out.printf("%d runs of %d h on %d threads in %.1f s | %d trades%n", s.runs, hours, threads, (System.nanoTime() - start) / 1e9, s.trades);
+        System.out.printf("%-22s %10s %10s %10s %10s %10s %10s%n", "", "mean", "p5", "p25", "p50", "p75", "p95");
+        row("hourly price (€/kWh)", s.price);
+        row("run mean price", s.meanPrice);
+        row("unmet demand (kWh)", s.unmet);
+        row("renewable share", s.renewable);
+    }
+
+    private static void row(String name, QuantileSketch q) {
+        System.out.printf("%-22s %10.4f %10.4f %10.4f %10.4f %10.4f %10.4f%n", name, q.mean(),
+                q.quantile(0.05), q.quantile(0.25), q.quantile(0.5), q.quantile(0.75), q.quantile(0.95));
+    }
+}
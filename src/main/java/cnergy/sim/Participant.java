@@ -0,0 +1,11 @@
+package cnergy.sim;
+
+/**
+ * Market-facing side of a producer / consumer model: what happens to its
+ * open order. Agents call it from their ACCEPT / REJECT handlers, the
+ * {@link SimEngine} straight from the order book.
+ */
+public interface Participant {
+    void onFill(double qty, double price);
+    void onReject();
+}
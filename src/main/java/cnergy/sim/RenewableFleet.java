@@ -0,0 +1,183 @@
+package cnergy.sim;
+
+import java.util.Arrays;
+
+/**
+ * {@link RenewableModel} for a fleet of plants of one source, kept as parallel
+ * primitive arrays; used by {@link cnergy.agents.RenewableFleetAgent}.
+ * <p>
+ * Plant {@code i} follows exactly the rules of a {@code RenewableModel} with its
+ * own capacity, battery, base cost and margin. Weather, the last clearing price
+ * and the production coefficients are shared by the fleet. A plant costs eight
+ * doubles and a flag.
+ */
+public class RenewableFleet {
+
+    // ------------------------ Parameters ------------------------
+    private final RenewableModel.Source source;
+    private final double coeffHigh;   // SUNNY / WINDY
+    private final double coeffLow;    // CLOUDY / CALM
+    private final double alpha;       // learning rate
+    private final int n;
+    private final double[] capacity;
+    private final double[] battCapacity;
+    private final double[] baseCost;
+
+    // ------------------------- Internal state ------------------------
+    private final double[] margin;
+    private final double[] production;
+    private final double[] soc;
+    private final double[] openQty;
+    private final double[] faultRemaining;
+    private final boolean[] faulty;
+    private double lastClearingPrice = 0.0;
+    private boolean favourable = false;
+    private boolean day = false;
+    private double output = Double.NaN; // replayed output per kW, NaN = coefficients
+    private double totalProduction = 0;
+    private double totalCurtailed = 0;
+    private double totalSoc = 0;
+    private double totalBattCapacity = 0;
+    private int faultyCount = 0;
+
+    /** {@code n} plants, all starting from {@code margin} with an empty battery; set their size with {@link #setPlant}. */
+    public RenewableFleet(RenewableModel.Source source, int n, double coeffHigh, double coeffLow, double margin, double alpha) {
+        this.source = source;
+        this.n = n;
+        this.coeffHigh = coeffHigh;
+        this.coeffLow = coeffLow;
+        this.alpha = alpha;
+        this.capacity = new double[n];
+        this.battCapacity = new double[n];
+        this.baseCost = new double[n];
+        this.margin = new double[n];
+        this.production = new double[n];
+        this.soc = new double[n];
+        this.openQty = new double[n];
+        this.faultRemaining = new double[n];
+        this.faulty = new boolean[n];
+        Arrays.fill(this.margin, margin);
+    }
+
+    public void setPlant(int i, double capacity, double battCapacity, double baseCost) {
+        totalBattCapacity += battCapacity - this.battCapacity[i];
+        this.capacity[i] = capacity;
+        this.battCapacity[i] = battCapacity;
+        this.baseCost[i] = baseCost;
+    }
+
+    // ------------------------- inputs ------------------------
+    public void setWeather(boolean favourable, boolean day) {
+        this.favourable = favourable;
+        this.day = day;
+        this.output = Double.NaN;
+    }
+
+    /** Recorded weather: every plant produces {@code output} (0..1) of its capacity. */
+    public void setWeather(double output, boolean day) {
+        this.day = day;
+        this.output = output;
+    }
+
+    public void setLastPrice(double price) { lastClearingPrice = price; }
+
+    public void fault(int i, double duration) {
+        faultRemaining[i] = duration;
+        faulty[i] = true;
+    }
+
+    // ------------------------- hourly step ------------------------
+    /**
+     * Count faults down and produce for one hour, for every plant. The plants
+     * with something to sell are written to the front of {@code who}, with their
+     * quantity and ask price at the same position of {@code qty} and
+     * {@code price}; returns how many there are.
+     */
+    public int step(int[] who, double[] qty, double[] price) {
+        final double[] capacity = this.capacity, battCapacity = this.battCapacity, baseCost = this.baseCost;
+        final double[] margin = this.margin, production = this.production, soc = this.soc, openQty = this.openQty;
+        final double[] faultRemaining = this.faultRemaining;
+        final boolean[] faulty = this.faulty;
+        final boolean dark = source == RenewableModel.Source.SOLAR && !day;
+        final double factor = dark ? 0 : !Double.isNaN(output) ? output : favourable ? coeffHigh : coeffLow;
+        final double floor = source == RenewableModel.Source.WIND ? lastClearingPrice - 0.02 : Double.NEGATIVE_INFINITY; // wind avoids undercutting the market
+        int k = 0, down = 0;
+        double sumProd = 0, sumSoc = 0, sumCurtailed = 0;
+        for (int i = 0; i < n; i++) {
+            if (faulty[i]) {
+                if (faultRemaining[i] > 0) {
+                    faultRemaining[i] -= 1;
+                    down++;
+                    sumProd += production[i];
+                    sumSoc += soc[i];
+                    continue;
+                }
+                faulty[i] = false;
+            }
+            double s = soc[i];
+            double potential = capacity[i] * factor;
+            double p = dark ? 0 : Math.min(potential, battCapacity[i] - s);
+            production[i] = p;
+            sumProd += p;
+            sumCurtailed += potential - p;
+            sumSoc += s;
+            double available = p + s;
+            if (available < 1e-6) continue; // nothing to sell
+            openQty[i] = available;
+            who[k] = i;
+            qty[k] = available;
+            price[k] = Math.max(baseCost[i] + margin[i], floor);
+            k++;
+        }
+        totalProduction = sumProd;
+        totalCurtailed = sumCurtailed;
+        totalSoc = sumSoc;
+        faultyCount = down;
+        return k;
+    }
+
+    // ------------------------- order outcome ------------------------
+    public void onFill(int i, double qty) {
+        openQty[i] -= qty;
+        if (openQty[i] < 1e-6) openQty[i] = 0;
+
+        // remove energy taken from batteries
+        soc[i] = Math.max(0, Math.min(soc[i] - (qty - production[i]), battCapacity[i]));
+
+        margin[i] = Math.min(margin[i] + step(), 0.1);
+    }
+
+    public void onReject(int i) {
+        soc[i] = Math.min(battCapacity[i], soc[i] + openQty[i]);
+        openQty[i] = 0;
+
+        margin[i] = Math.max(-0.02, margin[i] - step());
+    }
+
+    /** Skip the offers of the last step (broker backpressure): the {@code k} plants in {@code who} store their production. */
+    public void defer(int[] who, int k) {
+        for (int j = 0; j < k; j++) {
+            int i = who[j];
+            soc[i] = Math.min(battCapacity[i], soc[i] + production[i]);
+        }
+    }
+
+    private double step() { return source == RenewableModel.Source.SOLAR ? alpha : alpha * 0.1; }
+
+    // ------------------------- state ------------------------
+    public int size()                      { return n; }
+    public RenewableModel.Source source()  { return source; }
+    public boolean isFaulty(int i)         { return faulty[i]; }
+    public double production(int i)        { return production[i]; }
+    public double soc(int i)               { return soc[i]; }
+    public double margin(int i)            { return margin[i]; }
+    public double openQty(int i)           { return openQty[i]; }
+    /** Fleet production at the last step. */
+    public double totalProduction()        { return totalProduction; }
+    /** Output lost to full batteries at the last step. */
+    public double totalCurtailed()         { return totalCurtailed; }
+    /** Charge of the fleet's batteries as a percentage of their capacity, at the last step. */
+    public double socPct()                 { return totalBattCapacity == 0 ? Double.NaN : totalSoc / totalBattCapacity * 100; }
+    /** Plants that sat out the last step with a fault. */
+    public int faultyCount()               { return faultyCount; }
+}
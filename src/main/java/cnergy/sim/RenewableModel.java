@@ -0,0 +1,141 @@
+package cnergy.sim;
+
+/**
+ * Production, battery and pricing logic of a solar or wind producer, without
+ * any messaging: {@link cnergy.agents.SolarAgent} and
+ * {@link cnergy.agents.WindAgent} wrap it in JADE messages, the
+ * {@link SimEngine} drives it directly.
+ */
+public class RenewableModel implements Participant {
+
+    public enum Source { SOLAR, WIND }
+
+    // ------------------------ Parameters ------------------------
+    private final Source source;
+    private final double capacity;    // total kW capacity
+    private final double battCapacity;
+    private final double coeffHigh;   // SUNNY / WINDY
+    private final double coeffLow;    // CLOUDY / CALM
+    private final double baseCost;    // euro/kWh
+    private final double alpha;       // learning rate
+
+    // ------------------------- Internal state ------------------------
+    private double margin;
+    private double production = 0.0;
+    private double curtailed = 0.0; // output lost to a full battery in the last hour
+    private double lastClearingPrice = 0.0;
+    private boolean favourable = false; // SUNNY / WINDY
+    private boolean day = false;
+    private double output = Double.NaN; // replayed output per kW, NaN = coefficients
+    private double faultDuration = 0.0;
+    private boolean isFaulty = false;
+    private double soc = 0.0;
+    private double openQty = 0;
+
+    public RenewableModel(Source source, double capacity, double battCapacity, double coeffHigh, double coeffLow,
+                          double baseCost, double margin, double alpha) {
+        this.source = source;
+        this.capacity = capacity;
+        this.battCapacity = battCapacity;
+        this.coeffHigh = coeffHigh;
+        this.coeffLow = coeffLow;
+        this.baseCost = baseCost;
+        this.margin = margin;
+        this.alpha = alpha;
+    }
+
+    // ------------------------- inputs ------------------------
+    public void setWeather(boolean favourable, boolean day) {
+        this.favourable = favourable;
+        this.day = day;
+        this.output = Double.NaN;
+    }
+
+    /** Recorded weather: produce {@code output} (0..1) of the capacity. */
+    public void setWeather(double output, boolean day) {
+        this.day = day;
+        this.output = output;
+    }
+
+    public void setLastPrice(double price) { lastClearingPrice = price; }
+
+    public void fault(double duration) {
+        faultDuration = duration;
+        isFaulty = true;
+    }
+
+    // ------------------------- hourly step ------------------------
+    /** Count one faulty hour down; {@code false} once the producer has recovered. */
+    public boolean countDownFault() {
+        if (faultDuration > 0) {
+            faultDuration -= 1;
+            return true;
+        }
+        isFaulty = false;
+        return false;
+    }
+
+    /** Produce for one hour and return the quantity to offer, 0 when there is nothing to sell. */
+    public double produce() {
+        if (source == Source.SOLAR && !day) {
+            production = 0;
+            curtailed = 0;
+        } else {
+            double factor = !Double.isNaN(output) ? output : favourable ? coeffHigh : coeffLow;
+            double potential = capacity * factor;
+            production = Math.min(potential, battCapacity - soc);
+            curtailed = potential - production;
+        }
+        double available = production + soc;
+        if (available < 1e-6) return 0; // nothing to sell
+        openQty = available;
+        return available;
+    }
+
+    public double askPrice() {
+        double price = baseCost + margin;
+        if (source == Source.WIND) price = Math.max(price, lastClearingPrice - 0.02); // avoid undercutting the market
+        return price;
+    }
+
+    // ------------------------- order outcome ------------------------
+    @Override
+    public void onFill(double qty, double price) {
+        openQty -= qty;
+        if (openQty < 1e-6) openQty = 0;
+
+        // remove energy taken from batteries
+        soc -= qty - production;
+        soc = Math.max(0, Math.min(soc, battCapacity));
+
+        margin += step();
+        margin = Math.min(margin, 0.1);
+    }
+
+    @Override
+    public void onReject() {
+        soc = Math.min(battCapacity, soc + openQty);
+        openQty = 0;
+
+        margin -= step();
+        margin = Math.max(-0.02, margin);
+    }
+
+    /** Skip this hour's offer (broker backpressure): its production goes to the battery, the margin stays. */
+    public void defer() {
+        soc = Math.min(battCapacity, soc + production);
+    }
+
+    private double step() { return source == Source.SOLAR ? alpha : alpha * 0.1; }
+
+    // ------------------------- state ------------------------
+    public boolean isFaulty()       { return isFaulty; }
+    public double faultRemaining()  { return faultDuration; }
+    public double production()      { return production; }
+    public double curtailed()       { return curtailed; }
+    public double soc()             { return soc; }
+    public double socPct()          { return soc / battCapacity * 100; }
+    public double margin()          { return margin; }
+    public double openQty()         { return openQty; }
+    public Source source()          { return source; }
+}
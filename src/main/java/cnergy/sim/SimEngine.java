@@ -0,0 +1,252 @@
+package cnergy.sim;
+
+import cnergy.agents.OrderBook;
+import jade.core.AID;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Headless, fast-forward run of the market. The same producer, consumer,
+ * weather and order-book logic as the agents is driven by an
+ * {@link EventQueue} on a virtual clock (one tick = one simulated hour)
+ * instead of JADE tickers, so a simulated year takes seconds. No platform,
+ * GUI or Sniffer is started, and a run depends only on its seed.
+ * <p>
+ * Within an hour the events run in a fixed order: weather, fault injection,
+ * producer / consumer orders (in the order they were added), then the broker
+ * tick (batch clearing, expiry).
+ */
+public class SimEngine {
+
+    // phases inside one hour
+    static final int WEATHER = 0, FAULT = 1, MARKET = 2, BROKER = 3;
+
+    // ------------------------ Parameters ------------------------
+    private int expiryTicks = 3;
+    private boolean batchAuction = false;
+    private int faultPeriod = 0;   // hours between faults (0 = none)
+    private int faultDuration = 6; // hours
+
+    // ------------------------- Internal state ------------------------
+    private final Random rand;
+    private final EventQueue events = new EventQueue();
+    private final OrderBook book = new OrderBook();
+    private WeatherModel weather;
+    private final Map<AID, RenewableModel> renewables = new LinkedHashMap<>();
+    private final Map<AID, ConventionalModel> conventionals = new LinkedHashMap<>();
+    private final Map<AID, ConsumerModel> consumers = new LinkedHashMap<>();
+    private final Map<AID, Participant> owners = new HashMap<>();
+    private double lastPrice = 0.06;
+    private Result result;
+    private int hour = 0;
+
+    /** Outcome of one run, one slot per simulated hour. */
+    public static final class Result {
+        public final double[] price;  // last clearing price at the end of the hour
+        public final double[] volume; // kWh traded during the hour
+        public long trades;
+        public double backlog;        // unmet consumer demand at the end
+        public double conventional;   // kWh sold by backup generators
+        public double renewable;      // kWh sold by solar and wind plants
+        public double curtailed;      // kWh solar and wind could not store or sell: battery full
+        public long wallMillis;
+
+        Result(int hours) {
+            price = new double[hours];
+            volume = new double[hours];
+        }
+
+        public double meanPrice() {
+            double sum = 0;
+            for (double p : price) sum += p;
+            return price.length == 0 ? Double.NaN : sum / price.length;
+        }
+
+        public double totalVolume() {
+            double sum = 0;
+            for (double v : volume) sum += v;
+            return sum;
+        }
+
+        /** Standard deviation of the hour-to-hour change of the clearing price. */
+        public double priceVolatility() {
+            if (price.length < 2) return 0;
+            double sum = 0, sq = 0;
+            for (int h = 1; h < price.length; h++) {
+                double d = price[h] - price[h - 1];
+                sum += d;
+                sq += d * d;
+            }
+            int n = price.length - 1;
+            double mean = sum / n;
+            return Math.sqrt(Math.max(0, sq / n - mean * mean));
+        }
+
+        /** Share of the energy sold that came from solar and wind plants. */
+        public double renewableShare() {
+            double sold = renewable + conventional;
+            return sold == 0 ? Double.NaN : renewable / sold;
+        }
+    }
+
+    public SimEngine(long seed) {
+        rand = new Random(seed);
+    }
+
+    // ------------------------- setup ------------------------
+    /** The engine's random stream; models built from it keep the run reproducible. */
+    public Random random() { return rand; }
+
+    public void setExpiryTicks(int expiryTicks) { this.expiryTicks = expiryTicks; }
+    public void setBatchAuction(boolean batchAuction) { this.batchAuction = batchAuction; }
+
+    public void setFaults(int period, int duration) {
+        faultPeriod = period;
+        faultDuration = duration;
+    }
+
+    public void setWeather(WeatherModel weather) { this.weather = weather; }
+
+    public void addRenewable(String name, RenewableModel model) { renewables.put(join(name, model), model); }
+    public void addConventional(String name, ConventionalModel model) { conventionals.put(join(name, model), model); }
+    public void addConsumer(String name, ConsumerModel model) { consumers.put(join(name, model), model); }
+
+    private AID join(String name, Participant model) {
+        AID aid = new AID(name, AID.ISGUID);
+        if (owners.put(aid, model) != null) throw new IllegalArgumentException("duplicate participant "+name);
+        return aid;
+    }
+
+    /** The population started by {@code cnergy.Main}. */
+    public static SimEngine defaultScenario(long seed) {
+        return defaultScenario(seed, 0.005, 0.003, 0.14, 0.035, 0.005, 0.005);
+    }
+
+    /**
+     * The population started by {@code cnergy.Main} with other pricing
+     * parameters: the consumers' starting margin, learning rate and utility cap
+     * (EVs pay up to 0.02 less than households), and the producers' base cost,
+     * starting margin and learning rate.
+     */
+    public static SimEngine defaultScenario(long seed, double consumerMargin, double consumerAlpha, double utilityCap,
+                                            double baseCost, double producerMargin, double producerAlpha) {
+        SimEngine engine = new SimEngine(seed);
+        engine.setWeather(new WeatherModel(3, 0.50, 0.50, engine.random()));
+        engine.setFaults(10, 6);
+        engine.addConventional("conventional", new ConventionalModel(0.05));
+        for (int i = 1; i <= 5; i++)
+            engine.addRenewable("solar"+i, new RenewableModel(RenewableModel.Source.SOLAR, 25, 100.0, 1.0, 0.4, baseCost, producerMargin, producerAlpha));
+        for (int i = 1; i <= 5; i++)
+            engine.addRenewable("wind"+i, new RenewableModel(RenewableModel.Source.WIND, 25, 100.0, 1.0, 0.2, baseCost, producerMargin, producerAlpha));
+        double[] homeLoad = {1,1,1,1,1,1, 2,3,3,2,2,2, 2,2,2,2,3,5, 5,4,3,2,1,1};
+        for (int i = 1; i <= 10; i++)
+            engine.addConsumer("household"+i, new ConsumerModel(consumerMargin, consumerAlpha, utilityCap, homeLoad, 1));
+        double[] evLoad = {0,0,0,0,0,0, 0,0,0,0,0,0, 0,0,0,0,8, 8,8,7,7,6,5,4};
+        for (int i = 1; i <= 10; i++)
+            engine.addConsumer("EV"+i, new ConsumerModel(consumerMargin, consumerAlpha, utilityCap - 0.02, evLoad, 1));
+        return engine;
+    }
+
+    // ------------------------- run ------------------------
+    /** Simulate hours 1..{@code hours} (the agents' tickers first fire after one period). One run per engine. */
+    public Result run(int hours) {
+        if (result != null) throw new IllegalStateException("engine already ran");
+        long start = System.nanoTime();
+        result = new Result(hours);
+        if (weather != null) events.every(weather.period(), weather.period(), WEATHER, this::weatherUpdate);
+        if (faultPeriod > 0) events.every(faultPeriod, faultPeriod, FAULT, this::injectFault);
+        events.every(1, 1, MARKET, this::marketHour);
+        events.every(1, 1, BROKER, this::brokerTick);
+        events.runUntil(hours);
+
+        for (ConsumerModel c : consumers.values()) result.backlog += c.backlog();
+        for (ConventionalModel c : conventionals.values()) result.conventional += c.delivered();
+        result.wallMillis = (System.nanoTime() - start) / 1_000_000;
+        return result;
+    }
+
+    private void weatherUpdate() {
+        weather.step();
+        for (RenewableModel m : renewables.values()) {
+            if (weather.isReplay()) {
+                m.setWeather(weather.output(m.source()), weather.isDay());
+                continue;
+            }
+            boolean favourable = m.source() == RenewableModel.Source.SOLAR ? weather.isSunny() : weather.isWindy();
+            m.setWeather(favourable, weather.isDay());
+        }
+    }
+
+    private void injectFault() {
+        int n = renewables.size() + conventionals.size();
+        if (n == 0) return;
+        int victim = rand.nextInt(n);
+        if (victim < renewables.size()) {
+            new ArrayList<>(renewables.values()).get(victim).fault(faultDuration);
+        } else {
+            new ArrayList<>(conventionals.values()).get(victim - renewables.size()).fault(faultDuration);
+        }
+    }
+
+    private void marketHour() {
+        hour = (int) events.now();
+        for (Map.Entry<AID, RenewableModel> e : renewables.entrySet()) {
+            RenewableModel m = e.getValue();
+            m.setLastPrice(lastPrice);
+            if (m.isFaulty() && m.countDownFault()) continue;
+            double available = m.produce();
+            result.curtailed += m.curtailed();
+            if (available == 0) continue;
+            submit(e.getKey(), available, m.askPrice(), true);
+        }
+        for (Map.Entry<AID, ConventionalModel> e : conventionals.entrySet()) {
+            ConventionalModel m = e.getValue();
+            m.setLastPrice(lastPrice);
+            if (m.isFaulty() && m.countDownFault()) continue;
+            submit(e.getKey(), Double.POSITIVE_INFINITY, m.askPrice(), true);
+        }
+        for (Map.Entry<AID, ConsumerModel> e : consumers.entrySet()) {
+            ConsumerModel m = e.getValue();
+            double demand = m.demand();
+            if (demand == 0) continue;
+            submit(e.getKey(), demand, m.bidPrice(), false);
+        }
+    }
+
+    private void brokerTick() {
+        if (batchAuction) book.auction(this::onTrade);
+        book.expire(hour, order -> owners.get(order.owner).onReject());
+        result.price[hour - 1] = lastPrice;
+    }
+
+    private void submit(AID owner, double qty, double price, boolean seller) {
+        book.add(owner, qty, price, seller, hour + expiryTicks);
+        if (!batchAuction) book.match(this::onTrade);
+    }
+
+    private void onTrade(OrderBook.Order buy, OrderBook.Order sell, double qty, double price) {
+        lastPrice = price;
+        owners.get(sell.owner).onFill(qty, price);
+        owners.get(buy.owner).onFill(qty, price);
+        if (renewables.containsKey(sell.owner)) result.renewable += qty;
+        result.trades++;
+        result.volume[hour - 1] += qty;
+    }
+
+    // ------------------------- command line ------------------------
+    /** {@code SimEngine [hours] [seed] [weather series]} - fast-forward the default scenario and print a summary. */
+    public static void main(String[] args) throws IOException {
+        int hours = args.length > 0 ? Integer.parseInt(args[0]) : 24 * 30;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+
+        SimEngine engine = defaultScenario(seed);
+        WeatherSeries series = args.length > 2 ? new WeatherSeries(args[2]) : null;
+        if (series != null) engine.setWeather(new WeatherModel(3, series, 0)); // first site of the recording
+        Result r = engine.run(hours);
+        if (series != null) series.close();
+        System.out.printf("Simulated %d h (%.1f days) in %d ms%n", hours, hours / 24.0, r.wallMillis);
+        System.out.printf("trades: %d | volume: %.1f kWh | mean price: %.4f | backup: %.1f kWh | unmet demand: %.1f kWh%n",
+                r.trades, r.totalVolume(), r.meanPrice(), r.conventional, r.backlog);
+    }
+}
@@ -0,0 +1,312 @@
+package cnergy.sim;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Calibration of a scenario's parameters: many candidate settings, drawn on a
+ * grid or by Latin-hypercube sampling, run concurrently on a
+ * {@link ForkJoinPool} and whittled down by successive halving.
+ * <p>
+ * In the first rung every candidate gets {@code minRuns} seeded runs. The best
+ * {@code 1/eta} of them go on to the next rung, where they are topped up to
+ * {@code eta} times as many runs, and so on until one candidate is left or the
+ * survivors have {@code maxRuns} runs. Run {@code i} of every candidate uses the
+ * same seed ({@link MonteCarlo#seed}), so candidates are compared on the same
+ * weather and faults, and a sweep depends only on its base seed.
+ * <p>
+ * A candidate is judged on the means over its runs of the price volatility, the
+ * unmet demand and the curtailed output. The score weighs each metric against
+ * its mean over the rung's candidates, so the weights are relative and the
+ * metrics' units don't matter. Lower is better.
+ */
+public class Sweep {
+
+    /** A swept parameter, drawn between {@code lo} and {@code hi}. */
+    public static final class Param {
+        public final String name;
+        public final double lo, hi;
+
+        public Param(String name, double lo, double hi) {
+            this.name = name;
+            this.lo = lo;
+            this.hi = hi;
+        }
+    }
+
+    /** Builds the engine of one run from a candidate's parameter values and a seed. */
+    public interface Scenario {
+        SimEngine build(double[] x, long seed);
+    }
+
+    /** One setting and the running means of its metrics. */
+    public static final class Candidate {
+        public final double[] x;
+        public int runs;
+        public double score = Double.NaN;  // in the last rung it ran
+        private final double[] sum = new double[METRICS];
+        private final double[][] results;  // per run, written by the pool
+
+        Candidate(double[] x, int maxRuns) {
+            this.x = x;
+            results = new double[maxRuns][];
+        }
+
+        public double volatility() { return mean(VOLATILITY); }
+        public double unmet()      { return mean(UNMET); }
+        public double curtailed()  { return mean(CURTAILED); }
+        public double meanPrice()  { return mean(PRICE); }
+
+        private double mean(int metric) {
+            return runs == 0 ? Double.NaN : sum[metric] / runs;
+        }
+    }
+
+    private static final int VOLATILITY = 0, UNMET = 1, CURTAILED = 2, PRICE = 3, METRICS = 4;
+
+    // ------------------------ Parameters ------------------------
+    private final List<Param> params;
+    private final Scenario scenario;
+    private final int hours;
+    private final long seed;
+    private final double[] weights = {1, 1, 1}; // volatility, unmet, curtailed
+    private int minRuns = 2;
+    private int eta = 3;
+    private int maxRuns = 18;
+
+    // ------------------------- Internal state ------------------------
+    private final AtomicInteger done = new AtomicInteger();
+
+    /** Sweeps of {@code params} over runs of {@code hours} hours of the engines {@code scenario} builds. */
+    public Sweep(List<Param> params, Scenario scenario, int hours, long seed) {
+        this.params = params;
+        this.scenario = scenario;
+        this.hours = hours;
+        this.seed = seed;
+    }
+
+    public void setWeights(double volatility, double unmet, double curtailed) {
+        weights[VOLATILITY] = volatility;
+        weights[UNMET] = unmet;
+        weights[CURTAILED] = curtailed;
+    }
+
+    /** Runs per candidate in the first rung, the fraction kept per rung ({@code 1/eta}), and the most runs per candidate. */
+    public void setHalving(int minRuns, int eta, int maxRuns) {
+        if (minRuns < 1 || eta < 2 || maxRuns < minRuns) throw new IllegalArgumentException("halving "+minRuns+"/"+eta+"/"+maxRuns);
+        this.minRuns = minRuns;
+        this.eta = eta;
+        this.maxRuns = maxRuns;
+    }
+
+    // ------------------------- sampling ------------------------
+    /** Every combination of {@code points} evenly spaced values per parameter, ends included. */
+    public static List<double[]> grid(List<Param> params, int points) {
+        List<double[]> out = new ArrayList<>();
+        int[] at = new int[params.size()];
+        while (true) {
+            double[] x = new double[params.size()];
+            for (int d = 0; d < x.length; d++) {
+                Param p = params.get(d);
+                x[d] = points == 1 ? (p.lo + p.hi) / 2 : p.lo + (p.hi - p.lo) * at[d] / (points - 1);
+            }
+            out.add(x);
+            int d = 0;
+            while (d < at.length && ++at[d] == points) at[d++] = 0;
+            if (d == at.length) return out;
+        }
+    }
+
+    /** {@code n} points, one in each of the {@code n} strata of every parameter. */
+    public static List<double[]> latinHypercube(List<Param> params, int n, long seed) {
+        Random rand = new Random(seed);
+        double[][] x = new double[n][params.size()];
+        int[] strata = new int[n];
+        for (int d = 0; d < params.size(); d++) {
+            Param p = params.get(d);
+            for (int i = 0; i < n; i++) strata[i] = i;
+            for (int i = n - 1; i > 0; i--) { // Fisher-Yates
+                int j = rand.nextInt(i + 1);
+                int t = strata[i]; strata[i] = strata[j]; strata[j] = t;
+            }
+            for (int i = 0; i < n; i++) x[i][d] = p.lo + (p.hi - p.lo) * (strata[i] + rand.nextDouble()) / n;
+        }
+        return new ArrayList<>(Arrays.asList(x));
+    }
+
+    // ------------------------- run ------------------------
+    /**
+     * Sweep {@code points} on {@code pool}. Returns every candidate, best first:
+     * the last rung's survivors by score, then those dropped one rung earlier,
+     * and so on.
+     */
+    public List<Candidate> run(List<double[]> points, ForkJoinPool pool) {
+        done.set(0);
+        List<Candidate> all = new ArrayList<>();
+        for (double[] x : points) {
+            if (x.length != params.size()) throw new IllegalArgumentException(x.length+" values for "+params.size()+" parameters");
+            all.add(new Candidate(x, maxRuns));
+        }
+        List<Candidate> rung = new ArrayList<>(all);
+        int runs = minRuns;
+        while (!rung.isEmpty()) {
+            pool.invoke(new Runs(jobs(rung, runs), 0, rung.size() * runs));
+            score(rung);
+            if (rung.size() == 1 || runs >= maxRuns) break;
+            rung = new ArrayList<>(rung.subList(0, Math.max(1, rung.size() / eta)));
+            runs = Math.min(maxRuns, runs * eta);
+        }
+        all.sort(Comparator.comparingInt((Candidate c) -> -c.runs).thenComparingDouble(c -> c.score));
+        return all;
+    }
+
+    /** Runs finished so far in the current sweep; safe to poll from another thread. */
+    public int done() {
+        return done.get();
+    }
+
+    /** The runs that top every candidate of {@code rung} up to {@code runs}; empty slots where it has them. */
+    private Job[] jobs(List<Candidate> rung, int runs) {
+        Job[] jobs = new Job[rung.size() * runs];
+        int k = 0;
+        for (Candidate c : rung) {
+            for (int i = 0; i < runs; i++, k++) if (i >= c.runs) jobs[k] = new Job(c, i);
+        }
+        return jobs;
+    }
+
+    /** Fold the rung's finished runs into its candidates and sort it, best first. */
+    private void score(List<Candidate> rung) {
+        double[] scale = new double[METRICS];
+        for (Candidate c : rung) {
+            c.runs = 0;
+            Arrays.fill(c.sum, 0);
+            for (double[] m : c.results) {
+                if (m == null) break;
+                for (int k = 0; k < METRICS; k++) c.sum[k] += m[k];
+                c.runs++;
+            }
+            for (int k = 0; k < METRICS; k++) scale[k] += c.mean(k) / rung.size();
+        }
+        for (Candidate c : rung) {
+            c.score = 0;
+            for (int k = 0; k < weights.length; k++) {
+                if (scale[k] > 0) c.score += weights[k] * c.mean(k) / scale[k];
+            }
+        }
+        rung.sort(Comparator.comparingDouble(c -> c.score));
+    }
+
+    private static final class Job {
+        final Candidate candidate;
+        final int run;
+
+        Job(Candidate candidate, int run) {
+            this.candidate = candidate;
+            this.run = run;
+        }
+    }
+
+    private final class Runs extends RecursiveAction {
+        private final Job[] jobs;
+        private final int from, to;
+
+        Runs(Job[] jobs, int from, int to) {
+            this.jobs = jobs;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                if (to > from && jobs[from] != null) run(jobs[from]);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Runs(jobs, from, mid), new Runs(jobs, mid, to));
+        }
+    }
+
+    private void run(Job job) {
+        SimEngine.Result r = scenario.build(job.candidate.x, MonteCarlo.seed(seed, job.run)).run(hours);
+        double[] m = new double[METRICS];
+        m[VOLATILITY] = r.priceVolatility();
+        m[UNMET] = r.backlog;
+        m[CURTAILED] = r.curtailed;
+        m[PRICE] = r.meanPrice();
+        job.candidate.results[job.run] = m;
+        done.incrementAndGet();
+    }
+
+    // ------------------------- pricing ------------------------
+    /** The pricing parameters of the default scenario, in the order {@link #pricing} takes them, and their swept ranges. */
+    public static final List<Param> PRICING = Collections.unmodifiableList(Arrays.asList(
+            new Param("consumer margin", 0.001, 0.02),
+            new Param("consumer alpha", 0.0005, 0.01),
+            new Param("utility cap", 0.08, 0.25),
+            new Param("producer baseCost", 0.02, 0.06),
+            new Param("producer margin", 0.0, 0.03),
+            new Param("producer alpha", 0.001, 0.02)));
+
+    /** The values {@code cnergy.Main} starts with. */
+    public static final double[] PRICING_DEFAULTS = {0.005, 0.003, 0.14, 0.035, 0.005, 0.005};
+
+    /** The default scenario with pricing {@code x}. */
+    public static SimEngine pricing(double[] x, long seed) {
+        return SimEngine.defaultScenario(seed, x[0], x[1], x[2], x[3], x[4], x[5]);
+    }
+
+    // ------------------------- command line ------------------------
+    /**
+     * {@code Sweep [lhs|grid] [samples] [hours] [seed] [threads]} - calibrate the
+     * default scenario's pricing: {@code samples} Latin-hypercube points, or a
+     * grid of {@code samples} values per parameter, plus the current defaults.
+     */
+    public static void main(String[] args) {
+        boolean grid = args.length > 0 && args[0].equals("grid");
+        int samples = args.length > 1 ? Integer.parseInt(args[1]) : grid ? 3 : 243;
+        int hours = args.length > 2 ? Integer.parseInt(args[2]) : 24 * 30;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+        int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+
+        List<double[]> points = grid ? grid(PRICING, samples) : latinHypercube(PRICING, samples, seed);
+        points.add(0, PRICING_DEFAULTS);
+        Sweep sweep = new Sweep(PRICING, Sweep::pricing, hours, seed);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long start = System.nanoTime();
+        Thread progress = new Thread(() -> {
+            try {
+                while (true) {
+                    Thread.sleep(2000);
+                    System.err.printf("%d runs, %.0f s%n", sweep.done(), (System.nanoTime() - start) / 1e9);
+                }
+            } catch (InterruptedException e) {
+                // sweep over
+            }
+        }, "cnergy-sweep");
+        progress.setDaemon(true);
+        progress.start();
+        List<Candidate> ranked = sweep.run(points, pool);
+        progress.interrupt();
+        pool.shutdown();
+
+        System.out.printf("%d candidates, %d runs of %d h on %d threads in %.1f s%n", points.size(), sweep.done(), hours, threads, (System.nanoTime() - start) / 1e9);
+        StringBuilder head = new StringBuilder(String.format("%5s %5s %8s", "rank", "runs", "score"));
+        for (Param p : PRICING) head.append(String.format(" %18s", p.name));
+        head.append(String.format(" %10s %10s %10s %10s", "volatility", "unmet kWh", "curtailed", "mean price"));
+        System.out.println(head);
+        for (int i = 0; i < ranked.size(); i++) {
+            Candidate c = ranked.get(i);
+            boolean defaults = c.x == PRICING_DEFAULTS;
+            if (i >= 10 && !defaults) continue;
+            StringBuilder row = new StringBuilder(String.format("%5s %5d %8.3f", (i + 1) + (defaults ? "*" : ""), c.runs, c.score));
+            for (double v : c.x) row.append(String.format(" %18.4f", v));
+            row.append(String.format(" %10.4f %10.1f %10.1f %10.4f", c.volatility(), c.unmet(), c.curtailed(), c.meanPrice()));
+            System.out.println(row);
+        }
+        System.out.println("* the current defaults");
+    }
+}
@@ -0,0 +1,118 @@
+package cnergy.sim;
+
+import java.util.Random;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Time of day and random sun / wind draws, advanced by {@code period} hours per
+ * step. Used by {@link cnergy.agents.WeatherAgent} and the {@link SimEngine};
+ * pass a seeded {@link Random}, or any seeded source of uniform draws, for a
+ * reproducible run.
+ * <p>
+ * Given a {@link WeatherSeries}, the model replays one of its sites instead:
+ * {@link #output} turns the recorded irradiance, temperature and wind speed
+ * into the share of capacity a plant produces, and the SUNNY / WINDY tokens are
+ * thresholds on the same values.
+ */
+public class WeatherModel {
+
+    // ------------------------ Parameters ------------------------
+    private final int period;
+    private final double solarProb;
+    private final double windProb;
+    private final DoubleSupplier draw; // uniform [0, 1)
+    private final WeatherSeries series; // replay, or null
+    private final int site;
+
+    // PV: rated at 1000 W/m², -0.4 %/°C above a 25 °C cell, cell ~ air + 0.03 °C per W/m²
+    static final double STC_IRRADIANCE = 1000, PV_TEMP_COEFF = -0.004, CELL_HEATING = 0.03;
+    // turbine power curve, m/s
+    static final double CUT_IN = 3, RATED = 12, CUT_OUT = 25;
+    public static final double SUNNY_IRRADIANCE = 300; // W/m²
+    public static final double WINDY_SPEED = 6;        // m/s
+
+    // ------------------------- Internal state ------------------------
+    private int tick = 0;
+    private int hour = 0;
+    private boolean day = false;
+    private boolean sunny = false;
+    private boolean windy = false;
+    private double irradiance = 0, windSpeed = 0, temperature = 0;
+
+    public WeatherModel(int period, double solarProb, double windProb, Random rand) {
+        this(period, solarProb, windProb, rand::nextDouble);
+    }
+
+    /** Draws from {@code draw}, e.g. {@code splittableRandom::nextDouble}. */
+    public WeatherModel(int period, double solarProb, double windProb, DoubleSupplier draw) {
+        this.period = period;
+        this.solarProb = solarProb;
+        this.windProb = windProb;
+        this.draw = draw;
+        this.series = null;
+        this.site = 0;
+    }
+
+    /** Replay {@code site} of {@code series}; several models may share one series if they step together. */
+    public WeatherModel(int period, WeatherSeries series, int site) {
+        this.period = period;
+        this.solarProb = 0;
+        this.windProb = 0;
+        this.draw = null;
+        this.series = series;
+        this.site = site;
+    }
+
+    public void step() {
+        tick = tick + period;
+        hour = tick % 24;
+
+        day = hour >= 7 && hour <= 21;
+        if (series == null) {
+            sunny = draw.getAsDouble() < solarProb;
+            windy = draw.getAsDouble() < windProb;
+            return;
+        }
+        series.seek(tick);
+        irradiance = series.irradiance(site);
+        windSpeed = series.windSpeed(site);
+        temperature = series.temperature(site);
+        sunny = irradiance >= SUNNY_IRRADIANCE;
+        windy = windSpeed >= WINDY_SPEED;
+    }
+
+    /** Share of its capacity a {@code source} plant produces in the replayed weather. */
+    public double output(RenewableModel.Source source) {
+        return source == RenewableModel.Source.SOLAR ? solarOutput(irradiance, temperature) : windOutput(windSpeed);
+    }
+
+    public static double solarOutput(double irradiance, double temperature) {
+        if (irradiance <= 0) return 0;
+        double cell = temperature + CELL_HEATING * irradiance;
+        return Math.max(0, irradiance / STC_IRRADIANCE * (1 + PV_TEMP_COEFF * (cell - 25)));
+    }
+
+    /** Cubic between cut-in and rated speed, full output up to cut-out. */
+    public static double windOutput(double speed) {
+        if (speed < CUT_IN || speed >= CUT_OUT) return 0;
+        if (speed >= RATED) return 1;
+        double in3 = CUT_IN * CUT_IN * CUT_IN;
+        return (speed * speed * speed - in3) / (RATED * RATED * RATED - in3);
+    }
+
+    public int period()        { return period; }
+    public int tick()          { return tick; }
+    public int hour()          { return hour; }
+    public boolean isDay()     { return day; }
+    public boolean isSunny()   { return sunny; }
+    public boolean isWindy()   { return windy; }
+    public boolean isReplay()  { return series != null; }
+    public int site()          { return site; }
+    public double irradiance() { return irradiance; }
+    public double windSpeed()  { return windSpeed; }
+    public double temperature() { return temperature; }
+
+    public String timeToken()  { return day ? "DAY" : "NIGHT"; }
+    public String solarToken() { return sunny ? "SUNNY" : "CLOUDY"; }
+    public String windToken()  { return windy ? "WINDY" : "CALM"; }
+}
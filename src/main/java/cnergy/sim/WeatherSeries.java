@@ -0,0 +1,266 @@
+package cnergy.sim;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Recorded hourly weather of one or more sites, read from a memory-mapped
+ * binary file: global horizontal irradiance (W/m²), wind speed at hub height
+ * (m/s) and air temperature (°C).
+ * <p>
+ * The file is mapped one chunk at a time, never loaded into the heap. A reader
+ * moving forward through it has the next chunk mapped and paged in on a
+ * background thread ("cnergy-weather") while it works through the current one.
+ * Hours past the end wrap around to the start of the recording, so a one-year
+ * file drives a run of any length.
+ * <pre>
+ *  header : int MAGIC | int VERSION | int sites | int hours | int data offset,
+ *           then per site short length + UTF-8 name; data starts 64-byte aligned
+ *
+ *  data   : hour-major, one 12-byte little-endian record per site
+ *           offset 0 float irradiance | 4 float wind | 8 float temperature
+ * </pre>
+ * The recording starts at midnight. Build the file from a CSV with
+ * {@link #convert}: {@code java cnergy.sim.WeatherSeries weather.csv weather.bin}.
+ */
+public final class WeatherSeries implements Closeable {
+
+    static final int MAGIC = 0x434E5758; // "CNWX"
+    static final int VERSION = 1;
+    static final int RECORD = 12;
+    static final int CHUNK = 16 << 20;
+    private static final int HEADER = 64;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final String[] sites;
+    private final int hours;
+    private final long data;            // file offset of hour 0
+    private final int stride;           // bytes per hour
+    private final int chunkHours;
+    private final ExecutorService prefetch;
+    private MappedByteBuffer buf;
+    private int first = -1;             // first hour in buf
+    private Future<MappedByteBuffer> next;
+    private int nextFirst = -1;
+    private int at;                     // offset of the current hour in buf
+
+    public WeatherSeries(String path) throws IOException {
+        this(path, CHUNK);
+    }
+
+    WeatherSeries(String path, int chunk) throws IOException {
+        file = new RandomAccessFile(path, "r");
+        channel = file.getChannel();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+            if (channel.size() < HEADER || in.readInt() != MAGIC) throw new IOException(path + " is not a weather series");
+            if (in.readInt() != VERSION) throw new IOException(path + ": unsupported weather series version");
+            sites = new String[in.readInt()];
+            hours = in.readInt();
+            data = in.readInt();
+            in.skipBytes(HEADER - 20);
+            for (int s = 0; s < sites.length; s++) {
+                byte[] utf = new byte[in.readUnsignedShort()];
+                in.readFully(utf);
+                sites[s] = new String(utf, StandardCharsets.UTF_8);
+            }
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+        stride = sites.length * RECORD;
+        if (sites.length == 0 || hours <= 0 || data + (long) hours * stride > channel.size()) {
+            file.close();
+            throw new IOException(path + ": truncated weather series");
+        }
+        chunkHours = Math.max(1, Math.min(hours, chunk / stride));
+        prefetch = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "cnergy-weather");
+            t.setDaemon(true);
+            return t;
+        });
+        seek(0);
+    }
+
+    public int hours()            { return hours; }
+    public int sites()            { return sites.length; }
+    public String site(int s)     { return sites[s]; }
+
+    /** Index of the site called {@code name}, or -1. */
+    public int site(String name) {
+        return Arrays.asList(sites).indexOf(name);
+    }
+
+    /** Move to hour {@code hour} of the run, wrapping around the recording; cheap when moving forward. */
+    public void seek(long hour) {
+        int h = (int) Math.floorMod(hour, (long) hours);
+        if (buf == null || h < first || h >= first + chunkHours) {
+            buf = chunk(h / chunkHours * chunkHours);
+        }
+        at = (h - first) * stride;
+        if (next == null && h - first >= chunkHours / 2) {
+            final int following = first + chunkHours < hours ? first + chunkHours : 0;
+            if (following != first) {
+                nextFirst = following;
+                next = prefetch.submit(() -> map(following).load());
+            }
+        }
+    }
+
+    // current hour, site s
+    public double irradiance(int site)  { return buf.getFloat(at + site * RECORD); }
+    public double windSpeed(int site)   { return buf.getFloat(at + site * RECORD + 4); }
+    public double temperature(int site) { return buf.getFloat(at + site * RECORD + 8); }
+
+    private MappedByteBuffer chunk(int start) {
+        try {
+            MappedByteBuffer b = null;
+            if (next != null) {
+                if (nextFirst == start) b = next.get();
+                else next.cancel(false);
+                next = null;
+            }
+            first = start;
+            return b != null ? b : map(start);
+        } catch (IOException | ExecutionException e) {
+            throw new IllegalStateException("weather series at hour " + start, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted mapping the weather series", e);
+        }
+    }
+
+    private MappedByteBuffer map(int start) throws IOException {
+        int count = Math.min(chunkHours, hours - start);
+        MappedByteBuffer b = channel.map(FileChannel.MapMode.READ_ONLY, data + (long) start * stride, (long) count * stride);
+        b.order(ByteOrder.LITTLE_ENDIAN);
+        return b;
+    }
+
+    @Override
+    public void close() throws IOException {
+        prefetch.shutdownNow();
+        channel.close();
+        file.close();
+    }
+
+    // ------------------------ Conversion ------------------------
+
+    /**
+     * Convert a CSV recording to a series file, streaming. The first line names
+     * the columns: a time column (ignored), then three per site in the order
+     * {@code <site>.ghi}, {@code <site>.wind}, {@code <site>.temp}. One line per
+     * hour follows. Returns the number of hours written.
+     */
+    public static int convert(String csv, String out) throws IOException {
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(csv), StandardCharsets.UTF_8), 1 << 16);
+             RandomAccessFile file = new RandomAccessFile(out, "rw")) {
+            file.setLength(0);
+            String line = in.readLine();
+            if (line == null) throw new IOException(csv + " is empty");
+            List<String> sites = sites(line.split(","), csv);
+
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            DataOutputStream h = new DataOutputStream(header);
+            h.write(new byte[HEADER]);
+            for (String site : sites) {
+                byte[] utf = site.getBytes(StandardCharsets.UTF_8);
+                h.writeShort(utf.length);
+                h.write(utf);
+            }
+            int data = (header.size() + HEADER - 1) / HEADER * HEADER;
+            FileChannel channel = file.getChannel();
+            channel.position(data);
+
+            int columns = 1 + 3 * sites.size();
+            ByteBuffer b = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            int hours = 0, lineNo = 1;
+            while ((line = in.readLine()) != null) {
+                lineNo++;
+                if (line.isEmpty()) continue;
+                String[] cells = line.split(",", -1);
+                if (cells.length != columns) throw new IOException(csv + ":" + lineNo + ": expected " + columns + " columns, got " + cells.length);
+                if (b.remaining() < columns * 4) flush(b, channel);
+                for (int c = 1; c < columns; c++) {
+                    try {
+                        b.putFloat(Float.parseFloat(cells[c].trim()));
+                    } catch (NumberFormatException e) {
+                        throw new IOException(csv + ":" + lineNo + ": bad value '" + cells[c] + "'");
+                    }
+                }
+                hours++;
+            }
+            flush(b, channel);
+            if (hours == 0) throw new IOException(csv + ": no data");
+
+            ByteBuffer head = ByteBuffer.wrap(header.toByteArray());
+            head.putInt(MAGIC).putInt(VERSION).putInt(sites.size()).putInt(hours).putInt(data);
+            head.rewind();
+            channel.write(head, 0);
+            return hours;
+        }
+    }
+
+    private static List<String> sites(String[] header, String csv) throws IOException {
+        if (header.length < 4 || (header.length - 1) % 3 != 0) throw new IOException(csv + ": expected time + 3 columns per site");
+        String[] suffix = {".ghi", ".wind", ".temp"};
+        List<String> sites = new ArrayList<>();
+        for (int c = 1; c < header.length; c += 3) {
+            String site = null;
+            for (int k = 0; k < 3; k++) {
+                String col = header[c + k].trim();
+                if (!col.endsWith(suffix[k])) throw new IOException(csv + ": column " + (c + k + 1) + " should be <site>" + suffix[k] + ", is '" + col + "'");
+                String name = col.substring(0, col.length() - suffix[k].length());
+                if (site != null && !site.equals(name)) throw new IOException(csv + ": column " + (c + k + 1) + " belongs to " + name + ", expected " + site);
+                site = name;
+            }
+            sites.add(site);
+        }
+        return sites;
+    }
+
+    private static void flush(ByteBuffer b, FileChannel channel) throws IOException {
+        b.flip();
+        while (b.hasRemaining()) channel.write(b);
+        b.clear();
+    }
+
+    /** {@code WeatherSeries <in.csv> <out.bin>} converts; {@code WeatherSeries <file.bin>} prints per-site means. */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: WeatherSeries <in.csv> <out.bin> | <file.bin>");
+            return;
+        }
+        if (args.length > 1) {
+            long start = System.nanoTime();
+            int hours = convert(args[0], args[1]);
+            System.err.printf("%d hours (%.1f years) written to %s in %.3f s%n", hours, hours / 8760.0, args[1], (System.nanoTime() - start) / 1e9);
+            return;
+        }
+        try (WeatherSeries series = new WeatherSeries(args[0])) {
+            int n = series.sites();
+            double[] ghi = new double[n], wind = new double[n], temp = new double[n];
+            for (int h = 0; h < series.hours(); h++) {
+                series.seek(h);
+                for (int s = 0; s < n; s++) {
+                    ghi[s] += series.irradiance(s);
+                    wind[s] += series.windSpeed(s);
+                    temp[s] += series.temperature(s);
+                }
+            }
+            System.out.printf("%d hours, %d sites%n", series.hours(), n);
+            for (int s = 0; s < n; s++) {
+                System.out.printf("%-16s ghi %.1f W/m2 | wind %.2f m/s | temp %.1f C%n", series.site(s),
+                        ghi[s] / series.hours(), wind[s] / series.hours(), temp[s] / series.hours());
+            }
+        }
+    }
+}
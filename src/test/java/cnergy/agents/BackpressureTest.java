@@ -0,0 +1,98 @@
+package cnergy.agents;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import jade.core.AID;
+import jade.lang.acl.ACLMessage;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Inbox conflation in the broker and the client side of the backpressure signal.
+ */
+public class BackpressureTest
+    extends TestCase
+{
+    public BackpressureTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( BackpressureTest.class );
+    }
+
+    /**
+     * Only the newest plain quote per owner and side survives; amends, batches
+     * and other performatives are kept. Each dropped quote is handed back.
+     */
+    public void testConflation()
+    {
+        AID solar = new AID( "solar1", AID.ISGUID );
+        AID ev = new AID( "EV1", AID.ISGUID );
+        ACLMessage[] inbox = {
+            quote( solar, true, 10 ),
+            quote( ev, false, 4 ),
+            quote( solar, true, 12 ),
+            amend( ev ),
+            new ACLMessage( ACLMessage.CANCEL ),
+            quote( solar, false, 1 ),
+            quote( solar, true, 15 ),
+        };
+        ACLMessage first = inbox[0], second = inbox[2];
+        List<ACLMessage> rejected = new ArrayList<>();
+        int dropped = BrokerAgent.conflate( inbox, inbox.length, new MarketCodec.Reader(), new HashSet<AID>(), new HashSet<AID>(), rejected::add );
+        assertEquals( 2, dropped );
+        assertEquals( 2, rejected.size() );
+        assertSame( second, rejected.get( 0 ) );
+        assertSame( first, rejected.get( 1 ) );
+        assertNull( inbox[0] );
+        assertNotNull( inbox[1] );
+        assertNull( inbox[2] );
+        assertNotNull( inbox[3] );
+        assertNotNull( inbox[5] );
+        assertEquals( 15.0, new MarketCodec.Reader().wrap( inbox[6] ).qty(), 0 );
+    }
+
+    public void testThrottle()
+    {
+        ACLMessage msg = new ACLMessage( ACLMessage.INFORM );
+        MarketCodec.Reader reader = new MarketCodec.Reader();
+        Backpressure bp = new Backpressure();
+        assertTrue( bp.admit() );
+
+        MarketCodec.writeLoad( msg, true, 12000 );
+        bp.update( reader.wrap( msg ) );
+        assertTrue( bp.isOverloaded() );
+        assertEquals( 12000, reader.queued() );
+        int admitted = 0;
+        for ( int tick = 0; tick < 3 * Backpressure.EVERY; tick++ ) if ( bp.admit() ) admitted++;
+        assertEquals( 3, admitted );
+
+        MarketCodec.writeLoad( msg, false, 100 );
+        bp.update( reader.wrap( msg ) );
+        assertTrue( bp.admit() );
+        assertTrue( bp.admit() );
+    }
+
+    private static ACLMessage quote( AID owner, boolean sell, double qty )
+    {
+        ACLMessage msg = new ACLMessage( ACLMessage.PROPOSE );
+        msg.setSender( owner );
+        MarketCodec.writeOrder( msg, 0, sell, qty, 0.05 );
+        return msg;
+    }
+
+    private static ACLMessage amend( AID owner )
+    {
+        ACLMessage msg = new ACLMessage( ACLMessage.PROPOSE );
+        msg.setSender( owner );
+        MarketCodec.writeAmend( msg, 2, 1, false, 3, 0.1 );
+        return msg;
+    }
+}
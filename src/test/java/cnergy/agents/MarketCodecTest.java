@@ -0,0 +1,132 @@
+package cnergy.agents;
+
+import java.nio.charset.StandardCharsets;
+
+import jade.lang.acl.ACLMessage;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Binary and text layouts decode to the same values.
+ */
+public class MarketCodecTest
+    extends TestCase
+{
+    public MarketCodecTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( MarketCodecTest.class );
+    }
+
+    public void testBinaryFillRoundTrip()
+    {
+        ACLMessage msg = new ACLMessage( ACLMessage.ACCEPT_PROPOSAL );
+        MarketCodec.writeFill( msg, 42, 7, 12.5, 0.043, "wind3" );
+
+        MarketCodec.Reader reader = new MarketCodec.Reader().wrap( msg );
+        assertEquals( 42, reader.id() );
+        assertEquals( 7, reader.clientId() );
+        assertEquals( 12.5, reader.qty(), 0 );
+        assertEquals( 0.043, reader.price(), 0 );
+        assertEquals( "wind3", reader.name() );
+    }
+
+    /**
+     * Names are UTF-8 by code point, in a payload of exactly the encoded size.
+     */
+    public void testNameEncoding()
+    {
+        ACLMessage msg = new ACLMessage( ACLMessage.ACCEPT_PROPOSAL );
+        MarketCodec.Reader reader = new MarketCodec.Reader();
+        for ( String name : new String[] { "wind3", "caf\u00e9", "\u98a8\u529b", "solar\uD83C\uDF1E", "bad\uD83C" } )
+        {
+            byte[] utf8 = name.getBytes( StandardCharsets.UTF_8 );
+            MarketCodec.writeFill( msg, 1, 2, 3, 4, name );
+            assertEquals( name, 34 + 2 + utf8.length, msg.getByteSequenceContent().length );
+            assertEquals( new String( utf8, StandardCharsets.UTF_8 ), reader.wrap( msg ).name() );
+        }
+    }
+
+    /**
+     * A feed delta replays its events in order, with the sequence number first.
+     */
+    public void testFeedDeltaRoundTrip()
+    {
+        MarketDataFeed feed = new MarketDataFeed( 2 );
+        feed.add( 1, true, 20.0, 0.04, "solar1" );
+        feed.trade( "solar1", "EV10", Double.POSITIVE_INFINITY, 0.04 );
+        feed.remove( 1 );
+        ACLMessage msg = new ACLMessage( ACLMessage.INFORM );
+        feed.flush( msg );
+        assertTrue( feed.isEmpty() );
+
+        final StringBuilder seen = new StringBuilder();
+        MarketDataFeed.read( msg, new MarketDataFeed.Handler() {
+            public void onDelta( int shard, long seq, boolean snapshot ) { seen.append( "delta " ).append( shard ).append( '/' ).append( seq ).append( snapshot ? " snapshot" : "" ); }
+            public void onAdd( long id, boolean sell, double qty, double price, String owner ) { seen.append( "|add " ).append( id ).append( sell ? " sell " : " buy " ).append( qty ).append( ' ' ).append( owner ); }
+            public void onRemove( long id ) { seen.append( "|remove " ).append( id ); }
+            public void onTrade( String seller, String buyer, double qty, double price ) { seen.append( "|trade " ).append( seller ).append( ' ' ).append( buyer ).append( ' ' ).append( qty ); }
+        } );
+        assertEquals( "delta 2/1|add 1 sell 20.0 solar1|trade solar1 EV10 Infinity|remove 1", seen.toString() );
+    }
+
+    /**
+     * Legacy text content is read by key, whatever the field order.
+     */
+    public void testTextOrder()
+    {
+        ACLMessage msg = new ACLMessage( ACLMessage.PROPOSE );
+        msg.setLanguage( MarketCodec.TEXT );
+        msg.setContent( "id=3;side=sell;qty=10.0;price=0.055" );
+
+        MarketCodec.Reader reader = new MarketCodec.Reader().wrap( msg );
+        assertEquals( 3, reader.id() );
+        assertTrue( reader.isSell() );
+        assertEquals( 10.0, reader.qty(), 0 );
+        assertEquals( 0.055, reader.price(), 0 );
+
+        msg.setContent( "name=conventional;prod=Infinity;fault=true" );
+        reader.wrap( msg );
+        assertTrue( Double.isNaN( reader.soc() ) );
+        assertTrue( reader.isFault() );
+        assertEquals( "conventional", reader.name() );
+    }
+
+    /**
+     * A batch keeps every order's client id, in both formats.
+     */
+    public void testOrderBatchRoundTrip()
+    {
+        long[] ids = { 1L << 32 | 1, 1L << 32 | 2, 1L << 32 | 3 };
+        double[] qty = { 1.5, 2.0, 3.25 };
+        double[] price = { 0.1, 0.11, 0.12 };
+        ACLMessage msg = new ACLMessage( ACLMessage.PROPOSE );
+        MarketCodec.writeOrders( msg, false, ids, qty, price, 1, 3 );
+
+        MarketCodec.Reader reader = new MarketCodec.Reader().wrap( msg );
+        assertTrue( reader.isBatch() );
+        assertFalse( reader.isSell() );
+        assertEquals( 2, reader.count() );
+        assertEquals( ids[2], reader.id( 1 ) );
+        assertEquals( 2.0, reader.qty( 0 ), 0 );
+        assertEquals( 0.12, reader.price( 1 ), 0 );
+
+        msg.setLanguage( MarketCodec.TEXT );
+        msg.setContent( "side=sell;orders=4294967297:1.5:0.1,4294967298:2.0:0.11" );
+        reader.wrap( msg );
+        assertTrue( reader.isBatch() );
+        assertTrue( reader.isSell() );
+        assertEquals( 2, reader.count() );
+        assertEquals( ids[1], reader.id( 1 ) );
+        assertEquals( 0.11, reader.price( 1 ), 0 );
+
+        MarketCodec.writeFill( msg, 42, 7, 12.5, 0.043, "wind3" );
+        assertFalse( reader.wrap( msg ).isBatch() );
+    }
+}
@@ -0,0 +1,177 @@
+package cnergy.agents;
+
+import jade.core.AID;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Matching semantics of the broker order book.
+ */
+public class OrderBookTest
+    extends TestCase
+{
+    public OrderBookTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( OrderBookTest.class );
+    }
+
+    /**
+     * Best price first, older order first on the same price, trade at the ask.
+     */
+    public void testPriceTimePriority()
+    {
+        OrderBook book = new OrderBook();
+        OrderBook.Order a1 = book.add( null, 5, 0.05, true, 3 );
+        OrderBook.Order a2 = book.add( null, 5, 0.04, true, 3 );
+        OrderBook.Order a3 = book.add( null, 5, 0.04, true, 3 );
+        book.add( null, 8, 0.06, false, 3 );
+
+        final List<Long> sells = new ArrayList<>();
+        final List<Double> prices = new ArrayList<>();
+        book.match( ( buy, sell, qty, price ) -> { sells.add( sell.id ); prices.add( price ); } );
+
+        assertEquals( 2, sells.size() );
+        assertEquals( a2.id, (long) sells.get( 0 ) );
+        assertEquals( a3.id, (long) sells.get( 1 ) );
+        assertEquals( 0.04, prices.get( 1 ), 1e-12 );
+        assertEquals( 2.0, a3.qty, 1e-9 );
+        assertSame( a3, book.bestAsk() );
+        assertNull( book.bestBid() );
+        assertEquals( 2, book.size() );
+        assertSame( a1, book.get( a1.id ) );
+    }
+
+    public void testCancelAndExpireUnlinkLevels()
+    {
+        OrderBook book = new OrderBook();
+        OrderBook.Order b1 = book.add( null, 1, 0.10, false, 2 );
+        OrderBook.Order b2 = book.add( null, 1, 0.09, false, 5 );
+
+        assertEquals( 2, book.orders( false ) );
+        assertSame( b1, book.cancel( b1.id ) );
+        assertNull( book.cancel( b1.id ) );
+        assertSame( b2, book.bestBid() );
+        assertEquals( 1, book.orders( false ) );
+
+        final List<Long> expired = new ArrayList<>();
+        book.expire( 5, o -> expired.add( o.id ) );
+        assertEquals( 1, expired.size() );
+        assertEquals( 0, book.size() );
+        assertEquals( 0, book.levels( false ) );
+        assertEquals( 0, book.orders( false ) );
+        assertNull( book.bestBid() );
+    }
+
+    /**
+     * Orders sharing a wheel slot but due on a later lap must stay in the book.
+     */
+    public void testExpiryWheelLaps()
+    {
+        OrderBook book = new OrderBook();
+        OrderBook.Order soon = book.add( null, 1, 0.05, true, 3 );
+        OrderBook.Order late = book.add( null, 1, 0.05, true, 3 + 64 );
+
+        final List<Long> expired = new ArrayList<>();
+        for ( int tick = 1; tick <= 3; tick++ ) book.expire( tick, o -> expired.add( o.id ) );
+        assertEquals( 1, expired.size() );
+        assertEquals( soon.id, (long) expired.get( 0 ) );
+        assertSame( late, book.bestAsk() );
+
+        book.expire( 200, o -> expired.add( o.id ) );
+        assertEquals( 2, expired.size() );
+        assertEquals( 0, book.size() );
+    }
+
+    /**
+     * An order with a hold outlives its expiry and goes on the first tick after release.
+     */
+    public void testHeldOrderDoesNotExpire()
+    {
+        OrderBook book = new OrderBook();
+        OrderBook.Order held = book.add( null, 1, 0.05, true, 2 );
+        held.holds = 1;
+
+        final List<Long> expired = new ArrayList<>();
+        for ( int tick = 1; tick <= 4; tick++ ) book.expire( tick, o -> expired.add( o.id ) );
+        assertTrue( expired.isEmpty() );
+        assertSame( held, book.bestAsk() );
+
+        held.holds = 0;
+        book.expire( 5, o -> expired.add( o.id ) );
+        assertEquals( 1, expired.size() );
+        assertEquals( 0, book.size() );
+    }
+
+    /**
+     * Batch clearing: one price for every fill, volume where the curves meet.
+     */
+    public void testUniformPriceAuction()
+    {
+        OrderBook book = new OrderBook();
+        book.add( null, 5, 0.10, false, 3 );
+        book.add( null, 5, 0.08, false, 3 );
+        book.add( null, 4, 0.05, true, 3 );
+        book.add( null, 4, 0.07, true, 3 );
+        book.add( null, 5, 0.09, true, 3 );
+
+        assertEquals( 0.07, book.clearingPrice(), 1e-12 );
+
+        final double[] volume = new double[1];
+        final List<Double> prices = new ArrayList<>();
+        double price = book.auction( ( buy, sell, qty, p ) -> { volume[0] += qty; prices.add( p ); } );
+        assertEquals( 0.07, price, 1e-12 );
+        assertEquals( 8.0, volume[0], 1e-9 );
+        for ( double p : prices ) assertEquals( 0.07, p, 1e-12 );
+        assertTrue( Double.isNaN( book.clearingPrice() ) );
+    }
+
+    /**
+     * Shard books hand out disjoint ids and keep the owner's id for the fills.
+     */
+    public void testShardIdsAndClientId()
+    {
+        OrderBook first = new OrderBook( 0 );
+        OrderBook second = new OrderBook( 1 );
+        OrderBook.Order a = first.add( null, 7, 1, 0.05, true, 3 );
+        OrderBook.Order b = second.add( null, 7, 1, 0.05, true, 3 );
+
+        assertEquals( 1, a.id );
+        assertEquals( ( 1L << OrderBook.SHARD_BITS ) + 1, b.id );
+        assertEquals( 7, b.clientId );
+        assertSame( b, second.get( b.id ) );
+    }
+
+    /**
+     * Cancel and amend by the owner's id leave no dead orders behind.
+     */
+    public void testCancelAndAmendByClientId()
+    {
+        OrderBook book = new OrderBook();
+        AID trader = new AID( "trader", AID.ISGUID );
+        OrderBook.Order first = book.add( trader, 1, 10, 0.05, false, 3 );
+
+        OrderBook.Order second = book.amend( trader, 1, 2, 10, 0.06, false, 3 );
+        assertEquals( 1, book.size() );
+        assertNull( book.get( first.id ) );
+        assertSame( second, book.get( trader, 2 ) );
+        assertSame( second, book.bestBid() );
+
+        // the replaced order is gone: amending it again just places the new one
+        book.amend( trader, 1, 3, 5, 0.04, false, 3 );
+        assertEquals( 2, book.size() );
+
+        assertSame( second, book.cancel( trader, 2 ) );
+        assertNull( book.cancel( trader, 2 ) );
+        assertEquals( 1, book.levels( false ) );
+    }
+}
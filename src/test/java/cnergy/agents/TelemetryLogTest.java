@@ -0,0 +1,94 @@
+package cnergy.agents;
+
+import java.io.File;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Telemetry files: records survive a write / read round trip across file rolls,
+ * and old files are dropped past the kept count.
+ */
+public class TelemetryLogTest
+    extends TestCase
+{
+    public TelemetryLogTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( TelemetryLogTest.class );
+    }
+
+    private static File dir() throws Exception
+    {
+        File dir = File.createTempFile( "cnergy", ".telemetry" );
+        dir.delete();
+        dir.deleteOnExit();
+        return dir;
+    }
+
+    public void testRoundTripAcrossFiles() throws Exception
+    {
+        File dir = dir();
+        TelemetryLog log = new TelemetryLog( dir.getPath(), 5 * TelemetryLog.RECORD, 0 );
+        log.producer( "solar1", 40, 12.5, false );    // file 0: header, NAME, PRODUCER
+        log.trade( "wind1", "house1", 4, 0.05 );       // file 1: header, NAME x2, TRADE
+        log.order( 7, true, 3, 0.06, "solar1" );       // file 2: header, NAME, ORDER, REMOVE, WEATHER
+        log.remove( 7 );
+        log.weather( 9, true, true, false, Double.NaN, Double.NaN );
+        log.close();
+        assertEquals( 3, TelemetryLog.files( dir ).size() );
+
+        TelemetryLog.Reader r = new TelemetryLog.Reader( dir.getPath() );
+        assertTrue( r.next() );
+        assertEquals( TelemetryLog.PRODUCER, r.type() );
+        assertEquals( "solar1", r.name() );
+        assertEquals( 12.5, r.b() );
+        assertTrue( r.next() );
+        assertEquals( TelemetryLog.TRADE, r.type() );
+        assertEquals( "wind1", r.name() );
+        assertEquals( "house1", r.other() );
+        assertEquals( 0.05, r.b() );
+        assertTrue( r.next() );
+        assertEquals( TelemetryLog.ORDER, r.type() );
+        assertEquals( 1, r.flags() & 1 );
+        assertEquals( "solar1", r.name() );
+        assertEquals( 7, r.id() );
+        assertTrue( r.next() );
+        assertEquals( TelemetryLog.REMOVE, r.type() );
+        assertNull( r.name() );
+        assertTrue( r.next() );
+        assertEquals( TelemetryLog.WEATHER, r.type() );
+        assertEquals( 1 | 2, r.flags() );
+        assertEquals( 9, r.id() );
+        assertFalse( r.next() );
+        r.close();
+    }
+
+    public void testKeepNewestFiles() throws Exception
+    {
+        File dir = dir();
+        TelemetryLog log = new TelemetryLog( dir.getPath(), 4 * TelemetryLog.RECORD, 2 );
+        for ( int i = 0; i < 30; i++ ) log.price( "broker", 0.05 + i / 1000.0 );
+        log.close();
+        assertEquals( 14, log.file() ); // header, NAME and 2 ticks per file
+        assertEquals( 2, TelemetryLog.files( dir ).size() );
+
+        TelemetryLog.Reader r = new TelemetryLog.Reader( dir.getPath() );
+        double last = 0;
+        int n = 0;
+        while ( r.next() )
+        {
+            assertEquals( "broker", r.name() );
+            last = r.a();
+            n++;
+        }
+        r.close();
+        assertTrue( n >= 3 );
+        assertEquals( 0.079, last, 1e-12 );
+    }
+}
@@ -0,0 +1,80 @@
+package cnergy.agents;
+
+import java.io.File;
+
+import jade.core.AID;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Trade journal: records survive a write / replay round trip across segments.
+ */
+public class TradeJournalTest
+    extends TestCase
+{
+    public TradeJournalTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( TradeJournalTest.class );
+    }
+
+    public void testReplayAcrossSegments() throws Exception
+    {
+        File file = File.createTempFile( "cnergy", ".journal" );
+        file.deleteOnExit();
+        AID house = new AID( "house1", AID.ISGUID );
+        AID solar = new AID( "solar1", AID.ISGUID );
+
+        OrderBook book = new OrderBook( 1 );
+        TradeJournal journal = new TradeJournal( file.getPath(), 4 * TradeJournal.RECORD );
+        journal.tick( 7 );
+        OrderBook.Order buy = book.add( house, 11, 10, 0.06, false, 10 );
+        journal.order( TradeJournal.NEW, buy );
+        OrderBook.Order sell = book.add( solar, 0, 4, 0.05, true, 10 );
+        journal.order( TradeJournal.NEW, sell );
+        final TradeJournal j = journal;
+        book.match( ( b, s, qty, price ) -> {
+            j.trade( b, s, qty, price );
+            j.fill( s, qty, price, b.owner );
+            j.fill( b, qty, price, s.owner );
+        } );
+        journal.tick( 8 );
+        journal.order( TradeJournal.CANCEL, book.cancel( house, 11 ) );
+        assertEquals( 8, journal.records() ); // two NAME records
+        journal.close();
+        assertEquals( 9 * TradeJournal.RECORD, file.length() );
+
+        TradeJournal.Reader r = new TradeJournal.Reader( file.getPath(), 3 * TradeJournal.RECORD );
+        assertTrue( r.next() );
+        assertEquals( TradeJournal.NEW, r.type() );
+        assertEquals( "house1", r.owner() );
+        assertEquals( 11, r.ref() );
+        assertEquals( buy.id, r.id() );
+        assertEquals( 7, r.tick() );
+        assertFalse( r.isSell() );
+        assertTrue( r.next() );
+        assertTrue( r.isSell() );
+        assertTrue( r.next() );
+        assertEquals( TradeJournal.TRADE, r.type() );
+        assertEquals( "house1", r.owner() );
+        assertEquals( "solar1", r.other() );
+        assertEquals( 4.0, r.qty() );
+        assertEquals( 0.05, r.price() );
+        assertTrue( r.next() );
+        assertEquals( TradeJournal.FILL, r.type() );
+        assertEquals( "house1", r.other() );
+        assertTrue( r.next() );
+        assertTrue( r.next() );
+        assertEquals( TradeJournal.CANCEL, r.type() );
+        assertEquals( 6.0, r.qty() );
+        assertEquals( 8, r.tick() );
+        assertNull( r.other() );
+        assertFalse( r.next() );
+        r.close();
+    }
+}
@@ -0,0 +1,86 @@
+package cnergy.log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.EnumSet;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Event log: formatting off the ring, filtering, drops and the binary format.
+ */
+public class EventLogTest
+    extends TestCase
+{
+    public EventLogTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( EventLogTest.class );
+    }
+
+    /**
+     * Events come out in order, formatted as the agents used to print them.
+     */
+    public void testTextFormatAndLevels()
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        EventLog log = new EventLog( 8, new EventLog.TextSink( new PrintStream( bytes ) ), false );
+        Logger broker = new Logger( log, "broker", EventLog.Level.INFO, EnumSet.allOf( EventLog.Category.class ) );
+
+        assertFalse( broker.on( LogEvent.NEW_ORDER ) );
+        broker.event( LogEvent.NEW_ORDER ).s( "SELL" ).l( 1 ).d( 2 ).d( 3 ).s( "x" ).end();
+        broker.event( LogEvent.TRADE ).s( "house1" ).s( "solar2" ).d( 12.5 ).d( 0.0431 ).end();
+        broker.event( LogEvent.CLEARING_PRICE ).d( 0.0431 ).end();
+        assertEquals( 2, log.drainAvailable() );
+
+        String nl = System.lineSeparator();
+        assertEquals( "broker >> TRADE house1 <--> solar2 12.5 @ 0.043" + nl
+                    + "broker >> $$ CURRENT PRICE: 0.043" + nl, bytes.toString() );
+    }
+
+    /**
+     * A full ring drops (and counts) instead of blocking; draining frees the slots.
+     */
+    public void testFullRingDrops()
+    {
+        EventLog log = new EventLog( 4, new EventLog.TextSink( new PrintStream( new ByteArrayOutputStream() ) ), false );
+        Logger trader = new Logger( log, "trader", EventLog.Level.DEBUG, EnumSet.of( EventLog.Category.PRICE ) );
+
+        assertFalse( trader.on( LogEvent.TRADER_BID ) );
+        for ( int i = 0; i < 6; i++ ) trader.event( LogEvent.PRICE_TICK ).d( i ).end();
+        assertEquals( 2, log.dropped() );
+        assertEquals( 4, log.drainAvailable() );
+
+        trader.event( LogEvent.PRICE_TICK ).d( 7 ).end();
+        assertEquals( 1, log.drainAvailable() );
+        assertEquals( 2, log.dropped() );
+    }
+
+    /**
+     * Binary records decode back to the text lines, prefixed by the time.
+     */
+    public void testBinaryRoundTrip() throws Exception
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        EventLog log = new EventLog( 8, new EventLog.BinarySink( bytes ), false );
+        Logger solar = new Logger( log, "solar1", EventLog.Level.DEBUG, EnumSet.allOf( EventLog.Category.class ) );
+
+        solar.event( LogEvent.PRODUCER_FILLED ).l( 42 ).d( 3.0 ).d( 0.05 ).s( "house7" ).d( 0.004 ).end();
+        solar.event( LogEvent.WEATHER_UPDATE ).s( "SUNNY" ).s( "DAY" ).end();
+        log.drainAvailable();
+
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        EventLog.decode( new ByteArrayInputStream( bytes.toByteArray() ), new PrintStream( text ) );
+        String[] lines = text.toString().split( "\\R" );
+        assertEquals( 2, lines.length );
+        assertTrue( lines[0], lines[0].endsWith( " solar1 >> FILLED order id=42 3.0 kWh @ 0.050 from house7 | new margin 0.004" ) );
+        assertTrue( lines[1], lines[1].endsWith( " solar1 >> Weather update: SUNNY | DAY" ) );
+    }
+}
@@ -0,0 +1,92 @@
+package cnergy.metrics;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Chart history: fixed memory over any run length, spikes kept through bucket
+ * merges, raw newest samples, and LTTB downsampling.
+ */
+public class HistoryTest
+    extends TestCase
+{
+    public HistoryTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( HistoryTest.class );
+    }
+
+    public void testWholeRunInFixedMemory()
+    {
+        History h = new History( 64 );
+        int n = 1_000_000;
+        for ( int i = 0; i < n; i++ )
+        {
+            h.record( i, i == 123_457 ? 1e6 : i == 654_321 ? -1e6 : i % 100 );
+        }
+        assertEquals( n, h.samples() );
+        assertTrue( h.span() >= n / 64 );
+
+        double[] xs = new double[3 * h.capacity()], ys = new double[3 * h.capacity()];
+        int m = h.points( Double.NEGATIVE_INFINITY, xs, ys );
+        assertTrue( m <= 3 * h.capacity() );
+        assertEquals( 0.0, xs[0] );
+        assertEquals( n - 1.0, xs[m - 1] );
+        assertEquals( h.lastValue(), ys[m - 1] );
+        double max = Double.NEGATIVE_INFINITY, min = Double.POSITIVE_INFINITY;
+        for ( int i = 0; i < m; i++ )
+        {
+            if ( i > 0 ) assertTrue( xs[i] >= xs[i - 1] );
+            max = Math.max( max, ys[i] );
+            min = Math.min( min, ys[i] );
+        }
+        assertEquals( 1e6, max );
+        assertEquals( -1e6, min );
+    }
+
+    public void testNewestSamplesRaw()
+    {
+        History h = new History( 16 );
+        double[] xs = new double[48], ys = new double[48];
+        assertEquals( 0, h.points( 0, xs, ys ) );
+        assertTrue( Double.isNaN( h.lastTime() ) );
+        for ( int i = 0; i < 100; i++ ) h.record( i * 0.5, i );
+        assertEquals( 49.5, h.lastTime() );
+        assertEquals( 11, h.points( 44.5, xs, ys ) );
+        for ( int i = 0; i < 11; i++ )
+        {
+            assertEquals( 89.0 + i, ys[i] );
+        }
+    }
+
+    public void testLttb()
+    {
+        int n = 1000;
+        double[] xs = new double[n], ys = new double[n], ox = new double[n], oy = new double[n];
+        for ( int i = 0; i < n; i++ )
+        {
+            xs[i] = i;
+            ys[i] = i == 500 ? 50 : Math.sin( i / 50.0 );
+        }
+        int m = History.lttb( xs, ys, n, 60, ox, oy );
+        assertEquals( 60, m );
+        assertEquals( 0.0, ox[0] );
+        assertEquals( n - 1.0, ox[m - 1] );
+        boolean spike = false;
+        for ( int i = 0; i < m; i++ )
+        {
+            if ( i > 0 ) assertTrue( ox[i] > ox[i - 1] );
+            spike |= oy[i] == 50;
+        }
+        assertTrue( spike );
+
+        assertEquals( 10, History.lttb( xs, ys, 10, 60, ox, oy ) );
+        assertEquals( 9.0, ox[9] );
+        assertEquals( 2, History.lttb( xs, ys, n, 2, ox, oy ) );
+    }
+}
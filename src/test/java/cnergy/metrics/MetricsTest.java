@@ -0,0 +1,149 @@
+package cnergy.metrics;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Histogram buckets and quantiles, interval rates, JMX and CSV output.
+ */
+public class MetricsTest
+    extends TestCase
+{
+    public MetricsTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( MetricsTest.class );
+    }
+
+    /**
+     * Every value lands in a bucket whose range holds it, within 1/16 relative error.
+     */
+    public void testHistogramBuckets()
+    {
+        for ( long v : new long[] { 0, 1, 15, 16, 17, 100, 1000, 123456789, Long.MAX_VALUE } )
+        {
+            int b = Histogram.bucket( v );
+            assertTrue( b < Histogram.BUCKETS );
+            assertTrue( Histogram.low( b ) <= v );
+            assertTrue( b + 1 == Histogram.BUCKETS || v < Histogram.low( b + 1 ) );
+            assertTrue( Math.abs( Histogram.mid( b ) - v ) <= v / 16.0 + 0.5 );
+        }
+    }
+
+    /**
+     * Quantiles cover only the values recorded since the last sample.
+     */
+    public void testIntervalQuantiles()
+    {
+        Histogram h = new Histogram();
+        for ( int i = 1; i <= 1000; i++ ) h.record( i * 1000L );
+        h.sample( 1 );
+        java.util.Map<String, Double> v = report( h );
+        assertEquals( 1000.0, v.get( ".count" ), 0 );
+        assertEquals( 500000, v.get( ".p50" ), 500000 / 16.0 );
+        assertEquals( 990000, v.get( ".p99" ), 990000 / 16.0 );
+        assertEquals( 1000000.0, v.get( ".max" ), 0 );
+
+        h.record( 5 );
+        h.sample( 1 );
+        v = report( h );
+        assertEquals( 1.0, v.get( ".count" ), 0 );
+        assertEquals( 5.0, v.get( ".p99" ), 0 );
+        assertEquals( 1000000.0, v.get( ".max" ), 0 );
+    }
+
+    public void testRatesJmxAndCsv() throws Exception
+    {
+        File csv = File.createTempFile( "metrics", ".csv" );
+        csv.deleteOnExit();
+        System.setProperty( "cnergy.metrics.csv", csv.getPath() );
+        try
+        {
+            Counter orders = Metrics.counter( "test-broker", "orders" );
+            Sum backlog = Metrics.sum( "test-broker", "backlog" );
+            Metrics.gauge( "test-broker", "bid.orders" ).set( 7 );
+            orders.add( 40 );
+            backlog.add( 12.5 );
+            backlog.add( -2.5 );
+            Metrics.sample();
+            assertEquals( 40, orders.count() );
+            assertTrue( orders.rate() > 0 );
+            assertEquals( 10.0, backlog.get(), 1e-12 );
+
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName( "cnergy:type=Metrics,group=test-broker" );
+            assertEquals( 40.0, server.getAttribute( name, "orders" ) );
+            assertEquals( 7.0, server.getAttribute( name, "bid.orders" ) );
+
+            List<String> lines = Files.readAllLines( csv.toPath(), StandardCharsets.UTF_8 );
+            assertEquals( "time_ms,group,metric,value", lines.get( 0 ) );
+            boolean found = false;
+            for ( String line : lines ) found |= line.endsWith( ",test-broker,orders,40.0" );
+            assertTrue( found );
+
+            try {
+                Metrics.gauge( "test-broker", "orders" );
+                fail( "expected a type clash" );
+            } catch ( IllegalArgumentException expected ) {
+            }
+        }
+        finally
+        {
+            System.clearProperty( "cnergy.metrics.csv" );
+        }
+    }
+
+    /**
+     * Sketch quantiles stay within the relative accuracy, also after merging
+     * sketches filled by different threads; negatives and zeros are ranked too.
+     */
+    public void testQuantileSketch()
+    {
+        java.util.Random rand = new java.util.Random( 3 );
+        int n = 100_000;
+        double[] exact = new double[n];
+        QuantileSketch a = new QuantileSketch( 0.01 ), b = new QuantileSketch( 0.01 );
+        for ( int i = 0; i < n; i++ )
+        {
+            exact[i] = i % 10 == 0 ? 0 : i % 10 == 1 ? -rand.nextDouble() : Math.exp( rand.nextGaussian() * 3 );
+            ( i % 2 == 0 ? a : b ).add( exact[i] );
+        }
+        a.merge( b );
+        java.util.Arrays.sort( exact );
+        assertEquals( n, a.count() );
+        assertEquals( exact[0], a.min() );
+        assertEquals( exact[n - 1], a.max() );
+        for ( double q : new double[] { 0.01, 0.05, 0.1, 0.15, 0.25, 0.5, 0.9, 0.99, 0.999 } )
+        {
+            double truth = exact[(int) Math.floor( q * ( n - 1 ) )];
+            assertEquals( truth, a.quantile( q ), 0.0101 * Math.abs( truth ) );
+        }
+        assertTrue( Double.isNaN( new QuantileSketch().quantile( 0.5 ) ) );
+        try {
+            a.merge( new QuantileSketch( 0.02 ) );
+            fail( "expected an accuracy clash" );
+        } catch ( IllegalArgumentException expected ) {
+        }
+    }
+
+    private static java.util.Map<String, Double> report( Metric m )
+    {
+        final java.util.Map<String, Double> values = new java.util.HashMap<>();
+        m.report( ( suffix, value ) -> values.put( suffix, value ) );
+        return values;
+    }
+}
@@ -0,0 +1,147 @@
+package cnergy.scenario;
+
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Scenario files: parsing, naming, placement and argument resolution.
+ */
+public class ScenarioTest
+    extends TestCase
+{
+    public ScenarioTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( ScenarioTest.class );
+    }
+
+    public void testExpandGroups()
+    {
+        Scenario s = Scenario.parse(
+              "{ \"seed\": 1, \"containers\": 2, \"zones\": [\"a\", \"b\"],\n"
+            + "  // comments are allowed\n"
+            + "  \"agents\": [\n"
+            + "    {\"name\": \"broker\", \"class\": \"B\", \"perZone\": true, \"container\": \"zone\", \"args\": [3, \"$zone\", \"$shard\", \"j/$name.journal\"]},\n"
+            + "    {\"name\": \"house\", \"class\": \"C\", \"count\": 3, \"container\": \"spread\",\n"
+            + "     \"args\": [{\"uniform\": [1, 2]}, {\"int\": [5, 6]}, [1, 2.5], [\"x\", \"$i\"], true, \"$zone\"]}\n"
+            + "  ] }" );
+        assertEquals( 5, s.size() );
+        assertEquals( 3, s.containerNames().size() ); // worker-1, worker-2, zone-b
+
+        List<Scenario.AgentSpec> brokers = s.expand( 0 );
+        assertEquals( "broker", brokers.get( 0 ).name );
+        assertEquals( "broker-b", brokers.get( 1 ).name );
+        assertEquals( Scenario.MAIN, brokers.get( 0 ).container );
+        assertEquals( "zone-b", brokers.get( 1 ).container );
+        assertEquals( Integer.valueOf( 3 ), brokers.get( 1 ).args[0] );
+        assertEquals( "b", brokers.get( 1 ).args[1] );
+        assertEquals( "1", brokers.get( 1 ).args[2] );
+        assertEquals( "j/broker-b.journal", brokers.get( 1 ).args[3] );
+
+        List<Scenario.AgentSpec> houses = s.expand( 1 );
+        assertEquals( "house2", houses.get( 1 ).name );
+        assertEquals( "worker-1", houses.get( 0 ).container );
+        assertEquals( "worker-2", houses.get( 1 ).container );
+        assertEquals( "worker-1", houses.get( 2 ).container );
+        Object[] args = houses.get( 1 ).args;
+        double u = (Double) args[0];
+        assertTrue( u >= 1 && u < 2 );
+        int n = (Integer) args[1];
+        assertTrue( n == 5 || n == 6 );
+        assertEquals( 2.5, ( (double[]) args[2] )[1] );
+        assertEquals( "2", ( (String[]) args[3] )[1] );
+        assertEquals( Boolean.TRUE, args[4] );
+        assertEquals( "a", args[5] ); // zones round robin from index 1
+
+        // same seed, same draws
+        assertEquals( u, (Double) s.expand( 1 ).get( 1 ).args[0] );
+    }
+
+    public void testBundledScenarios() throws Exception
+    {
+        Scenario def = Scenario.load( "default" );
+        assertEquals( 1 + 1 + 1 + 1 + 1 + 1 + 5 + 5 + 10 + 10, def.size() );
+        Scenario large = Scenario.load( "large" );
+        assertEquals( 3 + 4 + 10000 + 100000, large.size() );
+        assertTrue( large.expand( 7 ).get( 0 ).args[3] instanceof double[] );
+        Scenario population = Scenario.load( "population" );
+        assertEquals( 3 + 4 + 4 + 4 + 4 + 4, population.size() );
+        Object[] evProfiles = (Object[]) population.expand( 7 ).get( 0 ).args[4];
+        assertTrue( population.expand( 4 ).get( 0 ).args[2] instanceof double[] );
+        assertTrue( evProfiles[1] instanceof double[] );
+    }
+
+    public void testErrors()
+    {
+        try {
+            Scenario.parse( "{\"agents\": [{\"name\": \"x\"}]}" );
+            fail( "expected a parse error" );
+        } catch ( IllegalArgumentException expected ) {
+            assertTrue( expected.getMessage().contains( "class" ) );
+        }
+        try {
+            Scenario.parse( "{\"agents\": [\n{\"name\": \"x\",}]}" );
+            fail( "expected a parse error" );
+        } catch ( IllegalArgumentException expected ) {
+            assertTrue( expected.getMessage(), expected.getMessage().contains( "line 2" ) );
+        }
+    }
+
+    /**
+     * Headless: no RMA, Sniffer or GUI; the telemetry sink takes the GUI's name.
+     */
+    public void testHeadless()
+    {
+        String agents = "  \"agents\": [\n"
+            + "    {\"name\": \"sniffer\", \"class\": \"jade.tools.sniffer.Sniffer\"},\n"
+            + "    {\"name\": \"weather\", \"class\": \"W\"},\n"
+            + "    {\"name\": \"gui\", \"class\": \"cnergy.agents.GUIAgent\"}\n"
+            + "  ] }";
+        Scenario s = Scenario.parse( "{ \"headless\": true, \"telemetry\": \"out\",\n" + agents );
+        assertFalse( s.rma );
+        assertEquals( 2, s.groups.size() );
+        assertEquals( "weather", s.groups.get( 0 ).name );
+        Scenario.AgentSpec sink = s.expand( 1 ).get( 0 );
+        assertEquals( Scenario.GUI, sink.name );
+        assertEquals( Scenario.SINK, sink.className );
+        assertEquals( "out", sink.args[0] );
+
+        Scenario gui = Scenario.parse( "{ \"rma\": true,\n" + agents );
+        assertTrue( gui.rma );
+        assertEquals( 3, gui.groups.size() );
+
+        Scenario noGui = Scenario.parse( "{ \"headless\": true, \"agents\": [{\"name\": \"weather\", \"class\": \"W\"}] }" );
+        assertEquals( Scenario.SINK, noGui.groups.get( 0 ).className );
+        assertEquals( "telemetry", noGui.telemetry );
+    }
+
+    /**
+     * Clocked: a clock goes first and waits for every stepped agent, not for the GUI.
+     */
+    public void testClock()
+    {
+        Scenario s = Scenario.parse( "{ \"clock\": true, \"zones\": [\"a\", \"b\"], \"agents\": [\n"
+            + "  {\"name\": \"broker\", \"class\": \"cnergy.agents.BrokerAgent\", \"perZone\": true},\n"
+            + "  {\"name\": \"solar\", \"class\": \"cnergy.agents.SolarAgent\", \"count\": 3},\n"
+            + "  {\"name\": \"sniffer\", \"class\": \"jade.tools.sniffer.Sniffer\"},\n"
+            + "  {\"name\": \"gui\", \"class\": \"cnergy.agents.GUIAgent\"}\n"
+            + "] }" );
+        assertTrue( s.clock );
+        assertEquals( 5, s.groups.size() );
+        Scenario.AgentSpec clock = s.expand( 0 ).get( 0 );
+        assertEquals( "clock", clock.name );
+        assertEquals( Scenario.CLOCK, clock.className );
+        assertEquals( 5, clock.args[0] );
+
+        Scenario own = Scenario.parse( "{ \"clock\": true, \"agents\": [{\"name\": \"tick\", \"class\": \"cnergy.agents.ClockAgent\", \"args\": [0, 500]}] }" );
+        assertEquals( 1, own.groups.size() );
+        assertFalse( Scenario.parse( "{ \"agents\": [] }" ).clock );
+    }
+}
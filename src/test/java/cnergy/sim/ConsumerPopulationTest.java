@@ -0,0 +1,91 @@
+package cnergy.sim;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * A population behaves like the same consumers modelled one by one.
+ */
+public class ConsumerPopulationTest
+    extends TestCase
+{
+    public ConsumerPopulationTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( ConsumerPopulationTest.class );
+    }
+
+    public void testMatchesConsumerModel()
+    {
+        double[] household = { 1,1,1,1,1,1, 2,3,3,2,2,2, 2,2,2,2,3,5, 5,4,3,2,1,1 };
+        double[] ev = { 0,0,0,0,0,0, 0,0,0,0,0,0, 0,0,0,0,8, 8,8,7,7,6,5,4 };
+        double[] mult = { 1, 1.5, 2 };
+        int n = 7;
+        ConsumerPopulation population = new ConsumerPopulation( n, 0.005, 0.003, 0.14, new double[][] { household, ev }, mult );
+        ConsumerModel[] models = new ConsumerModel[n];
+        for ( int i = 0; i < n; i++ )
+        {
+            models[i] = new ConsumerModel( 0.005, 0.003, 0.14, i % 2 == 0 ? household : ev, mult[i % 3] );
+        }
+
+        int[] who = new int[n];
+        double[] qty = new double[n];
+        double[] price = new double[n];
+        for ( int tick = 1; tick <= 48; tick++ )
+        {
+            int bids = population.step( who, qty, price );
+            int k = 0;
+            for ( int i = 0; i < n; i++ )
+            {
+                double demand = models[i].demand();
+                if ( demand == 0 ) continue;
+                assertEquals( i, who[k] );
+                assertEquals( demand, qty[k], 1e-12 );
+                assertEquals( models[i].bidPrice(), price[k], 1e-12 );
+                k++;
+                // consumer i: filled in part on even ticks, rejected every third tick
+                if ( ( tick + i ) % 3 == 0 )
+                {
+                    models[i].onReject();
+                    population.onReject( i );
+                }
+                else if ( tick % 2 == 0 )
+                {
+                    models[i].onFill( demand / 2, 0.1 );
+                    population.onFill( i, demand / 2 );
+                }
+            }
+            assertEquals( k, bids );
+            for ( int i = 0; i < n; i++ )
+            {
+                assertEquals( models[i].backlog(), population.backlog( i ), 1e-12 );
+                assertEquals( models[i].margin(), population.margin( i ), 1e-12 );
+                assertEquals( models[i].openQty(), population.openQty( i ), 1e-12 );
+            }
+        }
+    }
+
+    /**
+     * A deferred hour carries the whole demand over, like a reject without the margin change.
+     */
+    public void testDefer()
+    {
+        double[] flat = new double[ConsumerPopulation.HOURS];
+        java.util.Arrays.fill( flat, 2 );
+        ConsumerPopulation population = new ConsumerPopulation( 2, 0.005, 0.003, 0.14, new double[][] { flat }, new double[] { 1 } );
+        int[] who = new int[2];
+        double[] qty = new double[2];
+        double[] price = new double[2];
+        int bids = population.step( who, qty, price );
+        assertEquals( 4.0, population.defer( who, bids ), 1e-12 );
+        assertEquals( 2.0, population.backlog( 1 ), 1e-12 );
+        assertEquals( 0.005, population.margin( 1 ), 1e-12 );
+        population.step( who, qty, price );
+        assertEquals( 4.0, qty[0], 1e-12 );
+    }
+}
@@ -0,0 +1,52 @@
+package cnergy.sim;
+
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Monte Carlo studies: seeded runs merged into the same summary on any pool.
+ */
+public class MonteCarloTest
+    extends TestCase
+{
+    public MonteCarloTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( MonteCarloTest.class );
+    }
+
+    /**
+     * A Monte Carlo study depends on its seed only, not on the number of threads.
+     */
+    public void testMonteCarlo()
+    {
+        MonteCarlo study = new MonteCarlo( SimEngine::defaultScenario, 24 * 7, 5 );
+        ForkJoinPool one = new ForkJoinPool( 1 );
+        ForkJoinPool four = new ForkJoinPool( 4 );
+        MonteCarlo.Summary serial = study.run( 12, one );
+        MonteCarlo.Summary parallel = study.run( 12, four );
+        one.shutdown();
+        four.shutdown();
+
+        assertEquals( 12, serial.runs );
+        assertEquals( 12, study.done() );
+        assertEquals( 12 * 24 * 7, serial.price.count() );
+        assertEquals( serial.trades, parallel.trades );
+        for ( double q : new double[] { 0.1, 0.5, 0.9 } )
+        {
+            assertEquals( serial.price.quantile( q ), parallel.price.quantile( q ) );
+            assertEquals( serial.unmet.quantile( q ), parallel.unmet.quantile( q ) );
+            assertEquals( serial.renewable.quantile( q ), parallel.renewable.quantile( q ) );
+        }
+        double share = serial.renewable.quantile( 0.5 );
+        assertTrue( share > 0 && share <= 1 );
+        assertFalse( MonteCarlo.seed( 5, 0 ) == MonteCarlo.seed( 5, 1 ) );
+    }
+}
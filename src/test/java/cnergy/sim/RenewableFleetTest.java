@@ -0,0 +1,97 @@
+package cnergy.sim;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * A fleet behaves like the same plants modelled one by one.
+ */
+public class RenewableFleetTest
+    extends TestCase
+{
+    public RenewableFleetTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( RenewableFleetTest.class );
+    }
+
+    public void testSolarMatchesModel()
+    {
+        check( RenewableModel.Source.SOLAR, 1.0, 0.4 );
+    }
+
+    public void testWindMatchesModel()
+    {
+        check( RenewableModel.Source.WIND, 1.0, 0.2 );
+    }
+
+    private void check( RenewableModel.Source source, double high, double low )
+    {
+        int n = 9;
+        RenewableFleet fleet = new RenewableFleet( source, n, high, low, 0.005, 0.005 );
+        RenewableModel[] models = new RenewableModel[n];
+        for ( int i = 0; i < n; i++ )
+        {
+            double capacity = 10 + 5 * i, batt = 40 + 10 * ( i % 3 ), cost = 0.03 + 0.001 * i;
+            fleet.setPlant( i, capacity, batt, cost );
+            models[i] = new RenewableModel( source, capacity, batt, high, low, cost, 0.005, 0.005 );
+        }
+
+        int[] who = new int[n];
+        double[] qty = new double[n];
+        double[] price = new double[n];
+        for ( int tick = 1; tick <= 72; tick++ )
+        {
+            boolean favourable = tick % 5 < 3, day = tick % 24 >= 6 && tick % 24 < 20;
+            fleet.setWeather( favourable, day );
+            fleet.setLastPrice( 0.04 + 0.001 * ( tick % 7 ) );
+            if ( tick % 11 == 0 ) fleet.fault( tick % n, 3 );
+            for ( int i = 0; i < n; i++ )
+            {
+                models[i].setWeather( favourable, day );
+                models[i].setLastPrice( 0.04 + 0.001 * ( tick % 7 ) );
+                if ( tick % 11 == 0 && i == tick % n ) models[i].fault( 3 );
+            }
+
+            int offers = fleet.step( who, qty, price );
+            int k = 0;
+            double curtailed = 0;
+            for ( int i = 0; i < n; i++ )
+            {
+                if ( models[i].isFaulty() && models[i].countDownFault() ) continue;
+                double available = models[i].produce();
+                curtailed += models[i].curtailed();
+                if ( available == 0 ) continue;
+                assertEquals( i, who[k] );
+                assertEquals( available, qty[k], 1e-12 );
+                assertEquals( models[i].askPrice(), price[k], 1e-12 );
+                k++;
+                // plant i: rejected every fourth tick, otherwise a partial fill
+                if ( ( tick + i ) % 4 == 0 )
+                {
+                    models[i].onReject();
+                    fleet.onReject( i );
+                }
+                else
+                {
+                    models[i].onFill( available * 0.6, 0.05 );
+                    fleet.onFill( i, available * 0.6 );
+                }
+            }
+            assertEquals( k, offers );
+            assertEquals( curtailed, fleet.totalCurtailed(), 1e-9 );
+            for ( int i = 0; i < n; i++ )
+            {
+                assertEquals( models[i].soc(), fleet.soc( i ), 1e-9 );
+                assertEquals( models[i].margin(), fleet.margin( i ), 1e-12 );
+                assertEquals( models[i].production(), fleet.production( i ), 1e-12 );
+                assertEquals( models[i].isFaulty(), fleet.isFaulty( i ) );
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package cnergy.sim;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Virtual-clock engine: event order and reproducible runs.
+ */
+public class SimEngineTest
+    extends TestCase
+{
+    public SimEngineTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( SimEngineTest.class );
+    }
+
+    /**
+     * Same time runs by phase, then by scheduling order; periodic events repeat.
+     */
+    public void testEventOrder()
+    {
+        EventQueue events = new EventQueue();
+        final List<String> log = new ArrayList<>();
+        events.every( 2, 2, 1, () -> log.add( "b" ) );
+        events.every( 1, 1, 0, () -> log.add( "a" ) );
+        events.schedule( 2, 0, () -> log.add( "c" ) );
+
+        events.runUntil( 4 );
+        assertEquals( Arrays.asList( "a", "c", "a", "b", "a", "a", "b" ), log );
+        assertEquals( 4, events.now() );
+    }
+
+    /**
+     * Same seed, same market; a month of trading takes no wall-clock waiting.
+     */
+    public void testDeterministicRun()
+    {
+        SimEngine.Result first = SimEngine.defaultScenario( 7 ).run( 24 * 30 );
+        SimEngine.Result second = SimEngine.defaultScenario( 7 ).run( 24 * 30 );
+
+        assertTrue( first.trades > 0 );
+        assertEquals( first.trades, second.trades );
+        assertTrue( Arrays.equals( first.price, second.price ) );
+        assertTrue( Arrays.equals( first.volume, second.volume ) );
+    }
+
+    /**
+     * The engine runs in a JVM that has never started a JADE container.
+     */
+    public void testFreshJvm() throws Exception
+    {
+        String java = System.getProperty( "java.home" ) + File.separator + "bin" + File.separator + "java";
+        Process p = new ProcessBuilder( java, "-cp", System.getProperty( "java.class.path" ), SimEngine.class.getName(), "48", "3" )
+            .redirectErrorStream( true ).start();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        try ( InputStream in = p.getInputStream() )
+        {
+            for ( int n; ( n = in.read( buf ) ) > 0; ) out.write( buf, 0, n );
+        }
+        String text = out.toString( "UTF-8" );
+        assertEquals( text, 0, p.waitFor() );
+        assertTrue( text, text.startsWith( "Simulated 48 h" ) );
+    }
+}
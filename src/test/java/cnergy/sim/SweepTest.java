@@ -0,0 +1,70 @@
+package cnergy.sim;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Parameter sweeps: sampling, and successive halving on any pool.
+ */
+public class SweepTest
+    extends TestCase
+{
+    public SweepTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( SweepTest.class );
+    }
+
+    /**
+     * Latin-hypercube points cover every stratum of every parameter once; a grid is the full product.
+     */
+    public void testSampling()
+    {
+        List<Sweep.Param> space = Arrays.asList( new Sweep.Param( "a", 0, 1 ), new Sweep.Param( "b", -2, 2 ) );
+        List<double[]> lhs = Sweep.latinHypercube( space, 9, 3 );
+        boolean[][] strata = new boolean[2][9];
+        for ( double[] x : lhs )
+        {
+            strata[0][(int) ( x[0] * 9 )] = true;
+            strata[1][(int) ( ( x[1] + 2 ) / 4 * 9 )] = true;
+        }
+        for ( boolean[] d : strata ) for ( boolean hit : d ) assertTrue( hit );
+        assertEquals( 27, Sweep.grid( Sweep.PRICING.subList( 0, 3 ), 3 ).size() );
+    }
+
+    /**
+     * The best third go on to more runs, and the ranking does not depend on the number of threads.
+     */
+    public void testHalving()
+    {
+        Sweep sweep = new Sweep( Sweep.PRICING, Sweep::pricing, 24 * 3, 7 );
+        sweep.setHalving( 1, 3, 3 );
+        List<double[]> points = Sweep.latinHypercube( Sweep.PRICING, 9, 7 );
+        ForkJoinPool one = new ForkJoinPool( 1 );
+        ForkJoinPool four = new ForkJoinPool( 4 );
+        List<Sweep.Candidate> serial = sweep.run( points, one );
+        List<Sweep.Candidate> parallel = sweep.run( points, four );
+        one.shutdown();
+        four.shutdown();
+
+        assertEquals( 9 + 3 * 2, sweep.done() );   // 9 candidates once, the best 3 topped up to 3 runs
+        assertEquals( 9, serial.size() );
+        for ( int i = 0; i < 9; i++ )
+        {
+            assertEquals( i < 3 ? 3 : 1, serial.get( i ).runs );
+            assertSame( serial.get( i ).x, parallel.get( i ).x );
+            assertEquals( serial.get( i ).score, parallel.get( i ).score );
+        }
+        assertTrue( serial.get( 0 ).score <= serial.get( 2 ).score );
+        assertTrue( serial.get( 0 ).meanPrice() > 0 );
+    }
+}
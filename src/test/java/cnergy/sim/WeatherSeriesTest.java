@@ -0,0 +1,133 @@
+package cnergy.sim;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Weather replay: CSV conversion, chunked reads with wrap-around, and the
+ * output a replayed hour gives a plant.
+ */
+public class WeatherSeriesTest
+    extends TestCase
+{
+    private static final int HOURS = 50;
+
+    public WeatherSeriesTest( String testName )
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( WeatherSeriesTest.class );
+    }
+
+    /**
+     * Site {@code s}, hour {@code h}: irradiance 10h + s, wind h / 10, temperature s - h.
+     */
+    private static File recording() throws IOException
+    {
+        File csv = File.createTempFile( "cnergy", ".csv" );
+        csv.deleteOnExit();
+        try ( Writer out = new FileWriter( csv ) )
+        {
+            out.write( "time,athens.ghi,athens.wind,athens.temp,north.ghi,north.wind,north.temp\n" );
+            for ( int h = 0; h < HOURS; h++ )
+            {
+                out.write( "2024-01-01T" + h + "," + ( 10 * h ) + "," + ( h / 10.0 ) + "," + ( -h )
+                    + "," + ( 10 * h + 1 ) + "," + ( h / 10.0 ) + "," + ( 1 - h ) + "\n" );
+            }
+        }
+        return csv;
+    }
+
+    public void testReplayAcrossChunks() throws Exception
+    {
+        File bin = File.createTempFile( "cnergy", ".weather" );
+        bin.deleteOnExit();
+        assertEquals( HOURS, WeatherSeries.convert( recording().getPath(), bin.getPath() ) );
+
+        try ( WeatherSeries series = new WeatherSeries( bin.getPath(), 7 * 2 * WeatherSeries.RECORD ) )
+        {
+            assertEquals( HOURS, series.hours() );
+            assertEquals( 2, series.sites() );
+            assertEquals( "north", series.site( 1 ) );
+            assertEquals( 1, series.site( "north" ) );
+            assertEquals( -1, series.site( "south" ) );
+
+            for ( int h = 0; h < 3 * HOURS; h++ )
+            {
+                series.seek( h );
+                int r = h % HOURS;
+                assertEquals( 10.0 * r, series.irradiance( 0 ), 1e-6 );
+                assertEquals( 10.0 * r + 1, series.irradiance( 1 ), 1e-6 );
+                assertEquals( r / 10.0, series.windSpeed( 1 ), 1e-6 );
+                assertEquals( 1.0 - r, series.temperature( 1 ), 1e-6 );
+            }
+            series.seek( 12 ); // backwards
+            assertEquals( 120.0, series.irradiance( 0 ), 1e-6 );
+        }
+    }
+
+    public void testBadHeader() throws Exception
+    {
+        File csv = File.createTempFile( "cnergy", ".csv" );
+        csv.deleteOnExit();
+        try ( Writer out = new FileWriter( csv ) )
+        {
+            out.write( "time,athens.ghi,athens.temp,athens.wind\n0,1,2,3\n" );
+        }
+        try
+        {
+            WeatherSeries.convert( csv.getPath(), csv.getPath() + ".bin" );
+            fail( "columns out of order" );
+        }
+        catch ( IOException expected )
+        {
+            assertTrue( expected.getMessage().contains( "athens.temp" ) );
+        }
+        finally
+        {
+            new File( csv.getPath() + ".bin" ).delete();
+        }
+    }
+
+    /**
+     * A replayed model reads its site every period hours and turns it into plant output.
+     */
+    public void testReplayedOutput() throws Exception
+    {
+        File bin = File.createTempFile( "cnergy", ".weather" );
+        bin.deleteOnExit();
+        WeatherSeries.convert( recording().getPath(), bin.getPath() );
+        try ( WeatherSeries series = new WeatherSeries( bin.getPath() ) )
+        {
+            WeatherModel weather = new WeatherModel( 3, series, 1 );
+            for ( int k = 0; k < 40; k++ ) weather.step(); // hour 120 -> recorded hour 20
+            assertTrue( weather.isReplay() );
+            assertEquals( 201.0, weather.irradiance(), 1e-6 );
+            assertEquals( 2.0, weather.windSpeed(), 1e-6 );
+            assertEquals( "CLOUDY", weather.solarToken() );
+            assertEquals( 0.0, weather.output( RenewableModel.Source.WIND ), 0 );
+            assertEquals( WeatherModel.solarOutput( 201, -19 ), weather.output( RenewableModel.Source.SOLAR ), 1e-12 );
+        }
+
+        assertEquals( 1.0, WeatherModel.solarOutput( 1000, -5 ), 1e-12 ); // 25 °C cell
+        assertEquals( 0.0, WeatherModel.solarOutput( 0, 20 ), 0 );
+        assertEquals( 1.0, WeatherModel.windOutput( 15 ), 0 );
+        assertEquals( 0.0, WeatherModel.windOutput( 30 ), 0 );
+        assertTrue( WeatherModel.windOutput( 8 ) > 0.2 && WeatherModel.windOutput( 8 ) < 0.3 );
+
+        RenewableModel plant = new RenewableModel( RenewableModel.Source.SOLAR, 20, 100, 1.0, 0.4, 0.035, 0.005, 0.003 );
+        plant.setWeather( 0.25, true );
+        assertEquals( 5.0, plant.produce(), 1e-12 );
+        plant.setWeather( true, true );
+        assertEquals( 20.0, plant.produce(), 1e-12 ); // coefficients again
+    }
+}